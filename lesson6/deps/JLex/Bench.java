@@ -0,0 +1,395 @@
+/***************************************************************
+  JLex generator benchmark.
+
+  Synthesizes specifications of doubling size along several axes
+  and runs the full generator on each, reporting the time spent in
+  every stage (CMakeNfa.thompson, CSimplifyNfa.simplify,
+  CNfa2Dfa.make_dfa, CMinimize.min_dfa, CEmit.emit), the machine
+  sizes after each stage and the peak heap.  Growth by much more
+  than 2x from one row to the next marks a superlinear stage.
+
+  Usage: java -cp ../deps JLex.Bench [-lazy] [max_size [family ...]]
+    -lazy     generate %lazy lexers, which skip the DFA stages
+    max_size  largest size to generate (default 128)
+    family    any of keywords, macros, states, classes (default all)
+  **************************************************************/
+package JLex;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Iterator;
+
+public class Bench
+{
+  /***************************************************************
+    Constants
+    **************************************************************/
+  static final String FAMILIES[] = {
+    "keywords", "macros", "states", "classes"
+  };
+  private static final int MIN_SIZE = 16;
+  private static final int DEFAULT_MAX_SIZE = 128;
+
+  private static boolean s_lazy = false;
+
+  /***************************************************************
+    Function: main
+    **************************************************************/
+  public static void main
+    (
+     String arg[]
+     )
+    throws java.io.IOException
+      {
+	int max_size = DEFAULT_MAX_SIZE;
+	String families[] = FAMILIES;
+	java.io.File dir;
+	int first = 0;
+	int i;
+	int n;
+
+	if (arg.length > first && "-lazy".equals(arg[first]))
+	  {
+	    s_lazy = true;
+	    ++first;
+	  }
+	if (arg.length > first)
+	  {
+	    max_size = Integer.parseInt(arg[first]);
+	  }
+	if (arg.length > first + 1)
+	  {
+	    families = new String[arg.length - first - 1];
+	    System.arraycopy(arg,first + 1,families,0,families.length);
+	  }
+
+	/* Never measure the generation cache. */
+	System.getProperties().remove(CGenCache.PROPERTY);
+
+	dir = java.io.File.createTempFile("jlexbench","");
+	dir.delete();
+	dir.mkdirs();
+
+	try
+	  {
+	    print_header();
+	    for (i = 0; i < families.length; ++i)
+	      {
+		for (n = MIN_SIZE; n <= max_size; n *= 2)
+		  {
+		    run(dir,families[i],n);
+		  }
+	      }
+	  }
+	finally
+	  {
+	    remove(dir);
+	  }
+      }
+
+  /***************************************************************
+    Function: remove
+    Description: Deletes the scratch directory and the specs and
+    lexers generated in it.
+    **************************************************************/
+  private static void remove
+    (
+     java.io.File dir
+     )
+      {
+	java.io.File files[];
+	int i;
+
+	files = dir.listFiles();
+	if (null != files)
+	  {
+	    for (i = 0; i < files.length; ++i)
+	      {
+		files[i].delete();
+	      }
+	  }
+	dir.delete();
+      }
+
+  /***************************************************************
+    Function: run
+    Description: Generates a lexer for one synthetic spec and
+    prints one row of results.
+    **************************************************************/
+  private static void run
+    (
+     java.io.File dir,
+     String family,
+     int n
+     )
+    throws java.io.IOException
+      {
+	java.io.File spec;
+	java.io.PrintStream out;
+	java.io.Writer w;
+	CLexGen lg;
+	CStageTimes times;
+	StringBuffer row;
+	long total;
+	int i;
+
+	spec = new java.io.File(dir,family + n + ".lex");
+	w = new java.io.BufferedWriter(new java.io.FileWriter(spec));
+	w.write(synthesize(family,n));
+	w.close();
+
+	System.gc();
+	reset_peak_heap();
+
+	/* The generator reports progress on System.out; hide it. */
+	out = System.out;
+	System.setOut(new java.io.PrintStream(new java.io.OutputStream() {
+	    public void write(int b) { }
+	  }));
+	try
+	  {
+	    lg = new CLexGen(spec.getPath());
+	    times = new CStageTimes();
+	    lg.m_times = times;
+	    lg.generate();
+	  }
+	finally
+	  {
+	    System.setOut(out);
+	  }
+
+	row = new StringBuffer();
+	row.append(pad(family,10)).append(pad("" + n,6));
+	for (i = 0; i < CStageTimes.NAMES.length - 1; ++i)
+	  {
+	    row.append(pad("" + times.m_count[i],8));
+	  }
+	total = 0;
+	for (i = 0; i < CStageTimes.NAMES.length; ++i)
+	  {
+	    row.append(pad(millis(times.m_nanos[i]),10));
+	    total += times.m_nanos[i];
+	  }
+	row.append(pad(millis(total),10));
+	row.append(pad("" + (peak_heap() >> 20),8));
+	System.out.println(row);
+
+	new java.io.File(spec.getPath() + ".java").delete();
+	spec.delete();
+      }
+
+  /***************************************************************
+    Function: synthesize
+    Description: Builds a spec of size n along one axis.
+    **************************************************************/
+  static String synthesize
+    (
+     String family,
+     int n
+     )
+      {
+	StringBuffer b = new StringBuffer();
+	int i;
+
+	b.append("%%\n%integer\n");
+	if (s_lazy)
+	  {
+	    b.append("%lazy\n");
+	  }
+	if ("keywords".equals(family))
+	  {
+	    /* n literal keywords shadowing one identifier rule. */
+	    b.append("LETTER=[a-zA-Z]\nDIGIT=[0-9]\n%%\n");
+	    for (i = 0; i < n; ++i)
+	      {
+		b.append("\"kw").append(word(i)).append("\" { return ")
+		  .append(i).append("; }\n");
+	      }
+	    b.append("({LETTER}|_)({LETTER}|{DIGIT}|_)* { return -1; }\n");
+	  }
+	else if ("macros".equals(family))
+	  {
+	    /* A chain of n macros, each built on the previous one. */
+	    b.append("M0=[a-f]\n");
+	    for (i = 1; i < n; ++i)
+	      {
+		b.append("M").append(i).append("=({M").append(i - 1)
+		  .append("}|").append(word(i)).append(")\n");
+	      }
+	    b.append("%%\n");
+	    for (i = 0; i < n; i += 4)
+	      {
+		b.append("x").append(i).append("{M").append(i)
+		  .append("}+ { return ").append(i).append("; }\n");
+	      }
+	  }
+	else if ("states".equals(family))
+	  {
+	    /* n lexical states, each with its own rules and a shared one. */
+	    b.append("%state");
+	    for (i = 0; i < n; ++i)
+	      {
+		b.append(" S").append(i);
+	      }
+	    b.append("\n%%\n");
+	    for (i = 0; i < n; ++i)
+	      {
+		b.append("<S").append(i).append("> \"t").append(word(i))
+		  .append("\" { yybegin(S").append((i + 1) % n)
+		  .append("); return ").append(i).append("; }\n");
+		b.append("<S").append(i).append("> [0-9]+").append(word(i))
+		  .append(" { return -").append(i).append("; }\n");
+	      }
+	    b.append("<YYINITIAL");
+	    for (i = 0; i < n; ++i)
+	      {
+		b.append(",S").append(i);
+	      }
+	    b.append("> [ \\t\\n]+ { }\n");
+	  }
+	else if ("classes".equals(family))
+	  {
+	    /* n overlapping unicode ranges, one rule each. */
+	    b.append("%unicode\n%%\n");
+	    for (i = 0; i < n; ++i)
+	      {
+		int lo = 0x100 + i * 0x80;
+		b.append("[").append(uescape(lo)).append("-")
+		  .append(uescape(lo + 0xff)).append("]+ { return ")
+		  .append(i).append("; }\n");
+	      }
+	  }
+	else
+	  {
+	    throw new IllegalArgumentException("unknown family " + family);
+	  }
+	b.append(". { return 0; }\n");
+	return b.toString();
+      }
+
+  /***************************************************************
+    Function: word
+    Description: A distinct lower-case word for i.
+    **************************************************************/
+  private static String word
+    (
+     int i
+     )
+      {
+	StringBuffer b = new StringBuffer();
+
+	do
+	  {
+	    b.append((char) ('a' + i % 26));
+	    i /= 26;
+	  }
+	while (i > 0);
+	return b.toString();
+      }
+
+  /***************************************************************
+    Function: uescape
+    **************************************************************/
+  private static String uescape
+    (
+     int c
+     )
+      {
+	String hex = Integer.toHexString(0x10000 + c).substring(1);
+
+	return "\\u" + hex;
+      }
+
+  /***************************************************************
+    Function: reset_peak_heap
+    **************************************************************/
+  private static void reset_peak_heap
+    (
+     )
+      {
+	Iterator it = ManagementFactory.getMemoryPoolMXBeans().iterator();
+
+	while (it.hasNext())
+	  {
+	    MemoryPoolMXBean pool = (MemoryPoolMXBean) it.next();
+	    if (MemoryType.HEAP == pool.getType())
+	      {
+		pool.resetPeakUsage();
+	      }
+	  }
+      }
+
+  /***************************************************************
+    Function: peak_heap
+    Description: Sum of the heap pools' peak usage since the
+    last reset.  An upper bound, as pools peak at different times.
+    **************************************************************/
+  private static long peak_heap
+    (
+     )
+      {
+	Iterator it = ManagementFactory.getMemoryPoolMXBeans().iterator();
+	long peak = 0;
+
+	while (it.hasNext())
+	  {
+	    MemoryPoolMXBean pool = (MemoryPoolMXBean) it.next();
+	    if (MemoryType.HEAP == pool.getType())
+	      {
+		peak += pool.getPeakUsage().getUsed();
+	      }
+	  }
+	return peak;
+      }
+
+  /***************************************************************
+    Function: print_header
+    **************************************************************/
+  private static void print_header
+    (
+     )
+      {
+	StringBuffer b = new StringBuffer();
+	int i;
+
+	b.append(pad("family",10)).append(pad("size",6));
+	b.append(pad("nfa",8)).append(pad("ccls",8));
+	b.append(pad("dfa",8)).append(pad("min",8));
+	for (i = 0; i < CStageTimes.NAMES.length; ++i)
+	  {
+	    b.append(pad(CStageTimes.NAMES[i] + "ms",10));
+	  }
+	b.append(pad("totalms",10)).append(pad("heapMB",8));
+	System.out.println(b);
+      }
+
+  /***************************************************************
+    Function: millis
+    **************************************************************/
+  private static String millis
+    (
+     long nanos
+     )
+      {
+	return "" + (nanos / 1000000) + "." + (nanos / 100000 % 10);
+      }
+
+  /***************************************************************
+    Function: pad
+    **************************************************************/
+  private static String pad
+    (
+     String s,
+     int width
+     )
+      {
+	StringBuffer b = new StringBuffer(s);
+
+	while (b.length() < width)
+	  {
+	    b.insert(0,' ');
+	  }
+	return b.append(' ').toString();
+      }
+}
@@ -269,8 +269,28 @@ class CSpec
   int BOL; // beginning-of-line
   int EOF; // end-of-line
 
-  /** NFA character class minimization map. */
+  /** NFA character class minimization map: characters from
+      m_ccls_start[k] up to m_ccls_start[k+1] (or m_ccls_limit for
+      the last run) all map to class m_ccls_map[k]. */
+  int m_ccls_start[];
   int m_ccls_map[];
+  int m_ccls_limit;
+
+  /* Keyword rules folded into an identifier rule (see CKeywords).
+     m_kw_text is a perfect hash table of keyword strings (null in
+     empty slots) and m_kw_accept holds the matching actions. */
+  CAccept m_kw_ident; /* The identifier rule, or null if none. */
+  String m_kw_text[];
+  CAccept m_kw_accept[];
+  int m_kw_seed;
+
+  /* Lazy DFA (%lazy): the generated lexer builds DFA states from
+     these NFA tables as it scans (see CNfa2Lazy). */
+  int m_lazy_states; /* Size of the runtime state cache, 0 if off. */
+  int m_lazy_nfa[][]; /* Per live NFA state: next, next2, set, rule. */
+  int m_lazy_sets[][]; /* Edge sets, one entry per character class. */
+  int m_lazy_init[]; /* Start states of all lexical states. */
+  int m_lazy_init_start[]; /* Offset into m_lazy_init by lexical state. */
 
   /* Regular expression token variables. */
   int m_current_token;
@@ -287,6 +307,7 @@ class CSpec
   boolean m_yyeof;
   boolean m_count_chars;
   boolean m_count_lines;
+  boolean m_count_columns;
   boolean m_cup_compatible;
   boolean m_unix;
   boolean m_public;
@@ -367,6 +388,7 @@ class CSpec
 	m_integer_type = false;
 	m_intwrap_type = false;
 	m_count_lines = false;
+	m_count_columns = false;
 	m_count_chars = false;
 	m_cup_compatible = false;
 	m_unix = true;
@@ -415,6 +437,17 @@ class CSpec
 	m_state_dtrans = null;
 
 	m_state_rules = null;
+
+	m_kw_ident = null;
+	m_kw_text = null;
+	m_kw_accept = null;
+	m_kw_seed = 0;
+
+	m_lazy_states = 0;
+	m_lazy_nfa = null;
+	m_lazy_sets = null;
+	m_lazy_init = null;
+	m_lazy_init_start = null;
       }
 }
 
@@ -442,6 +475,13 @@ class CEmit
   private final boolean EDBG = true;
   private final boolean NOT_EDBG = false;
 
+  /* Charsets larger than this (8-bit plus the pseudo-characters)
+     get a split cmap: a flat yy_cmap for the first CMAP_DIRECT
+     characters and a run table searched for the rest. */
+  private final int CMAP_FLAT_LIMIT 
+    = CUtility.MAX_EIGHT_BIT + 1 + CSpec.NUM_PSEUDO;
+  private final int CMAP_DIRECT = CUtility.MAX_SEVEN_BIT + 1;
+
   /***************************************************************
     Function: CEmit
     Description: Constructor.
@@ -652,6 +692,10 @@ class CEmit
 	  m_outstream.println("\tprivate final int YY_START = 1;");
 	  m_outstream.println("\tprivate final int YY_END = 2;");
 	  m_outstream.println("\tprivate final int YY_NO_ANCHOR = 4;");
+	  if (null != m_spec.m_kw_ident)
+	    {
+	      m_outstream.println("\tprivate final int YY_KEYWORD = 8;");
+	    }
 
 	  // internal
 	  m_outstream.println("\tprivate final int YY_BOL = "+m_spec.BOL+";");
@@ -682,6 +726,11 @@ class CEmit
 	    {
 	      m_outstream.println("\tprivate int yyline;");
 	    }
+	  if (m_spec.m_count_columns)
+	    {
+	      m_outstream.println("\tprivate int yy_column_base;");
+	      m_outstream.println("\tprivate int yy_column_scan;");
+	    }
 	  m_outstream.println("\tprivate boolean yy_at_bol;");
 	  m_outstream.println("\tprivate int yy_lexical_state;");
 	  /*if (m_spec.m_count_lines || true == m_spec.m_count_chars)
@@ -785,6 +834,11 @@ class CEmit
 	    {
 	      m_outstream.println("\t\tyyline = 0;");
 	    }
+	  if (m_spec.m_count_columns)
+	    {
+	      m_outstream.println("\t\tyy_column_base = 0;");
+	      m_outstream.println("\t\tyy_column_scan = 0;");
+	    }
 	  m_outstream.println("\t\tyy_at_bol = true;");
 	  m_outstream.println("\t\tyy_lexical_state = YYINITIAL;");
 	  /*if (m_spec.m_count_lines || true == m_spec.m_count_chars)
@@ -837,6 +891,11 @@ class CEmit
 	      /*++index;*/
 	    }
 
+	  if (lazy())
+	    {
+	      return;
+	    }
+
 	  m_outstream.println("\tprivate final int yy_state_dtrans[] = {");
 	  for (index = 0; index < m_spec.m_state_dtrans.length; ++index)
 	    {
@@ -924,6 +983,14 @@ class CEmit
 	m_outstream.println();
 
 	m_outstream.println("\t\tif (0 != yy_buffer_start) {");
+	if (m_spec.m_count_columns)
+	  {
+	    /* Find the line start before the text before it goes. */
+	    m_outstream.println("\t\t\tyy_column_sync();");
+	    m_outstream.println("\t\t\tyy_column_base = "
+				+ "yy_column_base - yy_buffer_start;");
+	    m_outstream.println("\t\t\tyy_column_scan = 0;");
+	  }
 	m_outstream.println("\t\t\ti = yy_buffer_start;");
 	m_outstream.println("\t\t\tj = 0;");
 	m_outstream.println("\t\t\twhile (i < yy_buffer_read) {");
@@ -1026,6 +1093,31 @@ class CEmit
 	m_outstream.println("\t\t\tyy_buffer_end - yy_buffer_start));");
 	m_outstream.println("\t}");
 
+	/* Function: yycolumn */
+	if (m_spec.m_count_columns)
+	  {
+	    /* The column is only worked out when asked for, by looking
+	       back from the token for the last line terminator not yet
+	       seen.  yy_column_base may go negative when the start of
+	       the line has been shifted out of the buffer. */
+	    m_outstream.println("\tprivate void yy_column_sync () {");
+	    m_outstream.println("\t\tint i;");
+	    m_outstream.println("\t\tfor (i = yy_buffer_start - 1; "
+				+ "i >= yy_column_scan; --i) {");
+	    m_outstream.println("\t\t\tif ('\\n' == yy_buffer[i] "
+				+ "|| '\\r' == yy_buffer[i]) {");
+	    m_outstream.println("\t\t\t\tyy_column_base = i + 1;");
+	    m_outstream.println("\t\t\t\tbreak;");
+	    m_outstream.println("\t\t\t}");
+	    m_outstream.println("\t\t}");
+	    m_outstream.println("\t\tyy_column_scan = yy_buffer_start;");
+	    m_outstream.println("\t}");
+	    m_outstream.println("\tprivate int yycolumn () {");
+	    m_outstream.println("\t\tyy_column_sync();");
+	    m_outstream.println("\t\treturn yy_buffer_start - yy_column_base;");
+	    m_outstream.println("\t}");
+	  }
+
 	/* Function: yylength */
 	m_outstream.println("\tprivate int yylength () {");
 	m_outstream.println("\t\treturn yy_buffer_end - yy_buffer_start;");
@@ -1197,6 +1289,10 @@ class CEmit
 		  {
 		    m_outstream.print("YY_NO_ANCHOR");
 		  }
+		if (accept == m_spec.m_kw_ident)
+		  {
+		    m_outstream.print(" | YY_KEYWORD");
+		  }
 	      }
 	    else 
 	      {
@@ -1213,14 +1309,39 @@ class CEmit
 	m_outstream.println("\t};");
 
 	// CSA: modified yy_cmap to use string packing 9-Aug-1999
-	int[] yy_cmap = new int[m_spec.m_ccls_map.length];
-	for (i = 0; i < m_spec.m_ccls_map.length; ++i)
-	    yy_cmap[i] = m_spec.m_col_map[m_spec.m_ccls_map[i]];
+	int[] yy_cmap = new int[split_cmap() ? CMAP_DIRECT 
+				: m_spec.m_ccls_limit];
+	int run = 0;
+	for (i = 0; i < yy_cmap.length; ++i)
+	  {
+	    while (run + 1 < m_spec.m_ccls_start.length
+		   && m_spec.m_ccls_start[run + 1] <= i)
+	      {
+		++run;
+	      }
+	    yy_cmap[i] = m_spec.m_col_map[m_spec.m_ccls_map[run]];
+	  }
 	m_outstream.print("\tprivate int yy_cmap[] = unpackFromString(");
 	emit_table_as_string(new int[][] { yy_cmap });
 	m_outstream.println(")[0];");
 	m_outstream.println();
 
+	if (split_cmap())
+	  {
+	    emit_cmap_runs();
+	  }
+
+	if (null != m_spec.m_kw_ident)
+	  {
+	    emit_keywords();
+	  }
+
+	if (lazy())
+	  {
+	    emit_lazy();
+	    return;
+	  }
+
 	// CSA: modified yy_rmap to use string packing 9-Aug-1999
 	m_outstream.print("\tprivate int yy_rmap[] = unpackFromString(");
 	emit_table_as_string(new int[][] { m_spec.m_row_map });
@@ -1244,6 +1365,406 @@ class CEmit
 	m_outstream.println();
       }
 
+  /***************************************************************
+    Function: split_cmap
+    Description: Returns true if the charset is too large for a
+    flat yy_cmap (e.g. %unicode).
+    **************************************************************/
+  private boolean split_cmap
+    (
+     )
+      {
+	return m_spec.m_ccls_limit > CMAP_FLAT_LIMIT;
+      }
+
+  /***************************************************************
+    Function: emit_cmap_runs
+    Description: Emits the run table for characters at or above
+    CMAP_DIRECT and the yy_cmap_class() lookup which binary searches
+    it.  Only characters actually distinguished by the spec produce
+    a run, so the table stays small whatever the charset size.
+    **************************************************************/
+  private void emit_cmap_runs
+    (
+     )
+      {
+	int first = 0;
+	int nruns;
+	int[] start;
+	int[] cls;
+	int i;
+
+	/* Find the run holding CMAP_DIRECT. */
+	while (first + 1 < m_spec.m_ccls_start.length
+	       && m_spec.m_ccls_start[first + 1] <= CMAP_DIRECT)
+	  {
+	    ++first;
+	  }
+	nruns = m_spec.m_ccls_start.length - first;
+	start = new int[nruns];
+	cls = new int[nruns];
+
+	for (i = 0; i < nruns; ++i)
+	  {
+	    start[i] = m_spec.m_ccls_start[first + i];
+	    cls[i] = m_spec.m_col_map[m_spec.m_ccls_map[first + i]];
+	  }
+	start[0] = CMAP_DIRECT;
+
+	m_outstream.print("\tprivate int yy_cmap_start[] = unpackFromString(");
+	emit_table_as_string(new int[][] { start });
+	m_outstream.println(")[0];");
+	m_outstream.println();
+	m_outstream.print("\tprivate int yy_cmap_run[] = unpackFromString(");
+	emit_table_as_string(new int[][] { cls });
+	m_outstream.println(")[0];");
+	m_outstream.println();
+
+	m_outstream.println("\tprivate int yy_cmap_class (int c) {");
+	m_outstream.println("\t\tif (c < " + CMAP_DIRECT + ") {");
+	m_outstream.println("\t\t\treturn yy_cmap[c];");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tint lo = 0;");
+	m_outstream.println("\t\tint hi = yy_cmap_start.length - 1;");
+	m_outstream.println("\t\twhile (lo < hi) {");
+	m_outstream.println("\t\t\tint mid = (lo + hi + 1) >>> 1;");
+	m_outstream.println("\t\t\tif (yy_cmap_start[mid] <= c) lo = mid;");
+	m_outstream.println("\t\t\telse hi = mid - 1;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn yy_cmap_run[lo];");
+	m_outstream.println("\t}");
+	m_outstream.println();
+      }
+
+  /***************************************************************
+    Function: lazy
+    Description: Returns true if the DFA is built by the
+    generated lexer at run time (%lazy).
+    **************************************************************/
+  private boolean lazy
+    (
+     )
+      {
+	return 0 != m_spec.m_lazy_states;
+      }
+
+  /***************************************************************
+    Function: emit_lazy
+    Description: Emits the NFA tables and the runtime of a %lazy
+    lexer.  DFA states are sets of NFA states, built on first use
+    and kept in a cache of YY_LAZY_STATES states indexed by their
+    sorted NFA state list.  When the cache is full it is flushed
+    whole.  If it keeps filling up within fewer than
+    YY_LAZY_MIN_STEPS transitions per state, caching is abandoned
+    and the lexer simulates the NFA directly, alternating between
+    two scratch states.  Accept slots hold rule numbers, which
+    CNfa2Lazy orders by priority.
+    **************************************************************/
+  private void emit_lazy
+    (
+     )
+      {
+	int ncols = m_spec.m_dtrans_ncols;
+
+	m_outstream.println("\tprivate final int YY_LAZY_STATES = " 
+			    + m_spec.m_lazy_states + ";");
+	m_outstream.println("\tprivate final int YY_LAZY_UNKNOWN = -2;");
+	m_outstream.println("\tprivate final int YY_LAZY_MIN_STEPS = 16;");
+	m_outstream.println("\tprivate final int YY_LAZY_MAX_THRASH = 3;");
+
+	m_outstream.print("\tprivate int yy_nfa[][] = unpackFromString(");
+	emit_table_as_string(m_spec.m_lazy_nfa);
+	m_outstream.println(");");
+	m_outstream.println();
+	m_outstream.print("\tprivate int yy_nfa_sets[][] = unpackFromString(");
+	emit_table_as_string(m_spec.m_lazy_sets);
+	m_outstream.println(");");
+	m_outstream.println();
+	m_outstream.print("\tprivate int yy_nfa_init[] = unpackFromString(");
+	emit_table_as_string(new int[][] { m_spec.m_lazy_init });
+	m_outstream.println(")[0];");
+	m_outstream.println();
+	m_outstream.print("\tprivate int yy_nfa_init_start[] = unpackFromString(");
+	emit_table_as_string(new int[][] { m_spec.m_lazy_init_start });
+	m_outstream.println(")[0];");
+	m_outstream.println();
+
+	/* Two scratch states follow the cache for NFA simulation. */
+	m_outstream.println("\tprivate int yy_lazy_set[][] "
+			    + "= new int[YY_LAZY_STATES + 2][];");
+	m_outstream.println("\tprivate int yy_lazy_len[] "
+			    + "= new int[YY_LAZY_STATES + 2];");
+	m_outstream.println("\tprivate int yy_lazy_rule[] "
+			    + "= new int[YY_LAZY_STATES + 2];");
+	m_outstream.println("\tprivate int yy_lazy_nxt[][] "
+			    + "= new int[YY_LAZY_STATES][];");
+	/* Start state of each lexical state plus one, 0 if not built. */
+	m_outstream.println("\tprivate int yy_lazy_init[] "
+			    + "= new int[yy_nfa_init_start.length - 1];");
+	m_outstream.println("\tprivate java.util.Hashtable yy_lazy_index "
+			    + "= new java.util.Hashtable();");
+	m_outstream.println("\tprivate int yy_lazy_count = 0;");
+	m_outstream.println("\tprivate int yy_lazy_steps = 0;");
+	m_outstream.println("\tprivate int yy_lazy_thrash = 0;");
+	m_outstream.println("\tprivate int yy_lazy_flushes = 0;");
+	m_outstream.println("\tprivate boolean yy_lazy_nfa = false;");
+	m_outstream.println("\tprivate int yy_lazy_buf[] = new int[yy_nfa.length];");
+	m_outstream.println("\tprivate int yy_lazy_mark[] = new int[yy_nfa.length];");
+	m_outstream.println("\tprivate int yy_lazy_stamp = 0;");
+	m_outstream.println();
+
+	/* Function: yy_lazy_begin */
+	m_outstream.println("\tprivate void yy_lazy_begin () {");
+	m_outstream.println("\t\tif (0 == ++yy_lazy_stamp) {");
+	m_outstream.println("\t\t\tjava.util.Arrays.fill(yy_lazy_mark,0);");
+	m_outstream.println("\t\t\tyy_lazy_stamp = 1;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t}");
+
+	/* Function: yy_lazy_seed */
+	m_outstream.println("\tprivate int yy_lazy_seed (int nfa, int n) {");
+	m_outstream.println("\t\tif (yy_lazy_stamp != yy_lazy_mark[nfa]) {");
+	m_outstream.println("\t\t\tyy_lazy_mark[nfa] = yy_lazy_stamp;");
+	m_outstream.println("\t\t\tyy_lazy_buf[n++] = nfa;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn n;");
+	m_outstream.println("\t}");
+
+	/* Function: yy_lazy_closure */
+	m_outstream.println("\tprivate int yy_lazy_closure (int n) {");
+	m_outstream.println("\t\tint i;");
+	m_outstream.println("\t\tint s;");
+	m_outstream.println("\t\tfor (i = 0; i < n; ++i) {");
+	m_outstream.println("\t\t\ts = yy_lazy_buf[i];");
+	m_outstream.println("\t\t\tif (-1 == yy_nfa[s][" + CNfa2Lazy.SET + "]) {");
+	m_outstream.println("\t\t\t\tif (-1 != yy_nfa[s][" + CNfa2Lazy.NEXT + "]) {");
+	m_outstream.println("\t\t\t\t\tn = yy_lazy_seed(yy_nfa[s][" 
+			    + CNfa2Lazy.NEXT + "],n);");
+	m_outstream.println("\t\t\t\t}");
+	m_outstream.println("\t\t\t\tif (-1 != yy_nfa[s][" + CNfa2Lazy.NEXT2 + "]) {");
+	m_outstream.println("\t\t\t\t\tn = yy_lazy_seed(yy_nfa[s][" 
+			    + CNfa2Lazy.NEXT2 + "],n);");
+	m_outstream.println("\t\t\t\t}");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn n;");
+	m_outstream.println("\t}");
+
+	/* Function: yy_lazy_flush */
+	m_outstream.println("\tprivate void yy_lazy_flush () {");
+	m_outstream.println("\t\tif (yy_lazy_steps "
+			    + "< YY_LAZY_MIN_STEPS * YY_LAZY_STATES) {");
+	m_outstream.println("\t\t\tif (++yy_lazy_thrash >= YY_LAZY_MAX_THRASH) {");
+	m_outstream.println("\t\t\t\tyy_lazy_nfa = true;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t} else {");
+	m_outstream.println("\t\t\tyy_lazy_thrash = 0;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\t++yy_lazy_flushes;");
+	m_outstream.println("\t\tyy_lazy_steps = 0;");
+	m_outstream.println("\t\tyy_lazy_count = 0;");
+	m_outstream.println("\t\tyy_lazy_index.clear();");
+	m_outstream.println("\t\tjava.util.Arrays.fill(yy_lazy_init,0);");
+	m_outstream.println("\t}");
+
+	/* Function: yy_lazy_add */
+	m_outstream.println("\tprivate int yy_lazy_add (int n, int from) {");
+	m_outstream.println("\t\tjava.lang.String key = null;");
+	m_outstream.println("\t\tjava.lang.Integer found;");
+	m_outstream.println("\t\tchar k[];");
+	m_outstream.println("\t\tint rule = YY_NO_STATE;");
+	m_outstream.println("\t\tint s;");
+	m_outstream.println("\t\tint i;");
+	m_outstream.println("\t\tjava.util.Arrays.sort(yy_lazy_buf,0,n);");
+	m_outstream.println("\t\tfor (i = 0; i < n; ++i) {");
+	m_outstream.println("\t\t\tif (-1 != yy_nfa[yy_lazy_buf[i]][" 
+			    + CNfa2Lazy.RULE + "]) {");
+	m_outstream.println("\t\t\t\trule = yy_nfa[yy_lazy_buf[i]][" 
+			    + CNfa2Lazy.RULE + "];");
+	m_outstream.println("\t\t\t\tbreak;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tif (false == yy_lazy_nfa) {");
+	m_outstream.println("\t\t\tk = new char[2 * n];");
+	m_outstream.println("\t\t\tfor (i = 0; i < n; ++i) {");
+	m_outstream.println("\t\t\t\tk[2 * i] = (char) (yy_lazy_buf[i] >>> 16);");
+	m_outstream.println("\t\t\t\tk[2 * i + 1] = (char) yy_lazy_buf[i];");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tkey = new java.lang.String(k);");
+	m_outstream.println("\t\t\tfound = (java.lang.Integer) yy_lazy_index.get(key);");
+	m_outstream.println("\t\t\tif (null != found) {");
+	m_outstream.println("\t\t\t\treturn found.intValue();");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tif (YY_LAZY_STATES == yy_lazy_count) {");
+	m_outstream.println("\t\t\t\tyy_lazy_flush();");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tif (yy_lazy_nfa) {");
+	m_outstream.println("\t\t\ts = (YY_LAZY_STATES == from) "
+			    + "? YY_LAZY_STATES + 1 : YY_LAZY_STATES;");
+	m_outstream.println("\t\t\tif (null == yy_lazy_set[s]) {");
+	m_outstream.println("\t\t\t\tyy_lazy_set[s] = new int[yy_nfa.length];");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t} else {");
+	m_outstream.println("\t\t\ts = yy_lazy_count++;");
+	m_outstream.println("\t\t\tyy_lazy_set[s] = new int[n];");
+	m_outstream.println("\t\t\tif (null == yy_lazy_nxt[s]) {");
+	m_outstream.println("\t\t\t\tyy_lazy_nxt[s] = new int[" + ncols + "];");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tjava.util.Arrays.fill(yy_lazy_nxt[s],YY_LAZY_UNKNOWN);");
+	m_outstream.println("\t\t\tyy_lazy_index.put(key,java.lang.Integer.valueOf(s));");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tjava.lang.System.arraycopy(yy_lazy_buf,0,"
+			    + "yy_lazy_set[s],0,n);");
+	m_outstream.println("\t\tyy_lazy_len[s] = n;");
+	m_outstream.println("\t\tyy_lazy_rule[s] = rule;");
+	m_outstream.println("\t\treturn s;");
+	m_outstream.println("\t}");
+
+	/* Function: yy_lazy_start */
+	m_outstream.println("\tprivate int yy_lazy_start (int lexical_state) {");
+	m_outstream.println("\t\tint s = yy_lazy_init[lexical_state] - 1;");
+	m_outstream.println("\t\tint n = 0;");
+	m_outstream.println("\t\tint i;");
+	m_outstream.println("\t\tif (0 <= s) {");
+	m_outstream.println("\t\t\treturn s;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tyy_lazy_begin();");
+	m_outstream.println("\t\tfor (i = yy_nfa_init_start[lexical_state]; "
+			    + "i < yy_nfa_init_start[lexical_state + 1]; ++i) {");
+	m_outstream.println("\t\t\tn = yy_lazy_seed(yy_nfa_init[i],n);");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\ts = yy_lazy_add(yy_lazy_closure(n),YY_LAZY_STATES);");
+	m_outstream.println("\t\tif (false == yy_lazy_nfa) {");
+	m_outstream.println("\t\t\tyy_lazy_init[lexical_state] = s + 1;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn s;");
+	m_outstream.println("\t}");
+
+	/* Function: yy_lazy_next */
+	m_outstream.println("\tprivate int yy_lazy_next (int state, int c) {");
+	m_outstream.println("\t\tint set[] = yy_lazy_set[state];");
+	m_outstream.println("\t\tint len = yy_lazy_len[state];");
+	m_outstream.println("\t\tint flushes = yy_lazy_flushes;");
+	m_outstream.println("\t\tint next;");
+	m_outstream.println("\t\tint n = 0;");
+	m_outstream.println("\t\tint e;");
+	m_outstream.println("\t\tint i;");
+	m_outstream.println("\t\t++yy_lazy_steps;");
+	m_outstream.println("\t\tif (false == yy_lazy_nfa) {");
+	m_outstream.println("\t\t\tnext = yy_lazy_nxt[state][c];");
+	m_outstream.println("\t\t\tif (YY_LAZY_UNKNOWN != next) {");
+	m_outstream.println("\t\t\t\treturn next;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tyy_lazy_begin();");
+	m_outstream.println("\t\tfor (i = 0; i < len; ++i) {");
+	m_outstream.println("\t\t\te = yy_nfa[set[i]][" + CNfa2Lazy.SET + "];");
+	m_outstream.println("\t\t\tif (-1 != e && 0 != yy_nfa_sets[e][c]) {");
+	m_outstream.println("\t\t\t\tn = yy_lazy_seed(yy_nfa[set[i]][" 
+			    + CNfa2Lazy.NEXT + "],n);");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tif (0 == n) {");
+	m_outstream.println("\t\t\tnext = YY_F;");
+	m_outstream.println("\t\t} else {");
+	m_outstream.println("\t\t\tnext = yy_lazy_add(yy_lazy_closure(n),state);");
+	m_outstream.println("\t\t}");
+	/* A flush invalidates state, so only remember the move if none. */
+	m_outstream.println("\t\tif (false == yy_lazy_nfa && flushes == yy_lazy_flushes) {");
+	m_outstream.println("\t\t\tyy_lazy_nxt[state][c] = next;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn next;");
+	m_outstream.println("\t}");
+	m_outstream.println();
+      }
+
+  /***************************************************************
+    Function: emit_keywords
+    Description: Emits the keyword hash table and yy_keyword(),
+    which maps a state accepting the identifier rule to the action
+    case of the keyword matched, if any.  Keyword cases are
+    numbered after the DFA states, by hash slot.  The hash must
+    agree with CKeywords.hash().
+    **************************************************************/
+  private void emit_keywords
+    (
+     )
+      {
+	int i;
+
+	m_outstream.println("\tprivate final java.lang.String yy_kw_text[] = {");
+	for (i = 0; i < m_spec.m_kw_text.length; ++i)
+	  {
+	    m_outstream.print("\t\t");
+	    if (null == m_spec.m_kw_text[i])
+	      {
+		m_outstream.print("null");
+	      }
+	    else
+	      {
+		m_outstream.print("\"" + escape(m_spec.m_kw_text[i]) + "\"");
+	      }
+	    m_outstream.println(i < m_spec.m_kw_text.length - 1 ? "," : "");
+	  }
+	m_outstream.println("\t};");
+
+	m_outstream.println("\tprivate int yy_keyword (int state) {");
+	m_outstream.println("\t\tint h = " + m_spec.m_kw_seed + ";");
+	m_outstream.println("\t\tint i;");
+	m_outstream.println("\t\tfor (i = yy_buffer_start; i < yy_buffer_end; ++i) {");
+	m_outstream.println("\t\t\th = 31 * h + yy_buffer[i];");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\th = (h ^ (h >>> 16)) & " 
+			    + (m_spec.m_kw_text.length - 1) + ";");
+	m_outstream.println("\t\tjava.lang.String kw = yy_kw_text[h];");
+	m_outstream.println("\t\tif (null == kw "
+			    + "|| kw.length() != yy_buffer_end - yy_buffer_start) {");
+	m_outstream.println("\t\t\treturn state;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tfor (i = 0; i < kw.length(); ++i) {");
+	m_outstream.println("\t\t\tif (kw.charAt(i) != yy_buffer[yy_buffer_start + i]) {");
+	m_outstream.println("\t\t\t\treturn state;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn " + m_spec.m_accept_vector.size() + " + h;");
+	m_outstream.println("\t}");
+	m_outstream.println();
+      }
+
+  /***************************************************************
+    Function: escape
+    Description: Java string literal body for s.
+    **************************************************************/
+  private String escape
+    (
+     String s
+     )
+      {
+	StringBuffer b = new StringBuffer();
+	char c;
+	int i;
+
+	for (i = 0; i < s.length(); ++i)
+	  {
+	    c = s.charAt(i);
+	    if ('"' == c || '\\' == c)
+	      {
+		b.append('\\').append(c);
+	      }
+	    else if (' ' <= c && c < 0x7f)
+	      {
+		b.append(c);
+	      }
+	    else
+	      {
+		b.append("\\u");
+		b.append(Integer.toHexString(0x10000 + c).substring(1));
+	      }
+	  }
+	return b.toString();
+      }
+
   /***************************************************************
     Function: emit_driver
     Description: Output an integer table as a string.  Written by
@@ -1339,6 +1860,12 @@ class CEmit
      )
       throws java.io.IOException
 	{
+	  String start_state;
+	  String next_state;
+	  String this_accept;
+	  String not_accept;
+	  String accept_state;
+
 	  if (CUtility.DEBUG)
 	    {
 	      CUtility.ASSERT(null != m_spec);
@@ -1347,6 +1874,25 @@ class CEmit
 	  
 	  emit_table();
 
+	  /* A lazy lexer remembers the rule matched rather than the
+	     state, since its states may be flushed before the action. */
+	  if (lazy())
+	    {
+	      start_state = "yy_lazy_start(yy_lexical_state)";
+	      next_state = "yy_lazy_next(yy_state,";
+	      this_accept = "yy_lazy_rule[yy_state]";
+	      not_accept = "YY_NO_STATE";
+	      accept_state = "yy_this_accept";
+	    }
+	  else
+	    {
+	      start_state = "yy_state_dtrans[yy_lexical_state]";
+	      next_state = "yy_nxt[yy_rmap[yy_state]][";
+	      this_accept = "yy_acpt[yy_state]";
+	      not_accept = "YY_NOT_ACCEPT";
+	      accept_state = "yy_state";
+	    }
+
 	  if (m_spec.m_integer_type)
 	    {
 	      m_outstream.print("\tpublic int ");
@@ -1387,8 +1933,7 @@ class CEmit
 	  m_outstream.println("\t\tint yy_anchor = YY_NO_ANCHOR;");
 	  /*m_outstream.println("\t\tint yy_state "
 	    + "= yy_initial_dtrans(yy_lexical_state);");*/
-	  m_outstream.println("\t\tint yy_state " 
-				 + "= yy_state_dtrans[yy_lexical_state];");
+	  m_outstream.println("\t\tint yy_state = " + start_state + ";");
 	  m_outstream.println("\t\tint yy_next_state = YY_NO_STATE;");
 	  /*m_outstream.println("\t\tint yy_prev_stave = YY_NO_STATE;");*/
 	  m_outstream.println("\t\tint yy_last_accept_state = YY_NO_STATE;");
@@ -1398,9 +1943,9 @@ class CEmit
 
 	  m_outstream.println("\t\tyy_mark_start();");
 	  /*m_outstream.println("\t\tyy_this_accept = yy_accept(yy_state);");*/
-	  m_outstream.println("\t\tyy_this_accept = yy_acpt[yy_state];");
-	  m_outstream.println("\t\tif (YY_NOT_ACCEPT != yy_this_accept) {");
-	  m_outstream.println("\t\t\tyy_last_accept_state = yy_state;");
+	  m_outstream.println("\t\tyy_this_accept = " + this_accept + ";");
+	  m_outstream.println("\t\tif (" + not_accept + " != yy_this_accept) {");
+	  m_outstream.println("\t\t\tyy_last_accept_state = " + accept_state + ";");
 	  m_outstream.println("\t\t\tyy_mark_end();");
 	  m_outstream.println("\t\t}");
 
@@ -1418,7 +1963,9 @@ class CEmit
 	  /*m_outstream.println("\t\t\t\tyy_next_state = "
 				 + "yy_next(yy_state,yy_lookahead);");*/
 	  m_outstream.println("\t\t\tyy_next_state = "
- 	   + "yy_nxt[yy_rmap[yy_state]][yy_cmap[yy_lookahead]];");
+ 	   + next_state
+	   + (split_cmap() ? "yy_cmap_class(yy_lookahead)" 
+	      : "yy_cmap[yy_lookahead]") + (lazy() ? ");" : "];"));
 
 	  if (NOT_EDBG)
 	    {
@@ -1467,9 +2014,9 @@ class CEmit
 	  m_outstream.println("\t\t\t\tyy_state = yy_next_state;");
      	  m_outstream.println("\t\t\t\tyy_initial = false;");
      	  /*m_outstream.println("\t\t\t\tyy_this_accept = yy_accept(yy_state);");*/
-	  m_outstream.println("\t\t\t\tyy_this_accept = yy_acpt[yy_state];");
-	  m_outstream.println("\t\t\t\tif (YY_NOT_ACCEPT != yy_this_accept) {");
-	  m_outstream.println("\t\t\t\t\tyy_last_accept_state = yy_state;");
+	  m_outstream.println("\t\t\t\tyy_this_accept = " + this_accept + ";");
+	  m_outstream.println("\t\t\t\tif (" + not_accept + " != yy_this_accept) {");
+	  m_outstream.println("\t\t\t\t\tyy_last_accept_state = " + accept_state + ";");
 	  m_outstream.println("\t\t\t\t\tyy_mark_end();");
 	  m_outstream.println("\t\t\t\t}");
 	  /*m_outstream.println("\t\t\t\tyy_prev_state = yy_state;");*/
@@ -1507,6 +2054,13 @@ class CEmit
 	  m_outstream.println("\t\t\t\t\t\tyy_move_end();");
 	  m_outstream.println("\t\t\t\t\t}");
 	  m_outstream.println("\t\t\t\t\tyy_to_mark();");
+	  if (null != m_spec.m_kw_ident)
+	    {
+	      m_outstream.println("\t\t\t\t\tif (0 != (YY_KEYWORD & yy_anchor)) {");
+	      m_outstream.println("\t\t\t\t\t\tyy_last_accept_state "
+				  + "= yy_keyword(yy_last_accept_state);");
+	      m_outstream.println("\t\t\t\t\t}");
+	    }
 
 	  m_outstream.println("\t\t\t\t\tswitch (yy_last_accept_state) {");
 
@@ -1519,8 +2073,7 @@ class CEmit
 	  m_outstream.println("\t\t\t\t\t}");
 	  
     	  m_outstream.println("\t\t\t\t\tyy_initial = true;");
-	  m_outstream.println("\t\t\t\t\tyy_state "
-				 + "= yy_state_dtrans[yy_lexical_state];");
+	  m_outstream.println("\t\t\t\t\tyy_state = " + start_state + ";");
 	  m_outstream.println("\t\t\t\t\tyy_next_state = YY_NO_STATE;");
 	  /*m_outstream.println("\t\t\t\t\tyy_prev_state = YY_NO_STATE;");*/
 	  m_outstream.println("\t\t\t\t\tyy_last_accept_state = YY_NO_STATE;");
@@ -1528,9 +2081,9 @@ class CEmit
 	  m_outstream.println("\t\t\t\t\tyy_mark_start();");
 
 	  /*m_outstream.println("\t\t\t\t\tyy_this_accept = yy_accept(yy_state);");*/
-	  m_outstream.println("\t\t\t\t\tyy_this_accept = yy_acpt[yy_state];");
-	  m_outstream.println("\t\t\t\t\tif (YY_NOT_ACCEPT != yy_this_accept) {");
-	  m_outstream.println("\t\t\t\t\t\tyy_last_accept_state = yy_state;");
+	  m_outstream.println("\t\t\t\t\tyy_this_accept = " + this_accept + ";");
+	  m_outstream.println("\t\t\t\t\tif (" + not_accept + " != yy_this_accept) {");
+	  m_outstream.println("\t\t\t\t\t\tyy_last_accept_state = " + accept_state + ";");
 	  m_outstream.println("\t\t\t\t\t\tyy_mark_end();");
 	  m_outstream.println("\t\t\t\t\t}");
 
@@ -1586,6 +2139,24 @@ class CEmit
 		  --bogus_index;
 		}
 	    }
+
+	  /* Keyword actions, reached through yy_keyword(). */
+	  for (elem = 0; null != m_spec.m_kw_ident 
+		 && elem < m_spec.m_kw_accept.length; ++elem)
+	    {
+	      accept = m_spec.m_kw_accept[elem];
+	      if (null != accept)
+		{
+		  m_outstream.println(tabs + "case " + (size + elem) + ":");
+		  m_outstream.print(tabs + "\t");
+		  m_outstream.print(new String(accept.m_action,0,
+						    accept.m_action_read));
+		  m_outstream.println();
+		  m_outstream.println(tabs + "case " + bogus_index + ":");
+		  m_outstream.println(tabs + "\tbreak;");
+		  --bogus_index;
+		}
+	    }
 	}
   
   /***************************************************************
@@ -1616,7 +2187,7 @@ class CBunch
     Member Variables
     **************************************************************/
   Vector m_nfa_set; /* Vector of CNfa states in dfa state. */
-  SparseBitSet m_nfa_bit; /* BitSet representation of CNfa labels. */
+  DenseBitSet m_nfa_bit; /* BitSet representation of CNfa labels. */
   CAccept m_accept; /* Accepting actions, or null if nonaccepting state. */
   int m_anchor; /* Anchors on regular expression. */
   int m_accept_index; /* CNfa index corresponding to accepting actions. */
@@ -2290,13 +2861,18 @@ class CMakeNfa
 		      set.add('-');
 		      break;
 		    }
-		  for ( ; first <= m_spec.m_lexeme; ++first)
+		  if (m_spec.m_ignorecase)
+		    {
+		      for ( ; first <= m_spec.m_lexeme; ++first)
+			{
+			  set.addncase((char)first);
+			}
+		    }
+		  else
 		    {
-		      if (m_spec.m_ignorecase) 
-			set.addncase((char)first);
-		      else
-			set.add(first);
-		    }  
+		      set.addRange(first,m_spec.m_lexeme);
+		      first = m_spec.m_lexeme + 1;
+		    }
 		}
 	      else
 		{
@@ -2323,7 +2899,8 @@ class CMakeNfa
  */
 class CSimplifyNfa
 {
-  private int[] ccls; // character class mapping.
+  private int[] ccls_start; // first character of each run.
+  private int[] ccls; // character class mapping, one entry per run.
   private int original_charset_size; // original charset size
   private int mapped_charset_size; // reduced charset size
 
@@ -2337,27 +2914,80 @@ class CSimplifyNfa
 	continue; // no change.
       if (nfa.m_edge==CNfa.CCL) {
 	CSet ncset = new CSet();
-	ncset.map(nfa.m_set, ccls); // map it.
+	ncset.map(nfa.m_set, ccls_start, ccls, original_charset_size); // map it.
 	nfa.m_set = ncset;
       } else { // single character
-	nfa.m_edge = ccls[nfa.m_edge]; // map it.
+	nfa.m_edge = ccls[run(nfa.m_edge)]; // map it.
       }
     }
 
     // now update m_spec with the mapping.
+    m_spec.m_ccls_start = ccls_start;
     m_spec.m_ccls_map = ccls;
+    m_spec.m_ccls_limit = original_charset_size;
     m_spec.m_dtrans_ncols = mapped_charset_size;
   }
+  /** Index of the run holding character c. */
+  private int run(int c) {
+    int lo = 0, hi = ccls_start.length-1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (ccls_start[mid] <= c) lo = mid; else hi = mid - 1;
+    }
+    return lo;
+  }
+  /** Cut the charset into runs at every point where some edge starts
+   *  or stops matching.  Characters inside one run can never be told
+   *  apart by the NFA, so class splitting can work on runs instead of
+   *  single characters. */
+  private int[] computeRuns(CSpec m_spec) {
+    int[] cut = new int[64];
+    int ncut = 0;
+    cut[ncut++] = 0;
+    for (Enumeration e=m_spec.m_nfa_states.elements(); e.hasMoreElements(); ) {
+      CNfa nfa = (CNfa) e.nextElement();
+      if (nfa.m_edge==CNfa.EMPTY || nfa.m_edge==CNfa.EPSILON)
+	continue;
+      int n = (nfa.m_edge==CNfa.CCL) ? nfa.m_set.ranges() : 1;
+      if (ncut+2*n > cut.length) {
+	int[] grown = new int[2*(ncut+2*n)];
+	System.arraycopy(cut, 0, grown, 0, ncut);
+	cut = grown;
+      }
+      if (nfa.m_edge==CNfa.CCL)
+	for (int k=0; k<n; k++) {
+	  cut[ncut++] = nfa.m_set.rangeLo(k);
+	  cut[ncut++] = nfa.m_set.rangeHi(k)+1;
+	}
+      else { // edge labeled with a character
+	cut[ncut++] = nfa.m_edge;
+	cut[ncut++] = nfa.m_edge+1;
+      }
+    }
+    java.util.Arrays.sort(cut, 0, ncut);
+    // drop duplicates and anything outside the charset.
+    int nrun = 0;
+    for (int i=0; i<ncut; i++)
+      if (cut[i] < original_charset_size && (nrun==0 || cut[i]!=cut[nrun-1]))
+	cut[nrun++] = cut[i];
+    int[] runs = new int[nrun];
+    System.arraycopy(cut, 0, runs, 0, nrun);
+    return runs;
+  }
   /** Compute minimum set of character classes needed to disambiguate
    *  edges.  We optimistically assume that every character belongs to
    *  a single character class, and then incrementally split classes
    *  as we see edges that require discrimination between characters in
-   *  the class. [CSA, 25-Jul-1999] */
+   *  the class. [CSA, 25-Jul-1999]  The sweep runs over the runs found
+   *  by computeRuns(), so its cost depends on the number of distinct
+   *  interval endpoints in the spec and not on the charset size. */
   private void computeClasses(CSpec m_spec) {
     this.original_charset_size = m_spec.m_dtrans_ncols;
-    this.ccls = new int[original_charset_size]; // initially all zero.
+    this.ccls_start = computeRuns(m_spec);
+    this.ccls = new int[ccls_start.length]; // initially all zero.
 
     int nextcls = 1;
+    boolean[] onA = new boolean[ccls_start.length];
     SparseBitSet clsA = new SparseBitSet(), clsB = new SparseBitSet();
     Hashtable h = new Hashtable();
     
@@ -2367,12 +2997,15 @@ class CSimplifyNfa
       if (nfa.m_edge==CNfa.EMPTY || nfa.m_edge==CNfa.EPSILON)
 	continue; // no discriminatory information.
       clsA.clearAll(); clsB.clearAll();
-      for (int i=0; i<ccls.length; i++)
-	if (nfa.m_edge==i || // edge labeled with a character
-	    nfa.m_edge==CNfa.CCL && nfa.m_set.contains(i)) // set of characters
+      for (int i=0; i<ccls.length; i++) {
+	// a run lies wholly on one side of the edge, so test its first char.
+	onA[i] = (nfa.m_edge==ccls_start[i] || // edge labeled with a character
+		  nfa.m_edge==CNfa.CCL && nfa.m_set.contains(ccls_start[i]));
+	if (onA[i])
 	  clsA.set(ccls[i]);
 	else
 	  clsB.set(ccls[i]);
+      }
       // now figure out which character classes we need to split.
       clsA.and(clsB); // split the classes which show up on both sides of edge
       System.out.print(clsA.size()==0?".":":");
@@ -2380,56 +3013,600 @@ class CSimplifyNfa
       // and split them.
       h.clear(); // h will map old to new class name
       for (int i=0; i<ccls.length; i++)
-	if (clsA.get(ccls[i])) // a split class
-	  if (nfa.m_edge==i ||
-	      nfa.m_edge==CNfa.CCL && nfa.m_set.contains(i)) { // on A side
-	    Integer split = new Integer(ccls[i]);
-	    if (!h.containsKey(split))
-	      h.put(split, new Integer(nextcls++)); // make new class
-	    ccls[i] = ((Integer)h.get(split)).intValue();
-	  }
+	if (clsA.get(ccls[i]) && onA[i]) { // a split class, on A side
+	  Integer split = new Integer(ccls[i]);
+	  if (!h.containsKey(split))
+	    h.put(split, new Integer(nextcls++)); // make new class
+	  ccls[i] = ((Integer)h.get(split)).intValue();
+	}
     }
     System.out.println();
     System.out.println("NFA has "+nextcls+" distinct character classes.");
+
+    // merge neighbouring runs which ended up in the same class.
+    int nrun = 0;
+    for (int i=0; i<ccls.length; i++)
+      if (nrun==0 || ccls[i]!=ccls[nrun-1]) {
+	ccls_start[nrun] = ccls_start[i];
+	ccls[nrun++] = ccls[i];
+      }
+    int[] start = new int[nrun], cls = new int[nrun];
+    System.arraycopy(ccls_start, 0, start, 0, nrun);
+    System.arraycopy(ccls, 0, cls, 0, nrun);
+    this.ccls_start = start;
+    this.ccls = cls;
     
     this.mapped_charset_size = nextcls;
   }
 }
 
 /***************************************************************
-  Class: CMinimize
- **************************************************************/
-class CMinimize
+  Class: CKeywords
+  Description: Folds literal keyword rules into the identifier
+  rule that also matches them.  For a spec such as
+      "if" { ... }  "int" { ... }  {LETTER}({LETTER}|{DIGIT})* { ... }
+  the keyword rules are dropped from the NFA, so the DFA needs no
+  prefix states for them.  The generated lexer instead looks the
+  identifier's text up in a perfect hash table after a match and
+  runs the keyword's action on a hit.
+
+  A literal rule K for string L is folded into rule I only when,
+  in every lexical state where either is active, the rules that
+  match exactly L are K first and I second.  Then dropping K makes
+  I the winner for L and for nothing else, so the lookup restores
+  the original behaviour.  Anchored rules are never folded.
+  **************************************************************/
+class CKeywords
 {
   /***************************************************************
     Member Variables
     **************************************************************/
-  CSpec m_spec;
-  Vector m_group;
-  int m_ingroup[];
+  private CSpec m_spec;
+  private DenseBitSet m_cur; /* Scratch sets for NFA simulation. */
+  private DenseBitSet m_next;
+  private int m_stack[];
+  private Hashtable m_accept_of; /* Rule start to accepting state. */
+
+  /* Candidate hash table sizes are 2^k for k up to this bound
+     above the smallest that fits; seeds are tried up to MAX_SEED. */
+  private static final int MAX_GROWTH = 3;
+  private static final int MAX_SEED = 256;
 
   /***************************************************************
-    Function: CMinimize
-    Description: Constructor.
-    **************************************************************/
-  CMinimize 
-    (
-     )
-      {
-	reset();
-      }
-  
-  /***************************************************************
-    Function: reset
-    Description: Resets member variables.
+    Function: fold
+    Description: Finds and removes foldable keyword rules, filling
+    in CSpec.m_kw_ident, m_kw_text, m_kw_accept and m_kw_seed.
+    Must run after thompson() and before the NFA is simplified.
     **************************************************************/
-  private void reset
+  void fold
     (
+     CSpec spec
      )
       {
-	m_spec = null;
-	m_group = null;
-	m_ingroup = null;
+	Vector rules;
+	Vector literals;
+	Hashtable owner;
+	Hashtable count;
+	CNfa rule;
+	CNfa ident;
+	CNfa best;
+	String text;
+	Integer n;
+	int i;
+
+	m_spec = spec;
+	m_cur = new DenseBitSet(m_spec.m_nfa_states.size());
+	m_next = new DenseBitSet(m_spec.m_nfa_states.size());
+	m_stack = new int[m_spec.m_nfa_states.size()];
+
+	/* For each literal rule, find the rule it can fold into. */
+	rules = rule_starts();
+	m_accept_of = new Hashtable();
+	for (i = 0; i < rules.size(); ++i)
+	  {
+	    rule = (CNfa) rules.elementAt(i);
+	    m_accept_of.put(rule,find_accept(rule));
+	  }
+	literals = new Vector();
+	owner = new Hashtable();
+	count = new Hashtable();
+	best = null;
+	for (i = 0; i < rules.size(); ++i)
+	  {
+	    rule = (CNfa) rules.elementAt(i);
+	    text = literal(rule);
+	    if (null == text)
+	      {
+		continue;
+	      }
+	    ident = folds_into(rule,text,rules);
+	    if (null == ident)
+	      {
+		continue;
+	      }
+	    literals.addElement(rule);
+	    owner.put(rule,ident);
+	    n = (Integer) count.get(ident);
+	    n = new Integer(null == n ? 1 : n.intValue() + 1);
+	    count.put(ident,n);
+	    if (null == best || n.intValue() > ((Integer) count.get(best)).intValue())
+	      {
+		best = ident;
+	      }
+	  }
+
+	if (null == best)
+	  {
+	    reset();
+	    return;
+	  }
+
+	/* Fold the keywords of the most popular identifier rule. */
+	Vector keywords = new Vector();
+	Vector texts = new Vector();
+	Vector accepts = new Vector();
+	for (i = 0; i < literals.size(); ++i)
+	  {
+	    rule = (CNfa) literals.elementAt(i);
+	    if (best == owner.get(rule))
+	      {
+		keywords.addElement(rule);
+		texts.addElement(literal(rule));
+		accepts.addElement(accept_state(rule).m_accept);
+	      }
+	  }
+	if (false == build_table(texts,accepts))
+	  {
+	    reset();
+	    return;
+	  }
+	for (i = 0; i < keywords.size(); ++i)
+	  {
+	    remove((CNfa) keywords.elementAt(i));
+	  }
+	m_spec.m_kw_ident = accept_state(best).m_accept;
+
+	if (m_spec.m_verbose)
+	  {
+	    System.out.println("Folded " + texts.size() 
+			       + " keyword rules into the identifier rule.");
+	  }
+	reset();
+      }
+
+  /***************************************************************
+    Function: reset
+    **************************************************************/
+  private void reset
+    (
+     )
+      {
+	m_spec = null;
+	m_cur = null;
+	m_next = null;
+	m_stack = null;
+	m_accept_of = null;
+      }
+
+  /***************************************************************
+    Function: rule_starts
+    Description: Start states of all rules, in label order.
+    **************************************************************/
+  private Vector rule_starts
+    (
+     )
+      {
+	DenseBitSet seen = new DenseBitSet(m_spec.m_nfa_states.size());
+	Vector rules = new Vector();
+	int i;
+	int j;
+
+	for (i = 0; i < m_spec.m_state_rules.length; ++i)
+	  {
+	    for (j = 0; j < m_spec.m_state_rules[i].size(); ++j)
+	      {
+		seen.set(((CNfa) m_spec.m_state_rules[i].elementAt(j)).m_label);
+	      }
+	  }
+	for (i = seen.nextSetBit(0); 0 <= i; i = seen.nextSetBit(i + 1))
+	  {
+	    rules.addElement(m_spec.m_nfa_states.elementAt(i));
+	  }
+	return rules;
+      }
+
+  /***************************************************************
+    Function: literal
+    Description: Returns the string a rule matches if it is a
+    plain, unanchored chain of word characters, else null.
+    Punctuation is left to the DFA, which matches it directly;
+    folding it into a catch-all rule only adds a lookup.
+    **************************************************************/
+  private String literal
+    (
+     CNfa rule
+     )
+      {
+	StringBuffer text = new StringBuffer();
+	CNfa state = rule;
+
+	while (null == state.m_accept)
+	  {
+	    if (null != state.m_next2 || null == state.m_next)
+	      {
+		return null;
+	      }
+	    if (0 <= state.m_edge)
+	      {
+		if (state.m_edge >= m_spec.BOL)
+		  {
+		    return null; /* BOL or EOF */
+		  }
+		if (false == Character.isJavaIdentifierPart((char) state.m_edge))
+		  {
+		    return null;
+		  }
+		text.append((char) state.m_edge);
+	      }
+	    else if (CNfa.EPSILON != state.m_edge)
+	      {
+		return null;
+	      }
+	    state = state.m_next;
+	  }
+	if (null != state.m_next || CSpec.NONE != state.m_anchor
+	    || 0 == text.length())
+	  {
+	    return null;
+	  }
+	return text.toString();
+      }
+
+  /***************************************************************
+    Function: accept_state
+    **************************************************************/
+  private CNfa accept_state
+    (
+     CNfa rule
+     )
+      {
+	return (CNfa) m_accept_of.get(rule);
+      }
+
+  /***************************************************************
+    Function: find_accept
+    Description: The accepting state of a rule.  Rule fragments
+    are disjoint, so it is the only one reachable from the start.
+    **************************************************************/
+  private CNfa find_accept
+    (
+     CNfa rule
+     )
+      {
+	Stack stack = new Stack();
+	DenseBitSet seen = new DenseBitSet(m_spec.m_nfa_states.size());
+	CNfa state;
+
+	stack.push(rule);
+	while (false == stack.empty())
+	  {
+	    state = (CNfa) stack.pop();
+	    if (seen.get(state.m_label))
+	      {
+		continue;
+	      }
+	    seen.set(state.m_label);
+	    if (null != state.m_accept)
+	      {
+		return state;
+	      }
+	    if (null != state.m_next)
+	      {
+		stack.push(state.m_next);
+	      }
+	    if (null != state.m_next2)
+	      {
+		stack.push(state.m_next2);
+	      }
+	  }
+	return null;
+      }
+
+  /***************************************************************
+    Function: folds_into
+    Description: Returns the start of the rule that literal rule
+    kw (matching text) can fold into, or null.
+    **************************************************************/
+  private CNfa folds_into
+    (
+     CNfa kw,
+     String text,
+     Vector rules
+     )
+      {
+	CNfa kw_accept = accept_state(kw);
+	CNfa ident_accept = null;
+	CNfa ident = null;
+	Vector matched;
+	int i;
+
+	for (i = 0; i < m_spec.m_state_rules.length; ++i)
+	  {
+	    if (false == m_spec.m_state_rules[i].contains(kw))
+	      {
+		continue;
+	      }
+	    matched = match(m_spec.m_state_rules[i],text);
+	    if (2 > matched.size() || kw_accept != matched.elementAt(0))
+	      {
+		return null;
+	      }
+	    if (null == ident_accept)
+	      {
+		ident_accept = (CNfa) matched.elementAt(1);
+	      }
+	    else if (ident_accept != matched.elementAt(1))
+	      {
+		return null;
+	      }
+	  }
+	if (null == ident_accept || CSpec.NONE != ident_accept.m_anchor)
+	  {
+	    return null;
+	  }
+
+	/* Find the rule owning ident_accept. */
+	for (i = 0; i < rules.size(); ++i)
+	  {
+	    if (ident_accept == accept_state((CNfa) rules.elementAt(i)))
+	      {
+		ident = (CNfa) rules.elementAt(i);
+		break;
+	      }
+	  }
+	if (null == ident || null != literal(ident))
+	  {
+	    return null;
+	  }
+
+	/* Both must be active in exactly the same lexical states. */
+	for (i = 0; i < m_spec.m_state_rules.length; ++i)
+	  {
+	    if (m_spec.m_state_rules[i].contains(kw)
+		!= m_spec.m_state_rules[i].contains(ident))
+	      {
+		return null;
+	      }
+	  }
+	return ident;
+      }
+
+  /***************************************************************
+    Function: match
+    Description: Simulates the NFA from the given rule starts on
+    text and returns the accepting states reached at its end, in
+    priority (label) order.
+    **************************************************************/
+  private Vector match
+    (
+     Vector starts,
+     String text
+     )
+      {
+	Vector accepts = new Vector();
+	DenseBitSet swap;
+	CNfa state;
+	int c;
+	int i;
+	int j;
+
+	m_cur.clearAll();
+	for (i = 0; i < starts.size(); ++i)
+	  {
+	    m_cur.set(((CNfa) starts.elementAt(i)).m_label);
+	  }
+	closure(m_cur);
+	for (j = 0; j < text.length(); ++j)
+	  {
+	    c = text.charAt(j);
+	    m_next.clearAll();
+	    for (i = m_cur.nextSetBit(0); 0 <= i; i = m_cur.nextSetBit(i + 1))
+	      {
+		state = (CNfa) m_spec.m_nfa_states.elementAt(i);
+		if (c == state.m_edge
+		    || (CNfa.CCL == state.m_edge && state.m_set.contains(c)))
+		  {
+		    m_next.set(state.m_next.m_label);
+		  }
+	      }
+	    closure(m_next);
+	    swap = m_cur;
+	    m_cur = m_next;
+	    m_next = swap;
+	  }
+	for (i = m_cur.nextSetBit(0); 0 <= i; i = m_cur.nextSetBit(i + 1))
+	  {
+	    state = (CNfa) m_spec.m_nfa_states.elementAt(i);
+	    if (null != state.m_accept)
+	      {
+		accepts.addElement(state);
+	      }
+	  }
+	return accepts;
+      }
+
+  /***************************************************************
+    Function: closure
+    Description: Epsilon closure, in place.
+    **************************************************************/
+  private void closure
+    (
+     DenseBitSet set
+     )
+      {
+	int top = 0;
+	CNfa state;
+	int i;
+
+	for (i = set.nextSetBit(0); 0 <= i; i = set.nextSetBit(i + 1))
+	  {
+	    m_stack[top++] = i;
+	  }
+	while (0 < top)
+	  {
+	    state = (CNfa) m_spec.m_nfa_states.elementAt(m_stack[--top]);
+	    if (CNfa.EPSILON != state.m_edge)
+	      {
+		continue;
+	      }
+	    if (null != state.m_next && false == set.get(state.m_next.m_label))
+	      {
+		set.set(state.m_next.m_label);
+		m_stack[top++] = state.m_next.m_label;
+	      }
+	    if (null != state.m_next2 && false == set.get(state.m_next2.m_label))
+	      {
+		set.set(state.m_next2.m_label);
+		m_stack[top++] = state.m_next2.m_label;
+	      }
+	  }
+      }
+
+  /***************************************************************
+    Function: remove
+    Description: Drops a rule from every lexical state and blanks
+    its edges, so they add nothing to the character classes.  The
+    accepting state keeps its action, which is now reached only
+    through the keyword table.
+    **************************************************************/
+  private void remove
+    (
+     CNfa rule
+     )
+      {
+	CNfa state;
+	int i;
+
+	for (i = 0; i < m_spec.m_state_rules.length; ++i)
+	  {
+	    m_spec.m_state_rules[i].removeElement(rule);
+	  }
+	for (state = rule; null != state; state = state.m_next)
+	  {
+	    state.m_edge = CNfa.EMPTY;
+	  }
+      }
+
+  /***************************************************************
+    Function: hash
+    Description: Keyword hash; the generated yy_keyword() must
+    compute exactly the same value.
+    **************************************************************/
+  static int hash
+    (
+     String text,
+     int seed,
+     int mask
+     )
+      {
+	int h = seed;
+	int i;
+
+	for (i = 0; i < text.length(); ++i)
+	  {
+	    h = 31 * h + text.charAt(i);
+	  }
+	return (h ^ (h >>> 16)) & mask;
+      }
+
+  /***************************************************************
+    Function: build_table
+    Description: Searches for a table size and seed giving a
+    collision-free (perfect) hash of the keywords.  Returns false
+    if there is none within the search bounds.
+    **************************************************************/
+  private boolean build_table
+    (
+     Vector texts,
+     Vector accepts
+     )
+      {
+	String table[];
+	CAccept actions[];
+	int size;
+	int grow;
+	int seed;
+	int slot;
+	int i;
+
+	size = 1;
+	while (size < texts.size())
+	  {
+	    size <<= 1;
+	  }
+	for (grow = 0; grow <= MAX_GROWTH; ++grow, size <<= 1)
+	  {
+	    for (seed = 0; seed < MAX_SEED; ++seed)
+	      {
+		table = new String[size];
+		actions = new CAccept[size];
+		for (i = 0; i < texts.size(); ++i)
+		  {
+		    slot = hash((String) texts.elementAt(i),seed,size - 1);
+		    if (null != table[slot])
+		      {
+			break;
+		      }
+		    table[slot] = (String) texts.elementAt(i);
+		    actions[slot] = (CAccept) accepts.elementAt(i);
+		  }
+		if (i == texts.size())
+		  {
+		    m_spec.m_kw_text = table;
+		    m_spec.m_kw_accept = actions;
+		    m_spec.m_kw_seed = seed;
+		    return true;
+		  }
+	      }
+	  }
+	return false;
+      }
+}
+
+/***************************************************************
+  Class: CMinimize
+ **************************************************************/
+class CMinimize
+{
+  /***************************************************************
+    Member Variables
+    **************************************************************/
+  CSpec m_spec;
+  Vector m_group;
+  int m_ingroup[];
+
+  /***************************************************************
+    Function: CMinimize
+    Description: Constructor.
+    **************************************************************/
+  CMinimize 
+    (
+     )
+      {
+	reset();
+      }
+  
+  /***************************************************************
+    Function: reset
+    Description: Resets member variables.
+    **************************************************************/
+  private void reset
+    (
+     )
+      {
+	m_spec = null;
+	m_group = null;
+	m_ingroup = null;
       }
 
   /***************************************************************
@@ -2532,63 +3709,32 @@ class CMinimize
       }	
 	
   /***************************************************************
-    Function: col_equiv
-    Description: 
+    Function: vector_key
+    Description: Hashtable key for a column or row of states.
     **************************************************************/
-  private boolean col_equiv
+  private String vector_key
     (
-     int col1,
-     int col2
+     int v[],
+     int n
      )
       {
-	int n;
+	char key[] = new char[2 * n];
 	int i;
-	CDTrans dtrans;
 
-	n = m_spec.m_dtrans_vector.size();
 	for (i = 0; i < n; ++i)
 	  {
-	    dtrans = (CDTrans) m_spec.m_dtrans_vector.elementAt(i);
-	    if (dtrans.m_dtrans[col1] != dtrans.m_dtrans[col2]) 
-	      {
-		return false;
-	      }
-	  }
-	
-	return true;
-      }
-
-  /***************************************************************
-    Function: row_equiv
-    Description: 
-    **************************************************************/
-  private boolean row_equiv
-    (
-     int row1,
-     int row2
-     )
-      {
-	int i;
-	CDTrans dtrans1;
-	CDTrans dtrans2;
-
-	dtrans1 = (CDTrans) m_spec.m_dtrans_vector.elementAt(row1);
-	dtrans2 = (CDTrans) m_spec.m_dtrans_vector.elementAt(row2);
-	
-	for (i = 0; i < m_spec.m_dtrans_ncols; ++i)
-	  {
-	    if (dtrans1.m_dtrans[i] != dtrans2.m_dtrans[i]) 
-	      {
-		return false;
-	      }
+	    key[2 * i] = (char) (v[i] >>> 16);
+	    key[2 * i + 1] = (char) v[i];
 	  }
-	
-	return true;
+	return new String(key);
       }
 
   /***************************************************************
     Function: reduce
-    Description: 
+    Description: Merges equal columns and equal rows of the
+    transition table.  Each distinct column (row) is numbered by
+    its first occurrence, found by hashing, so the cost is linear
+    in the size of the table.
     **************************************************************/
   private void reduce
     (
@@ -2603,8 +3749,13 @@ class CMinimize
 	SparseBitSet set;
 	CDTrans dtrans;
 	int size;
+	Hashtable seen;
+	Integer index;
+	String key;
+	int column[];
 
 	set = new SparseBitSet();
+	seen = new Hashtable();
 	
 	/* Save accept nodes and anchor entries. */
 	size = m_spec.m_dtrans_vector.size();
@@ -2620,53 +3771,28 @@ class CMinimize
 	
 	/* Allocate column map. */
 	m_spec.m_col_map = new int[m_spec.m_dtrans_ncols];
-	for (i = 0; i < m_spec.m_dtrans_ncols; ++i)
-	  {
-	    m_spec.m_col_map[i] = -1;
-	  }
 
-	/* Process columns for reduction. */
-	for (reduced_ncols = 0; ; ++reduced_ncols)
+	/* Process columns for reduction; the first column of each
+	   kind is marked in set. */
+	column = new int[size];
+	reduced_ncols = 0;
+	for (i = 0; i < m_spec.m_dtrans_ncols; ++i)
 	  {
-	    if (CUtility.DEBUG)
-	      {
-		for (i = 0; i < reduced_ncols; ++i)
-		  {
-		    CUtility.ASSERT(-1 != m_spec.m_col_map[i]);
-		  }
-	      }
-
-	    for (i = reduced_ncols; i < m_spec.m_dtrans_ncols; ++i)
-	      {
-		if (-1 == m_spec.m_col_map[i])
-		  {
-		    break;
-		  }
-	      }
-
-	    if (i >= m_spec.m_dtrans_ncols)
-	      {
-		break;
-	      }
-
-	    if (CUtility.DEBUG)
+	    for (j = 0; j < size; ++j)
 	      {
-		CUtility.ASSERT(false == set.get(i));
-		CUtility.ASSERT(-1 == m_spec.m_col_map[i]);
+		dtrans = (CDTrans) m_spec.m_dtrans_vector.elementAt(j);
+		column[j] = dtrans.m_dtrans[i];
 	      }
-
-	    set.set(i);
-	    
-	    m_spec.m_col_map[i] = reduced_ncols;
-	    
-	    /* UNDONE: Optimize by doing all comparisons in one batch. */
-	    for (j = i + 1; j < m_spec.m_dtrans_ncols; ++j)
+	    key = vector_key(column,size);
+	    index = (Integer) seen.get(key);
+	    if (null == index)
 	      {
-		if (-1 == m_spec.m_col_map[j] && true == col_equiv(i,j))
-		  {
-		    m_spec.m_col_map[j] = reduced_ncols;
-		  }
+		index = new Integer(reduced_ncols);
+		seen.put(key,index);
+		set.set(i);
+		++reduced_ncols;
 	      }
+	    m_spec.m_col_map[i] = index.intValue();
 	  }
 
 	/* Reduce columns. */
@@ -2706,53 +3832,23 @@ class CMinimize
 	/* Allocate row map. */
 	nrows = m_spec.m_dtrans_vector.size();
 	m_spec.m_row_map = new int[nrows];
-	for (i = 0; i < nrows; ++i)
-	  {
-	    m_spec.m_row_map[i] = -1;
-	  }
 
-	/* Process rows to reduce. */
-	for (reduced_nrows = 0; ; ++reduced_nrows)
+	/* Process rows to reduce, as for columns. */
+	seen.clear();
+	reduced_nrows = 0;
+	for (i = 0; i < nrows; ++i)
 	  {
-	    if (CUtility.DEBUG)
-	      {
-		for (i = 0; i < reduced_nrows; ++i)
-		  {
-		    CUtility.ASSERT(-1 != m_spec.m_row_map[i]);
-		  }
-	      }
-
-	    for (i = reduced_nrows; i < nrows; ++i)
-	      {
-		if (-1 == m_spec.m_row_map[i])
-		  {
-		    break;
-		  }
-	      }
-
-	    if (i >= nrows)
-	      {
-		break;
-	      }
-
-	    if (CUtility.DEBUG)
-	      {
-		CUtility.ASSERT(false == set.get(i));
-		CUtility.ASSERT(-1 == m_spec.m_row_map[i]);
-	      }
-
-	    set.set(i);
-
-	    m_spec.m_row_map[i] = reduced_nrows;
-	    
-	    /* UNDONE: Optimize by doing all comparisons in one batch. */
-	    for (j = i + 1; j < nrows; ++j)
+	    dtrans = (CDTrans) m_spec.m_dtrans_vector.elementAt(i);
+	    key = vector_key(dtrans.m_dtrans,m_spec.m_dtrans_ncols);
+	    index = (Integer) seen.get(key);
+	    if (null == index)
 	      {
-		if (-1 == m_spec.m_row_map[j] && true == row_equiv(i,j))
-		  {
-		    m_spec.m_row_map[j] = reduced_nrows;
-		  }
+		index = new Integer(reduced_nrows);
+		seen.put(key,index);
+		set.set(i);
+		++reduced_nrows;
 	      }
+	    m_spec.m_row_map[i] = index.intValue();
 	  }
 
 	/* Reduce rows. */
@@ -3117,6 +4213,8 @@ class CNfa2Dfa
   private CSpec m_spec;
   private int m_unmarked_dfa;
   private CLexGen m_lexGen;
+  private DenseBitSet m_move_bit; /* Reused by move(); cloned before
+				     it is stored in a CDfa. */
 
   /***************************************************************
     Constants
@@ -3146,6 +4244,7 @@ class CNfa2Dfa
 	m_lexGen = lexGen;
 	m_spec = spec;
 	m_unmarked_dfa = 0;
+	m_move_bit = new DenseBitSet(m_spec.m_nfa_states.size());
       }
 
   /***************************************************************
@@ -3159,6 +4258,7 @@ class CNfa2Dfa
 	m_lexGen = null;
 	m_spec = null;
 	m_unmarked_dfa = 0;
+	m_move_bit = null;
       }
 
   /***************************************************************
@@ -3233,9 +4333,8 @@ class CNfa2Dfa
 		
 	    /* Create start state and initialize fields. */
 	    bunch.m_nfa_set = (Vector) m_spec.m_state_rules[istate].clone();
-	    sortStates(bunch.m_nfa_set);
 	    
-	    bunch.m_nfa_bit = new SparseBitSet();
+	    bunch.m_nfa_bit = new DenseBitSet(m_spec.m_nfa_states.size());
 	    
 	    /* Initialize bit set. */
 	    size = bunch.m_nfa_set.size();
@@ -3445,39 +4544,30 @@ class CNfa2Dfa
 	      {
 		if (null != state.m_next)
 		  {
-		    if (false == bunch.m_nfa_set.contains(state.m_next))
+		    if (false == bunch.m_nfa_bit.get(state.m_next.m_label))
 		      {
-			if (CUtility.DEBUG)
-			  {
-			    CUtility.ASSERT(false == bunch.m_nfa_bit.get(state.m_next.m_label));
-			  }
-			
 			bunch.m_nfa_bit.set(state.m_next.m_label);
-			bunch.m_nfa_set.addElement(state.m_next);
 			nfa_stack.push(state.m_next);
 		      }
 		  }
 
 		if (null != state.m_next2)
 		  {
-		    if (false == bunch.m_nfa_set.contains(state.m_next2))
+		    if (false == bunch.m_nfa_bit.get(state.m_next2.m_label))
 		      {
-			if (CUtility.DEBUG)
-			  {
-			    CUtility.ASSERT(false == bunch.m_nfa_bit.get(state.m_next2.m_label));
-			  }
-			
 			bunch.m_nfa_bit.set(state.m_next2.m_label);
-			bunch.m_nfa_set.addElement(state.m_next2);
 			nfa_stack.push(state.m_next2);
 		      }
 		  }
 	      }
 	  }
 
-	if (null != bunch.m_nfa_set)
+	/* Rebuild the state vector in label order from the bits. */
+	bunch.m_nfa_set = new Vector();
+	for (i = bunch.m_nfa_bit.nextSetBit(0); 0 <= i; 
+	     i = bunch.m_nfa_bit.nextSetBit(i + 1))
 	  {
-	    sortStates(bunch.m_nfa_set);
+	    bunch.m_nfa_set.addElement(m_spec.m_nfa_states.elementAt(i));
 	  }
 
 	return;
@@ -3486,11 +4576,13 @@ class CNfa2Dfa
   /***************************************************************
     Function: move
     Description: Returns null if resulting NFA set is empty.
+    Otherwise the result shares m_move_bit, and its vector is left
+    unordered for e_closure() to rebuild.
     **************************************************************/
   void move
     (
      Vector nfa_set,
-     SparseBitSet nfa_bit,
+     DenseBitSet nfa_bit,
      int b,
      CBunch bunch
      )
@@ -3519,86 +4611,18 @@ class CNfa2Dfa
 		      }
 		    
 		    bunch.m_nfa_set = new Vector();
-		    /*bunch.m_nfa_bit 
-			= new SparseBitSet(m_spec.m_nfa_states.size());*/
-		    bunch.m_nfa_bit = new SparseBitSet();
+		    m_move_bit.clearAll();
+		    bunch.m_nfa_bit = m_move_bit;
 		  }
 
-		bunch.m_nfa_set.addElement(state.m_next);
-		/*System.out.println("Size of bitset: " + bunch.m_nfa_bit.size());
-		System.out.println("Reference index: " + state.m_next.m_label);
-		System.out.flush();*/
-		bunch.m_nfa_bit.set(state.m_next.m_label);
-	      }
-	  }
-	
-	if (null != bunch.m_nfa_set)
-	  {
-	    if (CUtility.DEBUG)
-	      {
-		CUtility.ASSERT(null != bunch.m_nfa_bit);
-	      }
-	    
-	    sortStates(bunch.m_nfa_set);
-	  }
-
-	return;
-      }
-
-  /***************************************************************
-    Function: sortStates
-    **************************************************************/
-  private void sortStates
-    (
-     Vector nfa_set
-     )
-      {
-	CNfa elem;
-	int begin;
-	int size;
-	int index;
-	int value;
-	int smallest_index;
-	int smallest_value;
-	CNfa begin_elem;
-
-	size = nfa_set.size();
-	for (begin = 0; begin < size; ++begin)
-	  {
-	    elem = (CNfa) nfa_set.elementAt(begin);
-	    smallest_value = elem.m_label;
-	    smallest_index = begin;
-
-	    for (index = begin + 1; index < size; ++index)
-	      {
-		elem = (CNfa) nfa_set.elementAt(index);
-		value = elem.m_label;
-
-		if (value < smallest_value)
+		if (false == bunch.m_nfa_bit.get(state.m_next.m_label))
 		  {
-		    smallest_index = index;
-		    smallest_value = value;
+		    bunch.m_nfa_set.addElement(state.m_next);
+		    bunch.m_nfa_bit.set(state.m_next.m_label);
 		  }
 	      }
-
-	    begin_elem = (CNfa) nfa_set.elementAt(begin);
-	    elem = (CNfa) nfa_set.elementAt(smallest_index);
-	    nfa_set.setElementAt(elem,begin);
-	    nfa_set.setElementAt(begin_elem,smallest_index);
 	  }
 
-	if (CUtility.OLD_DEBUG)
-	  {
-	    System.out.print("NFA vector indices: ");  
-	    
-	    for (index = 0; index < size; ++index)
-	      {
-		elem = (CNfa) nfa_set.elementAt(index);
-		System.out.print(elem.m_label + " ");
-	      }
-	    System.out.println();
-	  }	
-
 	return;
       }
 
@@ -3675,7 +4699,7 @@ class CNfa2Dfa
 	
 	/* Initialize fields, including the mark field. */
 	dfa.m_nfa_set = (Vector) bunch.m_nfa_set.clone();
-	dfa.m_nfa_bit = (SparseBitSet) bunch.m_nfa_bit.clone();
+	dfa.m_nfa_bit = (DenseBitSet) bunch.m_nfa_bit.clone();
 	dfa.m_accept = bunch.m_accept;
 	dfa.m_anchor = bunch.m_anchor;
 	dfa.m_mark = false;
@@ -3722,13 +4746,257 @@ class CNfa2Dfa
 	    return dfa.m_label;
 	  }
 
-	if (CUtility.OLD_DUMP_DEBUG)
+	if (CUtility.OLD_DUMP_DEBUG)
+	  {
+	    System.out.println(" NOT FOUND!");
+	  }
+	return NOT_IN_DSTATES;
+      }
+
+}
+
+/***************************************************************
+  Class: CNfa2Lazy
+  Description: Prepares a %lazy lexer.  Instead of running subset
+  construction, the generated lexer receives the simplified NFA as
+  tables and builds DFA states on demand while scanning (see
+  CEmit.emit_lazy).  Generation time and size are then linear in
+  the NFA, however large the full DFA would be.
+
+  Only NFA states reachable from some lexical state are kept, and
+  they are renumbered in label order.  Accepting states are
+  numbered as rules in the same order, so a lower rule number still
+  means higher priority, and the accept vector is indexed by rule
+  rather than by DFA state.
+  **************************************************************/
+class CNfa2Lazy
+{
+  /***************************************************************
+    Constants
+    **************************************************************/
+  static final int DEFAULT_STATES = 1024; /* Default cache size. */
+
+  /* Columns of CSpec.m_lazy_nfa. */
+  static final int NEXT = 0; /* Successor, or -1. */
+  static final int NEXT2 = 1; /* Second epsilon successor, or -1. */
+  static final int SET = 2; /* Edge set for character edges, else -1. */
+  static final int RULE = 3; /* Rule accepted here, or -1. */
+
+  /***************************************************************
+    Function: make_lazy
+    Description: High-level access function to module.
+    **************************************************************/
+  void make_lazy
+    (
+     CSpec spec
+     )
+      {
+	int index[];
+	int edge[];
+	Vector live;
+	Vector rules;
+	Hashtable sets;
+	Vector set_vector;
+	CNfa state;
+	String key;
+	Integer set;
+	int nstates;
+	int i;
+	int j;
+	int n;
+
+	if (spec.m_verbose)
+	  {
+	    System.out.println("Preparing NFA tables for lazy DFA.");
+	  }
+
+	/* Mark states reachable from the rules of any lexical state. */
+	nstates = spec.m_nfa_states.size();
+	index = new int[nstates];
+	for (i = 0; i < nstates; ++i)
+	  {
+	    index[i] = -1;
+	  }
+	for (i = 0; i < spec.m_state_rules.length; ++i)
+	  {
+	    for (j = 0; j < spec.m_state_rules[i].size(); ++j)
+	      {
+		reach((CNfa) spec.m_state_rules[i].elementAt(j),index);
+	      }
+	  }
+
+	/* Renumber the live states and the rules in label order. */
+	live = new Vector();
+	rules = new Vector();
+	for (i = 0; i < nstates; ++i)
+	  {
+	    if (-1 != index[i])
+	      {
+		index[i] = live.size();
+		live.addElement(spec.m_nfa_states.elementAt(i));
+	      }
+	  }
+
+	spec.m_lazy_nfa = new int[live.size()][4];
+	sets = new Hashtable();
+	set_vector = new Vector();
+	for (i = 0; i < live.size(); ++i)
+	  {
+	    state = (CNfa) live.elementAt(i);
+	    spec.m_lazy_nfa[i][NEXT] = (null == state.m_next 
+					|| CNfa.EMPTY == state.m_edge) ? -1
+	      : index[state.m_next.m_label];
+	    spec.m_lazy_nfa[i][NEXT2] = (null == state.m_next2
+					 || CNfa.EMPTY == state.m_edge) ? -1
+	      : index[state.m_next2.m_label];
+	    spec.m_lazy_nfa[i][SET] = -1;
+	    spec.m_lazy_nfa[i][RULE] = -1;
+
+	    if (CNfa.EPSILON != state.m_edge && CNfa.EMPTY != state.m_edge)
+	      {
+		edge = edge_set(state,spec.m_dtrans_ncols);
+		key = edge_key(edge);
+		set = (Integer) sets.get(key);
+		if (null == set)
+		  {
+		    set = new Integer(set_vector.size());
+		    sets.put(key,set);
+		    set_vector.addElement(edge);
+		  }
+		spec.m_lazy_nfa[i][SET] = set.intValue();
+	      }
+
+	    if (null != state.m_accept)
+	      {
+		spec.m_lazy_nfa[i][RULE] = rules.size();
+		rules.addElement(state);
+	      }
+	  }
+
+	spec.m_lazy_sets = new int[set_vector.size()][];
+	set_vector.copyInto(spec.m_lazy_sets);
+
+	/* Start states of each lexical state, flattened. */
+	n = 0;
+	for (i = 0; i < spec.m_state_rules.length; ++i)
+	  {
+	    n += spec.m_state_rules[i].size();
+	  }
+	spec.m_lazy_init = new int[n];
+	spec.m_lazy_init_start = new int[spec.m_state_rules.length + 1];
+	n = 0;
+	for (i = 0; i < spec.m_state_rules.length; ++i)
+	  {
+	    spec.m_lazy_init_start[i] = n;
+	    for (j = 0; j < spec.m_state_rules[i].size(); ++j)
+	      {
+		state = (CNfa) spec.m_state_rules[i].elementAt(j);
+		spec.m_lazy_init[n++] = index[state.m_label];
+	      }
+	  }
+	spec.m_lazy_init_start[spec.m_state_rules.length] = n;
+
+	/* Accept vector by rule, with an identity column map. */
+	spec.m_accept_vector = new Vector();
+	spec.m_anchor_array = new int[rules.size()];
+	for (i = 0; i < rules.size(); ++i)
+	  {
+	    state = (CNfa) rules.elementAt(i);
+	    spec.m_accept_vector.addElement(state.m_accept);
+	    spec.m_anchor_array[i] = state.m_anchor;
+	  }
+	spec.m_col_map = new int[spec.m_dtrans_ncols];
+	for (i = 0; i < spec.m_dtrans_ncols; ++i)
+	  {
+	    spec.m_col_map[i] = i;
+	  }
+
+	if (spec.m_verbose)
+	  {
+	    System.out.println(live.size() + " of " + nstates 
+			       + " NFA states kept, " + rules.size() 
+			       + " rules, " + set_vector.size() 
+			       + " distinct edge sets.");
+	  }
+      }
+
+  /***************************************************************
+    Function: reach
+    Description: Marks the states reachable from start in index.
+    **************************************************************/
+  private void reach
+    (
+     CNfa start,
+     int index[]
+     )
+      {
+	Stack stack = new Stack();
+	CNfa state;
+
+	if (-1 != index[start.m_label])
+	  {
+	    return;
+	  }
+	index[start.m_label] = 0;
+	stack.push(start);
+	while (false == stack.empty())
+	  {
+	    state = (CNfa) stack.pop();
+	    if (null != state.m_next && -1 == index[state.m_next.m_label])
+	      {
+		index[state.m_next.m_label] = 0;
+		stack.push(state.m_next);
+	      }
+	    if (null != state.m_next2 && -1 == index[state.m_next2.m_label])
+	      {
+		index[state.m_next2.m_label] = 0;
+		stack.push(state.m_next2);
+	      }
+	  }
+      }
+
+  /***************************************************************
+    Function: edge_set
+    Description: Membership of each character class in the edge
+    of a state, 1 if it moves on that class, else 0.
+    **************************************************************/
+  private int[] edge_set
+    (
+     CNfa state,
+     int ncols
+     )
+      {
+	int set[] = new int[ncols];
+	int c;
+
+	for (c = 0; c < ncols; ++c)
+	  {
+	    if (c == state.m_edge
+		|| (CNfa.CCL == state.m_edge && state.m_set.contains(c)))
+	      {
+		set[c] = 1;
+	      }
+	  }
+	return set;
+      }
+
+  /***************************************************************
+    Function: edge_key
+    **************************************************************/
+  private String edge_key
+    (
+     int set[]
+     )
+      {
+	char key[] = new char[set.length];
+	int c;
+
+	for (c = 0; c < set.length; ++c)
 	  {
-	    System.out.println(" NOT FOUND!");
+	    key[c] = (char) ('0' + set[c]);
 	  }
-	return NOT_IN_DSTATES;
+	return new String(key);
       }
-
 }
 
 /***************************************************************
@@ -3816,6 +5084,482 @@ class CAlloc
       }
 }
 
+/***************************************************************
+  Class: CGenCache
+  Description: On-disk cache of minimized transition tables.
+  The key is a digest of the generator version and of the NFA
+  built from the rules section, which has macros expanded and
+  whitespace dropped but holds no action code.  A spec whose
+  actions, user code or table-neutral directives change thus
+  reuses the cached tables and skips straight to emission.
+  Enabled by naming a directory with -DJLex.cache=<dir>.
+  **************************************************************/
+class CGenCache
+{
+  /***************************************************************
+    Member Variables
+    **************************************************************/
+  private java.io.File m_dir; /* Cache directory. */
+  private String m_key; /* Digest of current spec, or null. */
+  private Vector m_accepts; /* Distinct accept actions, in NFA order. */
+  private Hashtable m_accept_index; /* CAccept to index in m_accepts. */
+
+  /***************************************************************
+    Constants
+    **************************************************************/
+  /* Change whenever a generation pass or the file layout changes,
+     so that stale cache entries are never picked up. */
+  static final String VERSION = "JLex 1.2.6 [cache 1]";
+  static final String PROPERTY = "JLex.cache";
+  private static final int MAGIC = 0x4a4c6331;
+
+  /***************************************************************
+    Function: CGenCache
+    **************************************************************/
+  CGenCache
+    (
+     String dir
+     )
+      {
+	m_dir = new java.io.File(dir);
+	m_key = null;
+	m_accepts = new Vector();
+	m_accept_index = new Hashtable();
+      }
+
+  /***************************************************************
+    Function: fromProperty
+    Description: Returns the cache named by the JLex.cache
+    system property, or null if caching is off.
+    **************************************************************/
+  static CGenCache fromProperty
+    (
+     )
+      {
+	String dir = System.getProperty(PROPERTY);
+
+	if (null == dir || 0 == dir.length())
+	  {
+	    return null;
+	  }
+	return new CGenCache(dir);
+      }
+
+  /***************************************************************
+    Function: computeKey
+    Description: Digests the NFA machine.  Must be called after
+    thompson() and before the NFA is simplified.
+    **************************************************************/
+  void computeKey
+    (
+     CSpec spec
+     )
+      {
+	java.io.ByteArrayOutputStream bytes;
+	java.io.DataOutputStream out;
+	java.security.MessageDigest md;
+	byte digest[];
+	StringBuffer hex;
+	CNfa nfa;
+	int i;
+	int j;
+
+	m_key = null;
+	m_accepts.removeAllElements();
+	m_accept_index.clear();
+
+	bytes = new java.io.ByteArrayOutputStream();
+	out = new java.io.DataOutputStream(bytes);
+	try
+	  {
+	    out.writeUTF(VERSION);
+	    out.writeInt(spec.m_dtrans_ncols);
+	    out.writeInt(spec.BOL);
+	    out.writeInt(spec.EOF);
+
+	    out.writeInt(spec.m_state_rules.length);
+	    for (i = 0; i < spec.m_state_rules.length; ++i)
+	      {
+		out.writeInt(spec.m_state_rules[i].size());
+		for (j = 0; j < spec.m_state_rules[i].size(); ++j)
+		  {
+		    nfa = (CNfa) spec.m_state_rules[i].elementAt(j);
+		    out.writeInt(nfa.m_label);
+		  }
+	      }
+
+	    out.writeInt(spec.m_nfa_start.m_label);
+	    out.writeInt(spec.m_nfa_states.size());
+	    for (i = 0; i < spec.m_nfa_states.size(); ++i)
+	      {
+		nfa = (CNfa) spec.m_nfa_states.elementAt(i);
+		out.writeInt(nfa.m_edge);
+		out.writeInt(null == nfa.m_next ? -1 : nfa.m_next.m_label);
+		out.writeInt(null == nfa.m_next2 ? -1 : nfa.m_next2.m_label);
+		out.writeInt(nfa.m_anchor);
+		out.writeInt(accept_index(nfa.m_accept));
+		if (CNfa.CCL == nfa.m_edge)
+		  {
+		    out.writeBoolean(nfa.m_set.isComplement());
+		    out.writeInt(nfa.m_set.ranges());
+		    for (j = 0; j < nfa.m_set.ranges(); ++j)
+		      {
+			out.writeInt(nfa.m_set.rangeLo(j));
+			out.writeInt(nfa.m_set.rangeHi(j));
+		      }
+		  }
+		if (null != nfa.m_states)
+		  {
+		    for (Enumeration e = nfa.m_states.elements(); 
+			 e.hasMoreElements(); )
+		      {
+			out.writeInt(((Integer) e.nextElement()).intValue());
+		      }
+		  }
+		out.writeInt(-1);
+	      }
+	    out.flush();
+
+	    md = java.security.MessageDigest.getInstance("SHA-1");
+	    digest = md.digest(bytes.toByteArray());
+	  }
+	catch (java.io.IOException e)
+	  {
+	    return;
+	  }
+	catch (java.security.NoSuchAlgorithmException e)
+	  {
+	    return;
+	  }
+
+	hex = new StringBuffer();
+	for (i = 0; i < digest.length; ++i)
+	  {
+	    hex.append(Character.forDigit((digest[i] >> 4) & 0xf,16));
+	    hex.append(Character.forDigit(digest[i] & 0xf,16));
+	  }
+	m_key = hex.toString();
+      }
+
+  /***************************************************************
+    Function: accept_index
+    Description: Numbers accept actions in order of first
+    appearance, so the same rules get the same numbers whatever
+    their action code.
+    **************************************************************/
+  private int accept_index
+    (
+     CAccept accept
+     )
+      {
+	Integer index;
+
+	if (null == accept)
+	  {
+	    return -1;
+	  }
+	index = (Integer) m_accept_index.get(accept);
+	if (null == index)
+	  {
+	    index = new Integer(m_accepts.size());
+	    m_accept_index.put(accept,index);
+	    m_accepts.addElement(accept);
+	  }
+	return index.intValue();
+      }
+
+  /***************************************************************
+    Function: file
+    **************************************************************/
+  private java.io.File file
+    (
+     )
+      {
+	return new java.io.File(m_dir,m_key + ".dfa");
+      }
+
+  /***************************************************************
+    Function: load
+    Description: Fills in the tables min_dfa() would produce from
+    the cache.  Returns false, leaving spec untouched, on a miss
+    or on any unreadable entry.
+    **************************************************************/
+  boolean load
+    (
+     CSpec spec
+     )
+      {
+	java.io.DataInputStream in;
+	int ccls_start[];
+	int ccls_map[];
+	int ccls_limit;
+	int state_dtrans[];
+	int row_map[];
+	int col_map[];
+	int ncols;
+	int nrows;
+	int rows[][];
+	int accepts[];
+	int anchors[];
+	int i;
+	int j;
+	CDTrans dtrans;
+
+	if (null == m_key || false == file().isFile())
+	  {
+	    return false;
+	  }
+
+	try
+	  {
+	    in = new java.io.DataInputStream(new java.io.BufferedInputStream(
+		  new java.io.FileInputStream(file())));
+	    try
+	      {
+		if (MAGIC != in.readInt() || false == m_key.equals(in.readUTF()))
+		  {
+		    return false;
+		  }
+		ccls_limit = in.readInt();
+		ccls_start = read_ints(in);
+		ccls_map = read_ints(in);
+		state_dtrans = read_ints(in);
+		row_map = read_ints(in);
+		col_map = read_ints(in);
+		ncols = in.readInt();
+		nrows = in.readInt();
+		rows = new int[nrows][];
+		for (i = 0; i < nrows; ++i)
+		  {
+		    rows[i] = read_ints(in);
+		  }
+		accepts = read_ints(in);
+		anchors = read_ints(in);
+	      }
+	    finally
+	      {
+		in.close();
+	      }
+	  }
+	catch (java.io.IOException e)
+	  {
+	    return false;
+	  }
+
+	for (i = 0; i < accepts.length; ++i)
+	  {
+	    if (accepts[i] >= m_accepts.size())
+	      {
+		return false;
+	      }
+	  }
+
+	spec.m_ccls_limit = ccls_limit;
+	spec.m_ccls_start = ccls_start;
+	spec.m_ccls_map = ccls_map;
+	spec.m_state_dtrans = state_dtrans;
+	spec.m_row_map = row_map;
+	spec.m_col_map = col_map;
+	spec.m_dtrans_ncols = ncols;
+
+	spec.m_dtrans_vector = new Vector();
+	for (i = 0; i < nrows; ++i)
+	  {
+	    dtrans = new CDTrans(i,spec);
+	    for (j = 0; j < ncols; ++j)
+	      {
+		dtrans.m_dtrans[j] = rows[i][j];
+	      }
+	    spec.m_dtrans_vector.addElement(dtrans);
+	  }
+
+	spec.m_accept_vector = new Vector();
+	for (i = 0; i < accepts.length; ++i)
+	  {
+	    spec.m_accept_vector.addElement(-1 == accepts[i] ? null 
+					    : m_accepts.elementAt(accepts[i]));
+	  }
+	spec.m_anchor_array = anchors;
+	return true;
+      }
+
+  /***************************************************************
+    Function: save
+    Description: Stores the tables left by min_dfa().  Written to
+    a temporary file first so concurrent builds never see a
+    partial entry.  Failing to save is not an error.
+    **************************************************************/
+  void save
+    (
+     CSpec spec
+     )
+      {
+	java.io.DataOutputStream out;
+	java.io.File tmp;
+	int accepts[];
+	int i;
+
+	if (null == m_key)
+	  {
+	    return;
+	  }
+
+	accepts = new int[spec.m_accept_vector.size()];
+	for (i = 0; i < accepts.length; ++i)
+	  {
+	    accepts[i] = accept_index((CAccept) spec.m_accept_vector.elementAt(i));
+	  }
+
+	try
+	  {
+	    m_dir.mkdirs();
+	    tmp = java.io.File.createTempFile(m_key,".tmp",m_dir);
+	    out = new java.io.DataOutputStream(new java.io.BufferedOutputStream(
+		  new java.io.FileOutputStream(tmp)));
+	    try
+	      {
+		out.writeInt(MAGIC);
+		out.writeUTF(m_key);
+		out.writeInt(spec.m_ccls_limit);
+		write_ints(out,spec.m_ccls_start);
+		write_ints(out,spec.m_ccls_map);
+		write_ints(out,spec.m_state_dtrans);
+		write_ints(out,spec.m_row_map);
+		write_ints(out,spec.m_col_map);
+		out.writeInt(spec.m_dtrans_ncols);
+		out.writeInt(spec.m_dtrans_vector.size());
+		for (i = 0; i < spec.m_dtrans_vector.size(); ++i)
+		  {
+		    write_ints(out,((CDTrans) spec.m_dtrans_vector.elementAt(i)).m_dtrans);
+		  }
+		write_ints(out,accepts);
+		write_ints(out,spec.m_anchor_array);
+	      }
+	    finally
+	      {
+		out.close();
+	      }
+	    if (false == tmp.renameTo(file()))
+	      {
+		tmp.delete();
+	      }
+	  }
+	catch (java.io.IOException e)
+	  {
+	    System.out.println("Warning: could not write JLex cache entry: "
+			       + e.getMessage());
+	  }
+      }
+
+  /***************************************************************
+    Function: read_ints
+    **************************************************************/
+  private static int[] read_ints
+    (
+     java.io.DataInputStream in
+     )
+      throws java.io.IOException
+      {
+	int a[] = new int[in.readInt()];
+	int i;
+
+	for (i = 0; i < a.length; ++i)
+	  {
+	    a[i] = in.readInt();
+	  }
+	return a;
+      }
+
+  /***************************************************************
+    Function: write_ints
+    **************************************************************/
+  private static void write_ints
+    (
+     java.io.DataOutputStream out,
+     int a[]
+     )
+      throws java.io.IOException
+      {
+	int i;
+
+	out.writeInt(a.length);
+	for (i = 0; i < a.length; ++i)
+	  {
+	    out.writeInt(a[i]);
+	  }
+      }
+}
+
+/***************************************************************
+  Class: CStageTimes
+  Description: Wall-clock time spent in each generation stage,
+  and the size of what each stage produced.  Filled in by
+  CLexGen when its m_times is set (see JLex.Bench).
+  **************************************************************/
+class CStageTimes
+{
+  /***************************************************************
+    Constants: Stages
+    **************************************************************/
+  static final int THOMPSON = 0;
+  static final int SIMPLIFY = 1;
+  static final int MAKE_DFA = 2;
+  static final int MIN_DFA = 3;
+  static final int EMIT = 4;
+
+  static final String NAMES[] = {
+    "thompson", "simplify", "make_dfa", "min_dfa", "emit"
+  };
+
+  /***************************************************************
+    Member Variables
+    **************************************************************/
+  long m_nanos[]; /* Time spent in each stage. */
+  int m_count[]; /* NFA states, character classes, DFA states,
+		    minimized DFA states, emitted table rows. */
+  private long m_last;
+
+  /***************************************************************
+    Function: CStageTimes
+    **************************************************************/
+  CStageTimes
+    (
+     )
+      {
+	m_nanos = new long[NAMES.length];
+	m_count = new int[NAMES.length];
+	m_last = System.nanoTime();
+      }
+
+  /***************************************************************
+    Function: start
+    **************************************************************/
+  void start
+    (
+     )
+      {
+	m_last = System.nanoTime();
+      }
+
+  /***************************************************************
+    Function: mark
+    Description: Ends the given stage, charging it with the time
+    since the previous mark (or start).
+    **************************************************************/
+  void mark
+    (
+     int stage,
+     int count
+     )
+      {
+	long now = System.nanoTime();
+
+	m_nanos[stage] += now - m_last;
+	m_count[stage] = count;
+	m_last = now;
+      }
+}
+
 /***************************************************************
   Class: Main
   Description: Top-level lexical analyzer generator function.
@@ -3901,7 +5645,7 @@ class CDfa
   CAccept m_accept;
   int m_anchor;
   Vector m_nfa_set;
-  SparseBitSet m_nfa_bit;
+  DenseBitSet m_nfa_bit;
   int m_label;
 
   /***************************************************************
@@ -4583,13 +6327,20 @@ class CError
 
 /********************************************************
   Class: CSet
+  Description: Character set kept as a sorted list of
+  disjoint, non-adjacent closed intervals [lo,hi], so that
+  large (e.g. unicode) ranges cost one entry instead of one
+  bit per character.
   *******************************************************/
 class CSet 
 {
   /********************************************************
     Member Variables
     *******************************************************/
-  private SparseBitSet m_set;
+  /* m_bounds[2*k] and m_bounds[2*k+1] are the low and high
+     (inclusive) ends of the k-th interval. */
+  private int m_bounds[];
+  private int m_nranges;
   private boolean m_complement;
 
   /********************************************************
@@ -4599,7 +6350,8 @@ class CSet
     (
      )
     {
-      m_set = new SparseBitSet();
+      m_bounds = new int[8];
+      m_nranges = 0;
       m_complement = false;
     }
 
@@ -4613,15 +6365,79 @@ class CSet
 	m_complement = true;
       }
 
-  /********************************************************
-    Function: add
-    *******************************************************/
-  void add
-    (
-     int i
-     )
-      {
-	m_set.set(i);
+  /********************************************************
+    Function: add
+    *******************************************************/
+  void add
+    (
+     int i
+     )
+      {
+	addRange(i,i);
+      }
+
+  /********************************************************
+    Function: addRange
+    Description: Adds the closed interval [lo,hi], merging
+    it with any overlapping or adjacent intervals.
+    *******************************************************/
+  void addRange
+    (
+     int lo,
+     int hi
+     )
+      {
+	int first;
+	int last;
+	int i;
+	int removed;
+
+	if (lo > hi)
+	  {
+	    return;
+	  }
+
+	/* First interval whose high end reaches lo-1. */
+	first = 0;
+	while (first < m_nranges && m_bounds[2*first+1] < lo - 1)
+	  {
+	    ++first;
+	  }
+	/* One past the last interval whose low end is within hi+1. */
+	last = first;
+	while (last < m_nranges && m_bounds[2*last] <= hi + 1)
+	  {
+	    ++last;
+	  }
+
+	if (first < last)
+	  {
+	    /* Merge intervals [first,last) into the new one. */
+	    lo = Math.min(lo,m_bounds[2*first]);
+	    hi = Math.max(hi,m_bounds[2*(last-1)+1]);
+	    removed = last - first - 1;
+	    if (0 < removed)
+	      {
+		System.arraycopy(m_bounds,2*last,m_bounds,2*(first+1),
+				 2*(m_nranges-last));
+		m_nranges -= removed;
+	      }
+	  }
+	else
+	  {
+	    /* Open a gap at first. */
+	    if (2*(m_nranges+1) > m_bounds.length)
+	      {
+		int grown[] = new int[2*m_bounds.length];
+		System.arraycopy(m_bounds,0,grown,0,2*m_nranges);
+		m_bounds = grown;
+	      }
+	    System.arraycopy(m_bounds,2*first,m_bounds,2*(first+1),
+			     2*(m_nranges-first));
+	    ++m_nranges;
+	  }
+	m_bounds[2*first] = lo;
+	m_bounds[2*first+1] = hi;
       }
 
   /********************************************************
@@ -4642,6 +6458,7 @@ class CSet
   
   /********************************************************
     Function: contains
+    Description: Binary search over the interval list.
     *******************************************************/
   boolean contains
     (
@@ -4649,8 +6466,30 @@ class CSet
      )
       {
 	boolean result;
+	int lo;
+	int hi;
+	int mid;
 	
-	result = m_set.get(i);
+	result = false;
+	lo = 0;
+	hi = m_nranges - 1;
+	while (lo <= hi)
+	  {
+	    mid = (lo + hi) >>> 1;
+	    if (i < m_bounds[2*mid])
+	      {
+		hi = mid - 1;
+	      }
+	    else if (i > m_bounds[2*mid+1])
+	      {
+		lo = mid + 1;
+	      }
+	    else
+	      {
+		result = true;
+		break;
+	      }
+	  }
 	
 	if (m_complement)
 	  {
@@ -4660,6 +6499,47 @@ class CSet
 	return result;
       }
 
+  /********************************************************
+    Function: isComplement
+    *******************************************************/
+  boolean isComplement
+    (
+     )
+      {
+	return m_complement;
+      }
+
+  /********************************************************
+    Function: ranges
+    Description: Number of intervals, ignoring complement.
+    *******************************************************/
+  int ranges
+    (
+     )
+      {
+	return m_nranges;
+      }
+
+  /********************************************************
+    Function: rangeLo/rangeHi
+    Description: Inclusive ends of the k-th interval.
+    *******************************************************/
+  int rangeLo
+    (
+     int k
+     )
+      {
+	return m_bounds[2*k];
+      }
+
+  int rangeHi
+    (
+     int k
+     )
+      {
+	return m_bounds[2*k+1];
+      }
+
   /********************************************************
     Function: mimic
     *******************************************************/
@@ -4669,17 +6549,27 @@ class CSet
      )
       {
 	m_complement = set.m_complement;
-	m_set = (SparseBitSet) set.m_set.clone();
+	m_nranges = set.m_nranges;
+	m_bounds = (int[]) set.m_bounds.clone();
       } 
 
-  /** Map set using character classes [CSA] */
-  void map(CSet set, int[] mapping) {
+  /** Map set using character classes [CSA].  The classes are
+   *  given as runs: the characters from start[k] up to (but not
+   *  including) start[k+1] all belong to class cls[k], and the last
+   *  run ends at limit.  Each run lies entirely inside or outside
+   *  the set, so the complement flag carries over unchanged. */
+  void map(CSet set, int[] start, int[] cls, int limit) {
+    int r = 0;
+
     m_complement = set.m_complement;
-    m_set.clearAll();
-    for (Enumeration e=set.m_set.elements(); e.hasMoreElements(); ) {
-      int old_value =((Integer)e.nextElement()).intValue();
-      if (old_value<mapping.length) // skip unmapped characters
-	m_set.set(mapping[old_value]);
+    m_nranges = 0;
+    for (int k=0; k<set.m_nranges; k++) {
+      int lo = set.m_bounds[2*k];
+      int hi = Math.min(set.m_bounds[2*k+1], limit-1);
+      if (lo > hi) break; // skip unmapped characters
+      while (r+1<start.length && start[r+1]<=lo) r++; // run holding lo
+      for (int j=r; j<start.length && start[j]<=hi; j++)
+	add(cls[j]);
     }
   }
 }
@@ -4815,8 +6705,12 @@ class CLexGen
 				 conversion module. */
   private CMinimize m_minimize; /* Transition table compressor. */
   private CSimplifyNfa m_simplifyNfa; /* NFA simplifier using char classes */
+  private CKeywords m_keywords; /* Folds keyword rules into identifiers. */
+  private CNfa2Lazy m_nfa2lazy; /* NFA tables for %lazy lexers. */
   private CEmit m_emit; /* Output module that emits source code
 			   into the generated lexer file. */
+  private CGenCache m_cache; /* Transition table cache, or null. */
+  CStageTimes m_times; /* Per-stage timings, or null. */
 
 
   /********************************************************
@@ -4907,8 +6801,12 @@ class CLexGen
 	m_minimize = new CMinimize();
 	m_makeNfa = new CMakeNfa();
 	m_simplifyNfa = new CSimplifyNfa();
+	m_keywords = new CKeywords();
+	m_nfa2lazy = new CNfa2Lazy();
 
 	m_emit = new CEmit();
+	m_cache = CGenCache.fromProperty();
+	m_times = null;
 
 	/* Successful initialization flag. */
 	m_init_flag = true;
@@ -4975,7 +6873,15 @@ class CLexGen
 	  {
 	    System.out.println("Outputting lexical analyzer code.");
 	  }
+	if (null != m_times)
+	  {
+	    m_times.start();
+	  }
 	m_emit.emit(m_spec,m_outstream);
+	if (null != m_times)
+	  {
+	    m_times.mark(CStageTimes.EMIT,m_spec.m_dtrans_vector.size());
+	  }
 
 	if (m_spec.m_verbose && true == CUtility.OLD_DUMP_DEBUG)
 	  {
@@ -5085,6 +6991,51 @@ class CLexGen
 	return buffer;
       }
 
+  /***************************************************************
+    Function: getCount
+    Description: Reads an optional decimal count following a
+    directive, returning 0 if there is none.
+    **************************************************************/
+  private int getCount
+    (
+     )
+      {
+	int count = 0;
+
+	/* Skip white space. */
+	while (m_input.m_line_index < m_input.m_line_read
+	       && true == CUtility.isspace(m_input.m_line[m_input.m_line_index]))
+	  {
+	    ++m_input.m_line_index;
+	  }
+
+	while (m_input.m_line_index < m_input.m_line_read
+	       && true == Character.isDigit(m_input.m_line[m_input.m_line_index]))
+	  {
+	    if (count > (CUtility.INT_MAX - 9) / 10)
+	      {
+		CError.parse_error(CError.E_DIRECT,m_input.m_line_number);
+	      }
+	    count = count * 10 
+	      + Character.digit(m_input.m_line[m_input.m_line_index],10);
+	    ++m_input.m_line_index;
+	  }
+
+	/* Skip trailing white space; nothing else may follow. */
+	while (m_input.m_line_index < m_input.m_line_read
+	       && true == CUtility.isspace(m_input.m_line[m_input.m_line_index]))
+	  {
+	    ++m_input.m_line_index;
+	  }
+	if (m_input.m_line_index < m_input.m_line_read
+	    && false == CUtility.isnewline(m_input.m_line[m_input.m_line_index]))
+	  {
+	    CError.parse_error(CError.E_DIRECT,m_input.m_line_number);
+	  }
+
+	return count;
+      }
+
   private final int CLASS_CODE = 0;
   private final int INIT_CODE = 1;
   private final int EOF_CODE = 2;
@@ -5236,6 +7187,13 @@ class CLexGen
     '\0'
     };
 
+  private char m_column_dir[] = { 
+    '%', 'c', 'o',
+    'l', 'u', 'm',
+    'n',
+    '\0'
+    };
+
   private char m_class_dir[] = { 
     '%', 'c', 'l', 
     'a', 's', 's',
@@ -5295,6 +7253,12 @@ class CLexGen
     '\0'
     };
 
+  private char m_lazy_dir[] = { 
+    '%', 'l', 'a',
+    'z', 'y',
+    '\0'
+    };
+
   private char m_notunix_dir[] = { 
     '%', 'n', 'o',
     't', 'u', 'n', 
@@ -5509,6 +7473,17 @@ class CLexGen
 			  m_spec.m_count_chars = true;
 			  break;
 			}	
+		      else if (0 == CUtility.charncmp(m_input.m_line,
+						      0,
+						      m_column_dir,
+						      0,
+						      m_column_dir.length - 1))
+			{
+			  /* Set column counting to ON. */
+			  m_input.m_line_index = m_column_dir.length;
+			  m_spec.m_count_columns = true;
+			  break;
+			}
 		      else if (0 == CUtility.charncmp(m_input.m_line,
 						      0,
 						      m_class_dir, 
@@ -5705,6 +7680,22 @@ class CLexGen
 			  m_spec.m_count_lines = true;
 			  break;
 			}
+		      else if (0 == CUtility.charncmp(m_input.m_line,
+						      0,
+						      m_lazy_dir,
+						      0,
+						      m_lazy_dir.length - 1))
+			{
+			  /* Build the DFA at run time, with an optional
+			     cache size. */
+			  m_input.m_line_index = m_lazy_dir.length;
+			  m_spec.m_lazy_states = getCount();
+			  if (0 == m_spec.m_lazy_states)
+			    {
+			      m_spec.m_lazy_states = CNfa2Lazy.DEFAULT_STATES;
+			    }
+			  break;
+			}
 
 		      /* Bad directive. */
 		      CError.parse_error(CError.E_DIRECT,
@@ -5886,10 +7877,37 @@ class CLexGen
 	  {
 	    System.out.println("Creating NFA machine representation.");
 	  }
+	if (null != m_times)
+	  {
+	    m_times.start();
+	  }
 	m_makeNfa.allocate_BOL_EOF(m_spec);
 	m_makeNfa.thompson(this,m_spec,m_input);
+	if (null != m_times)
+	  {
+	    m_times.mark(CStageTimes.THOMPSON,m_spec.m_nfa_states.size());
+	  }
+
+	m_keywords.fold(m_spec);
+
+	if (null != m_cache && 0 == m_spec.m_lazy_states)
+	  {
+	    m_cache.computeKey(m_spec);
+	    if (m_cache.load(m_spec))
+	      {
+		if (m_spec.m_verbose)
+		  {
+		    System.out.println("Reusing cached DFA transition table.");
+		  }
+		return;
+	      }
+	  }
 	
 	m_simplifyNfa.simplify(m_spec);
+	if (null != m_times)
+	  {
+	    m_times.mark(CStageTimes.SIMPLIFY,m_spec.m_dtrans_ncols);
+	  }
 
 	/*print_nfa();*/
 
@@ -5898,11 +7916,21 @@ class CLexGen
 	    CUtility.ASSERT(END_OF_INPUT == m_spec.m_current_token);
 	  }
 
+	if (0 != m_spec.m_lazy_states)
+	  {
+	    m_nfa2lazy.make_lazy(m_spec);
+	    return;
+	  }
+
 	if (m_spec.m_verbose)
 	  {
 	    System.out.println("Creating DFA transition table.");
 	  }
 	m_nfa2dfa.make_dfa(this,m_spec);
+	if (null != m_times)
+	  {
+	    m_times.mark(CStageTimes.MAKE_DFA,m_spec.m_dtrans_vector.size());
+	  }
 
 	if (CUtility.FOODEBUG) {
 	  print_header();
@@ -5913,6 +7941,15 @@ class CLexGen
 	    System.out.println("Minimizing DFA transition table.");
 	  }
 	m_minimize.min_dfa(m_spec);
+	if (null != m_times)
+	  {
+	    m_times.mark(CStageTimes.MIN_DFA,m_spec.m_accept_vector.size());
+	  }
+
+	if (null != m_cache)
+	  {
+	    m_cache.save(m_spec);
+	  }
       }
 
   /***************************************************************
@@ -7219,6 +9256,17 @@ class CLexGen
 	    System.out.println("Line counting is on.");
 	  }
 
+	System.out.println();
+	System.out.println("\t** Column Counting **");
+	if (false == m_spec.m_count_columns)
+	  {
+	    System.out.println("Column counting is off.");
+	  }
+	else
+	  {
+	    System.out.println("Column counting is on.");
+	  }
+
 	System.out.println();
 	System.out.println("\t** Operating System Specificity **");
 	if (false == m_spec.m_unix)
@@ -7814,6 +9862,222 @@ final class SparseBitSet implements Cloneable {
     }
 }
 
+/**
+ * A fixed-size set of bits kept as a dense array of words, used for
+ * sets of NFA states during subset construction.  The size is the
+ * NFA state count, known before construction starts, so bits are
+ * found by plain indexing rather than a block search.  These sets
+ * are the keys of <code>CSpec.m_dfa_sets</code>, so the hash code
+ * is cached until the next update and <code>equals</code> stops at
+ * the first differing word.
+ */
+final class DenseBitSet implements Cloneable {
+    /** Array of bit-words; word i holds bits i*BITS .. i*BITS+BITS-1. */
+    long bits[];
+    /** Cached hash code; valid only if hashValid. */
+    private int hash;
+    private boolean hashValid;
+    /** log base 2 of BITS, for the identity: x/BITS == x >> LG_BITS */
+    static final private int LG_BITS = 6;
+    /** Number of bits in a word. */
+    static final private int BITS = 1<<LG_BITS;
+    /** BITS-1, using the identity: x % BITS == x & (BITS-1) */
+    static final private int BITS_M1 = BITS-1;
+
+    /**
+     * Creates an empty set able to hold bits 0 .. nbits-1.
+     * @param nbits the size of the set
+     */
+    public DenseBitSet(int nbits) {
+	bits = new long[(nbits + BITS_M1) >> LG_BITS];
+	hashValid = false;
+    }
+
+    /**
+     * Sets a bit.
+     * @param bit the bit to be set
+     */
+    public void set(int bit) {
+	bits[bit >> LG_BITS] |= (1L << (bit & BITS_M1));
+	hashValid = false;
+    }
+
+    /**
+     * Clears a bit.
+     * @param bit the bit to be cleared
+     */
+    public void clear(int bit) {
+	bits[bit >> LG_BITS] &= ~(1L << (bit & BITS_M1));
+	hashValid = false;
+    }
+
+    /**
+     * Clears all bits.
+     */
+    public void clearAll() {
+	for (int i=0; i<bits.length; i++)
+	    bits[i] = 0;
+	hashValid = false;
+    }
+
+    /**
+     * Gets a bit.
+     * @param bit the bit to be gotten
+     */
+    public boolean get(int bit) {
+	int w = bit >> LG_BITS;
+	return w < bits.length && 0 != (bits[w] & (1L << (bit & BITS_M1)));
+    }
+
+    /**
+     * Returns the first set bit at or after from, or -1 if none.
+     */
+    public int nextSetBit(int from) {
+	int w = from >> LG_BITS;
+	if (w >= bits.length) return -1;
+	long word = bits[w] & (-1L << (from & BITS_M1));
+	while (true) {
+	    if (word != 0)
+		return (w << LG_BITS) + Long.numberOfTrailingZeros(word);
+	    if (++w >= bits.length) return -1;
+	    word = bits[w];
+	}
+    }
+
+    /**
+     * Logically ANDs this bit set with the specified set of bits,
+     * in place.
+     * @param set the bit set to be ANDed with
+     */
+    public void and(DenseBitSet set) {
+	int n = Math.min(bits.length, set.bits.length);
+	for (int i=0; i<n; i++)
+	    bits[i] &= set.bits[i];
+	for (int i=n; i<bits.length; i++)
+	    bits[i] = 0;
+	hashValid = false;
+    }
+
+    /**
+     * Logically ORs this bit set with the specified set of bits,
+     * in place.  Bits beyond this set's size are ignored.
+     * @param set the bit set to be ORed with
+     */
+    public void or(DenseBitSet set) {
+	int n = Math.min(bits.length, set.bits.length);
+	for (int i=0; i<n; i++)
+	    bits[i] |= set.bits[i];
+	hashValid = false;
+    }
+
+    /**
+     * Logically XORs this bit set with the specified set of bits,
+     * in place.  Bits beyond this set's size are ignored.
+     * @param set the bit set to be XORed with
+     */
+    public void xor(DenseBitSet set) {
+	int n = Math.min(bits.length, set.bits.length);
+	for (int i=0; i<n; i++)
+	    bits[i] ^= set.bits[i];
+	hashValid = false;
+    }
+
+    /**
+     * Gets the hashcode, computing it only after an update.
+     */
+    public int hashCode() {
+	if (!hashValid) {
+	    long h = 1234;
+	    for (int i=bits.length; --i>=0; )
+		h ^= bits[i] * (i + 1);
+	    hash = (int)((h >> 32) ^ h);
+	    hashValid = true;
+	}
+	return hash;
+    }
+
+    /**
+     * Returns the number of bits the set can hold.
+     */
+    public int size() {
+	return bits.length << LG_BITS;
+    }
+
+    /**
+     * Compares this object against the specified object.
+     * @param obj the object to commpare with
+     * @return true if the objects are the same; false otherwise.
+     */
+    public boolean equals(Object obj) {
+	if (this == obj)
+	    return true;
+	if ((obj == null) || !(obj instanceof DenseBitSet))
+	    return false;
+	DenseBitSet set = (DenseBitSet) obj;
+	if (bits.length != set.bits.length)
+	    return false;
+	if (hashValid && set.hashValid && hash != set.hash)
+	    return false;
+	for (int i=0; i<bits.length; i++)
+	    if (bits[i] != set.bits[i])
+		return false;
+	return true;
+    }
+
+    /**
+     * Clones the DenseBitSet.
+     */
+    public Object clone() {
+	try { 
+	    DenseBitSet set = (DenseBitSet)super.clone();
+	    set.bits = (long[]) bits.clone();
+	    return set;
+	} catch (CloneNotSupportedException e) {
+	    // this shouldn't happen, since we are Cloneable
+	    throw new InternalError();
+	}
+    }
+
+    /**
+     * Converts the DenseBitSet to a String.
+     */
+    public String toString() {
+	StringBuffer sb = new StringBuffer();
+	sb.append('{');
+	for (int i=nextSetBit(0); i>=0; i=nextSetBit(i+1)) {
+	    if (sb.length() > 1) sb.append(", ");
+	    sb.append(i);
+	}
+	sb.append('}');
+	return sb.toString();
+    }
+
+    /** Self-test. */
+    public static void main(String[] args) {
+	final int RANGE = 1000;
+	DenseBitSet a = new DenseBitSet(RANGE);
+	CUtility.ASSERT(!a.get(0) && !a.get(RANGE-1) && -1==a.nextSetBit(0));
+	a.set(0); a.set(63); a.set(64); a.set(RANGE-1);
+	CUtility.ASSERT(a.get(0) && a.get(63) && a.get(64) && !a.get(65));
+	CUtility.ASSERT(0==a.nextSetBit(0) && 63==a.nextSetBit(1)
+			&& 64==a.nextSetBit(64) && RANGE-1==a.nextSetBit(65));
+	DenseBitSet b = (DenseBitSet) a.clone();
+	CUtility.ASSERT(a.equals(b) && a.hashCode()==b.hashCode());
+	b.clear(63);
+	CUtility.ASSERT(!a.equals(b) && !b.get(63));
+	DenseBitSet c = (DenseBitSet) a.clone();
+	c.xor(b);
+	CUtility.ASSERT(c.get(63) && 63==c.nextSetBit(0) && -1==c.nextSetBit(64));
+	c.or(b);
+	CUtility.ASSERT(c.equals(a) && c.hashCode()==a.hashCode());
+	c.and(b);
+	CUtility.ASSERT(c.equals(b));
+	c.clearAll();
+	CUtility.ASSERT(c.equals(new DenseBitSet(RANGE)));
+	System.out.println("Success.");
+    }
+}
+
 /************************************************************************
   JLEX COPYRIGHT NOTICE, LICENSE AND DISCLAIMER.
   
@@ -0,0 +1,448 @@
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import lexer.*;
+import ast.*;
+import parser.*;
+
+/**
+ * Formatter for C-- sources.
+ *
+ * Rewrites every .cmm file under the given files and directories as
+ * AST.ProgramNode.unparse prints it, with a thread per core taking the
+ * files in turn.  Each thread unparses into one buffer that it reuses
+ * for every file (see Printer).
+ *
+ * A cache file keeps a hash of each file known to be formatted, so a
+ * file that has not changed since is not even parsed.
+ *
+ * A file is left alone, and reported, if it does not parse or if it has
+ * something the AST does not keep: comments, and characters or literals
+ * that the scanner drops or changes with an error.  A new text is only
+ * written once it has been parsed and unparsed back to itself.
+ *
+ * Usage: java Format [-check] [-threads N] [-cache file] path ...
+ *   -check    change no file; list the ones that are not formatted and
+ *             exit with status 1 if there are any
+ *   -threads  number of threads (default: one per core)
+ *   -cache    the hash cache (default .cmmformat in the current
+ *             directory), or "none"
+ */
+
+public class Format {
+    private static final String CACHE_HEADER = "cmmformat 1";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // what happened to each file
+    private static final int FORMATTED = 0;   // already was
+    private static final int CHANGED = 1;     // rewritten, or would be
+    private static final int SKIPPED = 2;     // cannot be formatted
+    private static final int FAILED = 3;      // I/O error
+
+    private File files[];
+    private Map<String, Long> cache;
+    private boolean check;
+    private int status[];
+    private String message[];
+    private long hash[];      // of the formatted text, if there is one
+    private AtomicInteger next = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        boolean check = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String cacheName = ".cmmformat";
+        List<File> roots = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-check"))
+                check = true;
+            else if (args[i].equals("-threads") && i + 1 < args.length)
+                threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-cache") && i + 1 < args.length)
+                cacheName = args[++i];
+            else if (args[i].startsWith("-"))
+                usage();
+            else
+                roots.add(new File(args[i]));
+        }
+        if (roots.isEmpty() || threads < 1)
+            usage();
+
+        List<File> files = new ArrayList<File>();
+        for (File f : roots)
+            collect(f, files);
+        File cacheFile = cacheName.equals("none") ? null : new File(cacheName);
+        Map<String, Long> cache = readCache(cacheFile);
+
+        Format fmt = new Format(files.toArray(new File[files.size()]), cache, check);
+        fmt.run(threads);
+        boolean clean = fmt.report();
+        if (cacheFile != null)
+            fmt.writeCache(cacheFile);
+        System.exit(clean ? 0 : 1);
+    }
+
+    private static void usage() {
+        System.err.println("usage: java Format [-check] [-threads N] [-cache file] path ...");
+        System.exit(-1);
+    }
+
+    /**
+     * Adds f, if it is a .cmm file, or the .cmm files under it, in order
+     */
+    private static void collect(File f, List<File> files) {
+        if (f.isDirectory()) {
+            String names[] = f.list();
+            if (names == null)
+                return;
+            Arrays.sort(names);
+            for (int i = 0; i < names.length; i++)
+                collect(new File(f, names[i]), files);
+        }
+        else if (f.getName().endsWith(".cmm")) {
+            files.add(f);
+        }
+    }
+
+    private Format(File files[], Map<String, Long> cache, boolean check) {
+        this.files = files;
+        this.cache = cache;
+        this.check = check;
+        status = new int[files.length];
+        message = new String[files.length];
+        hash = new long[files.length];
+    }
+
+    private void run(int threads) throws InterruptedException {
+        Thread pool[] = new Thread[Math.min(threads, Math.max(files.length, 1))];
+        for (int t = 0; t < pool.length; t++) {
+            pool[t] = new Thread() {
+                public void run() {
+                    Printer p = new Printer();
+                    int i;
+                    while ((i = next.getAndIncrement()) < files.length) {
+                        try {
+                            format(i, p);
+                        } catch (IOException e) {
+                            status[i] = FAILED;
+                            message[i] = e.toString();
+                        }
+                    }
+                }
+            };
+            pool[t].start();
+        }
+        for (int t = 0; t < pool.length; t++)
+            pool[t].join();
+    }
+
+    /**
+     * Formats files[i], unparsing into p
+     */
+    private void format(int i, Printer p) throws IOException {
+        File f = files[i];
+        byte text[] = read(f);
+        long h = hash(text);
+        Long known = cache.get(f.getPath());
+        if (known != null && known.longValue() == h) {
+            status[i] = FORMATTED;
+            hash[i] = h;
+            return;
+        }
+
+        char src[] = new String(text, UTF8).toCharArray();
+        String why = unformattable(src);
+        if (why == null && ! unparse(src, p))
+            why = "syntax error";
+        if (why != null) {
+            status[i] = SKIPPED;
+            message[i] = why;
+            return;
+        }
+        if (p.contentEquals(src)) {
+            status[i] = FORMATTED;
+            hash[i] = h;
+            return;
+        }
+
+        char out[] = p.toCharArray();
+        if ( ! unparse(out, p) || ! p.contentEquals(out) ) {
+            status[i] = SKIPPED;
+            message[i] = "formatted text does not parse back to itself";
+            return;
+        }
+        status[i] = CHANGED;
+        if ( ! check ) {
+            byte formatted[] = new String(out).getBytes(UTF8);
+            OutputStream os = new FileOutputStream(f);
+            try {
+                os.write(formatted);
+            } finally {
+                os.close();
+            }
+            hash[i] = hash(formatted);
+        }
+    }
+
+    /**
+     * Parses src and unparses it into p; false if it does not parse
+     */
+    private static boolean unparse(char src[], Printer p) {
+        CmmDescentParser parser = new CmmDescentParser(
+            new Yylex(new CharArrayReader(src))) {
+            public void syntax_error(java_cup.runtime.Symbol currToken) {
+                throw new SyntaxErrorException();
+            }
+        };
+        AST.ProgramNode root;
+        try {
+            root = parser.parse();
+        } catch (Exception e) {
+            return false;
+        }
+        p.reset();
+        root.unparse(p, 0);
+        return true;
+    }
+
+    /**
+     * Why unparsing the AST of src would not give back the same program,
+     * or null.  Goes over src the way the scanner does, looking for what
+     * it skips or reports and goes on: comments, characters it does not
+     * accept, bad string literals and int literals too large for an int.
+     */
+    static String unformattable(char s[]) {
+        int n = s.length;
+        int line = 1;
+        for (int i = 0; i < n; i++) {
+            char c = s[i];
+            if (c == '\n') {
+                line++;
+            }
+            else if (c == ' ' || c == '\t' || "{}();,.<>+-*=!".indexOf(c) >= 0) {
+                ;
+            }
+            else if (c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                while (i + 1 < n && isIdChar(s[i + 1]))
+                    i++;
+            }
+            else if (c >= '0' && c <= '9') {
+                long v = 0;
+                for (; i < n && s[i] >= '0' && s[i] <= '9'; i++) {
+                    v = 10 * v + (s[i] - '0');
+                    if (v > Integer.MAX_VALUE)
+                        return "line " + line + ": integer literal too large";
+                }
+                i--;
+            }
+            else if (c == '&' || c == '|') {
+                if (i + 1 == n || s[i + 1] != c)
+                    return "line " + line + ": illegal character " + c;
+                i++;
+            }
+            else if (c == '#' || (c == '/' && i + 1 < n && s[i + 1] == '/')) {
+                return "line " + line + ": comments would be lost";
+            }
+            else if (c == '/') {
+                ;
+            }
+            else if (c == '"') {
+                for (i++; i < n && s[i] != '"'; i++) {
+                    if (s[i] == '\n')
+                        return "line " + line + ": unterminated string literal";
+                    if (s[i] == '\\' && (++i == n || "nt'\"?\\".indexOf(s[i]) < 0))
+                        return "line " + line + ": bad escaped character";
+                }
+                if (i == n)
+                    return "line " + line + ": unterminated string literal";
+            }
+            else {
+                return "line " + line + ": illegal character";
+            }
+        }
+        return null;
+    }
+
+    private static boolean isIdChar(char c) {
+        return c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+            || (c >= '0' && c <= '9');
+    }
+
+    // **********************************************************************
+    // results and the cache
+    // **********************************************************************
+
+    /**
+     * Prints what happened to each file that was not already formatted,
+     * then a summary; returns whether nothing was left unformatted that
+     * could have been
+     */
+    private boolean report() {
+        int count[] = new int[4];
+        for (int i = 0; i < files.length; i++) {
+            count[status[i]]++;
+            if (status[i] == CHANGED)
+                System.out.println(files[i] + (check ? ": not formatted" : ": formatted"));
+            else if (status[i] != FORMATTED)
+                System.out.println(files[i] + ": skipped, " + message[i]);
+        }
+        System.out.println(files.length + " files: " + count[FORMATTED]
+                           + " already formatted, " + count[CHANGED]
+                           + (check ? " not formatted, " : " formatted, ")
+                           + count[SKIPPED] + " skipped, " + count[FAILED] + " failed");
+        return count[FAILED] == 0 && ! (check && count[CHANGED] > 0);
+    }
+
+    private static Map<String, Long> readCache(File f) throws IOException {
+        Map<String, Long> cache = new HashMap<String, Long>();
+        if (f == null || ! f.exists())
+            return cache;
+        BufferedReader r = new BufferedReader(new InputStreamReader(
+            new FileInputStream(f), UTF8));
+        try {
+            if ( ! CACHE_HEADER.equals(r.readLine()) )
+                return cache;       // another version: start over
+            String line;
+            while ((line = r.readLine()) != null) {
+                int sp = line.indexOf(' ');
+                if (sp > 0)
+                    cache.put(line.substring(sp + 1), Long.valueOf(line.substring(0, sp)));
+            }
+        } finally {
+            r.close();
+        }
+        return cache;
+    }
+
+    /**
+     * Writes back the cache: the old entries, less the files found not
+     * formatted, plus the ones found or made formatted
+     */
+    private void writeCache(File f) throws IOException {
+        Map<String, Long> out = new TreeMap<String, Long>(cache);
+        for (int i = 0; i < files.length; i++) {
+            if (hash[i] != 0)
+                out.put(files[i].getPath(), Long.valueOf(hash[i]));
+            else
+                out.remove(files[i].getPath());
+        }
+        PrintWriter w = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(f), UTF8)));
+        w.println(CACHE_HEADER);
+        for (Map.Entry<String, Long> e : out.entrySet())
+            w.println(e.getValue() + " " + e.getKey());
+        w.close();
+        if (w.checkError())
+            throw new IOException("could not write " + f);
+    }
+
+    private static byte[] read(File f) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(f, "r");
+        try {
+            byte b[] = new byte[(int) in.length()];
+            in.readFully(b);
+            return b;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a; never 0, which stands for no hash
+     */
+    private static long hash(byte b[]) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < b.length; i++) {
+            h ^= b[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    // **********************************************************************
+    // Printer
+    // **********************************************************************
+
+    /**
+     * A PrintWriter that appends to a char array it keeps from one file
+     * to the next.  It overrides the methods unparse ends up in, so text
+     * goes straight into the array, without PrintWriter's locking and
+     * without a String for every int printed.  Lines end in '\n'.
+     */
+    static final class Printer extends PrintWriter {
+        private char buf[] = new char[1 << 16];
+        private int len;
+        private char digits[] = new char[11];
+
+        Printer() {
+            super(new CharArrayWriter(0));  // never written to
+        }
+
+        void reset() {
+            len = 0;
+        }
+
+        boolean contentEquals(char s[]) {
+            if (s.length != len)
+                return false;
+            for (int i = 0; i < len; i++) {
+                if (s[i] != buf[i])
+                    return false;
+            }
+            return true;
+        }
+
+        char[] toCharArray() {
+            return Arrays.copyOf(buf, len);
+        }
+
+        private void room(int n) {
+            if (len + n > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(2 * buf.length, len + n));
+        }
+
+        public void write(int c) {
+            room(1);
+            buf[len++] = (char) c;
+        }
+
+        public void write(char s[], int off, int n) {
+            room(n);
+            System.arraycopy(s, off, buf, len, n);
+            len += n;
+        }
+
+        public void write(String s, int off, int n) {
+            room(n);
+            s.getChars(off, off + n, buf, len);
+            len += n;
+        }
+
+        public void print(int v) {
+            if (v == Integer.MIN_VALUE) {
+                write("-2147483648", 0, 11);
+                return;
+            }
+            if (v < 0) {
+                write('-');
+                v = -v;
+            }
+            int d = digits.length;
+            do {
+                digits[--d] = (char) ('0' + v % 10);
+                v /= 10;
+            } while (v != 0);
+            write(digits, d, digits.length - d);
+        }
+
+        public void println() {
+            write('\n');
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+    }
+}
@@ -10,10 +10,42 @@ import parser.*;
  * The program reads a in-file, creates a scanner and a parser, and
  * calls the parser.  If the parse is successful, the AST is unparsed
  * in a corresponding out-file
+ *
+ * Usage: java Main [-parser cup|lr|descent|parallel] [-dag] [-symbols]
+ *   cup       the LALR parser generated from parser/cmm.cup (default)
+ *   lr        the same tables and actions run by parser/CmmLRDriver.java
+ *   descent   the hand-written parser in parser/CmmDescentParser.java
+ *   parallel  the hand-written parser run on all cores, a batch of
+ *             top-level declarations each (parser/CmmParallelParser.java)
+ *   -dag      share equal pure subexpressions before code generation
+ *             and compute a repeated one once (ast/ExpDag.java)
+ *   -symbols  also write the declarations and uses of every name in
+ *             the in-file to in-file.sym (ast/SymbolIndex.java)
  */
 
 public class Main {
+    private static String parserName = "cup";
+    private static boolean shareExps = false;
+    private static boolean writeSymbols = false;
+
     public static void main(String[] args) throws IOException { // may be thrown by the scanner
+        for (int i = 0; i < args.length; i++) {
+            if ( args[i].equals("-parser") && i + 1 < args.length
+                 && ( args[i+1].equals("cup") || args[i+1].equals("lr")
+                      || args[i+1].equals("descent") || args[i+1].equals("parallel") ) ) {
+                parserName = args[++i];
+            }
+            else if ( args[i].equals("-dag") ) {
+                shareExps = true;
+            }
+            else if ( args[i].equals("-symbols") ) {
+                writeSymbols = true;
+            }
+            else {
+                System.err.println("usage: java Main [-parser cup|lr|descent|parallel] [-dag] [-symbols]");
+                System.exit(-1);
+            }
+        }
         java.util.Scanner console = new java.util.Scanner(System.in);
         String stop = "stop";
         String filename = readFileName(console,stop);
@@ -35,7 +67,10 @@ public class Main {
                 System.exit(-1);
             }
             try {
-                processInputFile(inFile,outFile);
+                SymbolIndex symbols = writeSymbols ? new SymbolIndex() : null;
+                processInputFile(inFile,outFile,symbols);
+                if ( symbols != null )
+                    writeSymbols(symbols, filename + ".sym");
             }
             catch (SyntaxErrorException see) {
                 System.out.println("syntax error: parsing aborted");
@@ -46,13 +81,11 @@ public class Main {
         }
     }
 
-    private static void processInputFile(FileReader inFile, PrintWriter outFile) {
-        CmmParser P = new CmmParser(new Yylex(inFile));
-        Symbol root = null; // the parser will return a Symbol whose value
-                            // field is the translation of the root nonterminal
-                            // (i.e., of the nonterminal "program")
+    private static void processInputFile(FileReader inFile, PrintWriter outFile,
+                                         SymbolIndex symbols) {
+        AST.ProgramNode astRoot = null;
         try {
-            root = P.parse(); // do the parse
+            astRoot = parse(new Yylex(inFile)); // do the parse
             System.out.println ("program parsed correctly.");
         } catch (SyntaxErrorException see) {
             throw see;
@@ -60,18 +93,48 @@ public class Main {
             System.err.println("Exception occured during parse: " + ex);
             System.exit(-1);
         }
-        AST.ProgramNode astRoot = (AST.ProgramNode) root.value;
         ErrMsg.reset(); // reset the control for analysis errors
-        astRoot.nameAnalysis();  // perform name analysis
-        astRoot.typeCheck();     // type checking
-        astRoot.resolveOffset(); // offset resolution for local variables
+        // name analysis, type checking and offset resolution for local
+        // variables in one walk, then code generation unless there were
+        // errors
+        Passes.compiler(outFile, shareExps, symbols).run(astRoot);
         // astRoot.unparse(outFile, 0); // perform the unparsing
         if ( ErrMsg.hasFatalError() )
             System.err.println("Compilation aborted");
-        else
-            astRoot.codeGen(outFile); // perform the code generation
     }
     
+    /**
+     * Writes the symbol index of a program to fileName
+     */
+    private static void writeSymbols(SymbolIndex symbols, String fileName) {
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName));
+            try {
+                symbols.write(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException ex) {
+            System.err.println("File " + fileName + " could not be written: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Parses one program with the parser chosen on the command line and
+     * returns the root of its AST
+     */
+    public static AST.ProgramNode parse(Scanner scanner) throws Exception {
+        if ( parserName.equals("descent") )
+            return new CmmDescentParser(scanner).parse();
+        if ( parserName.equals("lr") )
+            return (AST.ProgramNode) new CmmLRDriver(scanner).parse().value;
+        if ( parserName.equals("parallel") )
+            return new CmmParallelParser(scanner).parse();
+        // CUP returns a Symbol whose value field is the translation of the
+        // root nonterminal (i.e., of the nonterminal "program")
+        return (AST.ProgramNode) new CmmParser(scanner).parse().value;
+    }
+
     /**
      * To read a valid input file name or the keyword 'stop' from the user
      */
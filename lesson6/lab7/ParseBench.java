@@ -0,0 +1,760 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java_cup.runtime.*;
+import lexer.*;
+import ast.*;
+import parser.*;
+
+/**
+ * Parser benchmark for C--.
+ *
+ * Synthesizes programs of doubling size, scans each one once into a
+ * token array and then runs every parser on the same tokens, so only
+ * parse time is measured.  Before timing, the ASTs of all parsers are
+ * unparsed and compared; the benchmark stops if they differ.
+ *
+ * Allocation is that of the calling thread, so it leaves out what the
+ * pool threads of the parallel parser allocate.
+ *
+ * A second table times CmmIncrementalParser on a one-line edit, a third
+ * compares the heap held by the object AST and by its FlatAST, a fourth
+ * times loading a saved AST against scanning and parsing again, a fifth
+ * times IncrementalAnalysis on the same kind of edit, and a sixth times
+ * name analysis and type checking on a FlatAST against rebuilding the
+ * object AST to run them there.
+ *
+ * Usage: java ParseBench [max_fns [runs [parser ...]]]
+ *   max_fns  largest number of functions to generate (default 4096)
+ *   runs     timed runs per parser and size; the best is kept (default 10)
+ *   parser   any of cup, lr, descent, parallel, parallelN for N threads
+ *            (default all but parallelN)
+ */
+
+public class ParseBench {
+    private static final String PARSERS[] = { "cup", "lr", "descent", "parallel" };
+    private static final int MIN_FNS = 64;
+    private static final int WARMUP_RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int maxFns = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String parsers[] = PARSERS;
+        if (args.length > 2) {
+            parsers = new String[args.length - 2];
+            System.arraycopy(args, 2, parsers, 0, parsers.length);
+        }
+
+        StringBuffer head = new StringBuffer();
+        head.append(pad("fns", 6)).append(pad("tokens", 9));
+        for (int i = 0; i < parsers.length; i++) {
+            head.append(pad(parsers[i] + "ms", 11))
+                .append(pad(parsers[i] + "MB", 11));
+        }
+        System.out.println(head);
+
+        for (int n = MIN_FNS; n <= maxFns; n *= 2) {
+            Symbol tokens[] = scan(synthesize(n));
+            String expect = null;
+            for (int i = 0; i < parsers.length; i++) {
+                String text = unparse(parse(parsers[i], tokens));
+                if (expect == null)
+                    expect = text;
+                else if ( ! expect.equals(text) ) {
+                    System.err.println(parsers[i] + " builds a different AST for "
+                                       + n + " functions");
+                    System.exit(-1);
+                }
+            }
+
+            StringBuffer row = new StringBuffer();
+            row.append(pad("" + n, 6)).append(pad("" + tokens.length, 9));
+            for (int i = 0; i < parsers.length; i++) {
+                long best = Long.MAX_VALUE;
+                long bytes = 0;
+                for (int r = 0; r < WARMUP_RUNS + runs; r++) {
+                    long a0 = allocated();
+                    long t0 = System.nanoTime();
+                    parse(parsers[i], tokens);
+                    long t = System.nanoTime() - t0;
+                    bytes = allocated() - a0;
+                    if (r >= WARMUP_RUNS && t < best)
+                        best = t;
+                }
+                row.append(pad(millis(best), 11))
+                   .append(pad(megabytes(bytes), 11));
+            }
+            System.out.println(row);
+        }
+
+        benchEdits(maxFns, runs);
+        benchMemory(maxFns);
+        benchLoad(maxFns, runs);
+        benchAnalysis(maxFns, runs);
+        benchFlatPasses(maxFns, runs);
+    }
+
+    /**
+     * Times IncrementalAnalysis: analyzing a program from scratch against
+     * bringing it up to date after a one-line edit to the middle
+     * function.  First checks a few edits, some of which introduce
+     * errors and take them out again: for each, the declarations
+     * analyzed again are the ones expected, and the generated code, or
+     * whether there are errors, is that of a fresh compile.
+     */
+    private static void benchAnalysis(int maxFns, int runs) throws Exception {
+        System.out.println();
+        System.out.println(pad("fns", 6) + pad("decls", 9) + pad("fullms", 11)
+                           + pad("editms", 11) + pad("reanalyzed", 11));
+
+        for (int n = MIN_FNS; n <= maxFns; n *= 2) {
+            String program = synthesizeTyped(n);
+            int m = n / 2 + 3;      // neither first nor last in its block
+            int k = m / 8 * 8;
+
+            CmmIncrementalParser session = new CmmIncrementalParser(program);
+            IncrementalAnalysis analysis = new IncrementalAnalysis();
+            checkAnalysis(session, analysis, n, "program", null, null, session.declCount());
+            checkAnalysis(session, analysis, n, "no edit", null, null, 0);
+            checkAnalysis(session, analysis, n, "body", "z - g" + k + ";",
+                          "z - g" + k + " - 1;", 1);
+            // the function and its one caller
+            checkAnalysis(session, analysis, n, "signature", "int f" + m + "(int x)",
+                          "int f" + m + "(int x, int y)", 2);
+            checkAnalysis(session, analysis, n, "signature", "int f" + m + "(int x, int y)",
+                          "int f" + m + "(int x)", 2);
+            // the struct, its variable and the 8 functions using it
+            checkAnalysis(session, analysis, n, "layout", "struct S" + k + " {",
+                          "struct S" + k + " {\n    int c;", 10);
+            checkAnalysis(session, analysis, n, "layout", "struct S" + k + " {\n    int c;",
+                          "struct S" + k + " {", 10);
+            // errors while typing: an undeclared name, then a second
+            // global and a second function of the same name, which are
+            // parsed again with the declaration next to them
+            checkAnalysis(session, analysis, n, "undeclared", "z - g" + k + ";",
+                          "z - y;", 1);
+            checkAnalysis(session, analysis, n, "undeclared", "z - y;",
+                          "z - g" + k + ";", 1);
+            checkAnalysis(session, analysis, n, "duplicate", "int g" + k + ";\n",
+                          "int g" + k + ";\nint g" + k + ";\n", 2);
+            checkAnalysis(session, analysis, n, "duplicate", "int g" + k + ";\nint g" + k + ";\n",
+                          "int g" + k + ";\n", 1);
+            checkAnalysis(session, analysis, n, "duplicate", "void main",
+                          "int f0(int x) {\n    return x;\n}\n\nvoid main", 2);
+            checkAnalysis(session, analysis, n, "duplicate",
+                          "int f0(int x) {\n    return x;\n}\n\nvoid main", "void main", 1);
+
+            String from = "z - g" + k + ";";
+            String to = "z - g" + k + " - 1;";
+            int at = session.text().indexOf(from);
+            long bestFull = Long.MAX_VALUE;
+            long bestEdit = Long.MAX_VALUE;
+            for (int r = 0; r < WARMUP_RUNS + runs; r++) {
+                AST.ProgramNode tree = new CmmDescentParser(
+                    new Yylex(new StringReader(program))).parse();
+                long t0 = System.nanoTime();
+                new IncrementalAnalysis().analyze(tree);
+                long t1 = System.nanoTime();
+                session.edit(at, from.length(), to);
+                analysis.analyze(session.program());
+                long t2 = System.nanoTime();
+                session.edit(at, to.length(), from);
+                analysis.analyze(session.program());
+                if (r >= WARMUP_RUNS) {
+                    bestFull = Math.min(bestFull, t1 - t0);
+                    bestEdit = Math.min(bestEdit, t2 - t1);
+                }
+            }
+            session.edit(at, from.length(), to);
+            analysis.analyze(session.program());
+            System.out.println(pad("" + n, 6) + pad("" + session.declCount(), 9)
+                               + pad(millis(bestFull), 11)
+                               + pad(millis(bestEdit), 11)
+                               + pad("" + analysis.lastReanalyzed(), 11));
+        }
+    }
+
+    /**
+     * Replaces from by to in the session's text, if from is not null,
+     * and brings analysis up to date.  Stops the benchmark if it did not
+     * analyze exactly reanalyzed declarations again, or if it does not
+     * agree with a fresh compile of the text.  Errors are not printed.
+     */
+    private static void checkAnalysis(CmmIncrementalParser session,
+                                      IncrementalAnalysis analysis, int n,
+                                      String what, String from, String to,
+                                      int reanalyzed) throws Exception {
+        PrintStream err = System.err;
+        System.setErr(new PrintStream(new OutputStream() {
+            public void write(int b) { }
+        }));
+        String incremental, fresh;
+        try {
+            if (from != null)
+                session.edit(session.text().indexOf(from), from.length(), to);
+            ErrMsg.reset();
+            analysis.analyze(session.program());
+            incremental = analysis.hasErrors() ? "errors" : codeGen(session.program());
+
+            // the object passes stop the JVM on an undeclared name, so
+            // errors are found on the FlatAST, which reports the same ones
+            ErrMsg.reset();
+            AST.ProgramNode tree = new CmmDescentParser(
+                new Yylex(new StringReader(session.text()))).parse();
+            FlatAST flat = FlatAST.flatten(tree);
+            flat.nameAnalysis();
+            flat.typeCheck();
+            if (ErrMsg.hasFatalError()) {
+                fresh = "errors";
+            } else {
+                StringWriter w = new StringWriter();
+                PrintWriter p = new PrintWriter(w);
+                Passes.compiler(p).run(tree);
+                p.flush();
+                fresh = ErrMsg.hasFatalError() ? "errors" : normalize(w.toString());
+            }
+        } finally {
+            System.setErr(err);
+        }
+        if ( analysis.lastReanalyzed() != reanalyzed ) {
+            System.err.println(what + " edit analyzes " + analysis.lastReanalyzed()
+                               + " declarations again instead of " + reanalyzed
+                               + " for " + n + " functions");
+            System.exit(-1);
+        }
+        if ( ! incremental.equals(fresh) ) {
+            System.err.println(what + " edit is analyzed differently from a fresh"
+                               + " compile for " + n + " functions");
+            System.exit(-1);
+        }
+    }
+
+    private static String codeGen(AST.ProgramNode root) {
+        StringWriter w = new StringWriter();
+        PrintWriter p = new PrintWriter(w);
+        root.codeGen(p);
+        p.flush();
+        return normalize(w.toString());
+    }
+
+    private static final Pattern LABEL =
+        Pattern.compile("(\\.L|ELSE_|ENDIF_|LOOP_|ENDLOOP_|STR_)(\\d+)");
+
+    /**
+     * Numbers the labels of generated code in order of appearance, since
+     * CodeGen keeps counting them from one compile to the next
+     */
+    private static String normalize(String code) {
+        Matcher m = LABEL.matcher(code);
+        HashMap<String, String> names = new HashMap<String, String>();
+        StringBuffer b = new StringBuffer();
+        while (m.find()) {
+            String name = names.get(m.group());
+            if (name == null) {
+                name = m.group(1) + names.size();
+                names.put(m.group(), name);
+            }
+            m.appendReplacement(b, Matcher.quoteReplacement(name));
+        }
+        m.appendTail(b);
+        return b.toString();
+    }
+
+    /**
+     * Times FlatAST.nameAnalysis and typeCheck against toTree() followed
+     * by the passes of the object AST.  First checks that both report the
+     * same errors, for programs with many type errors and without any.
+     */
+    private static void benchFlatPasses(int maxFns, int runs) throws Exception {
+        System.out.println();
+        System.out.println(pad("fns", 6) + pad("nodes", 9) + pad("errors", 9)
+                           + pad("treems", 11) + pad("flatms", 11));
+
+        for (int n = MIN_FNS; n <= maxFns; n *= 2) {
+            final FlatAST flat = FlatAST.flatten(new CmmDescentParser(
+                new Yylex(new StringReader(synthesize(n)))).parse());
+            final FlatAST typed = FlatAST.flatten(new CmmDescentParser(
+                new Yylex(new StringReader(synthesizeTyped(n)))).parse());
+            String errors = checkFlatPasses(flat, n);
+            checkFlatPasses(typed, n);
+
+            PrintStream err = System.err;
+            System.setErr(new PrintStream(new OutputStream() {
+                public void write(int b) { }
+            }));
+            long bestTree = Long.MAX_VALUE;
+            long bestFlat = Long.MAX_VALUE;
+            try {
+                for (int r = 0; r < WARMUP_RUNS + runs; r++) {
+                    long t0 = System.nanoTime();
+                    AST.ProgramNode tree = flat.toTree();
+                    tree.nameAnalysis();
+                    tree.typeCheck();
+                    long t1 = System.nanoTime();
+                    flat.nameAnalysis();
+                    flat.typeCheck();
+                    long t2 = System.nanoTime();
+                    if (r >= WARMUP_RUNS) {
+                        bestTree = Math.min(bestTree, t1 - t0);
+                        bestFlat = Math.min(bestFlat, t2 - t1);
+                    }
+                }
+            } finally {
+                System.setErr(err);
+            }
+            System.out.println(pad("" + n, 6) + pad("" + flat.size(), 9)
+                               + pad(errors, 9)
+                               + pad(millis(bestTree), 11)
+                               + pad(millis(bestFlat), 11));
+        }
+    }
+
+    /**
+     * Runs the passes on flat and on its object AST and stops the
+     * benchmark if they report different errors; returns how many
+     */
+    private static String checkFlatPasses(final FlatAST flat, int n) {
+        String onTree = messages(new Runnable() {
+            public void run() {
+                AST.ProgramNode tree = flat.toTree();
+                tree.nameAnalysis();
+                tree.typeCheck();
+            }
+        });
+        String onFlat = messages(new Runnable() {
+            public void run() {
+                flat.nameAnalysis();
+                flat.typeCheck();
+            }
+        });
+        if ( ! onTree.equals(onFlat) ) {
+            System.err.println("FlatAST passes report different errors from the"
+                               + " AST passes for " + n + " functions");
+            System.exit(-1);
+        }
+        return "" + ErrMsg.fatalCount();
+    }
+
+    /**
+     * What r prints to System.err, from a clean ErrMsg
+     */
+    private static String messages(Runnable r) {
+        PrintStream err = System.err;
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(b));
+        try {
+            ErrMsg.reset();
+            r.run();
+        } finally {
+            System.setErr(err);
+        }
+        return b.toString();
+    }
+
+    /**
+     * Times AST.ProgramNode.load on a file written by write() against
+     * scanning and parsing the program text, checking that the loaded
+     * AST unparses to the same text.
+     */
+    private static void benchLoad(int maxFns, int runs) throws Exception {
+        File file = File.createTempFile("ParseBench", ".cmma");
+        file.deleteOnExit();
+        System.out.println();
+        System.out.println(pad("fns", 6) + pad("chars", 9) + pad("fileKB", 11)
+                           + pad("parsems", 11) + pad("loadms", 11));
+
+        for (int n = MIN_FNS; n <= maxFns; n *= 2) {
+            String program = synthesize(n);
+            AST.ProgramNode tree = new CmmDescentParser(
+                new Yylex(new StringReader(program))).parse();
+            OutputStream out = new FileOutputStream(file);
+            tree.write(out);
+            out.close();
+            if ( ! unparse(tree).equals(unparse(AST.ProgramNode.load(file))) ) {
+                System.err.println("loaded AST differs from the AST for " + n
+                                   + " functions");
+                System.exit(-1);
+            }
+
+            long bestParse = Long.MAX_VALUE;
+            long bestLoad = Long.MAX_VALUE;
+            for (int r = 0; r < WARMUP_RUNS + runs; r++) {
+                long t0 = System.nanoTime();
+                new CmmDescentParser(new Yylex(new StringReader(program))).parse();
+                long t1 = System.nanoTime();
+                AST.ProgramNode.load(file);
+                long t2 = System.nanoTime();
+                if (r >= WARMUP_RUNS) {
+                    bestParse = Math.min(bestParse, t1 - t0);
+                    bestLoad = Math.min(bestLoad, t2 - t1);
+                }
+            }
+            System.out.println(pad("" + n, 6) + pad("" + program.length(), 9)
+                               + pad("" + (file.length() >> 10), 11)
+                               + pad(millis(bestParse), 11)
+                               + pad(millis(bestLoad), 11));
+        }
+        file.delete();
+    }
+
+    /**
+     * Measures the heap held by the AST of each program, scanned and
+     * parsed from its text, against the size of the FlatAST made from
+     * it.  Checks that the FlatAST unparses to the same text, directly
+     * and through toTree().
+     */
+    private static void benchMemory(int maxFns) throws Exception {
+        // load and initialize everything once, outside the measurements
+        FlatAST.flatten(new CmmDescentParser(
+            new Yylex(new StringReader(synthesize(MIN_FNS)))).parse()).toTree();
+        heapUsed();
+        System.out.println();
+        System.out.println(pad("fns", 6) + pad("nodes", 9) + pad("treeMB", 11)
+                           + pad("flatMB", 11) + pad("ratio", 11));
+
+        for (int n = MIN_FNS; n <= maxFns; n *= 2) {
+            String program = synthesize(n);
+            long base = heapUsed();
+            AST.ProgramNode tree = new CmmDescentParser(
+                new Yylex(new StringReader(program))).parse();
+            long treeBytes = heapUsed() - base;
+
+            FlatAST flat = FlatAST.flatten(tree);
+            tree = null;
+            long flatBytes = flat.bytes();
+
+            String expect = unparse(new CmmDescentParser(
+                new Yylex(new StringReader(program))).parse());
+            StringWriter w = new StringWriter();
+            PrintWriter p = new PrintWriter(w);
+            flat.unparse(p);
+            p.flush();
+            if ( ! expect.equals(w.toString())
+                 || ! expect.equals(unparse(flat.toTree())) ) {
+                System.err.println("FlatAST differs from the AST for " + n
+                                   + " functions");
+                System.exit(-1);
+            }
+
+            System.out.println(pad("" + n, 6) + pad("" + flat.size(), 9)
+                               + pad(megabytes(treeBytes), 11)
+                               + pad(megabytes(flatBytes), 11)
+                               + pad(treeBytes * 10 / flatBytes / 10 + "."
+                                     + treeBytes * 10 / flatBytes % 10, 11));
+        }
+    }
+
+    /**
+     * Times CmmIncrementalParser: a full parse against adding one
+     * statement to the middle function, checking the spliced AST against
+     * a fresh parse of the edited text.
+     */
+    private static void benchEdits(int maxFns, int runs) throws Exception {
+        System.out.println();
+        System.out.println(pad("fns", 6) + pad("chars", 9) + pad("fullms", 11)
+                           + pad("editms", 11) + pad("reparsed", 11));
+
+        for (int n = MIN_FNS; n <= maxFns; n *= 2) {
+            String program = synthesize(n);
+            // after the middle function's local declarations
+            int at = program.indexOf(" p;\n", program.indexOf("int f" + n / 2 + "(")) + 4;
+            String stmt = "    z++;\n";
+
+            CmmIncrementalParser session = new CmmIncrementalParser(program);
+            session.edit(at, 0, stmt);
+            String fresh = unparse(new CmmDescentParser(
+                new Yylex(new StringReader(session.text()))).parse());
+            if ( ! fresh.equals(unparse(session.program())) ) {
+                System.err.println("edit builds a different AST for " + n
+                                   + " functions");
+                System.exit(-1);
+            }
+            session.edit(at, stmt.length(), "");
+
+            long bestFull = Long.MAX_VALUE;
+            long bestEdit = Long.MAX_VALUE;
+            for (int r = 0; r < WARMUP_RUNS + runs; r++) {
+                long t0 = System.nanoTime();
+                new CmmIncrementalParser(program);
+                long t1 = System.nanoTime();
+                session.edit(at, 0, stmt);
+                long t2 = System.nanoTime();
+                session.edit(at, stmt.length(), "");
+                if (r >= WARMUP_RUNS) {
+                    bestFull = Math.min(bestFull, t1 - t0);
+                    bestEdit = Math.min(bestEdit, t2 - t1);
+                }
+            }
+            session.edit(at, 0, stmt);
+            System.out.println(pad("" + n, 6) + pad("" + program.length(), 9)
+                               + pad(millis(bestFull), 11)
+                               + pad(millis(bestEdit), 11)
+                               + pad("" + session.lastReparsed(), 11));
+        }
+    }
+
+    /**
+     * Runs one parser over a token array.  CUP refuses a Symbol it has
+     * already shifted, so every run gets fresh copies of the tokens.
+     */
+    private static AST.ProgramNode parse(String name, final Symbol tokens[])
+        throws Exception {
+        Scanner replay = new Scanner() {
+            int next = 0;
+            public Symbol next_token() {
+                Symbol t = tokens[next < tokens.length ? next++ : tokens.length - 1];
+                return new Symbol(t.sym, t.value);
+            }
+        };
+        if ( name.equals("descent") )
+            return new CmmDescentParser(replay).parse();
+        if ( name.equals("lr") )
+            return (AST.ProgramNode) new CmmLRDriver(replay).parse().value;
+        if ( name.equals("parallel") )
+            return new CmmParallelParser(replay).parse();
+        if ( name.startsWith("parallel") )
+            return new CmmParallelParser(replay,
+                Integer.parseInt(name.substring("parallel".length()))).parse();
+        return (AST.ProgramNode) new CmmParser(replay).parse().value;
+    }
+
+    /**
+     * Scans a whole program, up to and including EOF
+     */
+    private static Symbol[] scan(String program) throws IOException {
+        Yylex lexer = new Yylex(new StringReader(program));
+        ArrayList<Symbol> list = new ArrayList<Symbol>();
+        Symbol s;
+        do {
+            s = lexer.next_token();
+            list.add(s);
+        } while (s.sym != sym.EOF);
+        return list.toArray(new Symbol[list.size()]);
+    }
+
+    private static String unparse(AST.ProgramNode root) {
+        StringWriter w = new StringWriter();
+        PrintWriter p = new PrintWriter(w);
+        root.unparse(p, 0);
+        p.flush();
+        return w.toString();
+    }
+
+    // **********************************************************************
+    // program synthesis
+    // **********************************************************************
+
+    private static Random rand;
+
+    /**
+     * Builds a program of n functions, with a struct and a global every
+     * eight functions.  Expressions use every operator, unary minus and
+     * not, nested assignments and calls to earlier functions.
+     */
+    private static String synthesize(int n) {
+        StringBuffer b = new StringBuffer();
+        rand = new Random(n);
+        for (int f = 0; f < n; f++) {
+            if (f % 8 == 0) {
+                b.append("struct S").append(f).append(" {\n")
+                 .append("    int a;\n    bool b;\n};\n")
+                 .append("int g").append(f).append(";\n\n");
+            }
+            b.append("int f").append(f).append("(int x, int y) {\n")
+             .append("    int z;\n    bool c;\n")
+             .append("    struct S").append(f / 8 * 8).append(" p;\n");
+            for (int s = 0; s < 6; s++)
+                stmt(b, f, 1, 2);
+            b.append("    return ");
+            exp(b, f, 3);
+            b.append(";\n}\n\n");
+        }
+        return b.toString();
+    }
+
+    /**
+     * Builds a program of n functions without errors.  Every eight
+     * functions share a struct, a struct variable and an int, and each
+     * function calls only the one before it, so what an edit can affect
+     * is known.
+     */
+    private static String synthesizeTyped(int n) {
+        StringBuffer b = new StringBuffer();
+        for (int f = 0; f < n; f++) {
+            int k = f / 8 * 8;
+            if (f == k) {
+                b.append("struct S").append(k).append(" {\n")
+                 .append("    int a;\n    int b;\n};\n")
+                 .append("struct S").append(k).append(" s").append(k).append(";\n")
+                 .append("int g").append(k).append(";\n\n");
+            }
+            b.append("int f").append(f).append("(int x) {\n")
+             .append("    int z;\n")
+             .append("    z = ").append(f > 0 ? "f" + (f - 1) + "(x)" : "x")
+             .append(" + s").append(k).append(".a;\n")
+             .append("    if (z > g").append(k).append(") {\n")
+             .append("        z = z - g").append(k).append(";\n")
+             .append("    }\n")
+             .append("    return z;\n}\n\n");
+        }
+        b.append("void main() {\n    g0 = 1;\n    s0.a = 2;\n")
+         .append("    cout << f").append(n - 1).append("(3);\n}\n");
+        return b.toString();
+    }
+
+    private static void stmt(StringBuffer b, int f, int indent, int depth) {
+        for (int i = 0; i < indent; i++)
+            b.append("    ");
+        switch (rand.nextInt(depth > 0 ? 10 : 7)) {
+        case 0:
+            b.append("z++;\n");
+            break;
+        case 1:
+            b.append("p.a--;\n");
+            break;
+        case 2:
+            b.append("cin >> y;\n");
+            break;
+        case 3:
+            b.append("cout << ");
+            exp(b, f, 3);
+            b.append(";\n");
+            break;
+        case 4:
+            b.append(f > 0 ? "f" + rand.nextInt(f) : "f" + f).append("(");
+            exp(b, f, 2);
+            b.append(", ");
+            exp(b, f, 2);
+            b.append(");\n");
+            break;
+        case 5:
+            b.append("c = ");
+            exp(b, f, 3);
+            b.append(";\n");
+            break;
+        case 6:
+            b.append("z = ");
+            exp(b, f, 4);
+            b.append(";\n");
+            break;
+        default:
+            boolean loop = rand.nextInt(3) == 0;
+            b.append(loop ? "while (" : "if (");
+            exp(b, f, 3);
+            b.append(") {\n");
+            for (int i = 0; i <= indent; i++)
+                b.append("    ");
+            b.append("int w;\n");
+            for (int s = 0; s < 3; s++)
+                stmt(b, f, indent + 1, depth - 1);
+            for (int i = 0; i < indent; i++)
+                b.append("    ");
+            b.append("}");
+            if ( ! loop && rand.nextBoolean() ) {
+                b.append(" else {\n");
+                stmt(b, f, indent + 1, depth - 1);
+                for (int i = 0; i < indent; i++)
+                    b.append("    ");
+                b.append("}");
+            }
+            b.append("\n");
+            break;
+        }
+    }
+
+    private static final String BINARY[] = {
+        "+", "-", "*", "/", "&&", "||"
+    };
+    private static final String RELATIONAL[] = {
+        "==", "!=", "<", ">", "<=", ">="
+    };
+    private static final String ATOMS[] = {
+        "x", "y", "z", "c", "p.a", "p.b", "1", "42", "true", "false", "\"s\""
+    };
+
+    /**
+     * Appends a random expression nested at most depth levels.  Relational
+     * operators are nonassoc, so they are parenthesized.
+     */
+    private static void exp(StringBuffer b, int f, int depth) {
+        int k = depth > 0 ? rand.nextInt(12) : 0;
+        switch (k) {
+        case 0:
+        case 1:
+        case 2:
+            b.append(ATOMS[rand.nextInt(ATOMS.length)]);
+            break;
+        case 3:
+            b.append("- ");   // "--" would scan as MINUSMINUS
+            exp(b, f, depth - 1);
+            break;
+        case 4:
+            b.append("!");
+            exp(b, f, depth - 1);
+            break;
+        case 5:
+            b.append("(");
+            exp(b, f, depth - 1);
+            b.append(" ").append(RELATIONAL[rand.nextInt(RELATIONAL.length)])
+             .append(" ");
+            exp(b, f, depth - 1);
+            b.append(")");
+            break;
+        case 6:
+            b.append("(z = ");
+            exp(b, f, depth - 1);
+            b.append(")");
+            break;
+        case 7:
+            b.append("f").append(f > 0 ? rand.nextInt(f) : f).append("(");
+            exp(b, f, depth - 1);
+            b.append(", ");
+            exp(b, f, depth - 1);
+            b.append(")");
+            break;
+        default:
+            exp(b, f, depth - 1);
+            b.append(" ").append(BINARY[rand.nextInt(BINARY.length)])
+             .append(" ");
+            exp(b, f, depth - 1);
+            break;
+        }
+    }
+
+    // **********************************************************************
+    // reporting
+    // **********************************************************************
+
+    private static long allocated() {
+        return ((com.sun.management.ThreadMXBean)
+                ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long heapUsed() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static String millis(long nanos) {
+        if (nanos < 1000000)
+            return "0." + (nanos / 1000 + 1000 + "").substring(1);
+        return "" + (nanos / 1000000) + "." + (nanos / 100000 % 10);
+    }
+
+    private static String megabytes(long bytes) {
+        return "" + (bytes >> 20) + "." + ((bytes >> 10) % 1024 * 10 / 1024);
+    }
+
+    private static String pad(String s, int width) {
+        StringBuffer b = new StringBuffer(s);
+        while (b.length() < width)
+            b.insert(0, ' ');
+        return b.append(' ').toString();
+    }
+}
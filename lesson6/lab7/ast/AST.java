@@ -54,7 +54,7 @@ import codegen.*;
 //     FormalsListNode     linked list of FormalDeclNode
 //     FnBodyNode          DeclListNode, StmtListNode
 //     StmtListNode        linked list of StmtNode
-//     ExpListNode         linked list of ExpNode
+//     ExpListNode         list of ExpNode
 //
 //     TypeNode:
 //       IntNode           -- none --
@@ -68,10 +68,11 @@ import codegen.*;
 //       PostDecStmtNode     ExpNode
 //       ReadStmtNode        ExpNode
 //       WriteStmtNode       ExpNode
-//       IfStmtNode          ExpNode, DeclListNode, StmtListNode
-//       IfElseStmtNode      ExpNode, DeclListNode, StmtListNode,
+//       BlockStmtNode
+//         IfStmtNode        ExpNode, DeclListNode, StmtListNode
+//         IfElseStmtNode    ExpNode, DeclListNode, StmtListNode,
 //                                    DeclListNode, StmtListNode
-//       WhileStmtNode       ExpNode, DeclListNode, StmtListNode
+//         WhileStmtNode     ExpNode, DeclListNode, StmtListNode
 //       CallStmtNode        CallExpNode
 //       ReturnStmtNode      ExpNode
 //
@@ -84,6 +85,7 @@ import codegen.*;
 //       DotAccessNode       ExpNode, IdNode
 //       AssignNode          ExpNode, ExpNode
 //       CallExpNode         IdNode, ExpListNode
+//       ReusedExpNode       -- none -- (refers to the ExpNode it reuses)
 //       UnaryExpNode        ExpNode
 //         UnaryMinusNode
 //         NotNode
@@ -111,7 +113,7 @@ import codegen.*;
 //
 // (1) Leaf nodes:
 //        IntNode,   BoolNode,  VoidNode,  IntLitNode,  StringLitNode,
-//        TrueNode,  FalseNode, IdNode
+//        TrueNode,  FalseNode, IdNode,    ReusedExpNode
 //
 // (2) Internal nodes with (possibly empty) linked lists of children:
 //        DeclListNode, FormalsListNode, StmtListNode, ExpListNode
@@ -144,9 +146,137 @@ public static abstract class ASTnode {
 
     }
 
+    // moves every position in this subtree down by delta lines; used when
+    // an edit above a declaration adds or removes lines
+    public void shiftLines(int delta) {
+
+    }
+
+    // every subclass must append itself to the flat form, see FlatAST
+    abstract void flatten(FlatAST f);
+
     // this method can be used by the unparse methods to do indenting
     protected void doIndent(PrintWriter p, int indent) {
-        for (int k=0; k<indent; k++) p.print(" ");
+        for (int k=0; k<indent; k+=SPACES.length)
+            p.write(SPACES, 0, Math.min(indent-k, SPACES.length));
+    }
+
+    static final char SPACES[] = "                                ".toCharArray();
+}
+
+// **********************************************************************
+// ExpWalk and StmtWalk, the stacks the passes nest on
+// **********************************************************************
+
+/**
+ * A pass over an expression that keeps the operands it is in on an
+ * explicit stack instead of recursing into them, so expressions can nest
+ * as deep as the source has them: a + (a + (...)), -(-(...)),
+ * a = (a = ...), f(f(...)).
+ *
+ * The pass does the work of each node in steps.  Step k of e does e's
+ * work up to the next operand the pass goes into and returns it; that
+ * operand is walked all the way before step k+1 of e.  The last step
+ * returns null.
+ */
+static abstract class ExpWalk {
+
+    /**
+     * Step k of e
+     */
+    abstract ExpNode step(ExpNode e, int k);
+
+    /**
+     * Walks the expression e
+     */
+    final void walk(ExpNode e) {
+        ExpNode open[] = new ExpNode[16];
+        int steps[] = new int[16];
+        int depth = 0;
+        open[depth++] = e;
+        while (depth > 0) {
+            ExpNode next = step(open[depth-1], steps[depth-1]++);
+            if (next == null) {
+                open[--depth] = null;
+            }
+            else {
+                if (depth == open.length) {
+                    open = Arrays.copyOf(open, 2 * depth);
+                    steps = Arrays.copyOf(steps, 2 * depth);
+                }
+                open[depth] = next;
+                steps[depth++] = 0;
+            }
+        }
+    }
+}
+
+/**
+ * A pass over a statement list that keeps the if and while statements it
+ * is in on an explicit stack instead of recursing into their bodies, so
+ * statements can nest as deep as the source has them.
+ *
+ * A statement without a body is visited whole.  The work of a
+ * BlockStmtNode is done in steps around its bodies: step 0 before the
+ * first, step k between bodies k-1 and k, and step bodies() after the
+ * last.
+ */
+static abstract class StmtWalk {
+
+    /**
+     * A statement without a body
+     */
+    abstract void visit(StmtNode s);
+
+    /**
+     * Step k of s
+     */
+    abstract void step(BlockStmtNode s, int k);
+
+    /**
+     * Walks the statements of list
+     */
+    final void walk(StmtListNode list) {
+        // for the list and each body the walk is in: the statements left,
+        // the statement it is a body of, and which body
+        ArrayList<Iterator<StmtNode>> left = new ArrayList<Iterator<StmtNode>>();
+        ArrayList<BlockStmtNode> owner = new ArrayList<BlockStmtNode>();
+        int body[] = new int[16];
+        left.add(list.myStmts.iterator());
+        owner.add(null);
+        while ( ! left.isEmpty() ) {
+            int top = left.size() - 1;
+            if (left.get(top).hasNext()) {
+                StmtNode s = left.get(top).next();
+                if ( ! (s instanceof BlockStmtNode) ) {
+                    visit(s);
+                    continue;
+                }
+                BlockStmtNode b = (BlockStmtNode)s;
+                step(b, 0);
+                if (top + 1 == body.length) {
+                    body = Arrays.copyOf(body, 2 * body.length);
+                }
+                left.add(b.body(0).myStmts.iterator());
+                owner.add(b);
+                body[top + 1] = 0;
+                continue;
+            }
+
+            // the end of a body: the next step of its statement
+            BlockStmtNode b = owner.remove(top);
+            left.remove(top);
+            if (b == null) {
+                continue;
+            }
+            int k = body[top] + 1;
+            step(b, k);
+            if (k < b.bodies()) {
+                left.add(b.body(k).myStmts.iterator());
+                owner.add(b);
+                body[top] = k;
+            }
+        }
     }
 }
 
@@ -160,6 +290,13 @@ public static class ProgramNode extends ASTnode {
     public ProgramNode(DeclListNode L) {
         myDeclList = L;
     }
+
+    /**
+     * shiftLines
+     */
+    public void shiftLines(int delta) {
+        myDeclList.shiftLines(delta);
+    }
     
     /**
      * typeCheck
@@ -188,14 +325,51 @@ public static class ProgramNode extends ASTnode {
     public void nameAnalysis() {
         SymTable symTab = new SymTable();
         myDeclList.nameAnalysis(symTab, true);
-        
-        symTab.print();  // print global decls
+    }
+
+    /**
+     * index
+     * Records every declaration and use of a name in idx, see SymbolIndex;
+     * after nameAnalysis and resolveOffset
+     */
+    public void index(SymbolIndex idx) {
+        myDeclList.index(idx);
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.PROGRAM);
+        myDeclList.flatten(f);
+        f.end();
+    }
+
+    /**
+     * write
+     * Writes this program to out in the binary form of FlatAST
+     */
+    public void write(OutputStream out) throws IOException {
+        FlatAST.flatten(this).write(out);
+    }
+
+    /**
+     * load
+     * Reads a program written by write() back, without scanning or
+     * parsing it again
+     */
+    public static ProgramNode load(File file) throws IOException {
+        return FlatAST.load(file).toTree();
     }
 
     public void unparse(PrintWriter p, int indent) {
         myDeclList.unparse(p, indent);
     }
 
+    public DeclListNode declList() {
+        return myDeclList;
+    }
+
     // 1 kid
     private DeclListNode myDeclList;
 }
@@ -204,6 +378,15 @@ public static class DeclListNode extends ASTnode {
     public DeclListNode(List<DeclNode> S) {
         myDecls = S;
     }
+
+    /**
+     * shiftLines
+     */
+    public void shiftLines(int delta) {
+        for (DeclNode node : myDecls) {
+            node.shiftLines(delta);
+        }
+    }
     public void codeGen(PrintWriter p){
         for (DeclNode node : myDecls) {
             node.codeGen(p);
@@ -241,23 +424,41 @@ public static class DeclListNode extends ASTnode {
     
     /**
      * nameAnalysis inside a struct definition
-     * Given a symbol table structSymTab and a global symbol table globalTab
-     * process all of the decls in the list.
+     * Given the layout being built for the struct and a global symbol
+     * table globalTab process all of the decls in the list.
      */    
-    public int nameAnalysis(SymTable structSymTab, SymTable globalTab) {
-        int size = 0;
+    public void nameAnalysis(StructLayout.Builder fields, SymTable globalTab) {
         for (DeclNode node : myDecls) {
             if (node instanceof VarDeclNode) {
-                SymInfo info = ((VarDeclNode)node).nameAnalysis(structSymTab, globalTab);
-                size += info.getSize();
+                ((VarDeclNode)node).nameAnalysis(fields, globalTab);
             } else {
                 // this should never happen
                 node.nameAnalysis(globalTab, false);
             }
         }
-        return size;
     }    
 
+    /**
+     * index
+     * Records the names in all of the decls in the list, see SymbolIndex
+     */
+    void index(SymbolIndex idx) {
+        for (DeclNode node : myDecls) {
+            node.index(idx);
+        }
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.DECL_LIST);
+        for (DeclNode node : myDecls) {
+            node.flatten(f);
+        }
+        f.end();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         Iterator<DeclNode> it = myDecls.iterator();
         try {
@@ -270,6 +471,10 @@ public static class DeclListNode extends ASTnode {
         }
     }
 
+    public List<DeclNode> decls() {
+        return myDecls;
+    }
+
     // list of kids (DeclNodes)
     private List<DeclNode> myDecls;
 }
@@ -278,6 +483,15 @@ public static class FormalsListNode extends ASTnode {
     public FormalsListNode(List<FormalDeclNode> S) {
         myFormals = S;
     }
+
+    /**
+     * shiftLines
+     */
+    public void shiftLines(int delta) {
+        for (FormalDeclNode node : myFormals) {
+            node.shiftLines(delta);
+        }
+    }
     public int resolveOffset(int offset){
         for(FormalDeclNode node : myFormals){
             offset -= node.resolveOffset(offset);
@@ -309,6 +523,26 @@ public static class FormalsListNode extends ASTnode {
         return myFormals.size();
     }
 
+    /**
+     * index
+     */
+    void index(SymbolIndex idx) {
+        for (FormalDeclNode node : myFormals) {
+            node.index(idx);
+        }
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.FORMALS_LIST);
+        for (FormalDeclNode node : myFormals) {
+            node.flatten(f);
+        }
+        f.end();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         Iterator<FormalDeclNode> it = myFormals.iterator();
         if (it.hasNext()) { // if there is at least one element
@@ -330,6 +564,14 @@ public static class FnBodyNode extends ASTnode {
         myDeclList = declList;
         myStmtList = stmtList;
     }
+
+    /**
+     * shiftLines
+     */
+    public void shiftLines(int delta) {
+        myDeclList.shiftLines(delta);
+        myStmtList.shiftLines(delta);
+    }
     public void codeGen(PrintWriter p){
         myDeclList.codeGen(p);
         myStmtList.codeGen(p);
@@ -358,6 +600,32 @@ public static class FnBodyNode extends ASTnode {
         myStmtList.nameAnalysis(symTab);
     }    
     
+    /**
+     * share
+     * Shares equal pure expressions in the body, see ExpDag
+     */
+    void share(ExpDag dag) {
+        myStmtList.share(dag);
+    }
+
+    /**
+     * index
+     */
+    void index(SymbolIndex idx) {
+        myDeclList.index(idx);
+        myStmtList.index(idx);
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.FN_BODY);
+        myDeclList.flatten(f);
+        myStmtList.flatten(f);
+        f.end();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         myDeclList.unparse(p, indent);
         myStmtList.unparse(p, indent);
@@ -374,39 +642,160 @@ public static class StmtListNode extends ASTnode {
         myStmts = S;
     }
 
-    public void codeGen(PrintWriter p){
-        for(StmtNode node : myStmts)
-            node.codeGen(p);
+    /**
+     * shiftLines
+     */
+    public void shiftLines(final int delta) {
+        new StmtWalk() {
+            void visit(StmtNode s) {
+                s.shiftLines(delta);
+            }
+
+            void step(BlockStmtNode s, int k) {
+                s.shiftLines(delta, k);
+            }
+        }.walk(this);
+    }
+
+    public void codeGen(final PrintWriter p){
+        new StmtWalk() {
+            void visit(StmtNode s) {
+                s.codeGen(p);
+            }
+
+            void step(BlockStmtNode s, int k) {
+                s.codeGen(p, k);
+            }
+        }.walk(this);
     }
 
+    /**
+     * resolveOffset
+     * The locals of each statement start at offset; returns the largest
+     * offset they reach
+     */
     public int resolveOffset(int offset){
-        int maxOffset = offset;
-        for(StmtNode node : myStmts){
-            int newOffset = node.resolveOffset(offset);
-            if(newOffset > maxOffset)
-                maxOffset = newOffset;
+        OffsetWalk w = new OffsetWalk(offset);
+        w.walk(this);
+        return w.max[0];
+    }
+
+    /**
+     * resolveOffset for the statements and their bodies: for the list
+     * (level 0) and each body the walk is in, where the locals of its
+     * statements start and the largest offset they reach, and for the
+     * statement a body is in, the largest offset its bodies so far reach
+     */
+    private static class OffsetWalk extends StmtWalk {
+        int level = 0;
+        int start[] = new int[16];
+        int max[] = new int[16];
+        int bodiesMax[] = new int[16];
+
+        OffsetWalk(int offset) {
+            start[0] = offset;
+            max[0] = offset;
+        }
+
+        void visit(StmtNode s) {
+            max[level] = Math.max(max[level], s.resolveOffset(start[level]));
+        }
+
+        void step(BlockStmtNode s, int k) {
+            if (k == 0) {
+                if (++level == start.length) {
+                    start = Arrays.copyOf(start, 2 * level);
+                    max = Arrays.copyOf(max, 2 * level);
+                    bodiesMax = Arrays.copyOf(bodiesMax, 2 * level);
+                }
+                bodiesMax[level] = start[level-1];
+            }
+            else {
+                bodiesMax[level] = Math.max(bodiesMax[level], max[level]);
+            }
+            if (k < s.bodies()) {
+                start[level] = s.resolveOffset(start[level-1], k);
+                max[level] = start[level];
+            }
+            else {
+                level--;
+                max[level] = Math.max(max[level], bodiesMax[level+1]);
+            }
         }
-        return maxOffset;
     }
     
     /**
      * typeCheck
      */
-    public void typeCheck(Type.AbstractType retType) {
-        for(StmtNode node : myStmts) {
-            node.typeCheck(retType);
-        }
+    public void typeCheck(final Type.AbstractType retType) {
+        new StmtWalk() {
+            void visit(StmtNode s) {
+                s.typeCheck(retType);
+            }
+
+            void step(BlockStmtNode s, int k) {
+                s.typeCheck(k);
+            }
+        }.walk(this);
     }
 
     /**
      * nameAnalysis
      * Given a symbol table symTab, process each statement in the list.
      */
-    public void nameAnalysis(SymTable symTab) {
+    public void nameAnalysis(final SymTable symTab) {
+        new StmtWalk() {
+            void visit(StmtNode s) {
+                s.nameAnalysis(symTab);
+            }
+
+            void step(BlockStmtNode s, int k) {
+                s.nameAnalysis(symTab, k);
+            }
+        }.walk(this);
+    }    
+
+    /**
+     * share
+     * Shares equal pure expressions in each statement, see ExpDag
+     */
+    void share(final ExpDag dag) {
+        new StmtWalk() {
+            void visit(StmtNode s) {
+                s.share(dag);
+            }
+
+            void step(BlockStmtNode s, int k) {
+                s.share(dag, k);
+            }
+        }.walk(this);
+    }
+
+    /**
+     * index
+     */
+    void index(final SymbolIndex idx) {
+        new StmtWalk() {
+            void visit(StmtNode s) {
+                s.index(idx);
+            }
+
+            void step(BlockStmtNode s, int k) {
+                s.index(idx, k);
+            }
+        }.walk(this);
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.STMT_LIST);
         for (StmtNode node : myStmts) {
-            node.nameAnalysis(symTab);
+            node.flatten(f);
         }
-    }    
+        f.end();
+    }
 
     public void unparse(PrintWriter p, int indent) {
         Iterator<StmtNode> it = myStmts.iterator();
@@ -422,45 +811,26 @@ public static class StmtListNode extends ASTnode {
 public static class ExpListNode extends ASTnode {
 
     public ExpListNode(List<ExpNode> S) {
-        myExps = S;
-    }
-    public void codeGen(PrintWriter p){
-        for(int i = myExps.size()-1; i>=0;i--){
-            myExps.get(i).codeGen(p);
-        }
+        myExps = new ArrayList<ExpNode>(S);
     }
+
     /**
-     * typeCheck
+     * shiftLines
      */
-    public void typeCheck(List<Type.AbstractType> typeList) {
-        int k = 0;
-        try {
-            for (ExpNode node : myExps) {
-                Type.AbstractType actualType = node.typeCheck();     // actual type of arg
-                
-                if (!actualType.isErrorType()) {        // if this is not an error
-                    Type.AbstractType formalType = typeList.get(k);  // get the formal type
-                    if ( ! formalType.equals(actualType)) {
-                        ErrMsg.fatal(node.lineNum, node.charNum,
-                                     "Type of actual does not match type of formal");
-                    }
-                }
-                k++;
-            }
-        } catch (NoSuchElementException e) {
-            System.err.println("unexpected NoSuchElementException in ExpListNode.typeCheck");
-            System.exit(-1);
+    public void shiftLines(int delta) {
+        for (ExpNode node : myExps) {
+            node.shiftLines(delta);
         }
     }
-
     /**
-     * nameAnalysis
-     * Given a symbol table symTab, process each exp in the list.
+     * flatten
      */
-    public void nameAnalysis(SymTable symTab) {
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.EXP_LIST);
         for (ExpNode node : myExps) {
-            node.nameAnalysis(symTab);
+            node.flatten(f);
         }
+        f.end();
     }
 
     public void unparse(PrintWriter p, int indent) {
@@ -478,6 +848,20 @@ public static class ExpListNode extends ASTnode {
         return myExps.size();
     }
 
+    /**
+     * Expression k
+     */
+    ExpNode get(int k) {
+        return myExps.get(k);
+    }
+
+    /**
+     * Replaces expression k by e
+     */
+    void set(int k, ExpNode e) {
+        myExps.set(k, e);
+    }
+
     // list of kids (ExpNodes)
     private List<ExpNode> myExps;
 }
@@ -498,6 +882,27 @@ public static abstract class DeclNode extends ASTnode {
      * default version of typeCheck for non-function decls
      */
     public boolean typeCheck() { return false; } 
+
+    /**
+     * default version of isMain for non-function decls
+     */
+    public boolean isMain() { return false; }
+
+    /**
+     * default version of share for decls with no expressions
+     */
+    void share(ExpDag dag) { }
+
+    /**
+     * index
+     * Records the names declared and used in this decl, see SymbolIndex
+     */
+    abstract void index(SymbolIndex idx);
+
+    /**
+     * The id this decl declares
+     */
+    public abstract IdNode idNode();
     
     /**
      * Note: a formal decl needs to return an info
@@ -512,6 +917,14 @@ public static class VarDeclNode extends DeclNode {
         myId = id;
         mySize = size;
     }
+
+    /**
+     * shiftLines
+     */
+    public void shiftLines(int delta) {
+        myType.shiftLines(delta);
+        myId.shiftLines(delta);
+    }
     public void codeGen(PrintWriter p){
         if(myId.info().getGlobal()){
             CodeGen.generateWithComment(p, ".data", "data segment");
@@ -602,7 +1015,12 @@ public static class VarDeclNode extends DeclNode {
         return info;
     }
     
-    public SymInfo nameAnalysis(SymTable structSymTab, SymTable globalTab) {
+    /**
+     * nameAnalysis (overloaded)
+     * The same for a struct field: fields is the layout of the struct,
+     * which places the field after the ones before it
+     */
+    public SymInfo nameAnalysis(StructLayout.Builder fields, SymTable globalTab) {
         boolean badDecl = false;
         String name = myId.name();
         SymInfo info = null;
@@ -628,7 +1046,7 @@ public static class VarDeclNode extends DeclNode {
                 structId.link(info);
             }
         }
-        SymInfo dup = structSymTab.lookupLocal(name);
+        SymInfo dup = fields.lookup(name);
         
         if (dup != null) {
             ErrMsg.fatal(myId.lineNum, myId.charNum, 
@@ -646,13 +1064,38 @@ public static class VarDeclNode extends DeclNode {
                 info.setSize(4);
                 mySize = 4;
             }
-            structSymTab.addDecl(name, info);
+            fields.addField(name, info);
             myId.link(info);
         }
         
         return info;
     }    
 
+    /**
+     * index
+     * The struct type named, if any, and the variable or field declared
+     */
+    void index(SymbolIndex idx) {
+        if (myType instanceof StructNode) {
+            idx.refer(((StructNode)myType).idNode());
+        }
+        idx.declare(myId, SymbolIndex.VAR);
+    }
+
+    public IdNode idNode() {
+        return myId;
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.VAR_DECL, 0, 0, mySize);
+        myType.flatten(f);
+        myId.flatten(f);
+        f.end();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         myType.unparse(p, 0);
@@ -680,6 +1123,16 @@ public static class FnDeclNode extends DeclNode {
         myFormalsList = formalList;
         myBody = body;
     }
+
+    /**
+     * shiftLines
+     */
+    public void shiftLines(int delta) {
+        myType.shiftLines(delta);
+        myId.shiftLines(delta);
+        myFormalsList.shiftLines(delta);
+        myBody.shiftLines(delta);
+    }
     public void codeGen(PrintWriter p){
         //check if it's main func, if main then generate 
         //      .text  #text segment
@@ -756,6 +1209,13 @@ public static class FnDeclNode extends DeclNode {
      */
     public boolean typeCheck() {
         myBody.typeCheck(myType.type());
+        return isMain();
+    }
+
+    /**
+     * isMain
+     */
+    public boolean isMain() {
         if("main".equals(myId.name()) && myType.type().isVoidType() && myFormalsList.length() == 0)
             return true;
         return false;
@@ -804,6 +1264,46 @@ public static class FnDeclNode extends DeclNode {
         return null;
     }    
 
+    /**
+     * share
+     * Starts a region of its own for the body, see ExpDag, and makes room
+     * in the frame for the slots it needs after the locals
+     */
+    void share(ExpDag dag) {
+        FnInfo info = (FnInfo)(myId.info());
+        dag.beginFrame(8 + info.getLocalSize());
+        myBody.share(dag);
+        info.setLocalSize(dag.endFrame() - 8);
+    }
+
+    /**
+     * index
+     * The function, then its formals and body inside it
+     */
+    void index(SymbolIndex idx) {
+        idx.declare(myId, SymbolIndex.FN);
+        idx.enter(myId);
+        myFormalsList.index(idx);
+        myBody.index(idx);
+        idx.leave();
+    }
+
+    public IdNode idNode() {
+        return myId;
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.FN_DECL);
+        myType.flatten(f);
+        myId.flatten(f);
+        myFormalsList.flatten(f);
+        myBody.flatten(f);
+        f.end();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         myType.unparse(p, 0);
@@ -828,7 +1328,15 @@ public static class FormalDeclNode extends DeclNode {
         myType = type;
         myId = id;
     }
-    public int resolveOffset(int offset){
+
+    /**
+     * shiftLines
+     */
+    public void shiftLines(int delta) {
+        myType.shiftLines(delta);
+        myId.shiftLines(delta);
+    }
+    public int resolveOffset(int offset){
         int size = myId.info().getSize();
         myId.info().setOffset(offset - size);
         return size;
@@ -869,6 +1377,27 @@ public static class FormalDeclNode extends DeclNode {
         return info;
     }    
 
+    /**
+     * index
+     */
+    void index(SymbolIndex idx) {
+        idx.declare(myId, SymbolIndex.FORMAL);
+    }
+
+    public IdNode idNode() {
+        return myId;
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.FORMAL_DECL);
+        myType.flatten(f);
+        myId.flatten(f);
+        f.end();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         myType.unparse(p, 0);
         p.print(" ");
@@ -887,8 +1416,19 @@ public static class StructDeclNode extends DeclNode {
         myDeclList = declList;
     }
 
+    /**
+     * shiftLines
+     */
+    public void shiftLines(int delta) {
+        myId.shiftLines(delta);
+        myDeclList.shiftLines(delta);
+    }
+
+    /**
+     * resolveOffset
+     * The offsets of the fields are set by their StructLayout
+     */
     public int resolveOffset(int offset){
-        myDeclList.resolveOffset(offset);
         return offset;
     }
 
@@ -897,7 +1437,7 @@ public static class StructDeclNode extends DeclNode {
      * Given a symbol table symTab, do:
      * if this name is already in the symbol table,
      *     then multiply declared error (don't add to symbol table)
-     * create a new symbol table for this struct definition
+     * lay out the fields of this struct definition
      * process the decl list
      * if no errors
      *     add a new entry to symbol table for this struct
@@ -914,14 +1454,13 @@ public static class StructDeclNode extends DeclNode {
             badDecl = true;            
         }
 
-        SymTable structSymTab = new SymTable();
+        StructLayout.Builder fields = new StructLayout.Builder();
         
         // process the fields of the struct
-       int size = myDeclList.nameAnalysis(structSymTab, symTab);
+        myDeclList.nameAnalysis(fields, symTab);
         
         if (!badDecl) {
-            StructDefInfo info = new StructDefInfo(structSymTab);
-            info.setSize(size);
+            StructDefInfo info = new StructDefInfo(name, fields.build());
             symTab.addDecl(name, info);
             myId.link(info);
         }
@@ -929,6 +1468,31 @@ public static class StructDeclNode extends DeclNode {
         return null;
     }    
     
+    /**
+     * index
+     * The struct, then its fields inside it
+     */
+    void index(SymbolIndex idx) {
+        idx.declare(myId, SymbolIndex.STRUCT);
+        idx.enter(myId);
+        myDeclList.index(idx);
+        idx.leave();
+    }
+
+    public IdNode idNode() {
+        return myId;
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.STRUCT_DECL);
+        myId.flatten(f);
+        myDeclList.flatten(f);
+        f.end();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         p.print("struct ");
@@ -963,7 +1527,14 @@ public static class IntNode extends TypeNode {
     }
 
     public Type.AbstractType type() {
-        return new Type.IntType();
+        return Type.INT;
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.leaf(FlatAST.INT_TYPE, 0, 0, 0);
     }
 
     public void unparse(PrintWriter p, int indent) {
@@ -977,9 +1548,16 @@ public static class BoolNode extends TypeNode {
     }
  
     public Type.AbstractType type() {
-        return new Type.BoolType();
+        return Type.BOOL;
     }
    
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.leaf(FlatAST.BOOL_TYPE, 0, 0, 0);
+    }
+
     public void unparse(PrintWriter p, int indent) {
         p.print("bool");
     }
@@ -991,9 +1569,16 @@ public static class VoidNode extends TypeNode {
     }
  
     public Type.AbstractType type() {
-        return new Type.VoidType();
+        return Type.VOID;
     }
     
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.leaf(FlatAST.VOID_TYPE, 0, 0, 0);
+    }
+
     public void unparse(PrintWriter p, int indent) {
         p.print("void");
     }
@@ -1005,8 +1590,33 @@ public static class StructNode extends TypeNode {
       myId = id;
     }
 
+    /**
+     * shiftLines
+     */
+    public void shiftLines(int delta) {
+        myId.shiftLines(delta);
+    }
+
+    /**
+     * type
+     * The type of the struct definition myId is linked to, or the error
+     * type if it is not linked to one
+     */
     public Type.AbstractType type() {
-        return new Type.StructType(myId);
+        SymInfo info = myId.info();
+        if (info instanceof StructDefInfo) {
+            return ((StructDefInfo)info).getInstanceType();
+        }
+        return Type.ERROR;
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.STRUCT_TYPE);
+        myId.flatten(f);
+        f.end();
     }
 
     public void unparse(PrintWriter p, int indent) {
@@ -1044,6 +1654,14 @@ public static abstract class StmtNode extends ASTnode {
     }
 
     public abstract void typeCheck(Type.AbstractType retType);
+
+    abstract void share(ExpDag dag);
+
+    /**
+     * index
+     * Records the names used in this statement, see SymbolIndex
+     */
+    abstract void index(SymbolIndex idx);
 }
 
 public static class AssignStmtNode extends StmtNode {
@@ -1051,6 +1669,13 @@ public static class AssignStmtNode extends StmtNode {
         myAssign = assign;
     }
 
+    /**
+     * shiftLines
+     */
+    public void shiftLines(int delta) {
+        myAssign.shiftLines(delta);
+    }
+
     public void codeGen(PrintWriter p){
         myAssign.codeGen(p);
         CodeGen.generateWithComment(p, "addu", "Pop the result of the assignment", CodeGen.SP, CodeGen.SP, ""+4);
@@ -1071,6 +1696,30 @@ public static class AssignStmtNode extends StmtNode {
         myAssign.nameAnalysis(symTab);
     }
 
+    /**
+     * share
+     * Shares the assignment, which ends the region
+     */
+    void share(ExpDag dag) {
+        myAssign.share(dag);
+    }
+
+    /**
+     * index
+     */
+    void index(SymbolIndex idx) {
+        myAssign.index(idx);
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.ASSIGN_STMT);
+        myAssign.flatten(f);
+        f.end();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         myAssign.unparse(p, -1); // no parentheses
@@ -1086,6 +1735,13 @@ public static class PostIncStmtNode extends StmtNode {
     public PostIncStmtNode(ExpNode exp) {
         myExp = exp;
     }
+
+    /**
+     * shiftLines
+     */
+    public void shiftLines(int delta) {
+        myExp.shiftLines(delta);
+    }
     public void codeGen(PrintWriter p){
         myExp.codeGen(p);
         SymInfo info = null;
@@ -1101,7 +1757,7 @@ public static class PostIncStmtNode extends StmtNode {
                                        ""+info.getOffset());
             }
         }
-        else if(myExp instanceof DotAccessExpNode){
+        else if(myExp.category() == ExpNode.ADDRESS){
             
             CodeGen.genPop(p, CodeGen.T0);
             CodeGen.generateIndexed(p, "lw", CodeGen.T1, CodeGen.T0, 0, "load value of struct variable");
@@ -1130,6 +1786,31 @@ public static class PostIncStmtNode extends StmtNode {
         myExp.nameAnalysis(symTab);
     }
 
+    /**
+     * share
+     * Shares the operand; the increment ends the region
+     */
+    void share(ExpDag dag) {
+        myExp = myExp.share(dag);
+        dag.invalidate();
+    }
+
+    /**
+     * index
+     */
+    void index(SymbolIndex idx) {
+        myExp.index(idx);
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.POST_INC_STMT);
+        myExp.flatten(f);
+        f.end();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         myExp.unparse(p, 0);
@@ -1145,6 +1826,13 @@ public static class PostDecStmtNode extends StmtNode {
     public PostDecStmtNode(ExpNode exp) {
         myExp = exp;
     }
+
+    /**
+     * shiftLines
+     */
+    public void shiftLines(int delta) {
+        myExp.shiftLines(delta);
+    }
     public void codeGen(PrintWriter p){
         myExp.codeGen(p);
         SymInfo info = null;
@@ -1183,6 +1871,31 @@ public static class PostDecStmtNode extends StmtNode {
         myExp.nameAnalysis(symTab);
     }
 
+    /**
+     * share
+     * Shares the operand; the decrement ends the region
+     */
+    void share(ExpDag dag) {
+        myExp = myExp.share(dag);
+        dag.invalidate();
+    }
+
+    /**
+     * index
+     */
+    void index(SymbolIndex idx) {
+        myExp.index(idx);
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.POST_DEC_STMT);
+        myExp.flatten(f);
+        f.end();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         myExp.unparse(p, 0);
@@ -1198,6 +1911,13 @@ public static class ReadStmtNode extends StmtNode {
     public ReadStmtNode(ExpNode e) {
         myExp = e;
     }
+
+    /**
+     * shiftLines
+     */
+    public void shiftLines(int delta) {
+        myExp.shiftLines(delta);
+    }
     public void codeGen(PrintWriter p){
         SymInfo info = null;
 
@@ -1262,6 +1982,31 @@ public static class ReadStmtNode extends StmtNode {
         myExp.nameAnalysis(symTab);
     }    
 
+    /**
+     * share
+     * Shares the operand; the read ends the region
+     */
+    void share(ExpDag dag) {
+        myExp = myExp.share(dag);
+        dag.invalidate();
+    }
+
+    /**
+     * index
+     */
+    void index(SymbolIndex idx) {
+        myExp.index(idx);
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.READ_STMT);
+        myExp.flatten(f);
+        f.end();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         p.print("cin >> ");
@@ -1275,10 +2020,16 @@ public static class ReadStmtNode extends StmtNode {
 
 public static class WriteStmtNode extends StmtNode {
 
-    private Type.AbstractType type;
     public WriteStmtNode(ExpNode exp) {
         myExp = exp;
     }
+
+    /**
+     * shiftLines
+     */
+    public void shiftLines(int delta) {
+        myExp.shiftLines(delta);
+    }
     public void codeGen(PrintWriter p) {
         //(1): myexp.codeGen()
         //(2): if string :
@@ -1296,6 +2047,7 @@ public static class WriteStmtNode extends StmtNode {
         // V0 = 1 print integer, V0 = 3 print double, V0 = 4 print string(A0 should be string address)
         myExp.codeGen(p);
 
+        Type.AbstractType type = myExp.type();
         if (type.isStringType()) {
             CodeGen.generate(p, "la", CodeGen.A0, CodeGen.thisStringLabel());
             CodeGen.generate(p, "li", CodeGen.V0, 4);
@@ -1316,7 +2068,7 @@ public static class WriteStmtNode extends StmtNode {
      * typeCheck
      */
     public void typeCheck(Type.AbstractType retType) {
-        type = myExp.typeCheck();
+        Type.AbstractType type = myExp.typeCheck();
         
         if (type.isFnType()) {
             ErrMsg.fatal(myExp.lineNum, myExp.charNum,
@@ -1347,6 +2099,30 @@ public static class WriteStmtNode extends StmtNode {
         myExp.nameAnalysis(symTab);
     }
 
+    /**
+     * share
+     * Shares the operand, see ExpDag
+     */
+    void share(ExpDag dag) {
+        myExp = myExp.share(dag);
+    }
+
+    /**
+     * index
+     */
+    void index(SymbolIndex idx) {
+        myExp.index(idx);
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.WRITE_STMT);
+        myExp.flatten(f);
+        f.end();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         p.print("cout << ");
@@ -1358,41 +2134,123 @@ public static class WriteStmtNode extends StmtNode {
     private ExpNode myExp;
 }
 
-public static class IfStmtNode extends StmtNode {
+/**
+ * The statements with bodies: if, if-else and while.  The passes go into
+ * the bodies with a StmtWalk, which does the work of the statement itself
+ * in the steps below; the passes over the whole statement walk it as a
+ * list of its own.
+ */
+public static abstract class BlockStmtNode extends StmtNode {
+
+    /**
+     * The number of bodies
+     */
+    abstract int bodies();
+
+    /**
+     * Body k
+     */
+    abstract StmtListNode body(int k);
+
+    public void shiftLines(int delta) {
+        alone().shiftLines(delta);
+    }
+
+    public void codeGen(PrintWriter p) {
+        alone().codeGen(p);
+    }
+
+    public int resolveOffset(int offset) {
+        return alone().resolveOffset(offset);
+    }
+
+    public void typeCheck(Type.AbstractType retType) {
+        alone().typeCheck(retType);
+    }
+
+    public void nameAnalysis(SymTable symTab) {
+        alone().nameAnalysis(symTab);
+    }
+
+    void share(ExpDag dag) {
+        alone().share(dag);
+    }
+
+    void index(SymbolIndex idx) {
+        alone().index(idx);
+    }
+
+    private StmtListNode alone() {
+        return new StmtListNode(Collections.<StmtNode>singletonList(this));
+    }
+
+    // step k of each pass, see StmtWalk; that of resolveOffset returns
+    // the offset the locals of body k start at, given where those of the
+    // statement do, and has no last step
+    abstract void shiftLines(int delta, int k);
+    abstract void codeGen(PrintWriter p, int k);
+    abstract int resolveOffset(int offset, int k);
+    abstract void typeCheck(int k);
+    abstract void nameAnalysis(SymTable symTab, int k);
+    abstract void share(ExpDag dag, int k);
+    abstract void index(SymbolIndex idx, int k);
+}
+
+public static class IfStmtNode extends BlockStmtNode {
 
     public IfStmtNode(ExpNode exp, DeclListNode dlist, StmtListNode slist) {
         myDeclList = dlist;
         myExp = exp;
         myStmtList = slist;
     }
-    public void codeGen(PrintWriter p) {
-        myExp.codeGen(p);
-        CodeGen.genPop(p, CodeGen.T0);  //Pop the top-of-stack value into register T0.
-        String nextEndifLabel = CodeGen.nextEndifLabel();
-        CodeGen.generate(p, "beqz", CodeGen.T0, nextEndifLabel); //jump to "FalseLabel" if T0 == 0， ep means equal, z means zero
-        myStmtList.codeGen(p);  //stmts for true condition
-        CodeGen.generate(p, "j", nextEndifLabel); //after stmts execution, execute the following sections in sequence
 
-        CodeGen.generateLabeled(p, nextEndifLabel, "", "");  //generate endif label
+    int bodies() {
+        return 1;
     }
-    public int resolveOffset(int offset){
-        int after = myDeclList.resolveOffset(offset);
-        after = myStmtList.resolveOffset(after);
-        return after;
+
+    StmtListNode body(int k) {
+        return myStmtList;
+    }
+
+    /**
+     * shiftLines
+     */
+    void shiftLines(int delta, int k) {
+        if (k == 0) {
+            myExp.shiftLines(delta);
+            myDeclList.shiftLines(delta);
+        }
+    }
+    void codeGen(PrintWriter p, int k) {
+        if (k == 0) {
+            myExp.codeGen(p);
+            CodeGen.genPop(p, CodeGen.T0);  //Pop the top-of-stack value into register T0.
+            myEndifLabel = CodeGen.nextEndifLabel();
+            CodeGen.generate(p, "beqz", CodeGen.T0, myEndifLabel); //jump to "FalseLabel" if T0 == 0， ep means equal, z means zero
+            return;
+        }
+        //after stmts for true condition, execute the following sections in sequence
+        CodeGen.generate(p, "j", myEndifLabel);
+
+        CodeGen.generateLabeled(p, myEndifLabel, "", "");  //generate endif label
+    }
+    int resolveOffset(int offset, int k){
+        return myDeclList.resolveOffset(offset);
     }
      
     /**
      * typeCheck
      */
-    public void typeCheck(Type.AbstractType retType) {
+    void typeCheck(int k) {
+        if (k > 0) {
+            return;
+        }
         Type.AbstractType type = myExp.typeCheck();
         
         if ( ! type.isErrorType() && ! type.isBoolType() ) {
             ErrMsg.fatal(myExp.lineNum, myExp.charNum,
                          "Non-bool expression used as an if condition");        
         }
-        
-        myStmtList.typeCheck(retType);
     }
    
     /**
@@ -1400,15 +2258,53 @@ public static class IfStmtNode extends StmtNode {
      * Given a symbol table symTab, do:
      * - process the condition
      * - enter a new scope
-     * - process the decls and stmts
+     * - process the decls (and, in the walk, the stmts)
      * - exit the scope
      */
-    public void nameAnalysis(SymTable symTab) {
-        myExp.nameAnalysis(symTab);
-        symTab.addScope();
-        myDeclList.nameAnalysis(symTab, false);
-        myStmtList.nameAnalysis(symTab);
-        symTab.removeScope();
+    void nameAnalysis(SymTable symTab, int k) {
+        if (k == 0) {
+            myExp.nameAnalysis(symTab);
+            symTab.addScope();
+            myDeclList.nameAnalysis(symTab, false);
+        }
+        else {
+            symTab.removeScope();
+        }
+    }
+
+    /**
+     * share
+     * The body goes on from the condition; the region ends where
+     * the two paths join
+     */
+    void share(ExpDag dag, int k) {
+        if (k == 0) {
+            myExp = myExp.share(dag);
+        }
+        else {
+            dag.invalidate();
+        }
+    }
+
+    /**
+     * index
+     */
+    void index(SymbolIndex idx, int k) {
+        if (k == 0) {
+            myExp.index(idx);
+            myDeclList.index(idx);
+        }
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.IF_STMT);
+        myExp.flatten(f);
+        myDeclList.flatten(f);
+        myStmtList.flatten(f);
+        f.end();
     }
 
     public void unparse(PrintWriter p, int indent) {
@@ -1426,9 +2322,11 @@ public static class IfStmtNode extends StmtNode {
     private ExpNode myExp;
     private DeclListNode myDeclList;
     private StmtListNode myStmtList;
+
+    private String myEndifLabel;  // from one codeGen step to the next
 }
 
-public static class IfElseStmtNode extends StmtNode {
+public static class IfElseStmtNode extends BlockStmtNode {
     public IfElseStmtNode(ExpNode exp, DeclListNode dlist1,
                           StmtListNode slist1, DeclListNode dlist2,
                           StmtListNode slist2) {
@@ -1438,44 +2336,64 @@ public static class IfElseStmtNode extends StmtNode {
         myElseDeclList = dlist2;
         myElseStmtList = slist2;
     }
-    public void codeGen(PrintWriter p){
-        myExp.codeGen(p);
-        CodeGen.genPop(p, CodeGen.T0);
-        String elseLabel=CodeGen.nextElseLabel();
-        CodeGen.generate(p, "beqz", CodeGen.T0, elseLabel);
-        myThenStmtList.codeGen(p);
-        String endIfLabel= CodeGen.nextEndifLabel();
-        CodeGen.generate(p, "j", endIfLabel);
 
-        CodeGen.generateLabeled(p, elseLabel, "", "");
-        myElseStmtList.codeGen(p);
+    int bodies() {
+        return 2;
+    }
 
-        CodeGen.generateLabeled(p, endIfLabel, "", "");
+    StmtListNode body(int k) {
+        return k == 0 ? myThenStmtList : myElseStmtList;
     }
-    public int resolveOffset(int offset){
-        int afterIf = myThenDeclList.resolveOffset(offset);
-        afterIf = myThenStmtList.resolveOffset(afterIf);
-        int afterThen = myElseDeclList.resolveOffset(offset);
-        afterThen = myElseStmtList.resolveOffset(afterThen);
-        if(afterIf > afterThen)
-            return afterIf;
+
+    /**
+     * shiftLines
+     */
+    void shiftLines(int delta, int k) {
+        if (k == 0) {
+            myExp.shiftLines(delta);
+            myThenDeclList.shiftLines(delta);
+        }
+        else if (k == 1) {
+            myElseDeclList.shiftLines(delta);
+        }
+    }
+    void codeGen(PrintWriter p, int k){
+        if (k == 0) {
+            myExp.codeGen(p);
+            CodeGen.genPop(p, CodeGen.T0);
+            myElseLabel=CodeGen.nextElseLabel();
+            CodeGen.generate(p, "beqz", CodeGen.T0, myElseLabel);
+        }
+        else if (k == 1) {
+            myEndifLabel= CodeGen.nextEndifLabel();
+            CodeGen.generate(p, "j", myEndifLabel);
+
+            CodeGen.generateLabeled(p, myElseLabel, "", "");
+        }
+        else {
+            CodeGen.generateLabeled(p, myEndifLabel, "", "");
+        }
+    }
+    int resolveOffset(int offset, int k){
+        if (k == 0)
+            return myThenDeclList.resolveOffset(offset);
         else
-            return afterThen;
+            return myElseDeclList.resolveOffset(offset);
     }
     
     /**
      * typeCheck
      */
-    public void typeCheck(Type.AbstractType retType) {
+    void typeCheck(int k) {
+        if (k > 0) {
+            return;
+        }
         Type.AbstractType type = myExp.typeCheck();
         
         if ( ! type.isErrorType() && ! type.isBoolType() ) {
             ErrMsg.fatal(myExp.lineNum, myExp.charNum,
                          "Non-bool expression used as an if condition");        
         }
-        
-        myThenStmtList.typeCheck(retType);
-        myElseStmtList.typeCheck(retType);
     }
     
     /**
@@ -1483,33 +2401,77 @@ public static class IfElseStmtNode extends StmtNode {
      * Given a symbol table symTab, do:
      * - process the condition
      * - enter a new scope
-     * - process the decls and stmts of then
+     * - process the decls (and, in the walk, the stmts) of then
      * - exit the scope
      * - enter a new scope
-     * - process the decls and stmts of else
+     * - process the decls (and, in the walk, the stmts) of else
      * - exit the scope
      */
-    public void nameAnalysis(SymTable symTab) {
-        myExp.nameAnalysis(symTab);
-        symTab.addScope();
-        myThenDeclList.nameAnalysis(symTab, false);
-        myThenStmtList.nameAnalysis(symTab);
-        symTab.removeScope();
-        symTab.addScope();
-        myElseDeclList.nameAnalysis(symTab, false);
-        myElseStmtList.nameAnalysis(symTab);
-        symTab.removeScope();
+    void nameAnalysis(SymTable symTab, int k) {
+        if (k == 0) {
+            myExp.nameAnalysis(symTab);
+            symTab.addScope();
+            myThenDeclList.nameAnalysis(symTab, false);
+        }
+        else if (k == 1) {
+            symTab.removeScope();
+            symTab.addScope();
+            myElseDeclList.nameAnalysis(symTab, false);
+        }
+        else {
+            symTab.removeScope();
+        }
     }
 
-    public void unparse(PrintWriter p, int indent) {
-        doIndent(p, indent);
-        p.print("if (");
-        myExp.unparse(p, 0);
-        p.println(") {");
-        myThenDeclList.unparse(p, indent+4);
-        myThenStmtList.unparse(p, indent+4);
-        doIndent(p, indent);
-        p.println("}");
+    /**
+     * share
+     * The then part goes on from the condition; the else part and
+     * what follows the statement start regions of their own
+     */
+    void share(ExpDag dag, int k) {
+        if (k == 0) {
+            myExp = myExp.share(dag);
+        }
+        else {
+            dag.invalidate();
+        }
+    }
+
+    /**
+     * index
+     */
+    void index(SymbolIndex idx, int k) {
+        if (k == 0) {
+            myExp.index(idx);
+            myThenDeclList.index(idx);
+        }
+        else if (k == 1) {
+            myElseDeclList.index(idx);
+        }
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.IF_ELSE_STMT);
+        myExp.flatten(f);
+        myThenDeclList.flatten(f);
+        myThenStmtList.flatten(f);
+        myElseDeclList.flatten(f);
+        myElseStmtList.flatten(f);
+        f.end();
+    }
+
+    public void unparse(PrintWriter p, int indent) {
+        doIndent(p, indent);
+        p.print("if (");
+        myExp.unparse(p, 0);
+        p.println(") {");
+        myThenDeclList.unparse(p, indent+4);
+        myThenStmtList.unparse(p, indent+4);
+        doIndent(p, indent);
+        p.println("}");
         doIndent(p, indent);
         p.println("else {");
         myElseDeclList.unparse(p, indent+4);
@@ -1524,43 +2486,67 @@ public static class IfElseStmtNode extends StmtNode {
     private StmtListNode myThenStmtList;
     private StmtListNode myElseStmtList;
     private DeclListNode myElseDeclList;
+
+    // from one codeGen step to the next
+    private String myElseLabel;
+    private String myEndifLabel;
 }
 
-public static class WhileStmtNode extends StmtNode {
+public static class WhileStmtNode extends BlockStmtNode {
     public WhileStmtNode(ExpNode exp, DeclListNode dlist, StmtListNode slist) {
         myExp = exp;
         myDeclList = dlist;
         myStmtList = slist;
     }
-    public void codeGen(PrintWriter p) {
-        String loopLabel = CodeGen.nextLoopLabel();
-        CodeGen.generateLabeled(p, loopLabel, "", "");
-        myExp.codeGen(p);
-        CodeGen.genPop(p, CodeGen.T0);
-        String endLabel = CodeGen.nextEndloopLabel();
-        CodeGen.generate(p, "beqz", CodeGen.T0, endLabel);
-        myStmtList.codeGen(p);
-        CodeGen.generate(p, "j", loopLabel);
-        CodeGen.generateLabeled(p, endLabel, "", "");
+
+    int bodies() {
+        return 1;
     }
-    public int resolveOffset(int offset){
-        int after = myDeclList.resolveOffset(offset);
-        after = myStmtList.resolveOffset(after);
-        return after;
+
+    StmtListNode body(int k) {
+        return myStmtList;
+    }
+
+    /**
+     * shiftLines
+     */
+    void shiftLines(int delta, int k) {
+        if (k == 0) {
+            myExp.shiftLines(delta);
+            myDeclList.shiftLines(delta);
+        }
+    }
+    void codeGen(PrintWriter p, int k) {
+        if (k == 0) {
+            myLoopLabel = CodeGen.nextLoopLabel();
+            CodeGen.generateLabeled(p, myLoopLabel, "", "");
+            myExp.codeGen(p);
+            CodeGen.genPop(p, CodeGen.T0);
+            myEndLabel = CodeGen.nextEndloopLabel();
+            CodeGen.generate(p, "beqz", CodeGen.T0, myEndLabel);
+        }
+        else {
+            CodeGen.generate(p, "j", myLoopLabel);
+            CodeGen.generateLabeled(p, myEndLabel, "", "");
+        }
+    }
+    int resolveOffset(int offset, int k){
+        return myDeclList.resolveOffset(offset);
     }
      
     /**
      * typeCheck
      */
-    public void typeCheck(Type.AbstractType retType) {
+    void typeCheck(int k) {
+        if (k > 0) {
+            return;
+        }
         Type.AbstractType type = myExp.typeCheck();
         
         if ( ! type.isErrorType() && ! type.isBoolType() ) {
             ErrMsg.fatal(myExp.lineNum, myExp.charNum,
                          "Non-bool expression used as a while condition");        
         }
-        
-        myStmtList.typeCheck(retType);
     }
 
     /**
@@ -1568,17 +2554,56 @@ public static class WhileStmtNode extends StmtNode {
      * Given a symbol table symTab, do:
      * - process the condition
      * - enter a new scope
-     * - process the decls and stmts
+     * - process the decls (and, in the walk, the stmts)
      * - exit the scope
      */
-    public void nameAnalysis(SymTable symTab) {
-        myExp.nameAnalysis(symTab);
-        symTab.addScope();
-        myDeclList.nameAnalysis(symTab, false);
-        myStmtList.nameAnalysis(symTab);
-        symTab.removeScope();
+    void nameAnalysis(SymTable symTab, int k) {
+        if (k == 0) {
+            myExp.nameAnalysis(symTab);
+            symTab.addScope();
+            myDeclList.nameAnalysis(symTab, false);
+        }
+        else {
+            symTab.removeScope();
+        }
     }
 	
+    /**
+     * share
+     * The loop starts a region, since the condition is evaluated again
+     * after the body; the body goes on from the condition
+     */
+    void share(ExpDag dag, int k) {
+        if (k == 0) {
+            dag.invalidate();
+            myExp = myExp.share(dag);
+        }
+        else {
+            dag.invalidate();
+        }
+    }
+
+    /**
+     * index
+     */
+    void index(SymbolIndex idx, int k) {
+        if (k == 0) {
+            myExp.index(idx);
+            myDeclList.index(idx);
+        }
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.WHILE_STMT);
+        myExp.flatten(f);
+        myDeclList.flatten(f);
+        myStmtList.flatten(f);
+        f.end();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         p.print("while (");
@@ -1594,6 +2619,10 @@ public static class WhileStmtNode extends StmtNode {
     private ExpNode myExp;
     private DeclListNode myDeclList;
     private StmtListNode myStmtList;
+
+    // from one codeGen step to the next
+    private String myLoopLabel;
+    private String myEndLabel;
 }
 
 public static class CallStmtNode extends StmtNode {
@@ -1601,6 +2630,13 @@ public static class CallStmtNode extends StmtNode {
     public CallStmtNode(CallExpNode call) {
         myCall = call;
     }
+
+    /**
+     * shiftLines
+     */
+    public void shiftLines(int delta) {
+        myCall.shiftLines(delta);
+    }
     public void codeGen(PrintWriter p){
         myCall.codeGen(p);
     }
@@ -1620,6 +2656,30 @@ public static class CallStmtNode extends StmtNode {
         myCall.nameAnalysis(symTab);
     }
 
+    /**
+     * share
+     * Shares the arguments; the call ends the region
+     */
+    void share(ExpDag dag) {
+        myCall.share(dag);
+    }
+
+    /**
+     * index
+     */
+    void index(SymbolIndex idx) {
+        myCall.index(idx);
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.CALL_STMT);
+        myCall.flatten(f);
+        f.end();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         myCall.unparse(p, indent);
@@ -1636,16 +2696,22 @@ public static class ReturnStmtNode extends StmtNode {
         this(exp,0,0);
     }
 
+    /**
+     * shiftLines
+     */
+    public void shiftLines(int delta) {
+        if (myExp != null) {
+            myExp.shiftLines(delta);
+        }
+        if (myLinenum > 0) {
+            myLinenum += delta;
+        }
+    }
+
     public void codeGen(PrintWriter p){
         if(myExp != null){
             myExp.codeGen(p);
-            if(myExp instanceof DotAccessExpNode){
-                CodeGen.genPop(p, CodeGen.V0);
-                CodeGen.generateIndexed(p, "lw", CodeGen.V0, CodeGen.V0, 0);
-            }
-            else{
-                CodeGen.genPop(p, CodeGen.V0);
-            }
+            myExp.popValue(p, CodeGen.V0);
         }
         // restore FP and SP, and jump to RA
         // lw   $ra,  (0)$fp
@@ -1701,6 +2767,36 @@ public static class ReturnStmtNode extends StmtNode {
         myLinenum = linenum;
     }
 
+    /**
+     * share
+     * Shares the returned expression, see ExpDag
+     */
+    void share(ExpDag dag) {
+        if (myExp != null) {
+            myExp = myExp.share(dag);
+        }
+    }
+
+    /**
+     * index
+     */
+    void index(SymbolIndex idx) {
+        if (myExp != null) {
+            myExp.index(idx);
+        }
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.RETURN_STMT, myLinenum, myCharnum, 0);
+        if (myExp != null) {
+            myExp.flatten(f);
+        }
+        f.end();
+    }
+
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         p.print("return");
@@ -1733,20 +2829,175 @@ public static abstract class ExpNode extends ASTnode {
         this.charNum = charNum;
     }
 
-    // public abstract void codeGen(PrintWriter p);
-    public void codeGen(PrintWriter p) {
+    // The passes over an expression walk its operands with an ExpWalk,
+    // which calls the step versions of them below on each node.  The
+    // steps that only go through the operands in order return operand(k).
+
+    /**
+     * Operand k of this expression, or null after the last
+     */
+    ExpNode operand(int k) {
+        return null;
+    }
 
+    /**
+     * shiftLines
+     */
+    public void shiftLines(final int delta) {
+        new ExpWalk() {
+            ExpNode step(ExpNode e, int k) {
+                if (k == 0 && e.lineNum > 0) {
+                    e.lineNum += delta;
+                }
+                return e.operand(k);
+            }
+        }.walk(this);
+    }
+
+    /**
+     * codeGen
+     * The code for each node, and a copy of its value in its slot if it
+     * has one, see ExpDag
+     */
+    public void codeGen(final PrintWriter p) {
+        new ExpWalk() {
+            ExpNode step(ExpNode e, int k) {
+                ExpNode next = e.codeGen(p, k);
+                if (next == null && e.mySlot > 0) {
+                    CodeGen.generateIndexed(p, "lw", CodeGen.T0, CodeGen.SP, 4);
+                    CodeGen.generateIndexed(p, "sw", CodeGen.T0, CodeGen.FP, -e.mySlot,
+                                            "save for reuse");
+                }
+                return next;
+            }
+        }.walk(this);
+    }
+
+    /**
+     * codeGen
+     * Step k of the code for this expression
+     */
+    ExpNode codeGen(PrintWriter p, int k) {
+        return null;
     }
     
-    public abstract Type.AbstractType typeCheck();
+    /**
+     * typeCheck
+     * Checks this expression and remembers its type and value category,
+     * which codeGen uses instead of checking again
+     */
+    public Type.AbstractType typeCheck() {
+        new ExpWalk() {
+            ExpNode step(ExpNode e, int k) {
+                return e.checkType(k);
+            }
+        }.walk(this);
+        return myExpType;
+    }
+
+    /**
+     * checkType
+     * Step k of checking this expression; the last reports any type
+     * errors in the node itself and sets myExpType
+     */
+    protected abstract ExpNode checkType(int k);
+
+    /**
+     * share
+     * Returns the canonical node for this expression, sharing its
+     * operands first, see ExpDag
+     */
+    ExpNode share(final ExpDag dag) {
+        new ExpWalk() {
+            ExpNode step(ExpNode e, int k) {
+                return e.share(dag, k);
+            }
+        }.walk(this);
+        return dag.last;
+    }
+
+    /**
+     * share
+     * Step k of sharing this expression; each operand walked leaves its
+     * canonical node in dag.last, and so does the last step for this one
+     */
+    abstract ExpNode share(ExpDag dag, int k);
+
+    /**
+     * index
+     * Records the names used in this expression, see SymbolIndex
+     */
+    void index(final SymbolIndex idx) {
+        new ExpWalk() {
+            ExpNode step(ExpNode e, int k) {
+                return e.index(idx, k);
+            }
+        }.walk(this);
+    }
+
+    /**
+     * index
+     * Step k of index; a literal has no names
+     */
+    ExpNode index(SymbolIndex idx, int k) {
+        return operand(k);
+    }
+
+    /**
+     * The type found by typeCheck
+     */
+    public Type.AbstractType type() {
+        return myExpType;
+    }
+
+    /**
+     * Whether codeGen leaves the value of this expression on the stack
+     * (RVALUE) or the address it is stored at (ADDRESS), as found by
+     * typeCheck
+     */
+    public int category() {
+        return myCategory;
+    }
+
+    /**
+     * popValue
+     * Pops the result of this expression's code into reg, loading the
+     * value from memory if the code left its address
+     */
+    protected void popValue(PrintWriter p, String reg) {
+        CodeGen.genPop(p, reg);
+        if (myCategory == ADDRESS) {
+            CodeGen.generateIndexed(p, "lw", reg, reg, 0);
+        }
+    }
     
     /**
-     * Default version for nodes with no names
+     * nameAnalysis
      */
-    public void nameAnalysis(SymTable symTab) { }
+    public void nameAnalysis(final SymTable symTab) {
+        new ExpWalk() {
+            ExpNode step(ExpNode e, int k) {
+                return e.nameAnalysis(symTab, k);
+            }
+        }.walk(this);
+    }
+
+    /**
+     * nameAnalysis
+     * Step k of nameAnalysis; a literal has no names
+     */
+    ExpNode nameAnalysis(SymTable symTab, int k) {
+        return operand(k);
+    }
+
+    public static final int RVALUE = 0;
+    public static final int ADDRESS = 1;
 
     protected int lineNum;
     protected int charNum;
+    protected Type.AbstractType myExpType;
+    protected int myCategory = RVALUE;
+    int mySlot;  // where the value is kept for reuse, set by ExpDag, or 0
 }
 
 public static class IntLitNode extends ExpNode {
@@ -1759,16 +3010,34 @@ public static class IntLitNode extends ExpNode {
     // li $t0, <value>
     // sw $t0 0($sp)
     // subu $sp $sp 4
-    public void codeGen(PrintWriter p){
+    ExpNode codeGen(PrintWriter p, int k){
         CodeGen.generate(p, "li", CodeGen.T0, myIntVal);
         CodeGen.genPush(p, CodeGen.T0);
+        return null;
     }
         
     /**
-     * typeCheck
+     * checkType
      */
-    public Type.AbstractType typeCheck() {
-        return new Type.IntType();
+    protected ExpNode checkType(int k) {
+        myExpType = Type.INT;
+        return null;
+    }
+
+    /**
+     * share
+     * The canonical node for this expression, see ExpDag
+     */
+    ExpNode share(ExpDag dag, int k) {
+        dag.last = dag.intern(this, Integer.valueOf(myIntVal), null, null);
+        return null;
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.leaf(FlatAST.INT_LIT, lineNum, charNum, myIntVal);
     }
 
     public void unparse(PrintWriter p, int indent) {
@@ -1786,20 +3055,38 @@ public static class StringLitNode extends ExpNode {
     }
 
     //string must be stored in the static date area, generate a label for string literal.
-    public void codeGen(PrintWriter p){
+    ExpNode codeGen(PrintWriter p, int k){
         //      .data 
         //str_<unique_num>: .asciiz <string value>
         CodeGen.generateWithComment(p, ".data", "data segment");
         CodeGen.generateLabeled(p, CodeGen.nextStringLabel(), ".asciiz",
                                        "string value", myStrVal);
         CodeGen.generateWithComment(p, ".text", "back to text segment");
+        return null;
     }
     
     /**
-     * typeCheck
+     * checkType
      */
-    public Type.AbstractType typeCheck() {
-        return new Type.StringType();
+    protected ExpNode checkType(int k) {
+        myExpType = Type.STRING;
+        return null;
+    }
+
+    /**
+     * share
+     * The canonical node for this expression, see ExpDag
+     */
+    ExpNode share(ExpDag dag, int k) {
+        dag.last = dag.intern(this, myStrVal, null, null);
+        return null;
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.leaf(FlatAST.STRING_LIT, lineNum, charNum, f.intern(myStrVal));
     }
 
     public void unparse(PrintWriter p, int indent) {
@@ -1814,15 +3101,33 @@ public static class TrueNode extends ExpNode {
     public TrueNode(int lineNum, int charNum) {
         super(lineNum,charNum);
     }
-    public void codeGen(PrintWriter p){
+    ExpNode codeGen(PrintWriter p, int k){
         CodeGen.generate(p, "li", CodeGen.T0, CodeGen.TRUE);
         CodeGen.genPush(p, CodeGen.T0);
+        return null;
     }
     /**
-     * typeCheck
+     * checkType
      */
-    public Type.AbstractType typeCheck() {
-        return new Type.BoolType();
+    protected ExpNode checkType(int k) {
+        myExpType = Type.BOOL;
+        return null;
+    }
+
+    /**
+     * share
+     * The canonical node for this expression, see ExpDag
+     */
+    ExpNode share(ExpDag dag, int k) {
+        dag.last = dag.intern(this, null, null, null);
+        return null;
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.leaf(FlatAST.TRUE, lineNum, charNum, 0);
     }
 
     public void unparse(PrintWriter p, int indent) {
@@ -1835,15 +3140,33 @@ public static class FalseNode extends ExpNode {
     public FalseNode(int lineNum, int charNum) {
         super(lineNum,charNum);
     }
-    public void codeGen(PrintWriter p){
+    ExpNode codeGen(PrintWriter p, int k){
         CodeGen.generate(p, "li", CodeGen.T0, CodeGen.FALSE);
         CodeGen.genPush(p, CodeGen.T0);
+        return null;
     }
     /**
-     * typeCheck
+     * checkType
      */
-    public Type.AbstractType typeCheck() {
-        return new Type.BoolType();
+    protected ExpNode checkType(int k) {
+        myExpType = Type.BOOL;
+        return null;
+    }
+
+    /**
+     * share
+     * The canonical node for this expression, see ExpDag
+     */
+    ExpNode share(ExpDag dag, int k) {
+        dag.last = dag.intern(this, null, null, null);
+        return null;
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.leaf(FlatAST.FALSE, lineNum, charNum, 0);
     }
 
     public void unparse(PrintWriter p, int indent) {
@@ -1868,7 +3191,7 @@ public static class IdNode extends ExpNode {
     //(2): struct or normal id
     //(3): get the address
     //(4): push the value stored in that address into the stack
-    public void codeGen(PrintWriter p){
+    ExpNode codeGen(PrintWriter p, int k){
         if(myInfo.getGlobal()){
             if(myInfo.getType().isIntType()){
                 CodeGen.generateWithComment(p, "lw","load global variable", CodeGen.T0, "_"+myStrVal);
@@ -1888,6 +3211,7 @@ public static class IdNode extends ExpNode {
             }
         }
         CodeGen.genPush(p, CodeGen.T0);
+        return null;
     }
     
 
@@ -1904,11 +3228,11 @@ public static class IdNode extends ExpNode {
         CodeGen.genPush(p, CodeGen.V0);
     }
     /**
-     * typeCheck
+     * checkType
      */
-    public Type.AbstractType typeCheck() {
+    protected ExpNode checkType(int k) {
         if ( myInfo != null ) {
-            return myInfo.getType();
+            myExpType = myInfo.getType();
         } 
         else {
             System.err.println("ID with null info field in IdNode.typeCheck");
@@ -1923,20 +3247,53 @@ public static class IdNode extends ExpNode {
      * - check for use of undeclared name
      * - if ok, link to symbol table entry
      */
-    public void nameAnalysis(SymTable symTab) {
+    ExpNode nameAnalysis(SymTable symTab, int k) {
         SymInfo info = symTab.lookupGlobal(myStrVal);
         
         if (info == null) {
             ErrMsg.fatal(lineNum, charNum, "Undeclared identifier");
+            myInfo = null;  // in case this tree was analyzed before
         } else {
             link(info);
         }
+        return null;
     }
     
     // public void unparse(PrintWriter p, int indent) {
     //     p.print(myStrVal);
     // }
 
+    /**
+     * share
+     * The canonical node for this expression, see ExpDag; an id that did
+     * not resolve is not shared
+     */
+    ExpNode share(ExpDag dag, int k) {
+        if (myInfo == null) {
+            dag.last = this;
+        }
+        else {
+            dag.last = dag.intern(this, myInfo, null, null);
+        }
+        return null;
+    }
+
+    /**
+     * index
+     * A use of the name this id is linked to
+     */
+    ExpNode index(SymbolIndex idx, int k) {
+        idx.refer(this);
+        return null;
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.leaf(FlatAST.ID, lineNum, charNum, f.intern(myStrVal));
+    }
+
     public void unparse(PrintWriter p, int indent) {
         p.print(myStrVal);
         if(myInfo != null)
@@ -1970,12 +3327,21 @@ public static class DotAccessExpNode extends ExpNode {
         myId = id;
     }
 
+    /**
+     * The lhs, then the field
+     */
+    ExpNode operand(int k) {
+        return k == 0 ? myLhs : k == 1 ? myId : null;
+    }
+
     //(1): lhs is normal id or dot accessable id
     //(2): check if it's global or local, and get it's address
     //(3): push the value into stack
-    public void codeGen(PrintWriter p) {
+    ExpNode codeGen(PrintWriter p, int k) {
+        if (k == 0) {
+            return myLhs;
+        }
 
-        myLhs.codeGen(p);
         // Boolean isGlobal = new Boolean("false"); 
         boolean isGlobal = false;
 
@@ -1998,13 +3364,16 @@ public static class DotAccessExpNode extends ExpNode {
         }
 
         CodeGen.genPush(p, CodeGen.T0);
+        return null;
     }
   
     /**
-     * typeCheck
+     * checkType
      */
-    public Type.AbstractType typeCheck() {
-        return myId.typeCheck();
+    protected ExpNode checkType(int k) {
+        myCategory = ADDRESS;  // codeGen leaves the address of the field
+        myExpType = myId.typeCheck();
+        return null;
     }
    
     /**
@@ -2016,13 +3385,14 @@ public static class DotAccessExpNode extends ExpNode {
      *   a dot-access "higher up" in the AST can get access to the symbol
      *   table for the appropriate struct definition
      */
-    public void nameAnalysis(SymTable symTab) {
-        badAccess = false;
-        SymTable structSymTab = null; // to lookup RHS of dot-access
+    ExpNode nameAnalysis(SymTable symTab, int k) {
+        if (k == 0) {
+            badAccess = false;
+            return myLhs;  // do name analysis on LHS
+        }
+        StructLayout layout = null; // to lookup RHS of dot-access
         SymInfo info = null;
         
-        myLhs.nameAnalysis(symTab);  // do name analysis on LHS
-        
         // if myLhs is really an ID, then info will be a link to the ID's symbol
         if (myLhs instanceof IdNode) {
             IdNode id = (IdNode)myLhs;
@@ -2034,9 +3404,9 @@ public static class DotAccessExpNode extends ExpNode {
                 badAccess = true;
             }
             else if (info instanceof StructInfo) { 
-                // get symbol table for struct type
+                // get the fields of the struct type
                 SymInfo tempSym = ((StructInfo)info).getStructType().info();
-                structSymTab = ((StructDefInfo)tempSym).getSymTable();
+                layout = ((StructDefInfo)tempSym).getLayout();
             } 
             else {  // LHS is not a struct type
                 ErrMsg.fatal(id.lineNum, id.charNum, 
@@ -2063,9 +3433,9 @@ public static class DotAccessExpNode extends ExpNode {
                                  "Dot-access of non-struct type");
                     badAccess = true;
                 }
-                else {  // get the struct's symbol table in which to lookup RHS
+                else {  // get the struct's fields in which to lookup RHS
                     if (info instanceof StructDefInfo) {
-                        structSymTab = ((StructDefInfo)info).getSymTable();
+                        layout = ((StructDefInfo)info).getLayout();
                     }
                     else {
                         System.err.println("Unexpected Sym type in DotAccessExpNode");
@@ -2081,9 +3451,9 @@ public static class DotAccessExpNode extends ExpNode {
             System.exit(-1);
         }
         
-        // do name analysis on RHS of dot-access in the struct's symbol table
+        // do name analysis on RHS of dot-access in the struct's fields
         if (!badAccess) {
-            info = structSymTab.lookupGlobal(myId.name()); // lookup
+            info = layout.lookup(myId.name()); // lookup
                 
             if (info == null) { // not found - RHS is not a valid field name
                 ErrMsg.fatal(myId.lineNum, myId.charNum, 
@@ -2100,6 +3470,7 @@ public static class DotAccessExpNode extends ExpNode {
                 }
             }
         }
+        return null;
     }    
 
     /**
@@ -2109,10 +3480,38 @@ public static class DotAccessExpNode extends ExpNode {
         return myInfo;
     }    
     
+    /**
+     * share
+     * The canonical node for this expression, see ExpDag, by the
+     * canonical node of the lhs and the symbol of the field
+     */
+    ExpNode share(ExpDag dag, int k) {
+        if (k == 0) {
+            return myLhs;
+        }
+        myLhs = dag.last;
+        if (myId.info() == null) {
+            dag.last = this;
+        }
+        else {
+            dag.last = dag.intern(this, myId.info(), myLhs, null);
+        }
+        return null;
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.DOT_ACCESS, lineNum, charNum, 0);
+        myLhs.flatten(f);
+        myId.flatten(f);
+        f.end();
+    }
+
     public void unparse(PrintWriter p, int indent) {
-	    p.print("(");
 		myLhs.unparse(p, 0);
-		p.print(").");
+		p.print(".");
 		myId.unparse(p, 0);
     }
 
@@ -2131,7 +3530,11 @@ public static class AssignNode extends ExpNode {
         myRhs = rhs;
     }
 
-    public void codeGen(PrintWriter p){
+    ExpNode operand(int k) {
+        return k == 0 ? myLhs : k == 1 ? myRhs : null;
+    }
+
+    ExpNode codeGen(PrintWriter p, int k){
 
         //(1): get address of lhs; leave result on stack
         //(2): compute rhs; leave result on stack
@@ -2139,80 +3542,102 @@ public static class AssignNode extends ExpNode {
         //(4): pop lhs into $t0
         //(5): Store value $t1 at the address held in $t0(leave a copy of the value on the stack)
 
-        SymInfo info = null;
-        // normal variable, or dot accessable variable
-        if(myLhs instanceof IdNode){
-            info = ((IdNode)myLhs).info();
-            if(info.getGlobal()){
-                CodeGen.generateWithComment(p, "la","load address of global variable", CodeGen.T0, "_"+((IdNode)myLhs).name());
+        // normal variable, or dot accessable variable, whose code
+        // comes first
+        int rhs = myLhs.category() == ADDRESS ? 1 : 0;
+        if (k < rhs) {
+            return myLhs;
+        }
+        if (k == rhs) {
+            SymInfo info = null;
+            if(myLhs.category() == ADDRESS){
+                CodeGen.genPop(p, CodeGen.T0);
             }
-            else {
-                CodeGen.generateWithComment(p, "subu", "load address of local variable",CodeGen.T0, CodeGen.FP,
-                                       ""+info.getOffset());
+            else if(myLhs instanceof IdNode){
+                info = ((IdNode)myLhs).info();
+                if(info.getGlobal()){
+                    CodeGen.generateWithComment(p, "la","load address of global variable", CodeGen.T0, "_"+((IdNode)myLhs).name());
+                }
+                else {
+                    CodeGen.generateWithComment(p, "subu", "load address of local variable",CodeGen.T0, CodeGen.FP,
+                                           ""+info.getOffset());
+                }
             }
-        }
-        else if(myLhs instanceof DotAccessExpNode){
-            myLhs.codeGen(p);
-            CodeGen.genPop(p, CodeGen.T0);
-        }
         
-        CodeGen.genPush(p, CodeGen.T0);
-        myRhs.codeGen(p);
-        if(myRhs instanceof DotAccessExpNode){
-            CodeGen.genPop(p, CodeGen.T1);
-            CodeGen.generateIndexed(p, "lw", CodeGen.T1, CodeGen.T1, 0);
-        }
-        else{
-            CodeGen.genPop(p, CodeGen.T1);
+            CodeGen.genPush(p, CodeGen.T0);
+            return myRhs;
         }
+        myRhs.popValue(p, CodeGen.T1);
         CodeGen.genPop(p, CodeGen.T0);
         CodeGen.genPush(p, CodeGen.T1);
         CodeGen.generateIndexed(p, "sw", CodeGen.T1, CodeGen.T0, 0, "Store value to address of lhs");
+        return null;
     }
  
     /**
-     * typeCheck
+     * checkType
      */
-    public Type.AbstractType typeCheck() {
-        Type.AbstractType typeLhs = myLhs.typeCheck();
-        Type.AbstractType typeExp = myRhs.typeCheck();
+    protected ExpNode checkType(int k) {
+        if (k < 2) {
+            return operand(k);
+        }
+        Type.AbstractType typeLhs = myLhs.type();
+        Type.AbstractType typeExp = myRhs.type();
         Type.AbstractType retType = typeLhs;
         
         if (typeLhs.isFnType() && typeExp.isFnType()) {
             ErrMsg.fatal(myLhs.lineNum, charNum, "Function assignment");
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         if (typeLhs.isStructDefType() && typeExp.isStructDefType()) {
             ErrMsg.fatal(myLhs.lineNum, charNum, "Struct name assignment");
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         if (typeLhs.isStructType() && typeExp.isStructType()) {
             ErrMsg.fatal(myLhs.lineNum, charNum, "Struct variable assignment");
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }        
         
         if (!typeLhs.equals(typeExp) && !typeLhs.isErrorType() && !typeExp.isErrorType()) {
             ErrMsg.fatal(myLhs.lineNum, charNum, "Type mismatch");
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         if (typeLhs.isErrorType() || typeExp.isErrorType()) {
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
-        return retType;
+        myExpType = retType;
+        return null;
     }
 
     /**
-     * nameAnalysis
-     * Given a symbol table symTab, perform name analysis on this node's 
-     * two children
+     * share
+     * Shares both sides; an assignment is not pure and ends the region
      */
-    public void nameAnalysis(SymTable symTab) {
-        myLhs.nameAnalysis(symTab);
-        myRhs.nameAnalysis(symTab);
+    ExpNode share(ExpDag dag, int k) {
+        if (k == 1) {
+            myLhs = dag.last;
+        }
+        if (k < 2) {
+            return operand(k);
+        }
+        myRhs = dag.last;
+        dag.invalidate();
+        dag.last = this;
+        return null;
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.ASSIGN, lineNum, charNum, 0);
+        myLhs.flatten(f);
+        myRhs.flatten(f);
+        f.end();
     }
 
     public void unparse(PrintWriter p, int indent) {
@@ -2234,18 +3659,42 @@ public static class CallExpNode extends ExpNode {
         myId = name;
         myExpList = elist;
     }
-    public void codeGen(PrintWriter p){
-        myExpList.codeGen(p);
+
+    /**
+     * The id, then the args
+     */
+    ExpNode operand(int k) {
+        if (k == 0) {
+            return myId;
+        }
+        return k <= args() ? myExpList.get(k - 1) : null;
+    }
+
+    private int args() {
+        return myExpList == null ? 0 : myExpList.size();
+    }
+
+    // the args are pushed last to first
+    ExpNode codeGen(PrintWriter p, int k){
+        if (k < args()) {
+            return myExpList.get(args() - 1 - k);
+        }
         myId.codeGenCall(p);
+        return null;
     }
     /**
-     * typeCheck
+     * checkType
+     * The id, then each arg, checked against its formal as soon as it
+     * has been checked itself
      */
-    public Type.AbstractType typeCheck() {
-        if ( ! myId.typeCheck().isFnType() ) {  
-            ErrMsg.fatal(myId.lineNum, myId.charNum, 
-                         "Attempt to call a non-function");
-            return new Type.ErrorType();
+    protected ExpNode checkType(int k) {
+        if (k == 0) {
+            if ( ! myId.typeCheck().isFnType() ) {  
+                ErrMsg.fatal(myId.lineNum, myId.charNum, 
+                             "Attempt to call a non-function");
+                myExpType = Type.ERROR;
+                return null;
+            }
         }
         
         FnInfo fnInfo = (FnInfo)(myId.info());
@@ -2255,32 +3704,68 @@ public static class CallExpNode extends ExpNode {
             System.exit(-1);
         }
         
-        if ( myExpList.size() != fnInfo.getNumParams() ) {
+        if ( k == 0 && args() != fnInfo.getNumParams() ) {
             ErrMsg.fatal(myId.lineNum, myId.charNum, 
                          "Function call with wrong number of args");
-            return fnInfo.getReturnType();
+            myExpType = fnInfo.getReturnType();
+            return null;
+        }
+
+        if (k > 0) {
+            ExpNode node = myExpList.get(k - 1);
+            Type.AbstractType actualType = node.type();     // actual type of arg
+                
+            if (!actualType.isErrorType()) {        // if this is not an error
+                Type.AbstractType formalType = fnInfo.getParamTypes().get(k - 1);  // get the formal type
+                if ( ! formalType.equals(actualType)) {
+                    ErrMsg.fatal(node.lineNum, node.charNum,
+                                 "Type of actual does not match type of formal");
+                }
+            }
         }
         
-        myExpList.typeCheck(fnInfo.getParamTypes());
-        return fnInfo.getReturnType();
+        if (k < args()) {
+            return myExpList.get(k);
+        }
+        myExpType = fnInfo.getReturnType();
+        return null;
+    }
+
+    public CallExpNode(IdNode name) {
+        myId = name;
+        myExpList = new ExpListNode(new LinkedList<ExpNode>());
+    }
+
+    // ** unparse **
+    /**
+     * share
+     * Shares the arguments, last to first as their code runs; a call is
+     * not pure and ends the region
+     */
+    ExpNode share(ExpDag dag, int k) {
+        if (k > 0) {
+            myExpList.set(args() - k, dag.last);
+        }
+        if (k < args()) {
+            return myExpList.get(args() - 1 - k);
+        }
+        dag.invalidate();
+        dag.last = this;
+        return null;
     }
 
     /**
-     * nameAnalysis
-     * Given a symbol table symTab, perform name analysis on this node's 
-     * two children
+     * flatten
      */
-    public void nameAnalysis(SymTable symTab) {
-        myId.nameAnalysis(symTab);
-        myExpList.nameAnalysis(symTab);
-    }    
-
-    public CallExpNode(IdNode name) {
-        myId = name;
-        myExpList = new ExpListNode(new LinkedList<ExpNode>());
+    void flatten(FlatAST f) {
+        f.begin(FlatAST.CALL, lineNum, charNum, 0);
+        myId.flatten(f);
+        if (myExpList != null) {
+            myExpList.flatten(f);
+        }
+        f.end();
     }
 
-    // ** unparse **
     public void unparse(PrintWriter p, int indent) {
 	    myId.unparse(p, 0);
 		  p.print("(");
@@ -2295,20 +3780,127 @@ public static class CallExpNode extends ExpNode {
     private ExpListNode myExpList;  // possibly null
 }
 
+/**
+ * A use of an operator after the first in a region, put in its place by
+ * share: its code loads the value that of the first use keeps in a slot,
+ * see ExpDag
+ */
+public static class ReusedExpNode extends ExpNode {
+
+    public ReusedExpNode(ExpNode use, ExpNode exp) {
+        super(use.lineNum, use.charNum);
+        myExp = exp;
+        myExpType = exp.type();
+        myCategory = exp.category();
+    }
+
+    ExpNode codeGen(PrintWriter p, int k) {
+        CodeGen.generateIndexed(p, "lw", CodeGen.T0, CodeGen.FP, -myExp.mySlot,
+                                "reuse saved value");
+        CodeGen.genPush(p, CodeGen.T0);
+        return null;
+    }
+
+    /**
+     * checkType
+     */
+    protected ExpNode checkType(int k) {
+        myExpType = myExp.type();
+        return null;
+    }
+
+    /**
+     * share
+     * Already shared
+     */
+    ExpNode share(ExpDag dag, int k) {
+        dag.last = this;
+        return null;
+    }
+
+    /**
+     * flatten
+     * As the expression it reuses
+     */
+    void flatten(FlatAST f) {
+        myExp.flatten(f);
+    }
+
+    public void unparse(PrintWriter p, int indent) {
+        myExp.unparse(p, indent);
+    }
+
+    private ExpNode myExp;  // the first use
+}
+
 public static abstract class UnaryExpNode extends ExpNode {
     public UnaryExpNode(ExpNode exp) {
         super(exp.lineNum,exp.charNum);
         myExp = exp;
     }
 
+    ExpNode operand(int k) {
+        return k == 0 ? myExp : null;
+    }
+
+    ExpNode codeGen(PrintWriter p, int k) {
+        if (k == 0) {
+            return myExp;
+        }
+        codeGenOp(p);
+        return null;
+    }
+
     /**
-     * nameAnalysis
-     * Given a symbol table symTab, perform name analysis on this node's child
+     * codeGenOp
+     * Code for this operator, after that of myExp
      */
-    public void nameAnalysis(SymTable symTab) {
-        myExp.nameAnalysis(symTab);
+    abstract void codeGenOp(PrintWriter p);
+
+    /**
+     * checkType
+     */
+    protected ExpNode checkType(int k) {
+        if (k == 0) {
+            return myExp;
+        }
+        myExpType = checkType(myExp.type());
+        return null;
+    }
+
+    /**
+     * checkType
+     * Given the type of myExp, checks this operator
+     */
+    abstract Type.AbstractType checkType(Type.AbstractType type);
+
+    /**
+     * share
+     * The canonical node for this expression, see ExpDag
+     */
+    ExpNode share(ExpDag dag, int k) {
+        if (k == 0) {
+            return myExp;
+        }
+        myExp = dag.last;
+        dag.last = dag.intern(this, null, myExp, null);
+        return null;
+    }
+
+    /**
+     * flatten
+     */
+    void flatten(FlatAST f) {
+        f.begin(flatKind(), lineNum, charNum, 0);
+        myExp.flatten(f);
+        f.end();
     }
 
+    /**
+     * The FlatAST kind of this node
+     */
+    abstract byte flatKind();
+
     // one child
     protected ExpNode myExp;
 }
@@ -2320,19 +3912,107 @@ public static abstract class BinaryExpNode extends ExpNode {
         myExp2 = exp2;
     }
 
+    ExpNode operand(int k) {
+        return k == 0 ? myExp1 : k == 1 ? myExp2 : null;
+    }
+
     /**
-     * nameAnalysis
-     * Given a symbol table symTab, perform name analysis on this node's 
-     * two children
+     * leftSpine
+     * This node and the binary operators below it through left operands,
+     * outermost first: the -, * and + of ((a + b) * c) - d.
+     *
+     * The grammar nests chains like a + a + ... + a to the left, as deep
+     * as they are long, so flatten goes down this list in a loop instead
+     * of recursing on myExp1.
      */
-    public void nameAnalysis(SymTable symTab) {
-        myExp1.nameAnalysis(symTab);
-        myExp2.nameAnalysis(symTab);
+    ArrayList<BinaryExpNode> leftSpine() {
+        ArrayList<BinaryExpNode> spine = new ArrayList<BinaryExpNode>();
+        ExpNode e = this;
+        while (e instanceof BinaryExpNode) {
+            spine.add((BinaryExpNode)e);
+            e = ((BinaryExpNode)e).myExp1;
+        }
+        return spine;
+    }
+
+    /**
+     * checkType
+     */
+    protected ExpNode checkType(int k) {
+        if (k < 2) {
+            return operand(k);
+        }
+        myExpType = checkType(myExp1.type(), myExp2.type());
+        return null;
+    }
+
+    /**
+     * checkType
+     * Given the types of myExp1 and myExp2, checks this operator
+     */
+    abstract Type.AbstractType checkType(Type.AbstractType type1,
+                                         Type.AbstractType type2);
+
+    ExpNode codeGen(PrintWriter p, int k) {
+        if (k < 2) {
+            return operand(k);
+        }
+        codeGenOp(p);
+        return null;
+    }
+
+    /**
+     * codeGenOp
+     * Code for this operator, after that of both operands, whose results
+     * are on the stack; the operators whose code goes in between
+     * override codeGen(p, k) instead
+     */
+    void codeGenOp(PrintWriter p) {
+    }
+
+    /**
+     * share
+     * The canonical node for this expression, see ExpDag
+     */
+    ExpNode share(ExpDag dag, int k) {
+        if (k == 1) {
+            myExp1 = dag.last;
+        }
+        if (k < 2) {
+            return operand(k);
+        }
+        myExp2 = dag.last;
+        dag.last = dag.intern(this, null, myExp1, myExp2);
+        return null;
+    }
+
+    /**
+     * flatten
+     * Goes along the left spine in a loop, see leftSpine
+     */
+    void flatten(FlatAST f) {
+        ArrayList<BinaryExpNode> spine = leftSpine();
+        int last = spine.size() - 1;
+        for (BinaryExpNode node : spine) {
+            f.begin(node.flatKind(), node.lineNum, node.charNum, 0);
+        }
+        spine.get(last).myExp1.flatten(f);
+        for (int i = last; i >= 0; i--) {
+            spine.get(i).myExp2.flatten(f);
+            f.end();
+        }
     }
 
+    /**
+     * The FlatAST kind of this node
+     */
+    abstract byte flatKind();
+
     // two kids
     protected ExpNode myExp1;
     protected ExpNode myExp2;
+
+    protected String myLabel;  // from one codeGen step to the next
 }
 
 // **********************************************************************
@@ -2344,40 +4024,37 @@ public static class UnaryMinusNode extends UnaryExpNode {
     public UnaryMinusNode(ExpNode exp) {
         super(exp);
     }
-    public void codeGen(PrintWriter p){
-        myExp.codeGen(p);
-        if(myExp instanceof DotAccessExpNode){
-            CodeGen.genPop(p, CodeGen.T0);
-            CodeGen.generateIndexed(p, "lw", CodeGen.T0, CodeGen.T0, 0);
-        }
-        else{
-            CodeGen.genPop(p, CodeGen.T0);
-        }
+    void codeGenOp(PrintWriter p){
+        myExp.popValue(p, CodeGen.T0);
         //CodeGen.genPop(p, CodeGen.T0);
 
         CodeGen.generate(p, "neg", CodeGen.T1,CodeGen.T0);
         CodeGen.genPush(p, CodeGen.T1);
     }
     /**
-     * typeCheck
+     * checkType
+     * Given the type of myExp
      */
-    public Type.AbstractType typeCheck() {
-        Type.AbstractType type = myExp.typeCheck();
-        Type.AbstractType retType = new Type.IntType();
+    Type.AbstractType checkType(Type.AbstractType type) {
+        Type.AbstractType retType = Type.INT;
         
         if ( ! type.isErrorType() && ! type.isIntType() ) {
             ErrMsg.fatal(lineNum, charNum,
                          "Arithmetic operator applied to non-numeric operand");
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         if (type.isErrorType()) {
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
     }
 
+    byte flatKind() {
+        return FlatAST.UNARY_MINUS;
+    }
+
     public void unparse(PrintWriter p, int indent) {
         p.print("(-");
         myExp.unparse(p, 0);
@@ -2390,39 +4067,36 @@ public static class NotNode extends UnaryExpNode {
     public NotNode(ExpNode exp) {
         super(exp);
     }
-    public void codeGen(PrintWriter p){
-        myExp.codeGen(p);
+    void codeGenOp(PrintWriter p){
         //CodeGen.genPop(p, CodeGen.T0);
-        if(myExp instanceof DotAccessExpNode){
-            CodeGen.genPop(p, CodeGen.T0);
-            CodeGen.generateIndexed(p, "lw", CodeGen.T0, CodeGen.T0, 0);
-        }
-        else{
-            CodeGen.genPop(p, CodeGen.T0);
-        }
+        myExp.popValue(p, CodeGen.T0);
         CodeGen.generate(p, "not", CodeGen.T1,CodeGen.T0);
         CodeGen.genPush(p, CodeGen.T1);
     }
     /**
-     * typeCheck
+     * checkType
+     * Given the type of myExp
      */
-    public Type.AbstractType typeCheck() {
-        Type.AbstractType type = myExp.typeCheck();
-        Type.AbstractType retType = new Type.BoolType();
+    Type.AbstractType checkType(Type.AbstractType type) {
+        Type.AbstractType retType = Type.BOOL;
         
         if ( ! type.isErrorType() && ! type.isBoolType() ) {
             ErrMsg.fatal(lineNum, charNum,
                          "Logical operator applied to non-bool operand");
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         if ( type.isErrorType() ) {
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
     }
 
+    byte flatKind() {
+        return FlatAST.NOT;
+    }
+
     public void unparse(PrintWriter p, int indent) {
 	    p.print("(!");
 		  myExp.unparse(p, 0);
@@ -2439,27 +4113,27 @@ public static abstract class ArithmeticExpNode extends BinaryExpNode {
     }
     
     /**
-     * typeCheck
+     * checkType
+     * Given the types of myExp1 and myExp2
      */
-    public Type.AbstractType typeCheck() {
-        Type.AbstractType type1 = myExp1.typeCheck();
-        Type.AbstractType type2 = myExp2.typeCheck();
-        Type.AbstractType retType = new Type.IntType();
+    Type.AbstractType checkType(Type.AbstractType type1,
+                                Type.AbstractType type2) {
+        Type.AbstractType retType = Type.INT;
         
         if ( ! type1.isErrorType() && ! type1.isIntType() ) {
             ErrMsg.fatal(myExp1.lineNum, myExp1.charNum,
                          "Arithmetic operator applied to non-numeric operand");
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         if ( ! type2.isErrorType() && ! type2.isIntType() ) {
             ErrMsg.fatal(myExp2.lineNum, myExp2.charNum,
                          "Arithmetic operator applied to non-numeric operand");
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         if ( type1.isErrorType() || type2.isErrorType() ) {
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
@@ -2472,29 +4146,44 @@ public static abstract class LogicalExpNode extends BinaryExpNode {
     public LogicalExpNode(ExpNode exp1, ExpNode exp2) {
         super(exp1, exp2);
     }
+
+    /**
+     * share
+     * The code of myExp2 is skipped when myExp1 decides the result, see
+     * ExpDag.enterBranch
+     */
+    ExpNode share(ExpDag dag, int k) {
+        if (k == 1) {
+            dag.enterBranch();
+        }
+        else if (k == 2) {
+            dag.leaveBranch();
+        }
+        return super.share(dag, k);
+    }
     
     /**
-     * typeCheck
+     * checkType
+     * Given the types of myExp1 and myExp2
      */
-    public Type.AbstractType typeCheck() {
-        Type.AbstractType type1 = myExp1.typeCheck();
-        Type.AbstractType type2 = myExp2.typeCheck();
-        Type.AbstractType retType = new Type.BoolType();
+    Type.AbstractType checkType(Type.AbstractType type1,
+                                Type.AbstractType type2) {
+        Type.AbstractType retType = Type.BOOL;
         
         if ( ! type1.isErrorType() && ! type1.isBoolType() ) {
             ErrMsg.fatal(myExp1.lineNum, myExp1.charNum,
                          "Logical operator applied to non-bool operand");
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         if ( ! type2.isErrorType() && ! type2.isBoolType() ) {
             ErrMsg.fatal(myExp2.lineNum, myExp2.charNum,
                          "Logical operator applied to non-bool operand");
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         if ( type1.isErrorType() || type2.isErrorType() ) {
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
@@ -2509,45 +4198,45 @@ public static abstract class EqualityExpNode extends BinaryExpNode {
     }
     
     /**
-     * typeCheck
+     * checkType
+     * Given the types of myExp1 and myExp2
      */
-    public Type.AbstractType typeCheck() {
-        Type.AbstractType type1 = myExp1.typeCheck();
-        Type.AbstractType type2 = myExp2.typeCheck();
-        Type.AbstractType retType = new Type.BoolType();
+    Type.AbstractType checkType(Type.AbstractType type1,
+                                Type.AbstractType type2) {
+        Type.AbstractType retType = Type.BOOL;
         
         if ( type1.isVoidType() && type2.isVoidType() ) {
             ErrMsg.fatal(lineNum, charNum,
                          "Equality operator applied to void functions");
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         if ( type1.isFnType() && type2.isFnType() ) {
             ErrMsg.fatal(lineNum, charNum,
                          "Equality operator applied to functions");
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         if ( type1.isStructDefType() && type2.isStructDefType() ) {
             ErrMsg.fatal(lineNum, charNum,
                          "Equality operator applied to struct names");
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         if ( type1.isStructType() && type2.isStructType() ) {
             ErrMsg.fatal(lineNum, charNum,
                          "Equality operator applied to struct variables");
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }        
         
         if ( ! type1.equals(type2) && ! type1.isErrorType() && ! type2.isErrorType() ) {
             ErrMsg.fatal(lineNum, charNum,
                          "Type mismatch");
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         if ( type1.isErrorType() || type2.isErrorType() ) {
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
@@ -2562,27 +4251,27 @@ public static abstract class RelationalExpNode extends BinaryExpNode {
     }
     
     /**
-     * typeCheck
+     * checkType
+     * Given the types of myExp1 and myExp2
      */
-    public Type.AbstractType typeCheck() {
-        Type.AbstractType type1 = myExp1.typeCheck();
-        Type.AbstractType type2 = myExp2.typeCheck();
-        Type.AbstractType retType = new Type.BoolType();
+    Type.AbstractType checkType(Type.AbstractType type1,
+                                Type.AbstractType type2) {
+        Type.AbstractType retType = Type.BOOL;
         
         if ( ! type1.isErrorType() && ! type1.isIntType() ) {
             ErrMsg.fatal(myExp1.lineNum, myExp1.charNum,
                          "Relational operator applied to non-numeric operand");
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         if ( ! type2.isErrorType() && ! type2.isIntType() ) {
             ErrMsg.fatal(myExp2.lineNum, myExp2.charNum,
                          "Relational operator applied to non-numeric operand");
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         if ( type1.isErrorType() || type2.isErrorType() ) {
-            retType = new Type.ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
@@ -2597,28 +4286,18 @@ public static class PlusNode extends ArithmeticExpNode {
     public PlusNode(ExpNode exp1, ExpNode exp2) {
         super(exp1, exp2);
     }
-    public void codeGen(PrintWriter p){
-        myExp1.codeGen(p);
-        myExp2.codeGen(p);
+    void codeGenOp(PrintWriter p){
         //CodeGen.genPop(p, CodeGen.T0);
-        if(myExp1 instanceof DotAccessExpNode){
-            CodeGen.genPop(p, CodeGen.T0);
-            CodeGen.generateIndexed(p, "lw", CodeGen.T0, CodeGen.T0, 0);
-        }
-        else{
-            CodeGen.genPop(p, CodeGen.T0);
-        }
+        myExp1.popValue(p, CodeGen.T0);
         //CodeGen.genPop(p, CodeGen.T1);
-        if(myExp2 instanceof DotAccessExpNode){
-            CodeGen.genPop(p, CodeGen.T1);
-            CodeGen.generateIndexed(p, "lw", CodeGen.T1, CodeGen.T1, 0);
-        }
-        else{
-            CodeGen.genPop(p, CodeGen.T1);
-        }
+        myExp2.popValue(p, CodeGen.T1);
         CodeGen.generate(p, "add", CodeGen.T0, CodeGen.T1, CodeGen.T0);
         CodeGen.genPush(p, CodeGen.T0);
     }
+    byte flatKind() {
+        return FlatAST.PLUS;
+    }
+
     public void unparse(PrintWriter p, int indent) {
 	    p.print("(");
 		  myExp1.unparse(p, 0);
@@ -2632,28 +4311,18 @@ public static class MinusNode extends ArithmeticExpNode {
     public MinusNode(ExpNode exp1, ExpNode exp2) {
         super(exp1, exp2);
     }
-    public void codeGen(PrintWriter p){
-        myExp1.codeGen(p);
-        myExp2.codeGen(p);
+    void codeGenOp(PrintWriter p){
         //CodeGen.genPop(p, CodeGen.T0);
-        if(myExp1 instanceof DotAccessExpNode){
-            CodeGen.genPop(p, CodeGen.T0);
-            CodeGen.generateIndexed(p, "lw", CodeGen.T0, CodeGen.T0, 0);
-        }
-        else{
-            CodeGen.genPop(p, CodeGen.T0);
-        }
+        myExp1.popValue(p, CodeGen.T0);
         //CodeGen.genPop(p, CodeGen.T1);
-        if(myExp2 instanceof DotAccessExpNode){
-            CodeGen.genPop(p, CodeGen.T1);
-            CodeGen.generateIndexed(p, "lw", CodeGen.T1, CodeGen.T1, 0);
-        }
-        else{
-            CodeGen.genPop(p, CodeGen.T1);
-        }
+        myExp2.popValue(p, CodeGen.T1);
         CodeGen.generate(p, "sub", CodeGen.T0, CodeGen.T1, CodeGen.T0);
         CodeGen.genPush(p, CodeGen.T0);
     }
+    byte flatKind() {
+        return FlatAST.MINUS;
+    }
+
     public void unparse(PrintWriter p, int indent) {
 	    p.print("(");
 		  myExp1.unparse(p, 0);
@@ -2667,25 +4336,11 @@ public static class TimesNode extends ArithmeticExpNode {
     public TimesNode(ExpNode exp1, ExpNode exp2) {
         super(exp1, exp2);
     }
-    public void codeGen(PrintWriter p){
-        myExp1.codeGen(p);
-        myExp2.codeGen(p);
+    void codeGenOp(PrintWriter p){
         //CodeGen.genPop(p, CodeGen.T0);
-        if(myExp1 instanceof DotAccessExpNode){
-            CodeGen.genPop(p, CodeGen.T0);
-            CodeGen.generateIndexed(p, "lw", CodeGen.T0, CodeGen.T0, 0);
-        }
-        else{
-            CodeGen.genPop(p, CodeGen.T0);
-        }
+        myExp1.popValue(p, CodeGen.T0);
         //CodeGen.genPop(p, CodeGen.T1);
-        if(myExp2 instanceof DotAccessExpNode){
-            CodeGen.genPop(p, CodeGen.T1);
-            CodeGen.generateIndexed(p, "lw", CodeGen.T1, CodeGen.T1, 0);
-        }
-        else{
-            CodeGen.genPop(p, CodeGen.T1);
-        }
+        myExp2.popValue(p, CodeGen.T1);
         CodeGen.generate(p, "mult", CodeGen.T1, CodeGen.T0);
         //mult(u) src1, reg2  Multiply src1 and reg2, leaving the low-order word
         //in register lo and the high-order word in register hi
@@ -2693,6 +4348,10 @@ public static class TimesNode extends ArithmeticExpNode {
         //mflo   des, Copy the contents of the lo register to des
         CodeGen.genPush(p, CodeGen.T0);
     }
+    byte flatKind() {
+        return FlatAST.TIMES;
+    }
+
     public void unparse(PrintWriter p, int indent) {
 	    p.print("(");
 		  myExp1.unparse(p, 0);
@@ -2706,29 +4365,19 @@ public static class DivideNode extends ArithmeticExpNode {
     public DivideNode(ExpNode exp1, ExpNode exp2) {
         super(exp1, exp2);
     }
-    public void codeGen(PrintWriter p){
-        myExp1.codeGen(p);
-        myExp2.codeGen(p);
-        if(myExp1 instanceof DotAccessExpNode){
-            CodeGen.genPop(p, CodeGen.T0);
-            CodeGen.generateIndexed(p, "lw", CodeGen.T0, CodeGen.T0, 0);
-        }
-        else{
-            CodeGen.genPop(p, CodeGen.T0);
-        }
-        if(myExp2 instanceof DotAccessExpNode){
-            CodeGen.genPop(p, CodeGen.T1);
-            CodeGen.generateIndexed(p, "lw", CodeGen.T1, CodeGen.T1, 0);
-        }
-        else{
-            CodeGen.genPop(p, CodeGen.T1);
-        }
+    void codeGenOp(PrintWriter p){
+        myExp1.popValue(p, CodeGen.T0);
+        myExp2.popValue(p, CodeGen.T1);
         CodeGen.generate(p, "div", CodeGen.T1, CodeGen.T0);
         //div(u) des, src1, src2  # des gets src1 / src2
         CodeGen.generate(p, "mflo", CodeGen.T0);
         //mflo   des, Copy the contents of the lo register to des
         CodeGen.genPush(p, CodeGen.T0);
     }
+    byte flatKind() {
+        return FlatAST.DIVIDE;
+    }
+
     public void unparse(PrintWriter p, int indent) {
 	    p.print("(");
 		  myExp1.unparse(p, 0);
@@ -2742,31 +4391,28 @@ public static class AndNode extends LogicalExpNode {
     public AndNode(ExpNode exp1, ExpNode exp2) {
         super(exp1, exp2);
     }
-    public void codeGen(PrintWriter p){
-        String end = CodeGen.nextLabel();
-        myExp1.codeGen(p);
-        if(myExp1 instanceof DotAccessExpNode){
-            CodeGen.genPop(p, CodeGen.T0);
-            CodeGen.generateIndexed(p, "lw", CodeGen.T0, CodeGen.T0, 0);
+    ExpNode codeGen(PrintWriter p, int k){
+        if (k == 0) {
+            myLabel = CodeGen.nextLabel();
+            return myExp1;
         }
-        else{
-            CodeGen.genPop(p, CodeGen.T0);
+        if (k == 1) {
+            myExp1.popValue(p, CodeGen.T0);
+            CodeGen.genPush(p, CodeGen.T0);
+            CodeGen.generateWithComment(p, "beqz", "short circuited for and", CodeGen.T0, myLabel);
+            return myExp2;
         }
-        CodeGen.genPush(p, CodeGen.T0);
-        CodeGen.generateWithComment(p, "beqz", "short circuited for and", CodeGen.T0, end);
-        myExp2.codeGen(p);
         CodeGen.genPop(p, CodeGen.T0);
-        if(myExp2 instanceof DotAccessExpNode){
-            CodeGen.genPop(p, CodeGen.T1);
-            CodeGen.generateIndexed(p, "lw", CodeGen.T1, CodeGen.T1, 0);
-        }
-        else{
-            CodeGen.genPop(p, CodeGen.T1);
-        }
+        myExp2.popValue(p, CodeGen.T1);
         CodeGen.generate(p, "and", CodeGen.T0, CodeGen.T1, CodeGen.T0);
         //and    des, src1, src2  # des gets the bitwise and of src1 and src2
         CodeGen.genPush(p, CodeGen.T0);
-        CodeGen.generateLabeled(p, end, "", "");
+        CodeGen.generateLabeled(p, myLabel, "", "");
+        return null;
+    }
+
+    byte flatKind() {
+        return FlatAST.AND;
     }
 
     public void unparse(PrintWriter p, int indent) {
@@ -2782,33 +4428,30 @@ public static class OrNode extends LogicalExpNode {
     public OrNode(ExpNode exp1, ExpNode exp2) {
         super(exp1, exp2);
     }
-    public void codeGen(PrintWriter p){
-        String end = CodeGen.nextLabel();
-        myExp1.codeGen(p);
-        if(myExp1 instanceof DotAccessExpNode){
-            CodeGen.genPop(p, CodeGen.T0);
-            CodeGen.generateIndexed(p, "lw", CodeGen.T0, CodeGen.T0, 0);
+    ExpNode codeGen(PrintWriter p, int k){
+        if (k == 0) {
+            myLabel = CodeGen.nextLabel();
+            return myExp1;
         }
-        else{
-            CodeGen.genPop(p, CodeGen.T0);
+        if (k == 1) {
+            myExp1.popValue(p, CodeGen.T0);
+            CodeGen.genPush(p, CodeGen.T0);
+            CodeGen.generateWithComment(p, "bnez", "short circuited for or", CodeGen.T0, myLabel);
+            return myExp2;
         }
-        CodeGen.genPush(p, CodeGen.T0);
-        CodeGen.generateWithComment(p, "bnez", "short circuited for or", CodeGen.T0, end);
-        myExp2.codeGen(p);
         CodeGen.genPop(p, CodeGen.T0);
         
-        if(myExp2 instanceof DotAccessExpNode){
-            CodeGen.genPop(p, CodeGen.T1);
-            CodeGen.generateIndexed(p, "lw", CodeGen.T1, CodeGen.T1, 0);
-        }
-        else{
-            CodeGen.genPop(p, CodeGen.T1);
-        }
+        myExp2.popValue(p, CodeGen.T1);
         CodeGen.generate(p, "or", CodeGen.T0, CodeGen.T1, CodeGen.T0);
         //or     des, src1, src2  # des gets the bitwise logical or of src1 and src2
         CodeGen.genPush(p, CodeGen.T0);
-        CodeGen.generateLabeled(p, end, "", "");
+        CodeGen.generateLabeled(p, myLabel, "", "");
+        return null;
     }
+    byte flatKind() {
+        return FlatAST.OR;
+    }
+
     public void unparse(PrintWriter p, int indent) {
 	    p.print("(");
 		  myExp1.unparse(p, 0);
@@ -2822,13 +4465,19 @@ public static class EqualsNode extends EqualityExpNode {
     public EqualsNode(ExpNode exp1, ExpNode exp2) {
         super(exp1, exp2);
     }
-    public void codeGen(PrintWriter p){
+    ExpNode codeGen(PrintWriter p, int k){
+        if (k == 0) {
+            return myExp1;
+        }
+        if (k == 1) {
+            if(myExp1.type().isStringType()){
+                myLabel = CodeGen.thisStringLabel();
+            }
+            return myExp2;
+        }
 
-        Type.AbstractType type1 = myExp1.typeCheck();
-        if(type1.isStringType()){
-            myExp1.codeGen(p);
-            String str1 = CodeGen.thisStringLabel();
-            myExp2.codeGen(p);
+        if(myExp1.type().isStringType()){
+            String str1 = myLabel;
             String str2 = CodeGen.thisStringLabel();
 
             String start = "compare_" +str1+"_"+str2+"_start";
@@ -2859,15 +4508,18 @@ public static class EqualsNode extends EqualityExpNode {
             CodeGen.genPush(p, CodeGen.T0);
         }
         else{
-            myExp1.codeGen(p);
-            myExp2.codeGen(p);
             CodeGen.genPop(p, CodeGen.T0);
             CodeGen.genPop(p, CodeGen.T1);
             CodeGen.generate(p, "seq", CodeGen.T0, CodeGen.T1, CodeGen.T0);
             //seq    des, src1, src2  # des 1 if src1 = src2, 0 otherwise
             CodeGen.genPush(p, CodeGen.T0);
         }
+        return null;
+    }
+    byte flatKind() {
+        return FlatAST.EQUALS;
     }
+
     public void unparse(PrintWriter p, int indent) {
 	    p.print("(");
 		  myExp1.unparse(p, 0);
@@ -2881,14 +4533,19 @@ public static class NotEqualsNode extends EqualityExpNode {
     public NotEqualsNode(ExpNode exp1, ExpNode exp2) {
         super(exp1, exp2);
     }
-    public void codeGen(PrintWriter p){
-        myExp1.codeGen(p);
-        myExp2.codeGen(p);
-        Type.AbstractType type1 = myExp1.typeCheck();
-        if(type1.isStringType()){
-            myExp1.codeGen(p);
-            String str1 = CodeGen.thisStringLabel();
-            myExp2.codeGen(p);
+    ExpNode codeGen(PrintWriter p, int k){
+        if (k < 2) {
+            return operand(k);
+        }
+        if (k == 2 && myExp1.type().isStringType()) {
+            return myExp1;
+        }
+        if (k == 3) {
+            myLabel = CodeGen.thisStringLabel();
+            return myExp2;
+        }
+        if(myExp1.type().isStringType()){
+            String str1 = myLabel;
             String str2 = CodeGen.thisStringLabel();
 
             String start = "compare_" +str1+"_"+str2+"_start";
@@ -2925,7 +4582,12 @@ public static class NotEqualsNode extends EqualityExpNode {
             //sne    des, src1, src2  # des 1 if src1 != src2, 0 otherwise
             CodeGen.genPush(p, CodeGen.T0);
         }
+        return null;
     }
+    byte flatKind() {
+        return FlatAST.NOT_EQUALS;
+    }
+
     public void unparse(PrintWriter p, int indent) {
 	    p.print("(");
 		  myExp1.unparse(p, 0);
@@ -2939,10 +4601,7 @@ public static class LessNode extends RelationalExpNode {
     public LessNode(ExpNode exp1, ExpNode exp2) {
         super(exp1, exp2);
     }
-    public void codeGen(PrintWriter p){
-        myExp1.codeGen(p);
-        myExp2.codeGen(p);
-
+    void codeGenOp(PrintWriter p){
         CodeGen.genPop(p, CodeGen.T0);
         CodeGen.genPop(p, CodeGen.T1);
         CodeGen.generate(p, "slt", CodeGen.T0, CodeGen.T1, CodeGen.T0);
@@ -2950,6 +4609,10 @@ public static class LessNode extends RelationalExpNode {
         CodeGen.genPush(p, CodeGen.T0);
         
     }
+    byte flatKind() {
+        return FlatAST.LESS;
+    }
+
     public void unparse(PrintWriter p, int indent) {
 	    p.print("(");
 		  myExp1.unparse(p, 0);
@@ -2963,10 +4626,7 @@ public static class GreaterNode extends RelationalExpNode {
     public GreaterNode(ExpNode exp1, ExpNode exp2) {
         super(exp1, exp2);
     }
-    public void codeGen(PrintWriter p){
-        myExp1.codeGen(p);
-        myExp2.codeGen(p);
-        
+    void codeGenOp(PrintWriter p){
         CodeGen.genPop(p, CodeGen.T0);
         CodeGen.genPop(p, CodeGen.T1);
         CodeGen.generate(p, "sgt", CodeGen.T0, CodeGen.T1, CodeGen.T0);
@@ -2974,6 +4634,10 @@ public static class GreaterNode extends RelationalExpNode {
         CodeGen.genPush(p, CodeGen.T0);
         
     }
+    byte flatKind() {
+        return FlatAST.GREATER;
+    }
+
     public void unparse(PrintWriter p, int indent) {
 	    p.print("(");
 		  myExp1.unparse(p, 0);
@@ -2987,16 +4651,17 @@ public static class LessEqNode extends RelationalExpNode {
     public LessEqNode(ExpNode exp1, ExpNode exp2) {
         super(exp1, exp2);
     }
-    public void codeGen(PrintWriter p){
-        myExp1.codeGen(p);
-        myExp2.codeGen(p);
-        
+    void codeGenOp(PrintWriter p){
         CodeGen.genPop(p, CodeGen.T0);
         CodeGen.genPop(p, CodeGen.T1);
         CodeGen.generate(p, "sle", CodeGen.T0, CodeGen.T1, CodeGen.T0);
         //sle(u) des, src1, src2  # des 1 if src1 <= src2, 0 otherwise
         CodeGen.genPush(p, CodeGen.T0);
     }
+    byte flatKind() {
+        return FlatAST.LESS_EQ;
+    }
+
     public void unparse(PrintWriter p, int indent) {
 	    p.print("(");
 		  myExp1.unparse(p, 0);
@@ -3010,10 +4675,7 @@ public static class GreaterEqNode extends RelationalExpNode {
     public GreaterEqNode(ExpNode exp1, ExpNode exp2) {
         super(exp1, exp2);
     }
-    public void codeGen(PrintWriter p){
-        myExp1.codeGen(p);
-        myExp2.codeGen(p);
-        
+    void codeGenOp(PrintWriter p){
         CodeGen.genPop(p, CodeGen.T0);
         CodeGen.genPop(p, CodeGen.T1);
         CodeGen.generate(p, "sge", CodeGen.T0, CodeGen.T1, CodeGen.T0);
@@ -3021,6 +4683,10 @@ public static class GreaterEqNode extends RelationalExpNode {
         CodeGen.genPush(p, CodeGen.T0);
         
     }
+    byte flatKind() {
+        return FlatAST.GREATER_EQ;
+    }
+
     public void unparse(PrintWriter p, int indent) {
 	    p.print("(");
 		  myExp1.unparse(p, 0);
@@ -0,0 +1,219 @@
+package ast;
+
+import java.util.*;
+
+/**
+ * Hash-consing of pure expressions, used by the share methods of AST to
+ * turn each function body's expression trees into a DAG.
+ *
+ * Pure expressions are literals, ids, dot-accesses and the unary and
+ * binary operators over pure operands; an assignment or a call is not
+ * pure, and neither is anything above one.  A pure node is looked up by
+ * its kind, its own value (the literal, or the symbol of an id or of the
+ * field of a dot-access) and its operands.  Operands are interned first,
+ * so they compare by identity, and the first node seen with a given key
+ * is the canonical node that later equal ones are replaced by.
+ *
+ * Two expressions with the same canonical node have the same value when
+ * both are evaluated.  So the table holds only within a region of code
+ * that nothing can write to in between: it is cleared at assignments,
+ * reads, increments, calls and where control flow joins or loops.
+ *
+ * Sharing happens after type checking, since the passes before it keep
+ * per-node state (positions for error messages, the type) that would
+ * differ between equal nodes.  An AST that has been shared must not be
+ * edited in place: shiftLines, say, would move a shared node once for
+ * each of its uses.
+ *
+ * Leaves and dot-accesses are shared as they are, and code generation
+ * evaluates them again at each use, which costs no more than loading a
+ * saved value would.  A later use of an operator is replaced by a
+ * ReusedExpNode instead.  If one is still in the tree when the region
+ * ends, the operator gets a slot in the frame of the function, past its
+ * locals, where its code keeps a copy of its value for the ReusedExpNodes
+ * to load.  The slots of one region are free again in the next.
+ *
+ * That needs the code of the first use to have run wherever that of a
+ * later one does.  The share walk goes in the order of the code, and
+ * what is first seen in the right operand of && or ||, which may be
+ * skipped, is not shared past the end of it (see enterBranch).
+ */
+public class ExpDag {
+
+    private HashMap<Key, AST.ExpNode> table = new HashMap<Key, AST.ExpNode>();
+    private IdentityHashMap<AST.ExpNode, Key> keys =
+        new IdentityHashMap<AST.ExpNode, Key>();
+    private int pure;
+    private int shared;
+
+    // the operators first seen in this region, the keys put in the table
+    // in it, and where those of each branch entered start
+    private ArrayList<AST.ExpNode> region = new ArrayList<AST.ExpNode>();
+    private ArrayList<Key> added = new ArrayList<Key>();
+    private ArrayList<Integer> branches = new ArrayList<Integer>();
+
+    // the slots for the function being shared, see beginFrame
+    private int frameStart;
+    private int frameEnd;
+
+    AST.ExpNode last;   // the canonical node the share walk found last
+
+    /**
+     * Returns the canonical node for e, given its value and operands as
+     * already interned: e itself if it is the first of its kind in this
+     * region, or not pure because an operand is not.  For an operator
+     * that is not the first, that is a ReusedExpNode of the first.
+     */
+    AST.ExpNode intern(AST.ExpNode e, Object value,
+                       AST.ExpNode exp1, AST.ExpNode exp2) {
+        Key k1 = null, k2 = null;
+        if (exp1 != null && (k1 = keys.get(exp1)) == null)
+            return e;
+        if (exp2 != null && (k2 = keys.get(exp2)) == null)
+            return e;
+        pure++;
+        Key key = new Key(e.getClass(), value, k1, k2);
+        AST.ExpNode canon = table.get(key);
+        if (canon != null) {
+            shared++;
+            // a use of canon instead of e, whose operands are dropped
+            key = keys.get(canon);
+            key.uses++;
+            if (k1 != null)
+                k1.uses--;
+            if (k2 != null)
+                k2.uses--;
+            if ( ! isOperator(canon) )
+                return canon;
+            AST.ExpNode reuse = new AST.ReusedExpNode(e, canon);
+            keys.put(reuse, key);
+            return reuse;
+        }
+        table.put(key, e);
+        keys.put(e, key);
+        added.add(key);
+        if (isOperator(e))
+            region.add(e);
+        return e;
+    }
+
+    private static boolean isOperator(AST.ExpNode e) {
+        return e instanceof AST.UnaryExpNode || e instanceof AST.BinaryExpNode;
+    }
+
+    /**
+     * Starts a new region: nothing after this is shared with anything
+     * before it.  The operators of the region ending that are used again
+     * get their slots.
+     */
+    void invalidate() {
+        int slot = frameStart;
+        for (AST.ExpNode e : region) {
+            if (keys.get(e).uses > 1) {
+                e.mySlot = slot;
+                slot += 4;
+            }
+        }
+        frameEnd = Math.max(frameEnd, slot);
+        region.clear();
+        added.clear();
+        for (int i = 0; i < branches.size(); i++)
+            branches.set(i, 0);
+        table.clear();
+        keys.clear();
+    }
+
+    /**
+     * Starts code that may not run, as the right operand of && or ||:
+     * what is first seen from here to leaveBranch is not shared with
+     * anything after it
+     */
+    void enterBranch() {
+        branches.add(added.size());
+    }
+
+    void leaveBranch() {
+        int start = branches.remove(branches.size() - 1);
+        while (added.size() > start)
+            table.remove(added.remove(added.size() - 1));
+    }
+
+    /**
+     * Starts the body of a function whose locals end at offset; the slots
+     * go after them
+     */
+    void beginFrame(int offset) {
+        invalidate();
+        frameStart = offset;
+        frameEnd = offset;
+    }
+
+    /**
+     * Ends the body of the function; returns the offset its slots end at
+     */
+    int endFrame() {
+        invalidate();
+        return frameEnd;
+    }
+
+    /**
+     * The structural hash of a canonical node of the current region, or
+     * 0 for a node that is not one
+     */
+    public int hash(AST.ExpNode e) {
+        Key key = keys.get(e);
+        return key == null ? 0 : key.hash;
+    }
+
+    /**
+     * The number of pure nodes looked up so far
+     */
+    public int pureCount() {
+        return pure;
+    }
+
+    /**
+     * The number of them replaced by an earlier equal node
+     */
+    public int sharedCount() {
+        return shared;
+    }
+
+    /**
+     * The identity of a node's operands is that of their keys, which
+     * are canonical too; the value is compared with equals(), so symbols
+     * by identity.  The hash is structural: it is made from the kinds and
+     * values of the whole subtree, not from node identities.
+     */
+    private static final class Key {
+        final Class<?> kind;
+        final Object value;
+        final Key exp1, exp2;
+        final int hash;
+        int uses = 1;   // in the tree as it is now
+
+        Key(Class<?> kind, Object value, Key exp1, Key exp2) {
+            this.kind = kind;
+            this.value = value;
+            this.exp1 = exp1;
+            this.exp2 = exp2;
+            int h = kind.getName().hashCode();
+            h = 31 * h + (value == null ? 0 : value.hashCode());
+            h = 31 * h + (exp1 == null ? 0 : exp1.hash);
+            h = 31 * h + (exp2 == null ? 0 : exp2.hash);
+            this.hash = h;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if ( ! (o instanceof Key) )
+                return false;
+            Key k = (Key) o;
+            return hash == k.hash && kind == k.kind && exp1 == k.exp1 && exp2 == k.exp2
+                && (value == null ? k.value == null : value.equals(k.value));
+        }
+    }
+}
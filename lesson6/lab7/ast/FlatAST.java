@@ -0,0 +1,1420 @@
+package ast;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import lexer.ErrMsg;
+import symtable.*;
+
+/**
+ * A compact form of the AST, kept in a few primitive arrays instead of
+ * one object per node.
+ *
+ * Node i has a kind (one of the constants below), a next sibling (-1
+ * for none), a packed line/column position and one int of payload: the
+ * value of an int literal, the index of the name of an id or the text
+ * of a string literal in a shared string table, and the size of a
+ * variable declaration.  Nodes are numbered in preorder, so the root is
+ * node 0, every subtree is a contiguous range and the first child of a
+ * node, if any, is the node right after it; a bit in the kind byte says
+ * whether there is one.
+ *
+ * The children of each kind are those of the AST class of the same
+ * name, in field order; lists are nodes whose children are the list
+ * elements.  A return without a value has no child.
+ *
+ *     FlatAST flat = FlatAST.flatten(root);   // root can be dropped now
+ *     flat.unparse(p);                        // same text as root.unparse
+ *     flat.nameAnalysis();                    // same errors as root's,
+ *     flat.typeCheck();                       //   with ids linked in info()
+ *     AST.ProgramNode copy = flat.toTree();   // for offsets and codeGen
+ *
+ * A node costs 17 bytes, and each distinct name or string literal is
+ * stored once.
+ *
+ * A FlatAST can be written to a file and loaded back without scanning or
+ * parsing, see write() and load():
+ *
+ *     flat.write(out);
+ *     AST.ProgramNode root = FlatAST.load(file).toTree();
+ */
+public final class FlatAST {
+
+    // node kinds
+    public static final byte PROGRAM = 0;
+    public static final byte DECL_LIST = 1;
+    public static final byte FORMALS_LIST = 2;
+    public static final byte FN_BODY = 3;
+    public static final byte STMT_LIST = 4;
+    public static final byte EXP_LIST = 5;
+    public static final byte VAR_DECL = 6;
+    public static final byte FN_DECL = 7;
+    public static final byte FORMAL_DECL = 8;
+    public static final byte STRUCT_DECL = 9;
+    public static final byte INT_TYPE = 10;
+    public static final byte BOOL_TYPE = 11;
+    public static final byte VOID_TYPE = 12;
+    public static final byte STRUCT_TYPE = 13;
+    public static final byte ASSIGN_STMT = 14;
+    public static final byte POST_INC_STMT = 15;
+    public static final byte POST_DEC_STMT = 16;
+    public static final byte READ_STMT = 17;
+    public static final byte WRITE_STMT = 18;
+    public static final byte IF_STMT = 19;
+    public static final byte IF_ELSE_STMT = 20;
+    public static final byte WHILE_STMT = 21;
+    public static final byte CALL_STMT = 22;
+    public static final byte RETURN_STMT = 23;
+    public static final byte INT_LIT = 24;
+    public static final byte STRING_LIT = 25;
+    public static final byte TRUE = 26;
+    public static final byte FALSE = 27;
+    public static final byte ID = 28;
+    public static final byte DOT_ACCESS = 29;
+    public static final byte ASSIGN = 30;
+    public static final byte CALL = 31;
+    public static final byte UNARY_MINUS = 32;
+    public static final byte NOT = 33;
+    public static final byte PLUS = 34;
+    public static final byte MINUS = 35;
+    public static final byte TIMES = 36;
+    public static final byte DIVIDE = 37;
+    public static final byte AND = 38;
+    public static final byte OR = 39;
+    public static final byte EQUALS = 40;
+    public static final byte NOT_EQUALS = 41;
+    public static final byte LESS = 42;
+    public static final byte GREATER = 43;
+    public static final byte LESS_EQ = 44;
+    public static final byte GREATER_EQ = 45;
+
+    private static final int HAS_CHILDREN = 0x80;
+
+    // operator text of the binary kinds, indexed by kind - PLUS
+    private static final String BINARY_OPS[] = {
+        " + ", " - ", " * ", " / ", " && ", " || ",
+        " == ", " != ", " < ", " > ", " <= ", " >= "
+    };
+
+    private int count;
+    private byte kind[];       // kind, | HAS_CHILDREN
+    private int nextSibling[];
+    private long pos[];        // line << 32 | column
+    private int value[];
+    private String strings[];
+    private int nstrings;
+
+    // only after nameAnalysis: the symbol of each id, and for a
+    // dot-access of a struct field the StructDefInfo of the field's type
+    private SymInfo info[];
+    private BitSet badAccess;  // dot-accesses with an error on the left
+
+    // only when loaded: the file, and where each string not yet read is
+    private ByteBuffer source;
+    private int stringAt[];
+
+    // only while building
+    private HashMap<String, Integer> stringIndex;
+    private int open[];        // nodes begun but not ended
+    private int lastChild[];   // last child so far of each open node
+    private int depth;
+
+    private FlatAST() {
+        kind = new byte[256];
+        nextSibling = new int[256];
+        pos = new long[256];
+        value = new int[256];
+        strings = new String[64];
+        stringIndex = new HashMap<String, Integer>();
+        open = new int[64];
+        lastChild = new int[64];
+    }
+
+    /**
+     * Builds the flat form of a program's AST
+     */
+    public static FlatAST flatten(AST.ProgramNode root) {
+        FlatAST f = new FlatAST();
+        root.flatten(f);
+        f.trim();
+        return f;
+    }
+
+    // **********************************************************************
+    // building, used by the flatten methods of the AST classes
+    // **********************************************************************
+
+    /**
+     * Appends a node as the next child of the innermost open node and
+     * opens it; its children follow until the matching end()
+     */
+    void begin(byte k, int line, int col, int v) {
+        if (count == kind.length) {
+            int cap = 2 * count;
+            kind = Arrays.copyOf(kind, cap);
+            nextSibling = Arrays.copyOf(nextSibling, cap);
+            pos = Arrays.copyOf(pos, cap);
+            value = Arrays.copyOf(value, cap);
+        }
+        int n = count++;
+        kind[n] = k;
+        nextSibling[n] = -1;
+        pos[n] = (long) line << 32 | (col & 0xffffffffL);
+        value[n] = v;
+        if (depth > 0) {
+            int parent = open[depth - 1];
+            if (lastChild[depth - 1] < 0)
+                kind[parent] |= HAS_CHILDREN;
+            else
+                nextSibling[lastChild[depth - 1]] = n;
+            lastChild[depth - 1] = n;
+        }
+        if (depth == open.length) {
+            open = Arrays.copyOf(open, 2 * depth);
+            lastChild = Arrays.copyOf(lastChild, 2 * depth);
+        }
+        open[depth] = n;
+        lastChild[depth] = -1;
+        depth++;
+    }
+
+    void begin(byte k) {
+        begin(k, 0, 0, 0);
+    }
+
+    void end() {
+        depth--;
+    }
+
+    void leaf(byte k, int line, int col, int v) {
+        begin(k, line, col, v);
+        depth--;
+    }
+
+    /**
+     * Returns the index of s in the string table, adding it if new
+     */
+    int intern(String s) {
+        Integer i = stringIndex.get(s);
+        if (i != null)
+            return i.intValue();
+        if (nstrings == strings.length)
+            strings = Arrays.copyOf(strings, 2 * nstrings);
+        strings[nstrings] = s;
+        stringIndex.put(s, Integer.valueOf(nstrings));
+        return nstrings++;
+    }
+
+    private void trim() {
+        kind = Arrays.copyOf(kind, count);
+        nextSibling = Arrays.copyOf(nextSibling, count);
+        pos = Arrays.copyOf(pos, count);
+        value = Arrays.copyOf(value, count);
+        strings = Arrays.copyOf(strings, nstrings);
+        stringIndex = null;
+        open = null;
+        lastChild = null;
+    }
+
+    // **********************************************************************
+    // access
+    // **********************************************************************
+
+    public int size() {
+        return count;
+    }
+
+    public byte kind(int n) {
+        return (byte) (kind[n] & ~HAS_CHILDREN);
+    }
+
+    public int firstChild(int n) {
+        return (kind[n] & HAS_CHILDREN) != 0 ? n + 1 : -1;
+    }
+
+    public int nextSibling(int n) {
+        return nextSibling[n];
+    }
+
+    public int line(int n) {
+        return (int) (pos[n] >>> 32);
+    }
+
+    public int col(int n) {
+        return (int) pos[n];
+    }
+
+    /**
+     * The value of an int literal or the size of a variable declaration
+     */
+    public int intValue(int n) {
+        return value[n];
+    }
+
+    /**
+     * The name of an id or the text of a string literal
+     */
+    public String stringValue(int n) {
+        return string(value[n]);
+    }
+
+    private String string(int i) {
+        String s = strings[i];
+        if (s == null) {
+            ByteBuffer b = source.duplicate();
+            b.position(stringAt[i]);
+            byte text[] = new byte[readVarint(b)];
+            b.get(text);
+            s = strings[i] = new String(text, UTF8);
+        }
+        return s;
+    }
+
+    /**
+     * Returns the k-th child of node n, or -1
+     */
+    public int child(int n, int k) {
+        int c = firstChild(n);
+        while (c >= 0 && k-- > 0)
+            c = nextSibling[c];
+        return c;
+    }
+
+    /**
+     * Approximate bytes held by the arrays and the string table
+     */
+    public long bytes() {
+        long b = 4 * 16 + count * (1L + 4 + 8 + 4);
+        b += 16 + 4L * strings.length;
+        if (stringAt != null)
+            b += 16 + 4L * stringAt.length;
+        for (int i = 0; i < strings.length; i++) {
+            if (strings[i] != null)
+                b += 24 + 16 + strings[i].length();
+        }
+        return b;
+    }
+
+    // **********************************************************************
+    // back to objects
+    // **********************************************************************
+
+    /**
+     * Rebuilds the object AST, e.g. for offsets and code generation
+     */
+    public AST.ProgramNode toTree() {
+        return (AST.ProgramNode) toTree(0);
+    }
+
+    /**
+     * Rebuilds the object AST of the subtree at node n
+     */
+    public AST.ASTnode toTree(int n) {
+        int c0 = firstChild(n);
+        int c1 = c0 < 0 ? -1 : nextSibling[c0];
+        switch (kind(n)) {
+        case PROGRAM:
+            return new AST.ProgramNode((AST.DeclListNode) toTree(c0));
+        case DECL_LIST: {
+            LinkedList<AST.DeclNode> list = new LinkedList<AST.DeclNode>();
+            for (int c = c0; c >= 0; c = nextSibling[c])
+                list.add((AST.DeclNode) toTree(c));
+            return new AST.DeclListNode(list);
+        }
+        case FORMALS_LIST: {
+            LinkedList<AST.FormalDeclNode> list = new LinkedList<AST.FormalDeclNode>();
+            for (int c = c0; c >= 0; c = nextSibling[c])
+                list.add((AST.FormalDeclNode) toTree(c));
+            return new AST.FormalsListNode(list);
+        }
+        case FN_BODY:
+            return new AST.FnBodyNode((AST.DeclListNode) toTree(c0),
+                                      (AST.StmtListNode) toTree(c1));
+        case STMT_LIST: {
+            LinkedList<AST.StmtNode> list = new LinkedList<AST.StmtNode>();
+            for (int c = c0; c >= 0; c = nextSibling[c])
+                list.add((AST.StmtNode) toTree(c));
+            return new AST.StmtListNode(list);
+        }
+        case EXP_LIST: {
+            LinkedList<AST.ExpNode> list = new LinkedList<AST.ExpNode>();
+            for (int c = c0; c >= 0; c = nextSibling[c])
+                list.add((AST.ExpNode) toTree(c));
+            return new AST.ExpListNode(list);
+        }
+        case VAR_DECL:
+            return new AST.VarDeclNode((AST.TypeNode) toTree(c0),
+                                       (AST.IdNode) toTree(c1), value[n]);
+        case FN_DECL: {
+            int c2 = nextSibling[c1];
+            return new AST.FnDeclNode((AST.TypeNode) toTree(c0),
+                                      (AST.IdNode) toTree(c1),
+                                      (AST.FormalsListNode) toTree(c2),
+                                      (AST.FnBodyNode) toTree(nextSibling[c2]));
+        }
+        case FORMAL_DECL:
+            return new AST.FormalDeclNode((AST.TypeNode) toTree(c0),
+                                          (AST.IdNode) toTree(c1));
+        case STRUCT_DECL:
+            return new AST.StructDeclNode((AST.IdNode) toTree(c0),
+                                          (AST.DeclListNode) toTree(c1));
+        case INT_TYPE:
+            return new AST.IntNode();
+        case BOOL_TYPE:
+            return new AST.BoolNode();
+        case VOID_TYPE:
+            return new AST.VoidNode();
+        case STRUCT_TYPE:
+            return new AST.StructNode((AST.IdNode) toTree(c0));
+        case ASSIGN_STMT:
+            return new AST.AssignStmtNode((AST.AssignNode) toTree(c0));
+        case POST_INC_STMT:
+            return new AST.PostIncStmtNode((AST.ExpNode) toTree(c0));
+        case POST_DEC_STMT:
+            return new AST.PostDecStmtNode((AST.ExpNode) toTree(c0));
+        case READ_STMT:
+            return new AST.ReadStmtNode((AST.ExpNode) toTree(c0));
+        case WRITE_STMT:
+            return new AST.WriteStmtNode((AST.ExpNode) toTree(c0));
+        case IF_STMT:
+            return new AST.IfStmtNode((AST.ExpNode) toTree(c0),
+                                      (AST.DeclListNode) toTree(c1),
+                                      (AST.StmtListNode) toTree(nextSibling[c1]));
+        case IF_ELSE_STMT: {
+            int c2 = nextSibling[c1];
+            int c3 = nextSibling[c2];
+            return new AST.IfElseStmtNode((AST.ExpNode) toTree(c0),
+                                          (AST.DeclListNode) toTree(c1),
+                                          (AST.StmtListNode) toTree(c2),
+                                          (AST.DeclListNode) toTree(c3),
+                                          (AST.StmtListNode) toTree(nextSibling[c3]));
+        }
+        case WHILE_STMT:
+            return new AST.WhileStmtNode((AST.ExpNode) toTree(c0),
+                                         (AST.DeclListNode) toTree(c1),
+                                         (AST.StmtListNode) toTree(nextSibling[c1]));
+        case CALL_STMT:
+            return new AST.CallStmtNode((AST.CallExpNode) toTree(c0));
+        case RETURN_STMT:
+            return new AST.ReturnStmtNode(c0 < 0 ? null : (AST.ExpNode) toTree(c0),
+                                          col(n), line(n));
+        case INT_LIT:
+            return new AST.IntLitNode(line(n), col(n), value[n]);
+        case STRING_LIT:
+            return new AST.StringLitNode(line(n), col(n), string(value[n]));
+        case TRUE:
+            return new AST.TrueNode(line(n), col(n));
+        case FALSE:
+            return new AST.FalseNode(line(n), col(n));
+        case ID:
+            return new AST.IdNode(line(n), col(n), string(value[n]));
+        case DOT_ACCESS:
+            return new AST.DotAccessExpNode((AST.ExpNode) toTree(c0),
+                                            (AST.IdNode) toTree(c1));
+        case ASSIGN:
+            return new AST.AssignNode((AST.ExpNode) toTree(c0),
+                                      (AST.ExpNode) toTree(c1));
+        case CALL:
+            if (c1 < 0)
+                return new AST.CallExpNode((AST.IdNode) toTree(c0));
+            return new AST.CallExpNode((AST.IdNode) toTree(c0),
+                                       (AST.ExpListNode) toTree(c1));
+        case UNARY_MINUS:
+            return new AST.UnaryMinusNode((AST.ExpNode) toTree(c0));
+        case NOT:
+            return new AST.NotNode((AST.ExpNode) toTree(c0));
+        default: {
+            // down the left spine as in exp(), so a long chain does not
+            // recurse once per operator
+            int m = n;
+            while (kind(m) >= PLUS)
+                m++;
+            AST.ExpNode e = (AST.ExpNode) toTree(m);
+            for (int s = m - 1; s >= n; s--)
+                e = binary(kind(s), e, (AST.ExpNode) toTree(nextSibling[s + 1]));
+            return e;
+        }
+        }
+    }
+
+    private static AST.ExpNode binary(byte k, AST.ExpNode e1, AST.ExpNode e2) {
+        switch (k) {
+        case PLUS:       return new AST.PlusNode(e1, e2);
+        case MINUS:      return new AST.MinusNode(e1, e2);
+        case TIMES:      return new AST.TimesNode(e1, e2);
+        case DIVIDE:     return new AST.DivideNode(e1, e2);
+        case AND:        return new AST.AndNode(e1, e2);
+        case OR:         return new AST.OrNode(e1, e2);
+        case EQUALS:     return new AST.EqualsNode(e1, e2);
+        case NOT_EQUALS: return new AST.NotEqualsNode(e1, e2);
+        case LESS:       return new AST.LessNode(e1, e2);
+        case GREATER:    return new AST.GreaterNode(e1, e2);
+        case LESS_EQ:    return new AST.LessEqNode(e1, e2);
+        case GREATER_EQ: return new AST.GreaterEqNode(e1, e2);
+        }
+        throw new IllegalStateException("bad node kind " + k);
+    }
+
+    // **********************************************************************
+    // name analysis and type checking, straight from the arrays
+    // **********************************************************************
+
+    /**
+     * Does what AST.ProgramNode.nameAnalysis does for the object AST:
+     * the same symbols and the same errors in the same order.  Ids are
+     * linked through info(), and the value of each variable declaration
+     * is set to its size.
+     */
+    public void nameAnalysis() {
+        info = new SymInfo[count];
+        badAccess = new BitSet();
+        declList(firstChild(0), new SymTable(), true);
+    }
+
+    /**
+     * The symbol node n was linked to by nameAnalysis, or null
+     */
+    public SymInfo info(int n) {
+        return info == null ? null : info[n];
+    }
+
+    private void declList(int n, SymTable symTab, boolean isGlobal) {
+        for (int c = firstChild(n); c >= 0; c = nextSibling[c])
+            decl(c, symTab, isGlobal);
+    }
+
+    private SymInfo decl(int n, SymTable symTab, boolean isGlobal) {
+        switch (kind(n)) {
+        case VAR_DECL:
+            return varDecl(n, symTab, null, isGlobal);
+        case FN_DECL:
+            return fnDecl(n, symTab);
+        case FORMAL_DECL:
+            return formalDecl(n, symTab);
+        default:
+            return structDecl(n, symTab);
+        }
+    }
+
+    /**
+     * A variable, or with fields non-null a field of the struct being
+     * declared; symTab is only used to look up the struct type then
+     */
+    private SymInfo varDecl(int n, SymTable symTab, StructLayout.Builder fields,
+                            boolean isGlobal) {
+        int type = firstChild(n);
+        int id = nextSibling[type];
+        String name = string(value[id]);
+        boolean badDecl = false;
+        SymInfo sym = null;
+        int structId = -1;
+
+        if (kind(type) == VOID_TYPE) {
+            ErrMsg.fatal(line(id), col(id), "Non-function declared void");
+            badDecl = true;
+        }
+        else if (kind(type) == STRUCT_TYPE) {
+            structId = firstChild(type);
+            sym = symTab.lookupGlobal(string(value[structId]));
+            if (!(sym instanceof StructDefInfo)) {
+                ErrMsg.fatal(line(structId), col(structId),
+                             "Invalid name of struct type");
+                badDecl = true;
+            }
+            else {
+                info[structId] = sym;
+            }
+        }
+        if (fields != null ? fields.lookup(name) != null
+                           : symTab.lookupLocal(name) != null) {
+            ErrMsg.fatal(line(id), col(id), fields != null
+                         ? "Multiple declaration of struct field"
+                         : "Multiple declaration of identifier");
+            badDecl = true;
+        }
+        if (!badDecl) {
+            if (structId >= 0) {
+                sym = new StructInfo((StructDefInfo) info[structId]);
+                sym.setSize(info[structId].getSize());
+            }
+            else {
+                sym = new SymInfo(type(type));
+                sym.setSize(4);
+            }
+            value[n] = sym.getSize();
+            if (fields != null) {
+                fields.addField(name, sym);
+            }
+            else {
+                sym.setGlobal(isGlobal);
+                symTab.addDecl(name, sym);
+            }
+            info[id] = sym;
+        }
+        return sym;
+    }
+
+    private SymInfo fnDecl(int n, SymTable symTab) {
+        int type = firstChild(n);
+        int id = nextSibling[type];
+        int formals = nextSibling[id];
+        int body = nextSibling[formals];
+        String name = string(value[id]);
+        FnInfo fn = null;
+
+        if (symTab.lookupLocal(name) != null) {
+            ErrMsg.fatal(line(id), col(id), "Multiply declared identifier");
+        }
+        else {
+            int nformals = 0;
+            for (int c = firstChild(formals); c >= 0; c = nextSibling[c])
+                nformals++;
+            fn = new FnInfo(type(type), nformals);
+            symTab.addDecl(name, fn);
+            info[id] = fn;
+        }
+
+        symTab.addScope();
+        List<Type.AbstractType> typeList = new LinkedList<Type.AbstractType>();
+        for (int c = firstChild(formals); c >= 0; c = nextSibling[c]) {
+            SymInfo sym = formalDecl(c, symTab);
+            if (sym != null)
+                typeList.add(sym.getType());
+        }
+        if (fn != null)
+            fn.addFormals(typeList);
+        int decls = firstChild(body);
+        declList(decls, symTab, false);
+        stmtList(nextSibling[decls], symTab);
+        symTab.removeScope();
+        return null;
+    }
+
+    private SymInfo formalDecl(int n, SymTable symTab) {
+        int type = firstChild(n);
+        int id = nextSibling[type];
+        String name = string(value[id]);
+        boolean badDecl = false;
+
+        if (kind(type) == VOID_TYPE) {
+            ErrMsg.fatal(line(id), col(id), "Non-function declared void");
+            badDecl = true;
+        }
+        if (symTab.lookupLocal(name) != null) {
+            ErrMsg.fatal(line(id), col(id), "Multiply declared identifier");
+            badDecl = true;
+        }
+        if (badDecl)
+            return null;
+        SymInfo sym = new SymInfo(type(type));
+        sym.setSize(4);
+        symTab.addDecl(name, sym);
+        info[id] = sym;
+        return sym;
+    }
+
+    private SymInfo structDecl(int n, SymTable symTab) {
+        int id = firstChild(n);
+        String name = string(value[id]);
+        boolean badDecl = false;
+
+        if (symTab.lookupLocal(name) != null) {
+            ErrMsg.fatal(line(id), col(id), "Multiply declared identifier");
+            badDecl = true;
+        }
+        StructLayout.Builder fields = new StructLayout.Builder();
+        for (int c = firstChild(nextSibling[id]); c >= 0; c = nextSibling[c]) {
+            if (kind(c) == VAR_DECL)
+                varDecl(c, symTab, fields, false);
+            else
+                decl(c, symTab, false);  // this should never happen
+        }
+        if (!badDecl) {
+            StructDefInfo def = new StructDefInfo(name, fields.build());
+            symTab.addDecl(name, def);
+            info[id] = def;
+        }
+        return null;
+    }
+
+    /**
+     * The type named by type node n.  Like AST.StructNode.type, a struct
+     * type is only known where name analysis linked it (in variables).
+     */
+    private Type.AbstractType type(int n) {
+        switch (kind(n)) {
+        case INT_TYPE:
+            return Type.INT;
+        case BOOL_TYPE:
+            return Type.BOOL;
+        case VOID_TYPE:
+            return Type.VOID;
+        default:
+            SymInfo sym = info[firstChild(n)];
+            if (sym instanceof StructDefInfo)
+                return ((StructDefInfo) sym).getInstanceType();
+            return Type.ERROR;
+        }
+    }
+
+    private void stmtList(int n, SymTable symTab) {
+        for (int c = firstChild(n); c >= 0; c = nextSibling[c])
+            stmt(c, symTab);
+    }
+
+    private void stmt(int n, SymTable symTab) {
+        int c0 = firstChild(n);
+        switch (kind(n)) {
+        case IF_STMT:
+        case WHILE_STMT:
+        case IF_ELSE_STMT: {
+            exp(c0, symTab);
+            int c = nextSibling[c0];
+            do {  // the then part, and for an if-else the else part
+                symTab.addScope();
+                declList(c, symTab, false);
+                c = nextSibling[c];
+                stmtList(c, symTab);
+                c = nextSibling[c];
+                symTab.removeScope();
+            } while (c >= 0);
+            break;
+        }
+        default:
+            if (c0 >= 0)
+                exp(c0, symTab);
+        }
+    }
+
+    private void exp(int n, SymTable symTab) {
+        switch (kind(n)) {
+        case INT_LIT:
+        case STRING_LIT:
+        case TRUE:
+        case FALSE:
+            break;
+        case ID:
+            info[n] = symTab.lookupGlobal(string(value[n]));
+            if (info[n] == null)
+                ErrMsg.fatal(line(n), col(n), "Undeclared identifier");
+            break;
+        case DOT_ACCESS:
+            dotAccess(n, symTab);
+            break;
+        case ASSIGN:
+        case CALL:
+        case EXP_LIST:
+        case UNARY_MINUS:
+        case NOT:
+            for (int c = firstChild(n); c >= 0; c = nextSibling[c])
+                exp(c, symTab);
+            break;
+        default: {
+            // a binary operator: the left spine is n, n + 1, ..., so the
+            // operands go left to right without recursing down it
+            int m = n;
+            while (kind(m) >= PLUS)
+                m++;
+            exp(m, symTab);
+            for (int s = m - 1; s >= n; s--)
+                exp(nextSibling[s + 1], symTab);
+        }
+        }
+    }
+
+    private void dotAccess(int n, SymTable symTab) {
+        int lhs = firstChild(n);
+        int id = nextSibling[lhs];
+        boolean bad = false;
+        StructLayout layout = null;
+
+        exp(lhs, symTab);
+        if (kind(lhs) == ID) {
+            if (info[lhs] == null) {  // undeclared
+                bad = true;
+            }
+            else if (info[lhs] instanceof StructInfo) {
+                layout = ((StructInfo) info[lhs]).getStructDef().getLayout();
+            }
+            else {
+                ErrMsg.fatal(line(lhs), col(lhs), "Dot-access of non-struct type");
+                bad = true;
+            }
+        }
+        else if (badAccess.get(lhs)) {
+            bad = true;
+        }
+        else if (info[lhs] == null) {  // the field on the left is no struct
+            ErrMsg.fatal(line(lhs), col(lhs), "Dot-access of non-struct type");
+            bad = true;
+        }
+        else {
+            layout = ((StructDefInfo) info[lhs]).getLayout();
+        }
+
+        if (!bad) {
+            SymInfo field = layout.lookup(string(value[id]));
+            if (field == null) {
+                ErrMsg.fatal(line(id), col(id), "Invalid struct field name");
+                bad = true;
+            }
+            else {
+                info[id] = field;
+                if (field instanceof StructInfo)
+                    info[n] = ((StructInfo) field).getStructDef();
+            }
+        }
+        badAccess.set(n, bad);
+    }
+
+    /**
+     * Does what AST.ProgramNode.typeCheck does, after nameAnalysis.  An
+     * undeclared id has the error type here, where the object AST stops
+     * the compiler; nameAnalysis has reported it already.
+     */
+    public void typeCheck() {
+        boolean isMain = false;
+        for (int c = firstChild(firstChild(0)); c >= 0; c = nextSibling[c])
+            isMain = kind(c) == FN_DECL && fnTypeCheck(c);
+        if (!isMain)
+            ErrMsg.fatal(0, 0, "No main function");
+    }
+
+    /**
+     * Type checks the body of function n; returns whether it is main
+     */
+    private boolean fnTypeCheck(int n) {
+        int type = firstChild(n);
+        int id = nextSibling[type];
+        int formals = nextSibling[id];
+        Type.AbstractType retType = type(type);
+        stmtTypeCheck(nextSibling[firstChild(nextSibling[formals])], retType);
+        return "main".equals(string(value[id])) && retType.isVoidType()
+            && firstChild(formals) < 0;
+    }
+
+    private void stmtTypeCheck(int n, Type.AbstractType retType) {
+        for (int c = firstChild(n); c >= 0; c = nextSibling[c])
+            stmtCheck(c, retType);
+    }
+
+    private void stmtCheck(int n, Type.AbstractType retType) {
+        int c0 = firstChild(n);
+        Type.AbstractType type = c0 < 0 ? null : typeOf(c0);
+        switch (kind(n)) {
+        case ASSIGN_STMT:
+        case CALL_STMT:
+            break;
+        case POST_INC_STMT:
+        case POST_DEC_STMT:
+            if (!type.isErrorType() && !type.isIntType())
+                ErrMsg.fatal(line(c0), col(c0),
+                             "Arithmetic operator applied to non-numeric operand");
+            break;
+        case READ_STMT:
+        case WRITE_STMT: {
+            String what = kind(n) == READ_STMT ? "Attempt to read " : "Attempt to write ";
+            if (type.isFnType())
+                ErrMsg.fatal(line(c0), col(c0), what + "a function");
+            if (type.isStructDefType())
+                ErrMsg.fatal(line(c0), col(c0), what + "a struct name");
+            if (type.isStructType())
+                ErrMsg.fatal(line(c0), col(c0), what + "a struct variable");
+            if (kind(n) == WRITE_STMT && type.isVoidType())
+                ErrMsg.fatal(line(c0), col(c0), "Attempt to write void");
+            break;
+        }
+        case IF_STMT:
+        case IF_ELSE_STMT:
+        case WHILE_STMT: {
+            if (!type.isErrorType() && !type.isBoolType())
+                ErrMsg.fatal(line(c0), col(c0), kind(n) == WHILE_STMT
+                             ? "Non-bool expression used as a while condition"
+                             : "Non-bool expression used as an if condition");
+            int stmts = nextSibling[nextSibling[c0]];
+            stmtTypeCheck(stmts, retType);
+            if (kind(n) == IF_ELSE_STMT)
+                stmtTypeCheck(nextSibling[nextSibling[stmts]], retType);
+            break;
+        }
+        case RETURN_STMT:
+            if (c0 >= 0) {
+                if (retType.isVoidType())
+                    ErrMsg.fatal(line(c0), col(c0),
+                                 "Return with a value in a void function");
+                else if (!retType.isErrorType() && !type.isErrorType()
+                         && !retType.equals(type))
+                    ErrMsg.fatal(line(c0), col(c0), "Bad return value");
+            }
+            else if (!retType.isVoidType()) {
+                ErrMsg.fatal(line(n), col(n), "Missing return value");
+            }
+            break;
+        }
+    }
+
+    private Type.AbstractType typeOf(int n) {
+        int c0 = firstChild(n);
+        switch (kind(n)) {
+        case INT_LIT:
+            return Type.INT;
+        case STRING_LIT:
+            return Type.STRING;
+        case TRUE:
+        case FALSE:
+            return Type.BOOL;
+        case ID:
+            return info[n] != null ? info[n].getType() : Type.ERROR;
+        case DOT_ACCESS:
+            return typeOf(nextSibling[c0]);
+        case ASSIGN:
+            return assignType(n, c0, nextSibling[c0]);
+        case CALL:
+            return callType(c0, nextSibling[c0]);
+        case UNARY_MINUS:
+        case NOT: {
+            Type.AbstractType type = typeOf(c0);
+            boolean minus = kind(n) == UNARY_MINUS;
+            if (type.isErrorType())
+                return Type.ERROR;
+            if (minus ? !type.isIntType() : !type.isBoolType()) {
+                ErrMsg.fatal(line(n), col(n), minus
+                             ? "Arithmetic operator applied to non-numeric operand"
+                             : "Logical operator applied to non-bool operand");
+                return Type.ERROR;
+            }
+            return minus ? Type.INT : Type.BOOL;
+        }
+        default: {
+            // a binary operator, down its left spine as in exp()
+            int m = n;
+            while (kind(m) >= PLUS)
+                m++;
+            Type.AbstractType type = typeOf(m);
+            for (int s = m - 1; s >= n; s--)
+                type = binaryType(s, type);
+            return type;
+        }
+        }
+    }
+
+    private Type.AbstractType assignType(int n, int lhs, int rhs) {
+        Type.AbstractType typeLhs = typeOf(lhs);
+        Type.AbstractType typeExp = typeOf(rhs);
+        Type.AbstractType retType = typeLhs;
+
+        if (typeLhs.isFnType() && typeExp.isFnType()) {
+            ErrMsg.fatal(line(lhs), col(n), "Function assignment");
+            retType = Type.ERROR;
+        }
+        if (typeLhs.isStructDefType() && typeExp.isStructDefType()) {
+            ErrMsg.fatal(line(lhs), col(n), "Struct name assignment");
+            retType = Type.ERROR;
+        }
+        if (typeLhs.isStructType() && typeExp.isStructType()) {
+            ErrMsg.fatal(line(lhs), col(n), "Struct variable assignment");
+            retType = Type.ERROR;
+        }
+        if (!typeLhs.equals(typeExp) && !typeLhs.isErrorType() && !typeExp.isErrorType()) {
+            ErrMsg.fatal(line(lhs), col(n), "Type mismatch");
+            retType = Type.ERROR;
+        }
+        if (typeLhs.isErrorType() || typeExp.isErrorType())
+            retType = Type.ERROR;
+        return retType;
+    }
+
+    private Type.AbstractType callType(int id, int args) {
+        if (!typeOf(id).isFnType()) {
+            ErrMsg.fatal(line(id), col(id), "Attempt to call a non-function");
+            return Type.ERROR;
+        }
+        FnInfo fn = (FnInfo) info[id];
+        int nargs = 0;
+        for (int c = args < 0 ? -1 : firstChild(args); c >= 0; c = nextSibling[c])
+            nargs++;
+        if (nargs != fn.getNumParams()) {
+            ErrMsg.fatal(line(id), col(id), "Function call with wrong number of args");
+            return fn.getReturnType();
+        }
+        List<Type.AbstractType> typeList = fn.getParamTypes();
+        int k = 0;
+        for (int c = args < 0 ? -1 : firstChild(args); c >= 0; c = nextSibling[c]) {
+            Type.AbstractType actualType = typeOf(c);
+            if (!actualType.isErrorType() && !typeList.get(k).equals(actualType))
+                ErrMsg.fatal(line(c), col(c), "Type of actual does not match type of formal");
+            k++;
+        }
+        return fn.getReturnType();
+    }
+
+    /**
+     * The type of binary operator n whose left operand has type type1
+     */
+    private Type.AbstractType binaryType(int n, Type.AbstractType type1) {
+        int e1 = n + 1;
+        int e2 = nextSibling[e1];
+        Type.AbstractType type2 = typeOf(e2);
+        byte k = kind(n);
+        Type.AbstractType retType;
+
+        if (k == EQUALS || k == NOT_EQUALS) {
+            retType = Type.BOOL;
+            if (type1.isVoidType() && type2.isVoidType()) {
+                ErrMsg.fatal(line(n), col(n), "Equality operator applied to void functions");
+                retType = Type.ERROR;
+            }
+            if (type1.isFnType() && type2.isFnType()) {
+                ErrMsg.fatal(line(n), col(n), "Equality operator applied to functions");
+                retType = Type.ERROR;
+            }
+            if (type1.isStructDefType() && type2.isStructDefType()) {
+                ErrMsg.fatal(line(n), col(n), "Equality operator applied to struct names");
+                retType = Type.ERROR;
+            }
+            if (type1.isStructType() && type2.isStructType()) {
+                ErrMsg.fatal(line(n), col(n), "Equality operator applied to struct variables");
+                retType = Type.ERROR;
+            }
+            if (!type1.equals(type2) && !type1.isErrorType() && !type2.isErrorType()) {
+                ErrMsg.fatal(line(n), col(n), "Type mismatch");
+                retType = Type.ERROR;
+            }
+        }
+        else {
+            boolean logical = k == AND || k == OR;
+            String msg = logical ? "Logical operator applied to non-bool operand"
+                       : k <= DIVIDE ? "Arithmetic operator applied to non-numeric operand"
+                       : "Relational operator applied to non-numeric operand";
+            retType = logical || k > DIVIDE ? Type.BOOL : Type.INT;
+            if (!type1.isErrorType() && (logical ? !type1.isBoolType() : !type1.isIntType())) {
+                ErrMsg.fatal(line(e1), col(e1), msg);
+                retType = Type.ERROR;
+            }
+            if (!type2.isErrorType() && (logical ? !type2.isBoolType() : !type2.isIntType())) {
+                ErrMsg.fatal(line(e2), col(e2), msg);
+                retType = Type.ERROR;
+            }
+        }
+        if (type1.isErrorType() || type2.isErrorType())
+            retType = Type.ERROR;
+        return retType;
+    }
+
+    // **********************************************************************
+    // unparse, straight from the arrays
+    // **********************************************************************
+
+    /**
+     * Prints the program exactly as AST.ProgramNode.unparse does for an
+     * AST that has not been through name analysis
+     */
+    public void unparse(PrintWriter p) {
+        unparse(p, 0, 0);
+    }
+
+    private void unparse(PrintWriter p, int n, int indent) {
+        int c0 = firstChild(n);
+        int c1 = c0 < 0 ? -1 : nextSibling[c0];
+        switch (kind(n)) {
+        case PROGRAM:
+            unparse(p, c0, indent);
+            break;
+        case FN_BODY:
+            unparse(p, c0, indent);
+            unparse(p, c1, indent);
+            break;
+        case DECL_LIST:
+        case STMT_LIST:
+            for (int c = c0; c >= 0; c = nextSibling[c])
+                unparse(p, c, indent);
+            break;
+        case FORMALS_LIST:
+        case EXP_LIST:
+            for (int c = c0; c >= 0; c = nextSibling[c]) {
+                if (c != c0)
+                    p.print(", ");
+                unparse(p, c, 0);
+            }
+            break;
+        case VAR_DECL:
+            doIndent(p, indent);
+            unparse(p, c0, 0);
+            p.print(" ");
+            unparse(p, c1, 0);
+            p.println(";");
+            break;
+        case FN_DECL:
+            doIndent(p, indent);
+            unparse(p, c0, 0);
+            p.print(" ");
+            unparse(p, c1, 0);
+            p.print("(");
+            unparse(p, nextSibling[c1], 0);
+            p.println(") {");
+            unparse(p, nextSibling[nextSibling[c1]], indent + 4);
+            p.println("}\n");
+            break;
+        case FORMAL_DECL:
+            unparse(p, c0, 0);
+            p.print(" ");
+            unparse(p, c1, 0);
+            break;
+        case STRUCT_DECL:
+            doIndent(p, indent);
+            p.print("struct ");
+            unparse(p, c0, 0);
+            p.println("{");
+            unparse(p, c1, indent + 4);
+            doIndent(p, indent);
+            p.println("};\n");
+            break;
+        case INT_TYPE:
+            p.print("int");
+            break;
+        case BOOL_TYPE:
+            p.print("bool");
+            break;
+        case VOID_TYPE:
+            p.print("void");
+            break;
+        case STRUCT_TYPE:
+            p.print("struct ");
+            unparse(p, c0, 0);
+            break;
+        case ASSIGN_STMT:
+            doIndent(p, indent);
+            unparse(p, c0, -1);   // no parentheses
+            p.println(";");
+            break;
+        case POST_INC_STMT:
+            doIndent(p, indent);
+            unparse(p, c0, 0);
+            p.println("++;");
+            break;
+        case POST_DEC_STMT:
+            doIndent(p, indent);
+            unparse(p, c0, 0);
+            p.println("--;");
+            break;
+        case READ_STMT:
+            doIndent(p, indent);
+            p.print("cin >> ");
+            unparse(p, c0, 0);
+            p.println(";");
+            break;
+        case WRITE_STMT:
+            doIndent(p, indent);
+            p.print("cout << ");
+            unparse(p, c0, 0);
+            p.println(";");
+            break;
+        case IF_STMT:
+        case WHILE_STMT:
+            doIndent(p, indent);
+            p.print(kind(n) == IF_STMT ? "if (" : "while (");
+            unparse(p, c0, 0);
+            p.println(") {");
+            unparse(p, c1, indent + 4);
+            unparse(p, nextSibling[c1], indent + 4);
+            doIndent(p, indent);
+            p.println("}");
+            break;
+        case IF_ELSE_STMT: {
+            int c3 = nextSibling[nextSibling[c1]];
+            doIndent(p, indent);
+            p.print("if (");
+            unparse(p, c0, 0);
+            p.println(") {");
+            unparse(p, c1, indent + 4);
+            unparse(p, nextSibling[c1], indent + 4);
+            doIndent(p, indent);
+            p.println("}");
+            doIndent(p, indent);
+            p.println("else {");
+            unparse(p, c3, indent + 4);
+            unparse(p, nextSibling[c3], indent + 4);
+            doIndent(p, indent);
+            p.println("}");
+            break;
+        }
+        case CALL_STMT:
+            doIndent(p, indent);
+            unparse(p, c0, indent);
+            p.println(";");
+            break;
+        case RETURN_STMT:
+            doIndent(p, indent);
+            p.print("return");
+            if (c0 >= 0) {
+                p.print(" ");
+                unparse(p, c0, 0);
+            }
+            p.println(";");
+            break;
+        case INT_LIT:
+            p.print(value[n]);
+            break;
+        case STRING_LIT:
+        case ID:
+            p.print(string(value[n]));
+            break;
+        case TRUE:
+            p.print("true");
+            break;
+        case FALSE:
+            p.print("false");
+            break;
+        case DOT_ACCESS:
+            unparse(p, c0, 0);
+            p.print(".");
+            unparse(p, c1, 0);
+            break;
+        case ASSIGN:
+            if (indent != -1)  p.print("(");
+            unparse(p, c0, 0);
+            p.print(" = ");
+            unparse(p, c1, 0);
+            if (indent != -1)  p.print(")");
+            break;
+        case CALL:
+            unparse(p, c0, 0);
+            p.print("(");
+            if (c1 >= 0)
+                unparse(p, c1, 0);
+            p.print(")");
+            break;
+        case UNARY_MINUS:
+        case NOT:
+            p.print(kind(n) == NOT ? "(!" : "(-");
+            unparse(p, c0, 0);
+            p.print(")");
+            break;
+        default: {
+            // down the left spine as in exp()
+            int m = n;
+            while (kind(m) >= PLUS) {
+                p.print("(");
+                m++;
+            }
+            unparse(p, m, 0);
+            for (int s = m - 1; s >= n; s--) {
+                p.print(BINARY_OPS[kind(s) - PLUS]);
+                unparse(p, nextSibling[s + 1], 0);
+                p.print(")");
+            }
+            break;
+        }
+        }
+    }
+
+    // **********************************************************************
+    // binary form
+    // **********************************************************************
+    //
+    //   "CMMA", version byte
+    //   node count, string count                             varints
+    //   each string: length in bytes, UTF-8 bytes
+    //   each node, in preorder:
+    //     kind << 3 | has children | has next sibling << 1 | has position << 2
+    //     if it has a position: line minus the previous line (zigzag), column
+    //     for INT_LIT, STRING_LIT, ID and VAR_DECL: the value (zigzag)
+    //
+    // Varints are 7 bits a byte, low bits first.  The tree shape comes from
+    // the two flags, so there are no node numbers in the file.
+
+    private static final byte MAGIC[] = { 'C', 'M', 'M', 'A' };
+    private static final int VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Writes this AST in the binary form read by load() and read()
+     */
+    public void write(OutputStream out) throws IOException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream(4 * count + 64);
+        b.write(MAGIC, 0, MAGIC.length);
+        b.write(VERSION);
+        writeVarint(b, count);
+        writeVarint(b, strings.length);
+        for (int i = 0; i < strings.length; i++) {
+            byte text[] = string(i).getBytes(UTF8);
+            writeVarint(b, text.length);
+            b.write(text, 0, text.length);
+        }
+        int line = 0;
+        for (int n = 0; n < count; n++) {
+            int k = kind(n);
+            boolean hasPos = pos[n] != 0;
+            writeVarint(b, k << 3
+                           | ((kind[n] & HAS_CHILDREN) != 0 ? 1 : 0)
+                           | (nextSibling[n] >= 0 ? 2 : 0)
+                           | (hasPos ? 4 : 0));
+            if (hasPos) {
+                writeVarint(b, zigzag(line(n) - line));
+                writeVarint(b, col(n));
+                line = line(n);
+            }
+            if (hasValue(k))
+                writeVarint(b, zigzag(value[n]));
+        }
+        b.writeTo(out);
+    }
+
+    /**
+     * Maps a file written by write() into memory and reads its nodes.
+     * The string table stays in the file until a string is asked for.
+     */
+    public static FlatAST load(File file) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(file, "r");
+        try {
+            FileChannel ch = f.getChannel();
+            return read(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        } finally {
+            f.close();
+        }
+    }
+
+    /**
+     * Reads an AST in the binary form from buf, which it keeps for the
+     * strings; the position of buf is left alone
+     */
+    public static FlatAST read(ByteBuffer buf) throws IOException {
+        ByteBuffer b = buf.duplicate();
+        try {
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (b.get() != MAGIC[i])
+                    throw new IOException("not a C-- AST file");
+            }
+            if (b.get() != VERSION)
+                throw new IOException("unsupported C-- AST file version");
+            int count = readVarint(b);
+            int nstrings = readVarint(b);
+            // every string and every node takes at least a byte, so a
+            // header asking for more cannot be right; check it before
+            // allocating for it
+            if ((long) count + nstrings > b.remaining())
+                throw new IOException("malformed C-- AST file");
+            FlatAST f = new FlatAST(count, nstrings);
+            f.source = buf;
+            for (int i = 0; i < f.nstrings; i++) {
+                f.stringAt[i] = b.position();
+                int length = readVarint(b);
+                b.position(b.position() + length);
+            }
+            f.readNodes(b);
+            return f;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated C-- AST file");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("malformed C-- AST file");
+        }
+    }
+
+    /**
+     * An empty FlatAST of the given size, for read()
+     */
+    private FlatAST(int count, int nstrings) {
+        if (count < 1 || nstrings < 0)
+            throw new IllegalArgumentException();
+        this.count = count;
+        this.nstrings = nstrings;
+        kind = new byte[count];
+        nextSibling = new int[count];
+        pos = new long[count];
+        value = new int[count];
+        strings = new String[nstrings];
+        stringAt = new int[nstrings];
+    }
+
+    /**
+     * Reads the nodes, linking each to its next sibling.  open holds the
+     * nodes whose children are still being read; after a node without
+     * children, the innermost of them without a next sibling are done.
+     */
+    private void readNodes(ByteBuffer b) {
+        int open[] = new int[64];
+        int depth = 0;
+        int prev = -1;      // the node that has n as its next sibling
+        int line = 0;
+        for (int n = 0; n < count; n++) {
+            if (n > 0 && prev < 0 && (kind[n - 1] & HAS_CHILDREN) == 0)
+                throw new IllegalArgumentException();   // after the root
+            if (prev >= 0)
+                nextSibling[prev] = n;
+            int tag = readVarint(b);
+            int k = tag >>> 3;
+            if (k > GREATER_EQ)
+                throw new IllegalArgumentException();
+            kind[n] = (byte) (k | ((tag & 1) != 0 ? HAS_CHILDREN : 0));
+            nextSibling[n] = (tag & 2) != 0 ? -2 : -1;  // -2 until known
+            if ((tag & 4) != 0) {
+                line += unzigzag(readVarint(b));
+                pos[n] = (long) line << 32 | (readVarint(b) & 0xffffffffL);
+            }
+            if (hasValue(k)) {
+                value[n] = unzigzag(readVarint(b));
+                if ((k == STRING_LIT || k == ID) && (value[n] < 0 || value[n] >= nstrings))
+                    throw new IllegalArgumentException();
+            }
+
+            if ((tag & 1) != 0) {
+                if (depth == open.length)
+                    open = Arrays.copyOf(open, 2 * depth);
+                open[depth++] = n;
+                prev = -1;
+            } else {
+                int done = n;
+                while (nextSibling[done] == -1 && depth > 0)
+                    done = open[--depth];
+                prev = nextSibling[done] == -2 ? done : -1;
+            }
+        }
+        if (depth > 0 || prev >= 0)
+            throw new IllegalArgumentException();
+    }
+
+    private static boolean hasValue(int k) {
+        return k == INT_LIT || k == STRING_LIT || k == ID || k == VAR_DECL;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream b, int v) {
+        while ((v & ~0x7f) != 0) {
+            b.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        b.write(v);
+    }
+
+    private static int readVarint(ByteBuffer b) {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte x = b.get();
+            v |= (x & 0x7f) << shift;
+            if (x >= 0)
+                return v;
+        }
+        throw new IllegalArgumentException();
+    }
+
+    private static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    private static int unzigzag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static void doIndent(PrintWriter p, int indent) {
+        char spaces[] = AST.ASTnode.SPACES;
+        for (int k=0; k<indent; k+=spaces.length)
+            p.write(spaces, 0, Math.min(indent-k, spaces.length));
+    }
+}
@@ -0,0 +1,267 @@
+package ast;
+
+import java.util.*;
+import symtable.*;
+import lexer.*;
+
+/**
+ * Name analysis, type checking and offset resolution of one program kept
+ * up to date as its top-level declarations are replaced, e.g. by
+ * CmmIncrementalParser, redoing only the declarations an edit can have
+ * changed the outcome for:
+ *
+ *     IncrementalAnalysis a = new IncrementalAnalysis();
+ *     a.analyze(session.program());
+ *     session.edit(...);
+ *     a.analyze(session.program());   // just what the edit reaches
+ *
+ * Each declaration is analyzed on a SymTable whose base holds the
+ * globals declared before it, and the table records which globals it
+ * looked up and what it found: the struct definitions, globals and
+ * functions (with their FnInfo, hence their signatures) it depends on,
+ * and the names it was told are undeclared or already declared.  A
+ * declaration is kept, by node identity, as long as each of those names
+ * still stands for the same SymInfo.  Otherwise, and for new nodes, the
+ * passes run on it again.
+ *
+ * So a declaration whose SymInfo changes invalidates just the ones that
+ * looked it up.  When one is analyzed again and declares the same name
+ * with the same interface as before (the same signature, layout or type
+ * and size), it takes over the SymInfo it had, relinking its own ids, and
+ * nothing that depends on it is redone: editing the body of a function
+ * redoes only that function.
+ *
+ * Errors are reported by the declarations analyzed; the ones kept keep
+ * theirs, see hasErrors.  A declaration with an undeclared or multiply
+ * declared name is only name analyzed, since the other passes need its
+ * ids linked; it is redone like any other once a name it looked up
+ * changes.
+ */
+public class IncrementalAnalysis {
+
+    /**
+     * A top-level declaration and what analyzing it found
+     */
+    private static class Unit {
+        AST.DeclNode decl;
+        SymInfo declared;           // the global it declares, or null
+        Map<String,SymInfo> reads;  // globals looked up, and what they were
+        int errors;
+        boolean isMain;
+    }
+
+    private IdentityHashMap<AST.DeclNode, Unit> units =
+        new IdentityHashMap<AST.DeclNode, Unit>();
+    private PersistentSymTable globals = new PersistentSymTable();
+    private boolean noMain;
+    private int lastReanalyzed;
+
+    // during analyze(): the globals of the last run, who declared them,
+    // and the declarations in the program now
+    private PersistentSymTable before;
+    private IdentityHashMap<SymInfo, AST.DeclNode> owners;
+    private Set<AST.DeclNode> present;
+
+    /**
+     * Brings the analysis up to date with the declarations of root
+     */
+    public void analyze(AST.ProgramNode root) {
+        List<AST.DeclNode> decls = root.declList().decls();
+
+        // the globals of the last run, and the declarations still there
+        before = globals;
+        present = Collections.newSetFromMap(new IdentityHashMap<AST.DeclNode, Boolean>());
+        present.addAll(decls);
+        owners = new IdentityHashMap<SymInfo, AST.DeclNode>();
+        for (Unit u : units.values()) {
+            if (u.declared != null) {
+                owners.put(u.declared, u.decl);
+            }
+        }
+        IdentityHashMap<AST.DeclNode, Unit> old = units;
+        units = new IdentityHashMap<AST.DeclNode, Unit>();
+
+        globals = new PersistentSymTable();
+        lastReanalyzed = 0;
+        Unit last = null;
+        for (AST.DeclNode decl : decls) {
+            Unit u = old.remove(decl);
+            if (u == null || ! valid(u)) {
+                u = analyze(decl);
+                lastReanalyzed++;
+            }
+            units.put(decl, u);
+            if (u.declared != null) {
+                globals = globals.addDecl(decl.idNode().name(), u.declared);
+            }
+            last = u;
+        }
+        before = null;
+        present = null;
+        owners = null;
+
+        noMain = last == null || ! last.isMain;
+        if (noMain) {
+            ErrMsg.fatal(0, 0, "No main function");
+        }
+    }
+
+    /**
+     * Whether every global u looked up is still what u found
+     */
+    private boolean valid(Unit u) {
+        for (Map.Entry<String, SymInfo> read : u.reads.entrySet()) {
+            if (globals.lookupGlobal(read.getKey()) != read.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs the passes on decl against the globals declared before it.
+     * The SymInfo the last run had for the name decl declares is taken
+     * over if it has the same interface and was declared by decl itself
+     * or by a declaration no longer in the program.
+     */
+    private Unit analyze(AST.DeclNode decl) {
+        Unit u = new Unit();
+        u.decl = decl;
+        u.reads = new HashMap<String, SymInfo>();
+        int errors = ErrMsg.fatalCount();
+
+        SymTable symTab = new SymTable(globals);
+        symTab.recordBaseReads(u.reads);
+        AST.IdNode id = decl.idNode();
+        id.link(null);
+        decl.nameAnalysis(symTab, true);
+        u.declared = id.info();
+
+        if (u.declared != null) {
+            SymInfo was = before.lookupGlobal(id.name());
+            if (was != null && (owners.get(was) == decl || ! present.contains(owners.get(was)))
+                && sameInterface(was, u.declared)) {
+                relink(decl, u.declared, was);
+                u.declared = was;
+            }
+        }
+
+        // type checking and offsets need every id linked
+        u.isMain = decl.isMain();
+        if (ErrMsg.fatalCount() == errors) {
+            decl.typeCheck();
+            decl.resolveOffset(0);
+        }
+        u.errors = ErrMsg.fatalCount() - errors;
+        return u;
+    }
+
+    /**
+     * Whether a declaration of now instead of was needs nothing that
+     * looked up was analyzed again
+     */
+    private static boolean sameInterface(SymInfo was, SymInfo now) {
+        if (was.getClass() != now.getClass() || was.getType() != now.getType()
+            || was.getGlobal() != now.getGlobal()) {
+            return false;
+        }
+        if (now instanceof FnInfo) {
+            FnInfo f = (FnInfo) was, g = (FnInfo) now;
+            return f.getReturnType() == g.getReturnType()
+                && f.getNumParams() == g.getNumParams()
+                && sameTypes(f.getParamTypes(), g.getParamTypes());
+        }
+        if (now instanceof StructDefInfo) {
+            StructLayout a = ((StructDefInfo) was).getLayout();
+            StructLayout b = ((StructDefInfo) now).getLayout();
+            if (a.fieldCount() != b.fieldCount() || a.size() != b.size()) {
+                return false;
+            }
+            for (int i = 0; i < a.fieldCount(); i++) {
+                if (! a.name(i).equals(b.name(i)) || a.type(i) != b.type(i)
+                    || a.offset(i) != b.offset(i)
+                    || a.field(i).getSize() != b.field(i).getSize()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        // a struct variable's type is that of the definition it names
+        return was.getSize() == now.getSize();
+    }
+
+    private static boolean sameTypes(List<Type.AbstractType> a,
+                                     List<Type.AbstractType> b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Links the ids in decl that name now, or one of its fields, to was
+     * or the field of was in the same place
+     */
+    private static void relink(AST.DeclNode decl, SymInfo now, SymInfo was) {
+        final IdentityHashMap<SymInfo, SymInfo> to = new IdentityHashMap<SymInfo, SymInfo>();
+        to.put(now, was);
+        if (now instanceof StructDefInfo) {
+            StructLayout a = ((StructDefInfo) was).getLayout();
+            StructLayout b = ((StructDefInfo) now).getLayout();
+            for (int i = 0; i < b.fieldCount(); i++) {
+                to.put(b.field(i), a.field(i));
+            }
+        }
+        // the index walk visits every id that names a symbol
+        decl.index(new SymbolIndex() {
+            void declare(AST.IdNode id, int kind) {
+                refer(id);
+            }
+
+            void refer(AST.IdNode id) {
+                SymInfo info = to.get(id.info());
+                if (info != null) {
+                    id.link(info);
+                }
+            }
+        });
+    }
+
+    /**
+     * Whether there are errors in the program as last analyzed, reported
+     * then or when the declarations they are in were last analyzed
+     */
+    public boolean hasErrors() {
+        if (noMain) {
+            return true;
+        }
+        for (Unit u : units.values()) {
+            if (u.errors > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The number of declarations the last analyze() ran the passes on
+     */
+    public int lastReanalyzed() {
+        return lastReanalyzed;
+    }
+
+    /**
+     * The globals of the program as last analyzed
+     */
+    public PersistentSymTable globals() {
+        return globals;
+    }
+}
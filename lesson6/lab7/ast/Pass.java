@@ -0,0 +1,65 @@
+package ast;
+
+import java.util.*;
+
+/**
+ * One pass of the compiler over a program, run by a Pipeline.
+ *
+ * A pass sees the program a top-level declaration at a time, in source
+ * order, between begin() and end().  It names the passes it depends on,
+ * and says whether it is local: whether it only needs those passes to
+ * have seen the declaration it is given and the ones before it.  Name
+ * analysis, type checking and offset resolution are local, since C--
+ * requires declaration before use; code generation is not, since it
+ * must not start while the program may still turn out to have errors.
+ *
+ * The Pipeline runs consecutive local passes in a single walk over the
+ * declarations, see Pipeline.
+ */
+public abstract class Pass {
+
+    private String name;
+    private boolean local;
+    private List<Pass> requires;
+
+    protected Pass(String name, boolean local, Pass... requires) {
+        this.name = name;
+        this.local = local;
+        this.requires = Collections.unmodifiableList(Arrays.asList(requires));
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public boolean isLocal() {
+        return local;
+    }
+
+    public List<Pass> requires() {
+        return requires;
+    }
+
+    /**
+     * Whether the pass should run at all, asked just before it would
+     * begin.  A pass that is skipped skips the passes that require it.
+     */
+    public boolean ready() {
+        return true;
+    }
+
+    public void begin(AST.ProgramNode root) {
+    }
+
+    /**
+     * Processes one top-level declaration
+     */
+    public abstract void visit(AST.DeclNode decl);
+
+    public void end(AST.ProgramNode root) {
+    }
+
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,186 @@
+package ast;
+
+import java.io.*;
+import symtable.*;
+import lexer.*;
+
+/**
+ * The passes of the C-- compiler, each applying the per-node methods of
+ * AST to one top-level declaration at a time:
+ *
+ *     Pipeline p = Passes.compiler(outFile);
+ *     p.run(astRoot);
+ */
+public class Passes {
+
+    /**
+     * Name analysis, type checking and offset resolution in one walk,
+     * then code generation if there were no errors
+     */
+    public static Pipeline compiler(PrintWriter out) {
+        return compiler(out, false);
+    }
+
+    /**
+     * The same, with ShareExps before code generation if shareExps is set
+     */
+    public static Pipeline compiler(PrintWriter out, boolean shareExps) {
+        return compiler(out, shareExps, null);
+    }
+
+    /**
+     * The same, also filling in symbols, if not null, in the same walk as
+     * name analysis
+     */
+    public static Pipeline compiler(PrintWriter out, boolean shareExps,
+                                    SymbolIndex symbols) {
+        NameAnalysis names = new NameAnalysis();
+        TypeCheck types = new TypeCheck(names);
+        ResolveOffset offsets = new ResolveOffset(names);
+        Pipeline p = new Pipeline()
+            .add(names)
+            .add(types)
+            .add(offsets);
+        if (symbols != null)
+            p.add(new IndexSymbols(symbols, names, offsets));
+        if (shareExps)
+            p.add(new ShareExps(types, offsets));
+        return p.add(new CodeGenPass(out, types, offsets));
+    }
+
+    /**
+     * ProgramNode.nameAnalysis: globals, struct definitions and functions
+     * go into one symbol table
+     */
+    public static class NameAnalysis extends Pass {
+        private SymTable symTab;
+
+        public NameAnalysis() {
+            super("names", true);
+        }
+
+        public void begin(AST.ProgramNode root) {
+            symTab = new SymTable();
+        }
+
+        public void visit(AST.DeclNode decl) {
+            decl.nameAnalysis(symTab, true);
+        }
+
+        public SymTable symTable() {
+            return symTab;
+        }
+    }
+
+    /**
+     * ProgramNode.typeCheck: the last declaration must be main
+     */
+    public static class TypeCheck extends Pass {
+        private boolean lastIsMain;
+
+        public TypeCheck(NameAnalysis names) {
+            super("types", true, names);
+        }
+
+        public void begin(AST.ProgramNode root) {
+            lastIsMain = false;
+        }
+
+        public void visit(AST.DeclNode decl) {
+            lastIsMain = decl.typeCheck();
+        }
+
+        public void end(AST.ProgramNode root) {
+            if (!lastIsMain) {
+                ErrMsg.fatal(0, 0, "No main function");
+            }
+        }
+    }
+
+    /**
+     * ProgramNode.resolveOffset
+     */
+    public static class ResolveOffset extends Pass {
+        private int offset;
+
+        public ResolveOffset(NameAnalysis names) {
+            super("offsets", true, names);
+        }
+
+        public void begin(AST.ProgramNode root) {
+            offset = 0;
+        }
+
+        public void visit(AST.DeclNode decl) {
+            offset += decl.resolveOffset(offset);
+        }
+    }
+
+    /**
+     * Records every declaration and use of a name in a SymbolIndex, once
+     * the offsets of the declaration are known
+     */
+    public static class IndexSymbols extends Pass {
+        private SymbolIndex symbols;
+
+        public IndexSymbols(SymbolIndex symbols, NameAnalysis names,
+                            ResolveOffset offsets) {
+            super("symbols", true, names, offsets);
+            this.symbols = symbols;
+        }
+
+        public void visit(AST.DeclNode decl) {
+            decl.index(symbols);
+        }
+    }
+
+    /**
+     * Turns the expressions of each function body into a DAG, see ExpDag,
+     * and adds the slots for the values it reuses to the frame laid out
+     * by ResolveOffset.  Like code generation it is skipped if there were
+     * errors, so it walks the program on its own.
+     */
+    public static class ShareExps extends Pass {
+        private ExpDag dag;
+
+        public ShareExps(TypeCheck types, ResolveOffset offsets) {
+            super("dag", false, types, offsets);
+        }
+
+        public boolean ready() {
+            return ! ErrMsg.hasFatalError();
+        }
+
+        public void begin(AST.ProgramNode root) {
+            dag = new ExpDag();
+        }
+
+        public void visit(AST.DeclNode decl) {
+            decl.share(dag);
+        }
+
+        public ExpDag dag() {
+            return dag;
+        }
+    }
+
+    /**
+     * ProgramNode.codeGen; skipped if an earlier pass reported an error
+     */
+    public static class CodeGenPass extends Pass {
+        private PrintWriter out;
+
+        public CodeGenPass(PrintWriter out, TypeCheck types, ResolveOffset offsets) {
+            super("codegen", false, types, offsets);
+            this.out = out;
+        }
+
+        public boolean ready() {
+            return ! ErrMsg.hasFatalError();
+        }
+
+        public void visit(AST.DeclNode decl) {
+            decl.codeGen(out);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package ast;
+
+import java.util.*;
+import lexer.*;
+
+/**
+ * Runs a sequence of passes over a program with as few walks over its
+ * declarations as their dependencies allow.
+ *
+ * Passes are added in the order they run, each after the passes it
+ * requires.  They are cut into groups: a local pass joins the group
+ * before it, anything else starts a new group.  Each group is one walk
+ * over the top-level declarations, in which every declaration goes
+ * through all the passes of the group before the next declaration is
+ * looked at.  With the usual passes,
+ *
+ *     names, types, offsets | codegen
+ *
+ * that is two walks instead of four.
+ *
+ * A pass that reports an error on a declaration may have left it half
+ * done for the passes that require it (an id that does not resolve,
+ * say), which run separately would only have started once it had seen
+ * every declaration.  So such an error ends the fusion: from there on
+ * every pass of the group finishes the remaining declarations on its
+ * own, in order, as if the passes had never been fused.
+ *
+ * Errors and warnings come out as the passes run separately would give
+ * them, all those of one pass before any of the next: while fused, the
+ * messages of each pass are held (see ErrMsg.hold) and reported in pass
+ * order once the walk is over or the fusion ends.
+ */
+public class Pipeline {
+
+    private List<Pass> passes = new ArrayList<Pass>();
+    private boolean fuse = true;
+
+    /**
+     * Adds a pass to run after the ones already added.  Throws
+     * IllegalArgumentException if it requires a pass not added yet.
+     */
+    public Pipeline add(Pass pass) {
+        for (Pass p : pass.requires()) {
+            if ( ! passes.contains(p) )
+                throw new IllegalArgumentException(pass + " requires " + p
+                                                   + ", which does not run before it");
+        }
+        passes.add(pass);
+        return this;
+    }
+
+    /**
+     * With fusion off every pass walks the program on its own, as the
+     * per-node passes of AST do
+     */
+    public Pipeline setFusion(boolean fuse) {
+        this.fuse = fuse;
+        return this;
+    }
+
+    /**
+     * The passes in the order they run, one list per walk
+     */
+    public List<List<Pass>> groups() {
+        List<List<Pass>> groups = new ArrayList<List<Pass>>();
+        List<Pass> group = null;
+        for (Pass p : passes) {
+            if (group == null || ! fuse || ! p.isLocal()) {
+                group = new ArrayList<Pass>();
+                groups.add(group);
+            }
+            group.add(p);
+        }
+        return groups;
+    }
+
+    public void run(AST.ProgramNode root) {
+        List<AST.DeclNode> decls = root.declList().decls();
+        Set<Pass> skipped = new HashSet<Pass>();
+        for (List<Pass> group : groups()) {
+            List<Pass> active = new ArrayList<Pass>();
+            for (Pass p : group) {
+                if ( ! p.ready() || ! Collections.disjoint(p.requires(), skipped) )
+                    skipped.add(p);
+                else
+                    active.add(p);
+            }
+            if (active.isEmpty())
+                continue;
+            for (Pass p : active)
+                p.begin(root);
+            walk(root, decls, active);
+        }
+    }
+
+    /**
+     * Runs a group of passes, fused, over the declarations and ends them.
+     * The messages of each pass are held until the passes before it in
+     * the group have reported theirs.
+     */
+    private void walk(AST.ProgramNode root, List<AST.DeclNode> decls,
+                      List<Pass> group) {
+        List<List<ErrMsg.Held>> held = new ArrayList<List<ErrMsg.Held>>();
+        for (int k = 0; k < group.size(); k++)
+            held.add(new ArrayList<ErrMsg.Held>());
+        ListIterator<AST.DeclNode> it = decls.listIterator();
+        while (it.hasNext()) {
+            int i = it.nextIndex();
+            AST.DeclNode decl = it.next();
+            for (int k = 0; k < group.size(); k++) {
+                ErrMsg.hold();
+                try {
+                    group.get(k).visit(decl);
+                } finally {
+                    held.get(k).addAll(ErrMsg.release());
+                }
+                if (hasFatal(held.get(k)) && hasDependent(group, k)) {
+                    // passes up to k have seen declaration i, the rest not
+                    for (int j = 0; j < group.size(); j++) {
+                        Pass p = group.get(j);
+                        report(held.get(j));
+                        held.get(j).clear();
+                        ListIterator<AST.DeclNode> rest =
+                            decls.listIterator(j <= k ? i + 1 : i);
+                        while (rest.hasNext())
+                            p.visit(rest.next());
+                        p.end(root);
+                    }
+                    return;
+                }
+            }
+        }
+        for (int k = 0; k < group.size(); k++) {
+            report(held.get(k));
+            group.get(k).end(root);
+        }
+    }
+
+    private static boolean hasFatal(List<ErrMsg.Held> messages) {
+        for (ErrMsg.Held m : messages) {
+            if (m.isFatal())
+                return true;
+        }
+        return false;
+    }
+
+    private static void report(List<ErrMsg.Held> messages) {
+        for (ErrMsg.Held m : messages)
+            m.report();
+    }
+
+    /**
+     * Whether a pass after group[k] requires it, directly or not
+     */
+    private static boolean hasDependent(List<Pass> group, int k) {
+        for (int j = k + 1; j < group.size(); j++) {
+            if (requires(group.get(j), group.get(k)))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean requires(Pass p, Pass q) {
+        for (Pass r : p.requires()) {
+            if (r == q || requires(r, q))
+                return true;
+        }
+        return false;
+    }
+}
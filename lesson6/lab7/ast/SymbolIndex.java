@@ -0,0 +1,417 @@
+package ast;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import symtable.*;
+
+/**
+ * The declarations of a program and every place their names occur, for
+ * tools like editors to answer go-to-definition and find-references
+ * without running the compiler.
+ *
+ * The index methods of AST fill one in from the links name analysis left
+ * on the ids (see Passes.IndexSymbols), and write() saves it.  Names that
+ * did not resolve are left out.  The offsets and sizes are those of the
+ * SymInfos when write() is called, so it should be after ResolveOffset.
+ *
+ * The file is meant to be mapped and read in place, see Reader: every
+ * record is fixed size and every number a big-endian int.
+ *
+ *     header       "CMMS", version, symbol count S, occurrence count N,
+ *                  string pool size in bytes
+ *     symbols      S records of 11 ints, in order of declaration:
+ *                  name, type (both offsets into the string pool), kind,
+ *                  1 if global, line, column, offset, size, index of the
+ *                  function or struct it is declared in or -1, and the
+ *                  first and count of its occurrences in the list below
+ *     occurrences  N records of line, column and symbol, sorted by
+ *                  position; a declaration is an occurrence of its own
+ *     by symbol    N indexes of occurrences, grouped by symbol and in
+ *                  position order within a symbol
+ *     strings      length, then that many bytes of UTF-8, for each
+ *
+ * The offset of a local, formal or field is the one codeGen uses: from
+ * the frame pointer, or from the start of its struct.  The size of a
+ * function is the size of its locals.
+ */
+public class SymbolIndex {
+
+    /** The kinds of symbol */
+    public static final int VAR = 0;
+    public static final int FORMAL = 1;
+    public static final int FN = 2;
+    public static final int STRUCT = 3;
+    public static final int FIELD = 4;
+
+    private static final byte MAGIC[] = { 'C', 'M', 'M', 'S' };
+    private static final int VERSION = 1;
+    private static final int HEADER = 20;
+    private static final int SYMBOL = 44;
+    private static final int OCCURRENCE = 12;
+
+    private IdentityHashMap<SymInfo, Integer> ids =
+        new IdentityHashMap<SymInfo, Integer>();
+    private List<SymInfo> infos = new ArrayList<SymInfo>();
+    private List<String> names = new ArrayList<String>();
+    private int kinds[] = new int[64];
+    private long declPos[] = new long[64];
+    private int containers[] = new int[64];
+    private long occurrences[] = new long[64];   // line, column, symbol
+    private int occurrenceSymbols[] = new int[64];
+    private int occurrenceCount;
+    private int container = -1;
+    private Deque<Integer> outer = new ArrayDeque<Integer>();
+
+    /**
+     * Records the declaration of id, with the symbol name analysis linked
+     * it to.  A VAR declared in a struct is a FIELD.
+     */
+    void declare(AST.IdNode id, int kind) {
+        if (id.info() == null) {
+            return;
+        }
+        int s = symbol(id.info(), id.name());
+        kinds[s] = kind == VAR && container >= 0 && kinds[container] == STRUCT
+            ? FIELD : kind;
+        declPos[s] = position(id.lineNum, id.charNum);
+        containers[s] = container;
+        occur(id, s);
+    }
+
+    /**
+     * Records a use of the name of id
+     */
+    void refer(AST.IdNode id) {
+        if (id.info() == null) {
+            return;
+        }
+        occur(id, symbol(id.info(), id.name()));
+    }
+
+    /**
+     * The declarations recorded from here to leave() are inside the
+     * function or struct declared by id
+     */
+    void enter(AST.IdNode id) {
+        outer.push(container);
+        Integer s = id.info() == null ? null : ids.get(id.info());
+        container = s == null ? -1 : s;
+    }
+
+    void leave() {
+        container = outer.pop();
+    }
+
+    public int symbolCount() {
+        return infos.size();
+    }
+
+    public int occurrenceCount() {
+        return occurrenceCount;
+    }
+
+    private int symbol(SymInfo info, String name) {
+        Integer s = ids.get(info);
+        if (s != null) {
+            return s;
+        }
+        int n = infos.size();
+        if (n == kinds.length) {
+            kinds = Arrays.copyOf(kinds, 2 * n);
+            declPos = Arrays.copyOf(declPos, 2 * n);
+            containers = Arrays.copyOf(containers, 2 * n);
+        }
+        ids.put(info, n);
+        infos.add(info);
+        names.add(name);
+        declPos[n] = position(-1, -1);
+        containers[n] = -1;
+        return n;
+    }
+
+    private void occur(AST.IdNode id, int s) {
+        if (occurrenceCount == occurrences.length) {
+            occurrences = Arrays.copyOf(occurrences, 2 * occurrenceCount);
+            occurrenceSymbols = Arrays.copyOf(occurrenceSymbols, 2 * occurrenceCount);
+        }
+        occurrences[occurrenceCount] = position(id.lineNum, id.charNum);
+        occurrenceSymbols[occurrenceCount++] = s;
+    }
+
+    private static long position(int line, int col) {
+        return (long) line << 32 | (col & 0xffffffffL);
+    }
+
+    /**
+     * Writes the index in the form described above
+     */
+    public void write(OutputStream out) throws IOException {
+        int n = infos.size();
+
+        // occurrences by position, then by symbol
+        Integer byPos[] = new Integer[occurrenceCount];
+        for (int i = 0; i < occurrenceCount; i++) {
+            byPos[i] = i;
+        }
+        Arrays.sort(byPos, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(occurrences[a], occurrences[b]);
+            }
+        });
+        int first[] = new int[n + 1];
+        for (int i = 0; i < occurrenceCount; i++) {
+            first[occurrenceSymbols[i] + 1]++;
+        }
+        for (int s = 0; s < n; s++) {
+            first[s + 1] += first[s];
+        }
+        int fill[] = Arrays.copyOf(first, n);
+        int bySymbol[] = new int[occurrenceCount];
+        for (int k = 0; k < occurrenceCount; k++) {
+            int s = occurrenceSymbols[byPos[k]];
+            bySymbol[fill[s]++] = k;
+        }
+
+        // the string pool, each string once
+        ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        HashMap<String, Integer> pooled = new HashMap<String, Integer>();
+        int nameAt[] = new int[n];
+        int typeAt[] = new int[n];
+        for (int s = 0; s < n; s++) {
+            nameAt[s] = pool(pool, pooled, names.get(s));
+            typeAt[s] = pool(pool, pooled, typeName(infos.get(s)));
+        }
+
+        ByteBuffer b = ByteBuffer.allocate(HEADER + SYMBOL * n
+                                           + (OCCURRENCE + 4) * occurrenceCount);
+        b.put(MAGIC);
+        b.putInt(VERSION);
+        b.putInt(n);
+        b.putInt(occurrenceCount);
+        b.putInt(pool.size());
+        for (int s = 0; s < n; s++) {
+            SymInfo info = infos.get(s);
+            b.putInt(nameAt[s]);
+            b.putInt(typeAt[s]);
+            b.putInt(kinds[s]);
+            b.putInt(info.getGlobal() ? 1 : 0);
+            b.putInt((int) (declPos[s] >> 32));
+            b.putInt((int) declPos[s]);
+            b.putInt(info.getOffset());
+            b.putInt(info instanceof FnInfo ? ((FnInfo)info).getLocalSize()
+                                            : info.getSize());
+            b.putInt(containers[s]);
+            b.putInt(first[s]);
+            b.putInt(first[s + 1] - first[s]);
+        }
+        for (int k = 0; k < occurrenceCount; k++) {
+            b.putInt((int) (occurrences[byPos[k]] >> 32));
+            b.putInt((int) occurrences[byPos[k]]);
+            b.putInt(occurrenceSymbols[byPos[k]]);
+        }
+        for (int k = 0; k < occurrenceCount; k++) {
+            b.putInt(bySymbol[k]);
+        }
+        out.write(b.array(), 0, b.position());
+        pool.writeTo(out);
+        out.flush();
+    }
+
+    private static int pool(ByteArrayOutputStream pool,
+                            HashMap<String, Integer> pooled, String s) {
+        Integer at = pooled.get(s);
+        if (at != null) {
+            return at;
+        }
+        at = pool.size();
+        byte text[] = s.getBytes(StandardCharsets.UTF_8);
+        int length = text.length;
+        pool.write(length >>> 24);
+        pool.write(length >>> 16);
+        pool.write(length >>> 8);
+        pool.write(length);
+        pool.write(text, 0, text.length);
+        pooled.put(s, at);
+        return at;
+    }
+
+    /**
+     * The type of a symbol as written: a function's is its signature
+     */
+    private static String typeName(SymInfo info) {
+        if (!(info instanceof FnInfo)) {
+            return info.getType().toString();
+        }
+        FnInfo fn = (FnInfo) info;
+        StringBuilder str = new StringBuilder();
+        if (fn.getParamTypes() != null) {
+            for (Type.AbstractType type : fn.getParamTypes()) {
+                if (str.length() > 0)
+                    str.append(",");
+                str.append(type);
+            }
+        }
+        return str.append("->").append(fn.getReturnType()).toString();
+    }
+
+    /**
+     * Maps a file written by write() and answers queries from it in place
+     */
+    public static Reader load(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            return new Reader(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * A symbol index as written by write(), read in place.  Symbols and
+     * occurrences are numbered in the order of the file.
+     */
+    public static class Reader {
+        private final ByteBuffer b;
+        private final int symbols, occurrences;
+        private final int symbolsAt, occurrencesAt, bySymbolAt, stringsAt;
+
+        Reader(ByteBuffer b) throws IOException {
+            this.b = b;
+            try {
+                for (int i = 0; i < MAGIC.length; i++) {
+                    if (b.get(i) != MAGIC[i])
+                        throw new IOException("not a symbol index");
+                }
+                if (b.getInt(4) != VERSION)
+                    throw new IOException("unknown symbol index version " + b.getInt(4));
+                symbols = b.getInt(8);
+                occurrences = b.getInt(12);
+                int pool = b.getInt(16);
+                if (symbols < 0 || occurrences < 0 || pool < 0)
+                    throw new IOException("malformed symbol index");
+                // in long, so that huge counts cannot wrap around to an
+                // offset that looks in range
+                long occurrencesEnd = HEADER + (long) SYMBOL * symbols;
+                long bySymbolEnd = occurrencesEnd + (long) OCCURRENCE * occurrences;
+                long stringsEnd = bySymbolEnd + 4L * occurrences;
+                if (stringsEnd + pool > b.limit())
+                    throw new IOException("truncated symbol index");
+                symbolsAt = HEADER;
+                occurrencesAt = (int) occurrencesEnd;
+                bySymbolAt = (int) bySymbolEnd;
+                stringsAt = (int) stringsEnd;
+            } catch (IndexOutOfBoundsException ex) {
+                throw new IOException("truncated symbol index");
+            }
+        }
+
+        public int symbolCount() {
+            return symbols;
+        }
+
+        public String name(int s) {
+            return string(field(s, 0));
+        }
+
+        public String type(int s) {
+            return string(field(s, 1));
+        }
+
+        public int kind(int s) {
+            return field(s, 2);
+        }
+
+        public boolean isGlobal(int s) {
+            return field(s, 3) != 0;
+        }
+
+        public int line(int s) {
+            return field(s, 4);
+        }
+
+        public int column(int s) {
+            return field(s, 5);
+        }
+
+        public int offset(int s) {
+            return field(s, 6);
+        }
+
+        public int size(int s) {
+            return field(s, 7);
+        }
+
+        /**
+         * The function or struct s is declared in, or -1
+         */
+        public int container(int s) {
+            return field(s, 8);
+        }
+
+        /**
+         * The symbol whose name covers the given position, or -1: a
+         * binary search of the occurrences
+         */
+        public int symbolAt(int line, int col) {
+            int lo = 0, hi = occurrences;
+            long pos = position(line, col);
+            while (lo < hi) {   // the first occurrence after pos
+                int mid = (lo + hi) >>> 1;
+                if (position(occurrenceLine(mid), occurrenceColumn(mid)) <= pos)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            if (lo == 0)
+                return -1;
+            int k = lo - 1;
+            int s = b.getInt(occurrencesAt + OCCURRENCE * k + 8);
+            if (occurrenceLine(k) != line
+                || col >= occurrenceColumn(k) + name(s).length())
+                return -1;
+            return s;
+        }
+
+        /**
+         * The number of places the name of s occurs, its declaration
+         * among them
+         */
+        public int occurrenceCount(int s) {
+            return field(s, 10);
+        }
+
+        /**
+         * The k-th of them in position order, as an occurrence number
+         */
+        public int occurrence(int s, int k) {
+            return b.getInt(bySymbolAt + 4 * (field(s, 9) + k));
+        }
+
+        public int occurrenceLine(int k) {
+            return b.getInt(occurrencesAt + OCCURRENCE * k);
+        }
+
+        public int occurrenceColumn(int k) {
+            return b.getInt(occurrencesAt + OCCURRENCE * k + 4);
+        }
+
+        private int field(int s, int i) {
+            if (s < 0 || s >= symbols)
+                throw new IndexOutOfBoundsException("symbol " + s);
+            return b.getInt(symbolsAt + SYMBOL * s + 4 * i);
+        }
+
+        private String string(int at) {
+            int length = b.getInt(stringsAt + at);
+            byte text[] = new byte[length];
+            for (int i = 0; i < length; i++) {
+                text[i] = b.get(stringsAt + at + 4 + i);
+            }
+            return new String(text, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -1,5 +0,0 @@
-package lexer;
-
-public class CharNum {
-    public static int num=1;
-}
@@ -1,4 +1,8 @@
 package lexer;
+
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * This class is used to generate warning and fatal error messages.
  */
@@ -10,17 +14,31 @@ public class ErrMsg {
      * @param msg associated message for error
      */
     public static boolean hasFata = false;
+    private static int fatalCount = 0;
 
     public static boolean hasFatalError() {
         return hasFata;
     }
 
+    /**
+     * Number of fatal errors since the last reset
+     */
+    public static int fatalCount() {
+        return fatalCount;
+    }
+
     public static void reset() {
         hasFata = false;
+        fatalCount = 0;
     }
 
     public static void fatal(int lineNum, int charNum, String msg) {
+        if (held != null) {
+            held.add(new Held(lineNum, charNum, true, msg));
+            return;
+        }
         hasFata = true;
+        fatalCount++;
         System.err.println(lineNum + ":" + charNum + " ***ERROR*** " + msg);
     }
 
@@ -31,8 +49,62 @@ public class ErrMsg {
      * @param msg associated message for warning
      */
     public static void warn(int lineNum, int charNum, String msg) {
+        if (held != null) {
+            held.add(new Held(lineNum, charNum, false, msg));
+            return;
+        }
         System.err.println(lineNum + ":" + charNum + " ***WARNING*** " + msg);
     }
 
+    /**
+     * A message kept back by hold()
+     */
+    public static class Held {
+        public int lineNum;
+        public int charNum;
+        private boolean fatal;
+        private String msg;
+
+        private Held(int lineNum, int charNum, boolean fatal, String msg) {
+            this.lineNum = lineNum;
+            this.charNum = charNum;
+            this.fatal = fatal;
+            this.msg = msg;
+        }
+
+        public boolean isFatal() {
+            return fatal;
+        }
+
+        /**
+         * Reports the message as if it had not been held
+         */
+        public void report() {
+            if (fatal)
+                ErrMsg.fatal(lineNum, charNum, msg);
+            else
+                ErrMsg.warn(lineNum, charNum, msg);
+        }
+    }
+
+    private static List<Held> held;     // null unless holding
+
+    /**
+     * From now on, keeps messages back instead of printing or counting
+     * them, until release()
+     */
+    public static void hold() {
+        held = new ArrayList<Held>();
+    }
+
+    /**
+     * Stops holding messages and returns the ones held, in order, for
+     * the caller to report or drop
+     */
+    public static List<Held> release() {
+        List<Held> h = held;
+        held = null;
+        return h;
+    }
 
 }
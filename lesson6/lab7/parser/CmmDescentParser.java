@@ -0,0 +1,622 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java_cup.runtime.*;
+import ast.*;
+import lexer.*;
+
+/**
+ * A hand-written parser for C-- programs.
+ *
+ * Declarations and statements are parsed by recursive descent, one
+ * method per nonterminal of cmm.grammar; expressions are parsed by
+ * precedence climbing.  The parser builds exactly the same AST as the
+ * CUP-generated CmmParser and reports syntax errors the same way, so
+ * the two can be used interchangeably:
+ *
+ *     AST.ProgramNode root = new CmmDescentParser(new Yylex(in)).parse();
+ *
+ * The grammar is LL(1) once loc, fncall and assignExp are factored on
+ * their leading id, so a single token of lookahead is enough.
+ *
+ * The bodies of if and while statements and the operands of expressions
+ * nest as deep as the source does.  Those still open are kept on
+ * explicit stacks (see stmtList and exp) rather than in nested calls,
+ * so there is no limit on the depth but memory.
+ */
+public class CmmDescentParser {
+
+    // binary operator precedence, lowest first, as declared in cmm.cup;
+    // ASSIGN binds loosest of all and is handled where a loc is parsed
+    private static final int PREC_NONE = 0;
+    private static final int PREC_OR = 1;
+    private static final int PREC_AND = 2;
+    private static final int PREC_REL = 3;   // nonassoc
+    private static final int PREC_ADD = 4;
+    private static final int PREC_MUL = 5;
+    private static final int PREC_NOT = 6;   // unary only
+
+    private Scanner scanner;
+    private Symbol tok;   // the lookahead token
+
+    public CmmDescentParser(Scanner s) {
+        scanner = s;
+    }
+
+    /**
+     * Parses a whole program and returns the root of its AST.
+     * Throws SyntaxErrorException after reporting the first syntax error.
+     */
+    public AST.ProgramNode parse() throws Exception {
+        return new AST.ProgramNode(new AST.DeclListNode(parseDeclList()));
+    }
+
+    /**
+     * Parses top-level declarations up to EOF and returns them in order;
+     * used to parse parts of a program on their own.
+     */
+    public LinkedList<AST.DeclNode> parseDeclList() throws Exception {
+        tok = scanner.next_token();
+        LinkedList<AST.DeclNode> decls = new LinkedList<AST.DeclNode>();
+        while (tok.sym != sym.EOF) {
+            decls.addLast(decl());
+        }
+        return decls;
+    }
+
+    /**
+     * Reports a syntax error at the given token; same messages as
+     * CmmParser.syntax_error.
+     */
+    public void syntax_error(Symbol currToken) {
+        if (currToken.value == null) {
+            ErrMsg.fatal(0,0, "Syntax error at end of file");
+        }
+        else {
+            ErrMsg.fatal(((TokenVal)currToken.value).linenum,
+                         ((TokenVal)currToken.value).charnum,
+                         "Syntax error");
+        }
+        throw new SyntaxErrorException();
+    }
+
+    // **********************************************************************
+    // token handling
+    // **********************************************************************
+
+    private void advance() throws Exception {
+        tok = scanner.next_token();
+    }
+
+    /**
+     * Consumes the lookahead token if it is of the given kind, otherwise
+     * reports a syntax error there.
+     */
+    private Symbol expect(int kind) throws Exception {
+        Symbol s = tok;
+        if (s.sym != kind) {
+            syntax_error(s);
+        }
+        advance();
+        return s;
+    }
+
+    // **********************************************************************
+    // declarations
+    // **********************************************************************
+
+    /**
+     * decl ::= varDecl | fnDecl | structDecl
+     */
+    private AST.DeclNode decl() throws Exception {
+        if (tok.sym == sym.STRUCT) {
+            advance();
+            AST.IdNode name = id();
+            if (tok.sym == sym.LCURLY) {
+                advance();
+                LinkedList<AST.DeclNode> body = new LinkedList<AST.DeclNode>();
+                do {
+                    body.addLast(varDecl());
+                } while (tok.sym != sym.RCURLY);
+                advance();
+                expect(sym.SEMICOLON);
+                return new AST.StructDeclNode(name, new AST.DeclListNode(body));
+            }
+            AST.IdNode var = id();
+            expect(sym.SEMICOLON);
+            return new AST.VarDeclNode(new AST.StructNode(name), var, 0);
+        }
+        AST.TypeNode t = type();
+        AST.IdNode i = id();
+        if (tok.sym == sym.LPAREN) {
+            AST.FormalsListNode f = new AST.FormalsListNode(formals());
+            return new AST.FnDeclNode(t, i, f, fnBody());
+        }
+        expect(sym.SEMICOLON);
+        return new AST.VarDeclNode(t, i, AST.VarDeclNode.NOT_STRUCT);
+    }
+
+    /**
+     * varDecl ::= type id SEMICOLON | STRUCT id id SEMICOLON
+     */
+    private AST.VarDeclNode varDecl() throws Exception {
+        AST.VarDeclNode d;
+        if (tok.sym == sym.STRUCT) {
+            advance();
+            AST.IdNode t = id();
+            d = new AST.VarDeclNode(new AST.StructNode(t), id(), 0);
+        }
+        else {
+            AST.TypeNode t = type();
+            d = new AST.VarDeclNode(t, id(), AST.VarDeclNode.NOT_STRUCT);
+        }
+        expect(sym.SEMICOLON);
+        return d;
+    }
+
+    private LinkedList<AST.DeclNode> varDeclList() throws Exception {
+        LinkedList<AST.DeclNode> list = new LinkedList<AST.DeclNode>();
+        while (isDeclStart(tok.sym)) {
+            list.addLast(varDecl());
+        }
+        return list;
+    }
+
+    private static boolean isDeclStart(int kind) {
+        return kind == sym.INT || kind == sym.BOOL || kind == sym.VOID
+            || kind == sym.STRUCT;
+    }
+
+    /**
+     * formals ::= LPAREN RPAREN | LPAREN formalsList RPAREN
+     */
+    private LinkedList<AST.FormalDeclNode> formals() throws Exception {
+        LinkedList<AST.FormalDeclNode> list = new LinkedList<AST.FormalDeclNode>();
+        expect(sym.LPAREN);
+        if (tok.sym != sym.RPAREN) {
+            for (;;) {
+                AST.TypeNode t = type();
+                list.addLast(new AST.FormalDeclNode(t, id()));
+                if (tok.sym != sym.COMMA) {
+                    break;
+                }
+                advance();
+            }
+        }
+        expect(sym.RPAREN);
+        return list;
+    }
+
+    /**
+     * fnBody ::= LCURLY varDeclList stmtList RCURLY
+     */
+    private AST.FnBodyNode fnBody() throws Exception {
+        expect(sym.LCURLY);
+        AST.DeclListNode dl = new AST.DeclListNode(varDeclList());
+        AST.StmtListNode sl = new AST.StmtListNode(stmtList());
+        expect(sym.RCURLY);
+        return new AST.FnBodyNode(dl, sl);
+    }
+
+    private AST.TypeNode type() throws Exception {
+        switch (tok.sym) {
+        case sym.INT:
+            advance();
+            return new AST.IntNode();
+        case sym.BOOL:
+            advance();
+            return new AST.BoolNode();
+        case sym.VOID:
+            advance();
+            return new AST.VoidNode();
+        default:
+            syntax_error(tok);
+            return null;
+        }
+    }
+
+    private AST.IdNode id() throws Exception {
+        IdTokenVal i = (IdTokenVal) expect(sym.ID).value;
+        return new AST.IdNode(i.linenum, i.charnum, i.idVal);
+    }
+
+    // **********************************************************************
+    // statements
+    // **********************************************************************
+
+    /**
+     * An if or while statement whose body is being parsed
+     */
+    private static class OpenStmt {
+        int kind;                        // sym.IF or sym.WHILE
+        AST.ExpNode exp;
+        AST.DeclListNode decls;          // of the body being parsed
+        AST.DeclListNode thenDecls;      // once in the else part
+        AST.StmtListNode thenStmts;
+        LinkedList<AST.StmtNode> outer;  // the list the statement goes in
+    }
+
+    /**
+     * stmtList ::= stmtList stmt | epsilon
+     * Every stmtList in the grammar is closed by RCURLY.
+     *
+     * The stmtLists of if and while bodies are parsed here too: an if or
+     * while statement goes on a stack while its body is parsed, and is
+     * added to the list it is in once the RCURLY closing the body is
+     * reached.
+     */
+    private LinkedList<AST.StmtNode> stmtList() throws Exception {
+        ArrayList<OpenStmt> open = new ArrayList<OpenStmt>();
+        LinkedList<AST.StmtNode> list = new LinkedList<AST.StmtNode>();
+        for (;;) {
+            if (tok.sym == sym.IF || tok.sym == sym.WHILE) {
+                // IF LPAREN exp RPAREN LCURLY varDeclList stmtList RCURLY
+                OpenStmt o = new OpenStmt();
+                o.kind = tok.sym;
+                advance();
+                expect(sym.LPAREN);
+                o.exp = exp();
+                expect(sym.RPAREN);
+                expect(sym.LCURLY);
+                o.decls = new AST.DeclListNode(varDeclList());
+                o.outer = list;
+                open.add(o);
+                list = new LinkedList<AST.StmtNode>();
+                continue;
+            }
+            if (tok.sym != sym.RCURLY) {
+                list.addLast(stmt());
+                continue;
+            }
+            if (open.isEmpty()) {
+                return list;
+            }
+
+            // the end of the innermost body
+            OpenStmt o = open.get(open.size() - 1);
+            advance();
+            AST.StmtNode s;
+            if (o.kind == sym.WHILE) {
+                s = new AST.WhileStmtNode(o.exp, o.decls, new AST.StmtListNode(list));
+            }
+            else if (o.thenStmts != null) {
+                s = new AST.IfElseStmtNode(o.exp, o.thenDecls, o.thenStmts,
+                                           o.decls, new AST.StmtListNode(list));
+            }
+            else if (tok.sym == sym.ELSE) {
+                // ... ELSE LCURLY varDeclList stmtList RCURLY
+                advance();
+                expect(sym.LCURLY);
+                o.thenDecls = o.decls;
+                o.thenStmts = new AST.StmtListNode(list);
+                o.decls = new AST.DeclListNode(varDeclList());
+                list = new LinkedList<AST.StmtNode>();
+                continue;
+            }
+            else {
+                s = new AST.IfStmtNode(o.exp, o.decls, new AST.StmtListNode(list));
+            }
+            open.remove(open.size() - 1);
+            list = o.outer;
+            list.addLast(s);
+        }
+    }
+
+    /**
+     * A statement other than if and while, see stmtList
+     */
+    private AST.StmtNode stmt() throws Exception {
+        AST.StmtNode s;
+
+        switch (tok.sym) {
+        case sym.CIN:
+            advance();
+            expect(sym.READ);
+            s = new AST.ReadStmtNode(exp());
+            break;
+        case sym.COUT:
+            advance();
+            expect(sym.WRITE);
+            s = new AST.WriteStmtNode(exp());
+            break;
+        case sym.RETURN:
+            advance();
+            s = new AST.ReturnStmtNode(tok.sym == sym.SEMICOLON ? null : exp());
+            break;
+        case sym.ID:
+            // assignExp, loc PLUSPLUS, loc MINUSMINUS or fncall
+            AST.IdNode i = id();
+            if (tok.sym == sym.LPAREN) {
+                s = new AST.CallStmtNode(call(i));
+                break;
+            }
+            AST.ExpNode lc = loc(i);
+            if (tok.sym == sym.ASSIGN) {
+                advance();
+                s = new AST.AssignStmtNode(new AST.AssignNode(lc, exp()));
+            }
+            else if (tok.sym == sym.PLUSPLUS) {
+                advance();
+                s = new AST.PostIncStmtNode(lc);
+            }
+            else if (tok.sym == sym.MINUSMINUS) {
+                advance();
+                s = new AST.PostDecStmtNode(lc);
+            }
+            else {
+                syntax_error(tok);
+                return null;
+            }
+            break;
+        default:
+            syntax_error(tok);
+            return null;
+        }
+        expect(sym.SEMICOLON);
+        return s;
+    }
+
+    // **********************************************************************
+    // expressions
+    // **********************************************************************
+
+    private AST.ExpNode exp() throws Exception {
+        return exp(PREC_OR);
+    }
+
+    /**
+     * An expression exp() has started and is parsing an operand of,
+     * and what the operand is for
+     */
+    private static class OpenExp {
+        int kind;                       // OPEN_BINARY, ...
+        int minPrec;                    // of the exp the expression is in
+        int op;                         // a binary operator
+        AST.ExpNode left;               // its left operand, or the loc assigned to
+        AST.IdNode name;                // a call, and its arguments so far
+        LinkedList<AST.ExpNode> args;
+
+        OpenExp(int kind, int minPrec) {
+            this.kind = kind;
+            this.minPrec = minPrec;
+        }
+    }
+
+    private static final int OPEN_BINARY = 0;  // exp op exp
+    private static final int OPEN_NOT = 1;     // NOT exp
+    private static final int OPEN_MINUS = 2;   // MINUS exp
+    private static final int OPEN_PAREN = 3;   // LPAREN exp RPAREN
+    private static final int OPEN_ASSIGN = 4;  // loc ASSIGN exp
+    private static final int OPEN_CALL = 5;    // id LPAREN actualList RPAREN
+
+    /**
+     * Parses an expression whose binary operators all bind at least as
+     * tightly as minPrec.  Binary operators are left associative except
+     * the relational ones, which are nonassoc: a second one at the same
+     * level is a syntax error, as it is in the LALR table.
+     *
+     * This is precedence climbing with the recursion taken out: where an
+     * operand is an exp of its own (the right operand of a binary
+     * operator, the operand of NOT or MINUS, an exp in parentheses, the
+     * right side of ASSIGN or an argument), the expression it is part of
+     * is pushed as an OpenExp and finished once the operand is parsed.
+     */
+    private AST.ExpNode exp(int minPrec) throws Exception {
+        ArrayList<OpenExp> open = new ArrayList<OpenExp>();
+        for (;;) {
+            // NOT exp | MINUS exp | term, or the start of one that opens
+            // an exp, which is parsed next
+            AST.ExpNode left = null;
+            switch (tok.sym) {
+            case sym.NOT:
+                advance();
+                open.add(new OpenExp(OPEN_NOT, minPrec));
+                minPrec = PREC_NOT;
+                break;
+            case sym.MINUS:
+                // cmm.cup gives "MINUS exp" the precedence of binary MINUS,
+                // so its operand takes in products but stops before a sum
+                advance();
+                open.add(new OpenExp(OPEN_MINUS, minPrec));
+                minPrec = PREC_ADD + 1;
+                break;
+            case sym.LPAREN:
+                advance();
+                open.add(new OpenExp(OPEN_PAREN, minPrec));
+                minPrec = PREC_OR;
+                break;
+            case sym.ID:
+                AST.IdNode name = id();
+                if (tok.sym == sym.LPAREN) {
+                    advance();
+                    if (tok.sym == sym.RPAREN) {
+                        advance();
+                        left = new AST.CallExpNode(name,
+                            new AST.ExpListNode(new LinkedList<AST.ExpNode>()));
+                        break;
+                    }
+                    OpenExp call = new OpenExp(OPEN_CALL, minPrec);
+                    call.name = name;
+                    call.args = new LinkedList<AST.ExpNode>();
+                    open.add(call);
+                    minPrec = PREC_OR;
+                    break;
+                }
+                AST.ExpNode lc = loc(name);
+                if (tok.sym == sym.ASSIGN) {
+                    // assignExp, the only production where a loc may be
+                    // followed by ASSIGN; its right side extends as far as
+                    // possible
+                    advance();
+                    OpenExp assign = new OpenExp(OPEN_ASSIGN, minPrec);
+                    assign.left = lc;
+                    open.add(assign);
+                    minPrec = PREC_OR;
+                    break;
+                }
+                left = lc;
+                break;
+            default:
+                left = literal();
+            }
+            if (left == null) {
+                continue;
+            }
+
+            // left is the first operand of the exp on top; apply binary
+            // operators, and finish the expressions it completes, until
+            // one needs another operand
+            boolean afterRel = false;
+            for (;;) {
+                int prec = binaryPrec(tok.sym);
+                if (prec >= minPrec) {
+                    if (prec == PREC_REL && afterRel) {
+                        syntax_error(tok);
+                    }
+                    OpenExp bin = new OpenExp(OPEN_BINARY, minPrec);
+                    bin.op = tok.sym;
+                    bin.left = left;
+                    advance();
+                    open.add(bin);
+                    minPrec = prec + 1;
+                    break;
+                }
+                if (open.isEmpty()) {
+                    return left;
+                }
+
+                OpenExp o = open.remove(open.size() - 1);
+                minPrec = o.minPrec;
+                afterRel = false;
+                if (o.kind == OPEN_BINARY) {
+                    left = binary(o.op, o.left, left);
+                    afterRel = binaryPrec(o.op) == PREC_REL;
+                }
+                else if (o.kind == OPEN_NOT) {
+                    left = new AST.NotNode(left);
+                }
+                else if (o.kind == OPEN_MINUS) {
+                    left = new AST.UnaryMinusNode(left);
+                }
+                else if (o.kind == OPEN_PAREN) {
+                    expect(sym.RPAREN);
+                }
+                else if (o.kind == OPEN_ASSIGN) {
+                    left = new AST.AssignNode(o.left, left);
+                }
+                else {
+                    o.args.addLast(left);
+                    if (tok.sym == sym.COMMA) {
+                        advance();
+                        open.add(o);
+                        minPrec = PREC_OR;
+                        break;
+                    }
+                    expect(sym.RPAREN);
+                    left = new AST.CallExpNode(o.name, new AST.ExpListNode(o.args));
+                }
+            }
+        }
+    }
+
+    /**
+     * INTLITERAL | STRINGLITERAL | TRUE | FALSE, the terms with no
+     * operands
+     */
+    private AST.ExpNode literal() throws Exception {
+        Symbol t = tok;
+        switch (t.sym) {
+        case sym.INTLITERAL:
+            advance();
+            IntLitTokenVal i = (IntLitTokenVal) t.value;
+            return new AST.IntLitNode(i.linenum, i.charnum, i.intVal);
+        case sym.STRINGLITERAL:
+            advance();
+            StrLitTokenVal s = (StrLitTokenVal) t.value;
+            return new AST.StringLitNode(s.linenum, s.charnum, s.strVal);
+        case sym.TRUE:
+            advance();
+            return new AST.TrueNode(((TokenVal)t.value).linenum,
+                                    ((TokenVal)t.value).charnum);
+        case sym.FALSE:
+            advance();
+            return new AST.FalseNode(((TokenVal)t.value).linenum,
+                                     ((TokenVal)t.value).charnum);
+        default:
+            syntax_error(t);
+            return null;
+        }
+    }
+
+    /**
+     * loc ::= id | loc DOT id, given the leading id.
+     */
+    private AST.ExpNode loc(AST.IdNode first) throws Exception {
+        AST.ExpNode lc = first;
+        while (tok.sym == sym.DOT) {
+            advance();
+            lc = new AST.DotAccessExpNode(lc, id());
+        }
+        return lc;
+    }
+
+    /**
+     * fncall ::= id LPAREN RPAREN | id LPAREN actualList RPAREN,
+     * given the id.
+     */
+    private AST.CallExpNode call(AST.IdNode name) throws Exception {
+        LinkedList<AST.ExpNode> list = new LinkedList<AST.ExpNode>();
+        expect(sym.LPAREN);
+        if (tok.sym != sym.RPAREN) {
+            list.addLast(exp());
+            while (tok.sym == sym.COMMA) {
+                advance();
+                list.addLast(exp());
+            }
+        }
+        expect(sym.RPAREN);
+        return new AST.CallExpNode(name, new AST.ExpListNode(list));
+    }
+
+    private static int binaryPrec(int kind) {
+        switch (kind) {
+        case sym.OR:
+            return PREC_OR;
+        case sym.AND:
+            return PREC_AND;
+        case sym.EQUALS:
+        case sym.NOTEQUALS:
+        case sym.LESS:
+        case sym.GREATER:
+        case sym.LESSEQ:
+        case sym.GREATEREQ:
+            return PREC_REL;
+        case sym.PLUS:
+        case sym.MINUS:
+            return PREC_ADD;
+        case sym.TIMES:
+        case sym.DIVIDE:
+            return PREC_MUL;
+        default:
+            return PREC_NONE;
+        }
+    }
+
+    private static AST.ExpNode binary(int op, AST.ExpNode e1, AST.ExpNode e2) {
+        switch (op) {
+        case sym.OR:        return new AST.OrNode(e1, e2);
+        case sym.AND:       return new AST.AndNode(e1, e2);
+        case sym.EQUALS:    return new AST.EqualsNode(e1, e2);
+        case sym.NOTEQUALS: return new AST.NotEqualsNode(e1, e2);
+        case sym.LESS:      return new AST.LessNode(e1, e2);
+        case sym.GREATER:   return new AST.GreaterNode(e1, e2);
+        case sym.LESSEQ:    return new AST.LessEqNode(e1, e2);
+        case sym.GREATEREQ: return new AST.GreaterEqNode(e1, e2);
+        case sym.PLUS:      return new AST.PlusNode(e1, e2);
+        case sym.MINUS:     return new AST.MinusNode(e1, e2);
+        case sym.TIMES:     return new AST.TimesNode(e1, e2);
+        default:            return new AST.DivideNode(e1, e2);
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package parser;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java_cup.runtime.*;
+import ast.*;
+import lexer.*;
+
+/**
+ * An editing session over one C-- program that reparses only the
+ * top-level declarations an edit touches.
+ *
+ * The session keeps the source text, the AST and, for every top-level
+ * declaration in the ProgramNode's DeclListNode, its character span
+ * [start, end) and the line/column of both ends.  Declarations are cut
+ * apart by brace depth, see TopLevel.
+ *
+ * After edit(), the region from the first to the last declaration the
+ * edit overlaps (or the gap it falls in) is scanned and parsed again on
+ * its own, and the new declarations are spliced into the DeclListNode
+ * in place of the old ones.  If the region no longer parses by itself,
+ * e.g. because a '}' was deleted, it is widened over the following
+ * declarations until it resynchronizes.  Only when it runs into the end of the
+ * file is the whole program parsed again, which also reports the
+ * syntax error the usual way.
+ *
+ * The scanner's errors and warnings are held back while a region is
+ * tried, and reported once, for the region that is finally spliced in or
+ * for the whole program.
+ *
+ * Declarations below an edit that adds or removes lines have their
+ * positions moved lazily, when the AST is next asked for.
+ */
+public class CmmIncrementalParser {
+
+    private StringBuilder text;
+    private AST.ProgramNode root;           // null while the text has a syntax error
+    private ArrayList<AST.DeclNode> decls;  // the list inside root's DeclListNode
+
+    // one entry per top-level declaration, in source order
+    private int count;
+    private int start[];
+    private int end[];
+    private int startLine[];
+    private int startCol[];
+    private int endLine[];
+    private int endCol[];
+    private int pendingLines[];   // line shift not yet applied to the AST
+
+    private int lastReparsed;     // characters scanned by the last parse
+
+    /**
+     * Parses the whole program.  Throws SyntaxErrorException after
+     * reporting a syntax error, like the other parsers.
+     */
+    public CmmIncrementalParser(String source) throws Exception {
+        text = new StringBuilder(source);
+        parseAll();
+    }
+
+    public String text() {
+        return text.toString();
+    }
+
+    /**
+     * Returns the current AST, or null if the text has a syntax error
+     */
+    public AST.ProgramNode program() {
+        for (int i = 0; i < count; i++) {
+            if (pendingLines[i] != 0) {
+                decls.get(i).shiftLines(pendingLines[i]);
+                pendingLines[i] = 0;
+            }
+        }
+        return root;
+    }
+
+    public int declCount() {
+        return count;
+    }
+
+    public int declStart(int i) {
+        return start[i];
+    }
+
+    public int declEnd(int i) {
+        return end[i];
+    }
+
+    /**
+     * Returns how many characters the last parse or reparse scanned
+     */
+    public int lastReparsed() {
+        return lastReparsed;
+    }
+
+    /**
+     * Replaces the removed characters at offset by inserted and updates
+     * the AST.  Throws SyntaxErrorException if the new text has a syntax
+     * error; the next edit then parses the whole program again.
+     */
+    public void edit(int offset, int removed, String inserted) throws Exception {
+        int lineDelta = lineBreaks(inserted, 0, inserted.length())
+            - lineBreaks(text, offset, offset + removed);
+        int delta = inserted.length() - removed;
+        text.replace(offset, offset + removed, inserted);
+        if (root == null) {
+            parseAll();
+            return;
+        }
+
+        // declarations [first, next) are touched by the edit; touching an
+        // end counts, as the edit may extend the first or last token
+        int editEnd = offset + removed;
+        int first = 0;
+        while (first < count && end[first] < offset)
+            first++;
+        int next = first;
+        while (next < count && start[next] <= editEnd)
+            next++;
+
+        // the region starts at a point whose position is known: the start
+        // of the first declaration, the end of the one before, or 0
+        int rs, line0, col0;
+        if (first < count && start[first] <= offset) {
+            rs = start[first];
+            line0 = startLine[first];
+            col0 = startCol[first];
+        }
+        else if (first > 0) {
+            rs = end[first - 1];
+            line0 = endLine[first - 1];
+            col0 = endCol[first - 1];
+        }
+        else {
+            rs = 0;
+            line0 = 1;
+            col0 = 1;
+        }
+        int re = Math.max(editEnd, next > first ? end[next - 1] : editEnd) + delta;
+
+        Chunks c;
+        int widen = 1;
+        for (;;) {
+            // an edit can change how the rest of its line scans ("//" and
+            // '"' reach to the end of the line), and moves declarations
+            // later on the line sideways: run the region to a line break
+            re = lineEnd(re);
+            while (next < count && start[next] + delta < re) {
+                re = lineEnd(end[next] + delta);
+                next++;
+            }
+            c = parseRegion(rs, re, line0, col0);
+            if (c != null)
+                break;
+            if (next == count) {
+                parseAll();
+                return;
+            }
+            // widen by 1, 2, 4, ... declarations, so that an error that
+            // does not resynchronize costs a constant number of full scans
+            next = Math.min(next + widen, count);
+            re = end[next - 1] + delta;
+            widen *= 2;
+        }
+        report(c);
+        splice(first, next, c, delta, lineDelta);
+    }
+
+    // **********************************************************************
+    // parsing
+    // **********************************************************************
+
+    /**
+     * Tokens of one region with the character offset of each, and the
+     * declarations parsed from them.
+     */
+    private static class Chunks {
+        Symbol tokens[];
+        int offsets[];
+        int ntokens;
+        AST.DeclNode decls[];
+        int bounds[];   // declaration k is tokens [bounds[k], bounds[k+1])
+        int ndecls;
+        List<ErrMsg.Held> messages;     // the scanner's, not reported yet
+    }
+
+    /**
+     * Parses the whole text, reporting syntax errors
+     */
+    private void parseAll() throws Exception {
+        root = null;
+        count = 0;
+        decls = new ArrayList<AST.DeclNode>();
+        Chunks c = scan(0, text.length(), 1, 1);
+        report(c);
+        if ( ! parseChunks(c) ) {
+            new CmmDescentParser(TopLevel.replay(c.tokens, 0, c.ntokens)).parse();
+            // every C-- program that parses as a whole parses a
+            // declaration at a time
+            throw new IllegalStateException("top-level split disagrees with cmm.cup");
+        }
+        start = new int[c.ndecls + 1];
+        end = new int[c.ndecls + 1];
+        startLine = new int[c.ndecls + 1];
+        startCol = new int[c.ndecls + 1];
+        endLine = new int[c.ndecls + 1];
+        endCol = new int[c.ndecls + 1];
+        pendingLines = new int[c.ndecls + 1];
+        splice(0, 0, c, 0, 0);
+        root = new AST.ProgramNode(new AST.DeclListNode(decls));
+    }
+
+    /**
+     * Scans and parses text[rs, re) on its own, without reporting syntax
+     * errors.  Returns null if it is not a sequence of declarations.
+     */
+    private Chunks parseRegion(int rs, int re, int line0, int col0)
+        throws Exception {
+        Chunks c = scan(rs, re, line0, col0);
+        return parseChunks(c) ? c : null;
+    }
+
+    /**
+     * Scans text[rs, re), where rs is at line0/col0, and records each
+     * token's offset.  Token positions, and those of the scanner's
+     * messages, which are held in c, are made absolute.
+     */
+    private Chunks scan(int rs, int re, int line0, int col0) throws Exception {
+        String src = text.substring(rs, re);
+        int lines[] = lineStarts(src);
+        Yylex lexer = new Yylex(new StringReader(src));
+        Chunks c = new Chunks();
+        c.tokens = new Symbol[64];
+        c.offsets = new int[64];
+        ErrMsg.hold();
+        try {
+            for (;;) {
+                Symbol s = lexer.next_token();
+                if (s.sym == sym.EOF)
+                    break;
+                TokenVal v = (TokenVal) s.value;
+                if (c.ntokens == c.tokens.length) {
+                    c.tokens = Arrays.copyOf(c.tokens, 2 * c.ntokens);
+                    c.offsets = Arrays.copyOf(c.offsets, 2 * c.ntokens);
+                }
+                c.tokens[c.ntokens] = s;
+                c.offsets[c.ntokens] = rs + lines[v.linenum - 1] + v.charnum - 1;
+                c.ntokens++;
+                if (v.linenum == 1)
+                    v.charnum += col0 - 1;
+                v.linenum += line0 - 1;
+            }
+        } finally {
+            c.messages = ErrMsg.release();
+        }
+        for (ErrMsg.Held m : c.messages) {
+            if (m.lineNum == 1)
+                m.charNum += col0 - 1;
+            m.lineNum += line0 - 1;
+        }
+        lastReparsed = re - rs;
+        return c;
+    }
+
+    /**
+     * Reports the scanner's messages for the text c was scanned from
+     */
+    private static void report(Chunks c) {
+        for (ErrMsg.Held m : c.messages)
+            m.report();
+    }
+
+    /**
+     * Cuts the tokens into top-level declarations and parses each one.
+     * Returns false if one does not parse as exactly one declaration.
+     */
+    private static boolean parseChunks(Chunks c) throws Exception {
+        int bounds[] = TopLevel.split(c.tokens, 0, c.ntokens);
+        if (bounds == null)
+            return false;
+        int n = bounds.length - 1;
+        c.bounds = bounds;
+        c.ndecls = n;
+        c.decls = new AST.DeclNode[n];
+        for (int k = 0; k < n; k++) {
+            LinkedList<AST.DeclNode> list =
+                TopLevel.parseQuietly(c.tokens, bounds[k], bounds[k + 1]);
+            if (list == null || list.size() != 1)
+                return false;
+            c.decls[k] = list.getFirst();
+        }
+        return true;
+    }
+
+    /**
+     * Replaces declarations [first, next) by the ones in c and moves the
+     * declarations after them by delta characters and lineDelta lines.
+     */
+    private void splice(int first, int next, Chunks c, int delta, int lineDelta) {
+        int n = c.ndecls;
+        int newCount = count - (next - first) + n;
+        if (newCount > start.length) {
+            int cap = Math.max(newCount, 2 * start.length);
+            start = Arrays.copyOf(start, cap);
+            end = Arrays.copyOf(end, cap);
+            startLine = Arrays.copyOf(startLine, cap);
+            startCol = Arrays.copyOf(startCol, cap);
+            endLine = Arrays.copyOf(endLine, cap);
+            endCol = Arrays.copyOf(endCol, cap);
+            pendingLines = Arrays.copyOf(pendingLines, cap);
+        }
+        int tail = count - next;
+        int to = first + n;
+        System.arraycopy(start, next, start, to, tail);
+        System.arraycopy(end, next, end, to, tail);
+        System.arraycopy(startLine, next, startLine, to, tail);
+        System.arraycopy(startCol, next, startCol, to, tail);
+        System.arraycopy(endLine, next, endLine, to, tail);
+        System.arraycopy(endCol, next, endCol, to, tail);
+        System.arraycopy(pendingLines, next, pendingLines, to, tail);
+        for (int i = to; i < newCount; i++) {
+            start[i] += delta;
+            end[i] += delta;
+            startLine[i] += lineDelta;
+            endLine[i] += lineDelta;
+            pendingLines[i] += lineDelta;
+        }
+
+        decls.subList(first, next).clear();
+        for (int k = 0; k < n; k++) {
+            Symbol head = c.tokens[c.bounds[k]];
+            Symbol last = c.tokens[c.bounds[k + 1] - 1];
+            int i = first + k;
+            start[i] = c.offsets[c.bounds[k]];
+            end[i] = c.offsets[c.bounds[k + 1] - 1] + 1;
+            startLine[i] = ((TokenVal) head.value).linenum;
+            startCol[i] = ((TokenVal) head.value).charnum;
+            endLine[i] = ((TokenVal) last.value).linenum;
+            endCol[i] = ((TokenVal) last.value).charnum + 1;
+            pendingLines[i] = 0;
+            decls.add(i, c.decls[k]);
+        }
+        count = newCount;
+    }
+
+    // **********************************************************************
+    // line breaks, counted as the scanner counts them
+    // **********************************************************************
+
+    private static int[] lineStarts(CharSequence s) {
+        int starts[] = new int[16];
+        int n = 1;
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == '\r' && i + 1 < s.length() && s.charAt(i + 1) == '\n')
+                i++;
+            else if (ch != '\n' && ch != '\r')
+                continue;
+            if (n == starts.length)
+                starts = Arrays.copyOf(starts, 2 * n);
+            starts[n++] = i + 1;
+        }
+        return starts;
+    }
+
+    /**
+     * Returns the offset just past the first line break at or after i,
+     * or the length of the text
+     */
+    private int lineEnd(int i) {
+        for (; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n')
+                return i + 2;
+            if (ch == '\n' || ch == '\r')
+                return i + 1;
+        }
+        return i;
+    }
+
+    private static int lineBreaks(CharSequence s, int from, int to) {
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            char ch = s.charAt(i);
+            if (ch == '\n' || (ch == '\r' && (i + 1 == to || s.charAt(i + 1) != '\n')))
+                n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,200 @@
+package parser;
+
+import java.util.Arrays;
+import java.util.Stack;
+import java_cup.runtime.*;
+
+/**
+ * An LR driver for the tables and actions CUP generates from cmm.cup.
+ *
+ * java_cup.runtime.lr_parser keeps its parse stack as a Stack of Symbol
+ * objects, searches the packed action table on every step and allocates
+ * a new Symbol for every reduce.  This driver runs the same tables and
+ * the same generated actions, but
+ *
+ *   - unpacks the action and reduce tables once into dense arrays, so
+ *     each step is a single array lookup;
+ *   - keeps the state stack in an int[] and the value stack in an
+ *     Object[];
+ *   - hands the actions their right-hand-side values through one reused
+ *     Symbol and takes their result through another, so a reduce
+ *     allocates only what the action itself builds.
+ *
+ * Since cmm.cup is unchanged, the AST is the same node for node and
+ * syntax errors are reported by the same syntax_error method:
+ *
+ *     Symbol root = new CmmLRDriver(new Yylex(in)).parse();
+ */
+public class CmmLRDriver extends CmmParser {
+
+    private static final int INITIAL_DEPTH = 64;
+
+    // CmmParser's tables, unpacked: ACTION[state * NUM_TERMINALS + terminal]
+    // and GOTO[state * NUM_NONTERMINALS + nonterminal]
+    private static final int NUM_TERMINALS = sym.terminalNames.length;
+    private static final int NUM_NONTERMINALS;
+    private static final short ACTION[];
+    private static final short GOTO[];
+    private static final int PROD_LHS[];
+    private static final int PROD_LEN[];
+
+    static {
+        int nprods = _production_table.length;
+        int nstates = _action_table.length;
+        int lhsMax = 0;
+
+        PROD_LHS = new int[nprods];
+        PROD_LEN = new int[nprods];
+        for (int p = 0; p < nprods; p++) {
+            PROD_LHS[p] = _production_table[p][0];
+            PROD_LEN[p] = _production_table[p][1];
+            lhsMax = Math.max(lhsMax, PROD_LHS[p]);
+        }
+        NUM_NONTERMINALS = lhsMax + 1;
+
+        ACTION = new short[nstates * NUM_TERMINALS];
+        GOTO = new short[nstates * NUM_NONTERMINALS];
+        Arrays.fill(GOTO, (short) -1);
+        for (int s = 0; s < nstates; s++) {
+            unpack(_action_table[s], ACTION, s * NUM_TERMINALS, NUM_TERMINALS);
+            if (_reduce_table[s] != null)
+                unpack(_reduce_table[s], GOTO, s * NUM_NONTERMINALS,
+                       NUM_NONTERMINALS);
+        }
+    }
+
+    /**
+     * Expands one packed row of (symbol, entry) pairs into dense[base ..
+     * base + width).  A symbol of -1 marks the row's default entry; as in
+     * lr_parser.get_action, the first matching pair wins.
+     */
+    private static void unpack(short row[], short dense[], int base, int width) {
+        for (int i = row.length - 2; i >= 0; i -= 2) {
+            if (row[i] == -1)
+                Arrays.fill(dense, base, base + width, row[i + 1]);
+            else
+                dense[base + row[i]] = row[i + 1];
+        }
+    }
+
+    private final ValueStack view = new ValueStack();
+
+    public CmmLRDriver(Scanner s) {
+        super(s, new ResultFactory());
+    }
+
+    /**
+     * Parses a whole program.  Returns a Symbol whose value is the
+     * translation of the nonterminal "program", like lr_parser.parse.
+     */
+    public Symbol parse() throws Exception {
+        int states[] = new int[INITIAL_DEPTH];
+        Object values[] = new Object[INITIAL_DEPTH];
+        int top = 0;
+
+        init_actions();
+        user_init();
+        _done_parsing = false;
+        states[0] = start_state();
+        Symbol token = nextToken();
+
+        for (;;) {
+            int act = token.sym < NUM_TERMINALS
+                ? ACTION[states[top] * NUM_TERMINALS + token.sym] : 0;
+            if (act > 0) {
+                // shift
+                if (++top == states.length) {
+                    states = Arrays.copyOf(states, 2 * top);
+                    values = Arrays.copyOf(values, 2 * top);
+                }
+                states[top] = act - 1;
+                values[top] = token.value;
+                token = nextToken();
+            }
+            else if (act < 0) {
+                // reduce
+                int prod = -act - 1;
+                view.values = values;
+                view.top = top;
+                Symbol lhs = do_action(prod, this, view, top);
+                if (_done_parsing)
+                    return new Symbol(lhs.sym, lhs.value);
+                top -= PROD_LEN[prod];
+                int next = GOTO[states[top] * NUM_NONTERMINALS + PROD_LHS[prod]];
+                if (++top == states.length) {
+                    states = Arrays.copyOf(states, 2 * top);
+                    values = Arrays.copyOf(values, 2 * top);
+                }
+                states[top] = next;
+                values[top] = lhs.value;
+            }
+            else {
+                // cmm.cup has no error productions: report and give up
+                cur_token = token;
+                syntax_error(token);
+                unrecovered_syntax_error(token);
+                return null;
+            }
+        }
+    }
+
+    private Symbol nextToken() throws Exception {
+        Symbol s = getScanner().next_token();
+        return s != null ? s : new Symbol(EOF_sym());
+    }
+
+    /**
+     * The generated actions read their right-hand side with
+     * stack.elementAt(top - k) and stack.peek(), and only take the value
+     * (and the unused left/right) of the returned Symbol before the next
+     * call.  This view answers both from the value array through one
+     * reused Symbol.
+     */
+    private static class ValueStack extends Stack<Symbol> {
+        private static final long serialVersionUID = 1L;
+        Object values[];
+        int top;
+        private final Symbol slot = new Symbol(-1);
+
+        public Symbol elementAt(int index) {
+            slot.value = values[index];
+            return slot;
+        }
+
+        public Symbol peek() {
+            return elementAt(top);
+        }
+    }
+
+    /**
+     * Builds every action's result in one reused Symbol; the driver
+     * copies its value onto the value stack right away.
+     */
+    private static class ResultFactory implements SymbolFactory {
+        private final Symbol result = new Symbol(-1);
+
+        public Symbol newSymbol(String name, int id, Symbol left, Symbol right,
+                                Object value) {
+            result.sym = id;
+            result.value = value;
+            return result;
+        }
+
+        public Symbol newSymbol(String name, int id, Symbol left, Symbol right) {
+            return newSymbol(name, id, left, right, null);
+        }
+
+        public Symbol newSymbol(String name, int id, Object value) {
+            return newSymbol(name, id, null, null, value);
+        }
+
+        public Symbol newSymbol(String name, int id) {
+            return newSymbol(name, id, null, null, null);
+        }
+
+        public Symbol startSymbol(String name, int id, int state) {
+            result.parse_state = state;
+            return newSymbol(name, id, null, null, null);
+        }
+    }
+}
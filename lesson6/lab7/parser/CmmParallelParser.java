@@ -0,0 +1,156 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.*;
+import java_cup.runtime.*;
+import lexer.ErrMsg;
+import ast.*;
+
+/**
+ * Parses the top-level declarations of a C-- program in parallel.
+ *
+ * The whole token stream is read first, then cut into declarations by
+ * brace depth (see TopLevel).  The declarations are grouped into a few
+ * batches per thread of about the same number of tokens, and each batch
+ * is parsed on a pool thread by its own CmmDescentParser.  The
+ * resulting declaration lists are concatenated in source order into
+ * one DeclListNode, so the AST is the same as CmmDescentParser's.
+ *
+ * Batches are parsed without reporting syntax errors.  If one fails,
+ * the whole program is parsed again on the calling thread, which
+ * reports the first syntax error exactly as the sequential parser does.
+ *
+ * Scanning stays sequential: it has to be done before the cut.  The
+ * scanner's messages are held until the parse is over, and then only
+ * those a sequential parse would have printed are: all of them, or the
+ * ones up to the token with the syntax error, before the error itself.
+ */
+public class CmmParallelParser {
+
+    private static final int BATCHES_PER_THREAD = 4;
+
+    private Scanner scanner;
+    private int threads;
+
+    public CmmParallelParser(Scanner s) {
+        this(s, Runtime.getRuntime().availableProcessors());
+    }
+
+    public CmmParallelParser(Scanner s, int threads) {
+        scanner = s;
+        this.threads = threads;
+    }
+
+    /**
+     * Parses a whole program and returns the root of its AST.
+     * Throws SyntaxErrorException after reporting the first syntax error.
+     */
+    public AST.ProgramNode parse() throws Exception {
+        Symbol tokens[] = new Symbol[1024];
+        int ntokens = 0;
+        List<ErrMsg.Held> messages;
+        ErrMsg.hold();
+        try {
+            for (;;) {
+                Symbol s = scanner.next_token();
+                if (s.sym == sym.EOF)
+                    break;
+                if (ntokens == tokens.length)
+                    tokens = Arrays.copyOf(tokens, 2 * ntokens);
+                tokens[ntokens++] = s;
+            }
+        } finally {
+            messages = ErrMsg.release();
+        }
+
+        int bounds[] = TopLevel.split(tokens, 0, ntokens);
+        int ndecls = bounds == null ? 0 : bounds.length - 1;
+        int nbatches = Math.min(ndecls, threads * BATCHES_PER_THREAD);
+        if (threads > 1 && nbatches > 1) {
+            LinkedList<AST.DeclNode> decls = parseBatches(tokens, ntokens, bounds, nbatches);
+            if (decls != null) {
+                for (ErrMsg.Held m : messages)
+                    m.report();
+                return new AST.ProgramNode(new AST.DeclListNode(decls));
+            }
+        }
+
+        // the parser's only message is the syntax error it stops at
+        ErrMsg.hold();
+        try {
+            return new CmmDescentParser(TopLevel.replay(tokens, 0, ntokens)).parse();
+        } finally {
+            List<ErrMsg.Held> error = ErrMsg.release();
+            for (ErrMsg.Held m : messages) {
+                if (error.isEmpty() || scannedBy(m, error.get(0)))
+                    m.report();
+            }
+            for (ErrMsg.Held m : error)
+                m.report();
+        }
+    }
+
+    /**
+     * Whether a sequential parse stopping at syntax error e would have
+     * scanned the text of scanner message m
+     */
+    private static boolean scannedBy(ErrMsg.Held m, ErrMsg.Held e) {
+        if (e.lineNum == 0)  // at end of file
+            return true;
+        return m.lineNum < e.lineNum
+            || (m.lineNum == e.lineNum && m.charNum <= e.charNum);
+    }
+
+    /**
+     * Parses the declarations in nbatches batches on a thread pool.
+     * Returns null if a batch does not parse.
+     */
+    private LinkedList<AST.DeclNode> parseBatches(final Symbol tokens[], int ntokens,
+                                                  int bounds[], int nbatches)
+        throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Future<LinkedList<AST.DeclNode>>> results =
+                new ArrayList<Future<LinkedList<AST.DeclNode>>>();
+            int k = 0;
+            for (int b = 1; b <= nbatches; b++) {
+                // end the batch at the first declaration boundary past its
+                // share of the tokens
+                long share = (long) ntokens * b / nbatches;
+                final int from = bounds[k];
+                while (k < bounds.length - 1 && bounds[k] < share)
+                    k++;
+                final int to = bounds[k];
+                if (to == from)
+                    continue;
+                results.add(pool.submit(new Callable<LinkedList<AST.DeclNode>>() {
+                    public LinkedList<AST.DeclNode> call() throws Exception {
+                        return TopLevel.parseQuietly(tokens, from, to);
+                    }
+                }));
+            }
+
+            LinkedList<AST.DeclNode> decls = new LinkedList<AST.DeclNode>();
+            for (Future<LinkedList<AST.DeclNode>> f : results) {
+                LinkedList<AST.DeclNode> part;
+                try {
+                    part = f.get();
+                }
+                catch (ExecutionException ee) {
+                    Throwable t = ee.getCause();
+                    throw t instanceof Exception ? (Exception) t : ee;
+                }
+                if (part == null)
+                    return null;
+                decls.addAll(part);
+            }
+            return decls;
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package parser;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java_cup.runtime.*;
+import ast.*;
+
+/**
+ * Helpers for the parsers that work on a program a top-level declaration
+ * at a time (CmmIncrementalParser, CmmParallelParser).
+ *
+ * Every top-level declaration ends with a ';' or '}' at brace depth 0,
+ * the ';' after a struct's '}' included.  A token stream can therefore
+ * be cut into declarations by tracking brace depth alone, and because
+ * program ::= declList is a plain sequence, any run of whole
+ * declarations parses on its own to the same nodes it has in the whole.
+ */
+final class TopLevel {
+
+    private TopLevel() {
+    }
+
+    /**
+     * Cuts tokens [from, to) into top-level declarations.  Returns the
+     * bounds: declaration k is tokens [b[k], b[k+1]), b[0] is from and
+     * the last entry is to.  Returns null if the last tokens do not end
+     * a declaration.
+     */
+    static int[] split(Symbol tokens[], int from, int to) {
+        int bounds[] = new int[8];
+        int n = 0;
+        int depth = 0;
+        bounds[0] = from;
+        for (int i = from; i < to; i++) {
+            int kind = tokens[i].sym;
+            if (kind == sym.LCURLY) {
+                depth++;
+                continue;
+            }
+            if (kind == sym.RCURLY) {
+                if (--depth > 0)
+                    continue;
+                depth = 0;
+                if (i + 1 < to && tokens[i + 1].sym == sym.SEMICOLON)
+                    i++;
+            }
+            else if (kind != sym.SEMICOLON || depth > 0) {
+                continue;
+            }
+            if (++n == bounds.length)
+                bounds = Arrays.copyOf(bounds, 2 * n);
+            bounds[n] = i + 1;
+        }
+        if (bounds[n] != to)
+            return null;
+        return Arrays.copyOf(bounds, n + 1);
+    }
+
+    /**
+     * A scanner over tokens [from, to), followed by EOF
+     */
+    static Scanner replay(final Symbol tokens[], final int from, final int to) {
+        return new Scanner() {
+            int next = from;
+            public Symbol next_token() {
+                return next < to ? tokens[next++] : new Symbol(sym.EOF);
+            }
+        };
+    }
+
+    /**
+     * Parses tokens [from, to) as a list of declarations without reporting
+     * syntax errors.  Returns null if they do not parse.
+     */
+    static LinkedList<AST.DeclNode> parseQuietly(Symbol tokens[], int from, int to)
+        throws Exception {
+        CmmDescentParser p = new CmmDescentParser(replay(tokens, from, to)) {
+            public void syntax_error(Symbol currToken) {
+                throw new SyntaxErrorException();
+            }
+        };
+        try {
+            return p.parseDeclList();
+        }
+        catch (SyntaxErrorException see) {
+            return null;
+        }
+    }
+}
@@ -16,7 +16,7 @@ public class FnInfo extends SymInfo {
     private int paramSize = 0;
     
     public FnInfo(Type.AbstractType type, int numparams) {
-        super(new Type.FnType());
+        super(Type.FN);
         returnType = type;
         numParams = numparams;
     }
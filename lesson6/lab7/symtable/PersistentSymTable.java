@@ -0,0 +1,223 @@
+package symtable;
+
+import java.util.*;
+
+/**
+ * A Symbol Table that is never changed: addScope, addDecl and removeScope
+ * return a new version and leave this one as it was.  Versions share all
+ * they have in common, so keeping old ones around costs little, and any
+ * number of threads may read and extend the same version at once without
+ * locking: workers analyzing function bodies can each start from the
+ * table of the globals.
+ *
+ * The names are kept as in SymTable, each mapped to its visible binding,
+ * which is tagged with the depth of its scope and links to the binding
+ * it shadows; the map is a hash array mapped trie, so addDecl copies
+ * just the path to one name, a few nodes of up to 32 slots.  Each version
+ * also links to the version its inner scope was added to, which
+ * removeScope returns.
+ */
+public final class PersistentSymTable {
+
+    /**
+     * A declaration, the one of the same name it hides, and the one added
+     * before it to the same scope
+     */
+    private static final class Binding {
+        final String name;
+        final SymInfo sym;
+        final int depth;
+        final Binding shadowed;
+        final Binding prev;
+
+        Binding(String name, SymInfo sym, int depth, Binding shadowed, Binding prev) {
+            this.name = name;
+            this.sym = sym;
+            this.depth = depth;
+            this.shadowed = shadowed;
+            this.prev = prev;
+        }
+    }
+
+    /**
+     * A node of the trie: the slots in use out of 32, picked by the five
+     * bits of the hash for its level, each a Binding or a Node.  Below
+     * the last level, where the whole hash is used up, a node just lists
+     * the bindings whose names have the same hash.
+     */
+    private static final class Node {
+        final int bitmap;
+        final Object slots[];
+
+        Node(int bitmap, Object slots[]) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    private static final int BITS = 5;
+    private static final Node EMPTY_NODE = new Node(0, new Object[0]);
+    private static final PersistentSymTable EMPTY =
+        new PersistentSymTable(EMPTY_NODE, 0, null, null);
+
+    private final Node root;
+    private final int depth;                    // number of scopes; 0 if empty
+    private final Binding last;                 // last added to the inner scope
+    private final PersistentSymTable outer;     // without the inner scope
+
+    private PersistentSymTable(Node root, int depth, Binding last,
+                               PersistentSymTable outer) {
+        this.root = root;
+        this.depth = depth;
+        this.last = last;
+        this.outer = outer;
+    }
+
+    /**
+     * Create a Symbol Table with one empty scope
+     */
+    public PersistentSymTable() {
+        this(EMPTY_NODE, 1, null, EMPTY);
+    }
+
+    /**
+     * This table with a declaration (i.e. a pair [name,sym]) added to the
+     * inner scope
+     */
+    public PersistentSymTable addDecl(String name, SymInfo sym) throws DuplicateSymException, EmptySymTableException {
+        if ( name == null || sym == null )
+            throw new NullPointerException();
+        if ( depth == 0 )
+            throw new EmptySymTableException();
+        Binding b = get(root, name);
+        if ( b != null && b.depth == depth )
+            throw new DuplicateSymException();
+        b = new Binding(name, sym, depth, b, last);
+        return new PersistentSymTable(put(root, b, name.hashCode(), 0),
+                                      depth, b, outer);
+    }
+
+    /**
+     * This table with a new inner scope
+     */
+    public PersistentSymTable addScope() {
+        return new PersistentSymTable(root, depth + 1, null, this);
+    }
+
+    /**
+     * Lookup for 'name' in the inner scope
+     */
+    public SymInfo lookupLocal(String name) throws EmptySymTableException {
+        if ( depth == 0 )
+            throw new EmptySymTableException();
+        Binding b = get(root, name);
+        return b != null && b.depth == depth ? b.sym : null;
+    }
+
+    /**
+     * Lookup for 'name' in all scopes from inner to outer
+     */
+    public SymInfo lookupGlobal(String name) throws EmptySymTableException {
+        if ( depth == 0 )
+            throw new EmptySymTableException();
+        Binding b = get(root, name);
+        return b != null ? b.sym : null;
+    }
+
+    /**
+     * This table without its inner scope
+     */
+    public PersistentSymTable removeScope() throws EmptySymTableException {
+        if ( depth == 0 )
+            throw new EmptySymTableException();
+        return outer;
+    }
+
+    /**
+     * Print the Symbol Table on System.out, as SymTable.print does
+     */
+    public void print() {
+        System.out.print("\nSym Table\n");
+        for ( PersistentSymTable t = this; t.depth > 0; t = t.outer ) {
+            List<Binding> scope = new ArrayList<Binding>();
+            for ( Binding b = t.last; b != null; b = b.prev )
+                scope.add(b);
+            Map<String,SymInfo> map = new HashMap<String,SymInfo>();
+            for ( int i = scope.size() - 1; i >= 0; i-- )
+                map.put(scope.get(i).name, scope.get(i).sym);
+            System.out.println(map);
+        }
+        System.out.println();
+    }
+
+    /**
+     * The visible binding of name, or null
+     */
+    private static Binding get(Node n, String name) {
+        int hash = name.hashCode();
+        for ( int shift = 0; shift < 32; shift += BITS ) {
+            int bit = 1 << ((hash >>> shift) & 31);
+            if ( (n.bitmap & bit) == 0 )
+                return null;
+            Object o = n.slots[Integer.bitCount(n.bitmap & (bit - 1))];
+            if ( o instanceof Binding ) {
+                Binding b = (Binding) o;
+                return b.name.equals(name) ? b : null;
+            }
+            n = (Node) o;
+        }
+        for ( Object o : n.slots ) {
+            if ( ((Binding) o).name.equals(name) )
+                return (Binding) o;
+        }
+        return null;
+    }
+
+    /**
+     * A copy of the node at level shift with b in place of any binding of
+     * the same name
+     */
+    private static Node put(Node n, Binding b, int hash, int shift) {
+        if ( shift >= 32 ) {
+            Object slots[];
+            int i = 0;
+            while ( i < n.slots.length && ! ((Binding) n.slots[i]).name.equals(b.name) )
+                i++;
+            slots = Arrays.copyOf(n.slots, Math.max(i + 1, n.slots.length));
+            slots[i] = b;
+            return new Node(0, slots);
+        }
+        int bit = 1 << ((hash >>> shift) & 31);
+        int i = Integer.bitCount(n.bitmap & (bit - 1));
+        if ( (n.bitmap & bit) == 0 ) {
+            Object slots[] = new Object[n.slots.length + 1];
+            System.arraycopy(n.slots, 0, slots, 0, i);
+            slots[i] = b;
+            System.arraycopy(n.slots, i, slots, i + 1, n.slots.length - i);
+            return new Node(n.bitmap | bit, slots);
+        }
+        Object o = n.slots[i];
+        Object slots[] = n.slots.clone();
+        if ( o instanceof Node )
+            slots[i] = put((Node) o, b, hash, shift + BITS);
+        else if ( ((Binding) o).name.equals(b.name) )
+            slots[i] = b;
+        else
+            slots[i] = pair((Binding) o, b, hash, shift + BITS);
+        return new Node(n.bitmap, slots);
+    }
+
+    /**
+     * A node at level shift holding two bindings of different names
+     */
+    private static Node pair(Binding a, Binding b, int hash, int shift) {
+        if ( shift >= 32 )
+            return new Node(0, new Object[] { a, b });
+        int ia = (a.name.hashCode() >>> shift) & 31;
+        int ib = (hash >>> shift) & 31;
+        if ( ia == ib )
+            return new Node(1 << ia, new Object[] { pair(a, b, hash, shift + BITS) });
+        return new Node((1 << ia) | (1 << ib),
+                        ia < ib ? new Object[] { a, b } : new Object[] { b, a });
+    }
+}
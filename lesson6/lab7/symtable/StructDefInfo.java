@@ -3,19 +3,30 @@ package symtable;
 /**
  * The StructDefInfo class is a subclass of the Sym class just for the 
  * definition of a struct type. 
- * Each StructDefInfo contains a symbol table to hold information about its 
+ * Each StructDefInfo contains a StructLayout to hold information about its 
  * fields.
  */
 public class StructDefInfo extends SymInfo {
     // new fields
-    private SymTable symTab;
+    private StructLayout layout;
+    private Type.StructType instanceType;
     
-    public StructDefInfo(SymTable table) {
-        super(new Type.StructDefType());
-        symTab = table;
+    public StructDefInfo(String name, StructLayout layout) {
+        super(Type.STRUCT_DEF);
+        this.layout = layout;
+        instanceType = new Type.StructType(name);
+        setSize(layout.size());
     }
 
-    public SymTable getSymTable() {
-        return symTab;
+    /**
+     * The type of the variables of this struct, the same object for all
+     * of them
+     */
+    public Type.StructType getInstanceType() {
+        return instanceType;
+    }
+
+    public StructLayout getLayout() {
+        return layout;
     }
 }
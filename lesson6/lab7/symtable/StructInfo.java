@@ -8,14 +8,29 @@ import ast.*;
  */
 public class StructInfo extends SymInfo {
     // new fields
-    private AST.IdNode structType;  // name of the struct type
+    private AST.IdNode structType;  // name of the struct type, linked to
+                                    // its StructDefInfo
     
+    private StructDefInfo structDef;
+
     public StructInfo(AST.IdNode id) {
-        super(new Type.StructType(id));
+        this((StructDefInfo) id.info());
         structType = id;
     }
 
+    /**
+     * For a variable whose struct type has no IdNode (FlatAST).
+     */
+    public StructInfo(StructDefInfo def) {
+        super(def.getInstanceType());
+        structDef = def;
+    }
+
     public AST.IdNode getStructType() {
         return structType;
-    }    
+    }
+
+    public StructDefInfo getStructDef() {
+        return structDef;
+    }
 }
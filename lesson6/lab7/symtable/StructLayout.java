@@ -0,0 +1,179 @@
+package symtable;
+
+import java.util.*;
+
+/**
+ * The fields of a struct definition, in the order they are declared:
+ * the name, symbol and offset of each, and the size and alignment of the
+ * whole struct.  A StructLayout is never changed once built.
+ *
+ * Field names are looked up through a perfect hash of their hashCode: a
+ * multiplier is picked at build time for which the top bits of
+ * hashCode * multiplier tell all the fields apart, so a lookup is one
+ * multiply, one slot and one String.equals.  Fields whose names have
+ * the same hashCode cannot be told apart that way, and then lookup
+ * scans the fields instead.
+ */
+public final class StructLayout {
+
+    /**
+     * Fields are the size of their symbol, which for a field of struct
+     * type is the size of that struct, and words are 4 bytes
+     */
+    public static final int ALIGN = 4;
+
+    private final String names[];
+    private final SymInfo fields[];
+    private final int offsets[];
+    private final int size;
+
+    private final int multiplier;
+    private final int shift;
+    private final int slots[];      // field index + 1, or 0; null to scan
+
+    private StructLayout(Builder b) {
+        int n = b.names.size();
+        names = b.names.toArray(new String[n]);
+        fields = b.fields.toArray(new SymInfo[n]);
+        offsets = Arrays.copyOf(b.offsets, n);
+        size = b.size;
+
+        // try a few table sizes from the least power of two >= n, and a
+        // few multipliers for each
+        int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(n - 1, 1)));
+        for ( ; bits <= 16; bits++ ) {
+            int table[] = new int[1 << bits];
+            for ( int k = 0; k < 32; k++ ) {
+                int mult = 0x9E3779B1 + 2 * k * 0x61C88647;
+                if ( place(table, mult, 32 - bits) ) {
+                    multiplier = mult;
+                    shift = 32 - bits;
+                    slots = table;
+                    return;
+                }
+                Arrays.fill(table, 0);
+            }
+        }
+        multiplier = 0;
+        shift = 0;
+        slots = null;
+    }
+
+    /**
+     * Puts every field in table at its slot for mult; false if two of
+     * them fall in the same slot
+     */
+    private boolean place(int table[], int mult, int shift) {
+        for ( int i = 0; i < names.length; i++ ) {
+            int s = (names[i].hashCode() * mult) >>> shift;
+            if ( table[s] != 0 )
+                return false;
+            table[s] = i + 1;
+        }
+        return true;
+    }
+
+    /**
+     * The index of the field called name, or -1
+     */
+    public int indexOf(String name) {
+        if ( slots != null ) {
+            int i = slots[(name.hashCode() * multiplier) >>> shift] - 1;
+            return i >= 0 && names[i].equals(name) ? i : -1;
+        }
+        for ( int i = 0; i < names.length; i++ ) {
+            if ( names[i].equals(name) )
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * The symbol of the field called name, or null
+     */
+    public SymInfo lookup(String name) {
+        int i = indexOf(name);
+        return i < 0 ? null : fields[i];
+    }
+
+    public int fieldCount() {
+        return names.length;
+    }
+
+    public String name(int i) {
+        return names[i];
+    }
+
+    public SymInfo field(int i) {
+        return fields[i];
+    }
+
+    public Type.AbstractType type(int i) {
+        return fields[i].getType();
+    }
+
+    /**
+     * The offset of field i from the start of the struct
+     */
+    public int offset(int i) {
+        return offsets[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int align() {
+        return ALIGN;
+    }
+
+    /**
+     * Collects the fields of a struct definition as name analysis goes
+     * through them
+     */
+    public static final class Builder {
+        private List<String> names = new ArrayList<String>();
+        private List<SymInfo> fields = new ArrayList<SymInfo>();
+        private Map<String,SymInfo> byName = new HashMap<String,SymInfo>();
+        private int offsets[] = new int[8];
+        private int size;
+
+        /**
+         * The field called name added so far, or null
+         */
+        public SymInfo lookup(String name) {
+            return byName.get(name);
+        }
+
+        /**
+         * Adds a field after the ones added so far, at the next offset,
+         * which is also set on sym
+         */
+        public void addField(String name, SymInfo sym) throws DuplicateSymException {
+            if ( name == null || sym == null )
+                throw new NullPointerException();
+            if ( byName.containsKey(name) )
+                throw new DuplicateSymException();
+            int i = names.size();
+            if ( i == offsets.length )
+                offsets = Arrays.copyOf(offsets, 2 * i);
+            offsets[i] = size;
+            sym.setOffset(size);
+            size += sym.getSize();
+            names.add(name);
+            fields.add(sym);
+            byName.put(name, sym);
+        }
+
+        /**
+         * The size of the fields added so far
+         */
+        public int size() {
+            return size;
+        }
+
+        public StructLayout build() {
+            return new StructLayout(this);
+        }
+    }
+}
@@ -4,17 +4,78 @@ import java.util.*;
 
 /**
  * A class for Symbol Table
+ *
+ * Kept LeBlanc-Cook style: one hash table maps each name to its visible
+ * binding, which links to the binding it shadows, and every binding is
+ * tagged with the depth of its scope.  The bindings are also logged in
+ * the order they are added; each scope starts at a mark in that log, and
+ * removeScope unwinds the log back to the mark, putting back what each
+ * binding shadowed.  So adding, looking up and dropping a name cost the
+ * same however deeply scopes are nested.
+ *
+ * A table may also start on a base, a PersistentSymTable whose names are
+ * part of the outermost scope, under the ones added to it: the globals
+ * declared before the declaration being analyzed, say.  What the names
+ * looked up there turn out to be can be recorded, see recordBaseReads.
  */
 public class SymTable {
 
-    private List<Map<String,SymInfo>> bindings;
+    /**
+     * A declaration, and the one of the same name it hides
+     */
+    private static final class Binding {
+        final String name;
+        final SymInfo sym;
+        final int depth;
+        final Binding shadowed;
+
+        Binding(String name, SymInfo sym, int depth, Binding shadowed) {
+            this.name = name;
+            this.sym = sym;
+            this.depth = depth;
+            this.shadowed = shadowed;
+        }
+    }
+
+    private Map<String,Binding> visible;
+    private List<Binding> log;
+    private int marks[];    // where in log each scope starts, outermost first
+    private int depth;      // number of scopes; 0 if empty
+    private PersistentSymTable base;    // under the outermost scope, or null
+    private Map<String,SymInfo> reads;  // found in base, or null
 
     /**
      * Create a Symbol Table with one empty scope
      */
     public SymTable() {
-        bindings = new ArrayList<Map<String,SymInfo>>();
-        bindings.add(new HashMap<String,SymInfo>());
+        visible = new HashMap<String,Binding>();
+        log = new ArrayList<Binding>();
+        marks = new int[8];
+        addScope();
+    }
+
+    /**
+     * Create a Symbol Table with one scope, which starts out holding the
+     * declarations of base
+     */
+    public SymTable(PersistentSymTable base) {
+        this();
+        this.base = base;
+    }
+
+    /**
+     * From now on, puts in reads what each name looked up in the base was
+     * found to be there, or null, the first time it is looked up
+     */
+    public void recordBaseReads(Map<String,SymInfo> reads) {
+        this.reads = reads;
+    }
+
+    private SymInfo fromBase(String name) {
+        SymInfo sym = base.lookupGlobal(name);
+        if ( reads != null && ! reads.containsKey(name) )
+            reads.put(name, sym);
+        return sym;
     }
 
     /**
@@ -23,60 +84,103 @@ public class SymTable {
     public void addDecl(String name, SymInfo sym) throws DuplicateSymException, EmptySymTableException {
         if ( name == null || sym == null )
             throw new NullPointerException();
-        if ( bindings.isEmpty() )
+        if ( depth == 0 )
             throw new EmptySymTableException();
-        Map<String,SymInfo> map = bindings.get(0);
-        if ( map.get(name) != null )
+        Binding b = visible.get(name);
+        if ( b != null && b.depth == depth )
+            throw new DuplicateSymException();
+        if ( b == null && depth == 1 && base != null && fromBase(name) != null )
             throw new DuplicateSymException();
-        map.put(name, sym);
+        b = new Binding(name, sym, depth, b);
+        visible.put(name, b);
+        log.add(b);
     }
 
     /**
      * Add a new inner scope
      */
     public void addScope() {
-        bindings.add(0, new HashMap<String,SymInfo>());
+        if ( depth == marks.length )
+            marks = Arrays.copyOf(marks, 2 * depth);
+        marks[depth++] = log.size();
     }
 
     /**
      * Lookup for 'name' in the inner scope
      */
     public SymInfo lookupLocal(String name) throws EmptySymTableException {
-        if ( bindings.isEmpty() )
+        if ( depth == 0 )
             throw new EmptySymTableException();
-        return bindings.get(0).get(name);
+        Binding b = visible.get(name);
+        if ( b != null && b.depth == depth )
+            return b.sym;
+        return depth == 1 && base != null ? fromBase(name) : null;
     }
 
     /**
-     * Lookup for 'name' sequentially in all scopes from inner to outer
+     * Lookup for 'name' in all scopes from inner to outer
      */
     public SymInfo lookupGlobal(String name)  throws EmptySymTableException {
-        if ( bindings.isEmpty() )
+        if ( depth == 0 )
             throw new EmptySymTableException();
-        for ( Map<String,SymInfo> map : bindings )  {
-            SymInfo sym = map.get(name);
-            if ( sym != null )
-                return sym;
-        }
-        return null;
+        Binding b = visible.get(name);
+        if ( b != null )
+            return b.sym;
+        return base != null ? fromBase(name) : null;
     }
 
     /**
      * Remove the inner scope
      */
     public void removeScope() throws EmptySymTableException {
-        if ( bindings.isEmpty() )
+        if ( depth == 0 )
             throw new EmptySymTableException();
-        bindings.remove(0);
+        int mark = marks[--depth];
+        for ( int i = log.size() - 1; i >= mark; i-- ) {
+            Binding b = log.remove(i);
+            if ( b.shadowed == null )
+                visible.remove(b.name);
+            else
+                visible.put(b.name, b.shadowed);
+        }
     }
 
     /**
-     * Print the Symbol Table on System.out
+     * The Symbol Table as it is now, with the same scopes, as a
+     * PersistentSymTable
+     */
+    public PersistentSymTable snapshot() {
+        PersistentSymTable t = base != null ? base : new PersistentSymTable().removeScope();
+        int i = 0;
+        for ( int d = 1; d <= depth; d++ ) {
+            if ( d > 1 || base == null )
+                t = t.addScope();
+            int end = d == depth ? log.size() : marks[d];
+            for ( ; i < end; i++ )
+                t = t.addDecl(log.get(i).name, log.get(i).sym);
+        }
+        return t;
+    }
+
+    /**
+     * Print the Symbol Table on System.out, a map per scope from inner to
+     * outer
      */
     public void print() {
+        if ( base != null ) {
+            snapshot().print();
+            return;
+        }
         System.out.print("\nSym Table\n");
-        for ( Map<String,SymInfo> map : bindings )
+        for ( int d = depth; d > 0; d-- ) {
+            // the same HashMap, built in the same order, as a table of
+            // one map per scope would hold
+            Map<String,SymInfo> map = new HashMap<String,SymInfo>();
+            int end = d == depth ? log.size() : marks[d];
+            for ( int i = marks[d - 1]; i < end; i++ )
+                map.put(log.get(i).name, log.get(i).sym);
             System.out.println(map);
+        }
         System.out.println();
     }
 }
@@ -1,58 +1,77 @@
 package symtable;
-import ast.*;
 
 public class Type {
  /**
- * AbstractType class and its subclasses: 
+ * AbstractType class and its subclasses:
  * ErrorType, IntType, BoolType, VoidType, StringType, FnType, StructType,
+ * StructDefType
+ *
+ * There is one object for each type: the constants below, and one
+ * StructType per struct definition, made by its StructDefInfo.  So types
+ * are compared by reference, and type checking never allocates a type.
  */
+public static final AbstractType ERROR = new ErrorType();
+public static final AbstractType INT = new IntType();
+public static final AbstractType BOOL = new BoolType();
+public static final AbstractType VOID = new VoidType();
+public static final AbstractType STRING = new StringType();
+public static final AbstractType FN = new FnType();
+public static final AbstractType STRUCT_DEF = new StructDefType();
+
 public static abstract class AbstractType {
 
     /**
-     * default constructor
+     * only the types above are made
      */
-    public AbstractType() {
+    AbstractType() {
     }
 
     /**
-     * every subclass must provide a toString method and an equals method
+     * every subclass must provide a toString method
      */
     abstract public String toString();
-    abstract public boolean equals(AbstractType t);
 
     /**
-     * default methods for "isXXXType"
+     * the same type; variables of two struct types match as they always
+     * have, since assigning or comparing them is an error of its own
      */
-    public boolean isErrorType() {
-        return false;
+    public final boolean equals(AbstractType t) {
+        return this == t || this instanceof StructType && t instanceof StructType;
     }
 
-    public boolean isIntType() {
-        return false;
+    /**
+     * "isXXXType"
+     */
+    public final boolean isErrorType() {
+        return this == ERROR;
     }
 
-    public boolean isBoolType() {
-        return false;
+    public final boolean isIntType() {
+        return this == INT;
     }
 
-    public boolean isVoidType() {
-        return false;
+    public final boolean isBoolType() {
+        return this == BOOL;
     }
-    
-    public boolean isStringType() {
-        return false;
+
+    public final boolean isVoidType() {
+        return this == VOID;
     }
 
-    public boolean isFnType() {
-        return false;
+    public final boolean isStringType() {
+        return this == STRING;
     }
 
-    public boolean isStructType() {
-        return false;
+    public final boolean isFnType() {
+        return this == FN;
     }
-    
-    public boolean isStructDefType() {
-        return false;
+
+    public final boolean isStructType() {
+        return this instanceof StructType;
+    }
+
+    public final boolean isStructDefType() {
+        return this == STRUCT_DEF;
     }
 }
 
@@ -61,12 +80,7 @@ public static abstract class AbstractType {
 // **********************************************************************
 public static class ErrorType extends AbstractType {
 
-    public boolean isErrorType() {
-        return true;
-    }
-
-    public boolean equals(AbstractType t) {
-        return t.isErrorType();
+    private ErrorType() {
     }
 
     public String toString() {
@@ -79,12 +93,7 @@ public static class ErrorType extends AbstractType {
 // **********************************************************************
 public static class IntType extends AbstractType {
 
-    public boolean isIntType() {
-        return true;
-    }
-
-    public boolean equals(AbstractType t) {
-        return t.isIntType();
+    private IntType() {
     }
 
     public String toString() {
@@ -97,12 +106,7 @@ public static class IntType extends AbstractType {
 // **********************************************************************
 public static class BoolType extends AbstractType {
 
-    public boolean isBoolType() {
-        return true;
-    }
-
-    public boolean equals(AbstractType t) {
-        return t.isBoolType();
+    private BoolType() {
     }
 
     public String toString() {
@@ -115,12 +119,7 @@ public static class BoolType extends AbstractType {
 // **********************************************************************
 public static class VoidType extends AbstractType {
 
-    public boolean isVoidType() {
-        return true;
-    }
-
-    public boolean equals(AbstractType t) {
-        return t.isVoidType();
+    private VoidType() {
     }
 
     public String toString() {
@@ -133,12 +132,7 @@ public static class VoidType extends AbstractType {
 // **********************************************************************
 public static class StringType extends AbstractType {
 
-    public boolean isStringType() {
-        return true;
-    }
-
-    public boolean equals(AbstractType t) {
-        return t.isStringType();
+    private StringType() {
     }
 
     public String toString() {
@@ -151,12 +145,7 @@ public static class StringType extends AbstractType {
 // **********************************************************************
 public static class FnType extends AbstractType {
 
-    public boolean isFnType() {
-        return true;
-    }
-
-    public boolean equals(AbstractType t) {
-        return t.isFnType();
+    private FnType() {
     }
 
     public String toString() {
@@ -168,23 +157,19 @@ public static class FnType extends AbstractType {
 // StructType
 // **********************************************************************
 public static class StructType extends AbstractType {
-    
-    private AST.IdNode myId;
-    
-    public StructType(AST.IdNode id) {
-        myId = id;
-    }
-    
-    public boolean isStructType() {
-        return true;
-    }
 
-    public boolean equals(AbstractType t) {
-        return t.isStructType();
+    private String myName;
+
+    /**
+     * the type of the variables of one struct definition, see
+     * StructDefInfo
+     */
+    StructType(String name) {
+        myName = name;
     }
 
     public String toString() {
-        return myId.name();
+        return myName;
     }
 }
 
@@ -193,16 +178,11 @@ public static class StructType extends AbstractType {
 // **********************************************************************
 public static class StructDefType extends AbstractType {
 
-    public boolean isStructDefType() {
-        return true;
-    }
-
-    public boolean equals(AbstractType t) {
-        return t.isStructDefType();
+    private StructDefType() {
     }
 
     public String toString() {
         return "struct";
     }
 }
-}
\ No newline at end of file
+}